@@ -0,0 +1,200 @@
+package com.microsoft.appcenter.analytics;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.analytics.ingestion.models.PageLog;
+import com.microsoft.appcenter.analytics.ingestion.models.json.EventLogFactory;
+import com.microsoft.appcenter.analytics.ingestion.models.json.PageLogFactory;
+import com.microsoft.appcenter.analytics.ingestion.models.one.CommonSchemaEventLog;
+import com.microsoft.appcenter.analytics.ingestion.models.one.json.CommonSchemaEventLogFactory;
+import com.microsoft.appcenter.http.CompressionPolicy;
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.properties.BooleanTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.DoubleTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.LongTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+import com.microsoft.appcenter.utils.UUIDUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CPU time and size of request bodies compressed with the gzip levels of {@link CompressionPolicy},
+ * for batches of Analytics logs sent to App Center and Common Schema logs sent to One Collector.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class CompressionBenchmarkAndroidTest {
+
+    private static final int BATCH_SIZE = 50;
+
+    private static final int WARM_UP = 20;
+
+    private static final int ITERATIONS = 200;
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final int[] LEVELS = {Deflater.BEST_SPEED, 3, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION};
+
+    private static final String TRANSMISSION_TARGET_TOKEN = "4dacd24d0ccf4e4a8ab9b5ee7a5b4e03-0ed3e9f5-1e9e-4ff0-a52c-0f9c1b1f2d1a-7113";
+
+    private static final String[] EVENT_NAMES = {"Video clicked", "Checkout started", "Item added to cart", "Search", "Settings changed"};
+
+    private static List<Log> generateLogs() {
+        Device device = new Device();
+        device.setSdkName("appcenter.android");
+        device.setSdkVersion("1.11.3");
+        device.setModel("SM-J200H");
+        device.setOemName("samsung");
+        device.setOsName("Android");
+        device.setOsVersion("5.1.1");
+        device.setOsBuild("LMY47X");
+        device.setOsApiLevel(22);
+        device.setLocale("en_US");
+        device.setTimeZoneOffset(-420);
+        device.setScreenSize("480x800");
+        device.setAppVersion("3.2.1");
+        device.setAppBuild("42");
+        device.setAppNamespace("com.contoso.shop");
+        device.setCarrierName("Contoso Mobile");
+        device.setCarrierCountry("us");
+        UUID sid = UUIDUtils.randomUUID();
+        long timestamp = System.currentTimeMillis();
+        List<Log> logs = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Log log;
+            if (i % 10 == 0) {
+                PageLog pageLog = new PageLog();
+                pageLog.setName("Page" + i % 3);
+                Map<String, String> properties = new HashMap<>();
+                properties.put("from", "home_menu");
+                pageLog.setProperties(properties);
+                log = pageLog;
+            } else {
+                List<TypedProperty> properties = new ArrayList<>();
+                StringTypedProperty stringProperty = new StringTypedProperty();
+                stringProperty.setName("category");
+                stringProperty.setValue("category" + i % 4);
+                properties.add(stringProperty);
+                StringTypedProperty idProperty = new StringTypedProperty();
+                idProperty.setName("itemId");
+                idProperty.setValue(UUIDUtils.randomUUID().toString());
+                properties.add(idProperty);
+                DoubleTypedProperty doubleProperty = new DoubleTypedProperty();
+                doubleProperty.setName("price");
+                doubleProperty.setValue(9.99 * i);
+                properties.add(doubleProperty);
+                LongTypedProperty longProperty = new LongTypedProperty();
+                longProperty.setName("quantity");
+                longProperty.setValue(i % 5 + 1);
+                properties.add(longProperty);
+                BooleanTypedProperty booleanProperty = new BooleanTypedProperty();
+                booleanProperty.setName("firstVisit");
+                booleanProperty.setValue(i == 1);
+                properties.add(booleanProperty);
+                EventLog eventLog = new EventLog();
+                eventLog.setId(UUIDUtils.randomUUID());
+                eventLog.setName(EVENT_NAMES[i % EVENT_NAMES.length]);
+                eventLog.setTypedProperties(properties);
+                log = eventLog;
+            }
+            log.setTimestamp(new Date(timestamp + i * 1337L));
+            log.setSid(sid);
+            log.setDevice(device);
+            log.addTransmissionTarget(TRANSMISSION_TARGET_TOKEN);
+            logs.add(log);
+        }
+        return logs;
+    }
+
+    private static LogSerializer createLogSerializer() {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(EventLog.TYPE, new EventLogFactory());
+        logSerializer.addLogFactory(PageLog.TYPE, new PageLogFactory());
+        logSerializer.addLogFactory(CommonSchemaEventLog.TYPE, new CommonSchemaEventLogFactory());
+        return logSerializer;
+    }
+
+    /**
+     * Serialize a batch as App Center ingestion does.
+     */
+    private static byte[] serializeAnalyticsBatch(LogSerializer logSerializer, List<Log> logs) throws Exception {
+        LogContainer logContainer = new LogContainer();
+        logContainer.setLogs(logs);
+        return logSerializer.serializeContainer(logContainer).getBytes("UTF-8");
+    }
+
+    /**
+     * Serialize a batch as One Collector ingestion does.
+     */
+    private static byte[] serializeCommonSchemaBatch(LogSerializer logSerializer, List<Log> logs) throws Exception {
+        EventLogFactory eventLogFactory = new EventLogFactory();
+        StringBuilder payload = new StringBuilder();
+        for (Log log : logs) {
+            if (log instanceof EventLog) {
+                for (CommonSchemaLog commonSchemaLog : eventLogFactory.toCommonSchemaLogs(log)) {
+                    payload.append(logSerializer.serializeLog(commonSchemaLog)).append('\n');
+                }
+            }
+        }
+        return payload.toString().getBytes("UTF-8");
+    }
+
+    private static int compress(byte[] payload, int level) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(payload.length);
+        OutputStream outputStream = CompressionPolicy.GZIP.compress(buffer, BUFFER_SIZE, level);
+        outputStream.write(payload);
+        outputStream.close();
+        return buffer.size();
+    }
+
+    private static void run(String name, byte[] payload) throws Exception {
+        for (int level : LEVELS) {
+            for (int i = 0; i < WARM_UP; i++) {
+                compress(payload, level);
+            }
+            int compressedLength = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                compressedLength = compress(payload, level);
+            }
+            long time = (System.nanoTime() - start) / ITERATIONS;
+            android.util.Log.i("Benchmark", "Compression." + name + " level=" + level +
+                    " length=" + payload.length + "B compressed=" + compressedLength + "B" +
+                    " ratio=" + String.format(Locale.US, "%.3f", (double) compressedLength / payload.length) +
+                    " time=" + time / 1000 + "us/op");
+            assertTrue(compressedLength < payload.length);
+        }
+    }
+
+    @Test
+    public void analyticsBatch() throws Exception {
+        run("analytics", serializeAnalyticsBatch(createLogSerializer(), generateLogs()));
+    }
+
+    @Test
+    public void commonSchemaBatch() throws Exception {
+        run("commonSchema", serializeCommonSchemaBatch(createLogSerializer(), generateLogs()));
+    }
+}
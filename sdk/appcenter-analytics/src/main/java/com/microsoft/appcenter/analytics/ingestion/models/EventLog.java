@@ -1,12 +1,12 @@
 package com.microsoft.appcenter.analytics.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.List;
 import java.util.UUID;
@@ -81,7 +81,7 @@ public class EventLog extends LogWithNameAndProperties {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         writer.key(ID).value(getId());
         JSONUtils.writeArray(writer, TYPED_PROPERTIES, getTypedProperties());
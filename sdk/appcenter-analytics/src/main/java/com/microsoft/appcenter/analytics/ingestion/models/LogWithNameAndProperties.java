@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.analytics.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.LogWithProperties;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.NAME;
 
@@ -40,7 +40,7 @@ public abstract class LogWithNameAndProperties extends LogWithProperties {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         writer.key(NAME).value(getName());
     }
@@ -0,0 +1,148 @@
+package com.microsoft.appcenter.crashes;
+
+import android.annotation.SuppressLint;
+import android.app.Application;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AppCenter;
+import com.microsoft.appcenter.AppCenterPrivateHelper;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.channel.Channel;
+import com.microsoft.appcenter.crashes.utils.ErrorLogHelper;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures time from an uncaught exception to the error log being durable on disk,
+ * while the App Center handler thread is kept busy.
+ * <p>
+ * Runs 20 crashes by default, pass for example {@code -e crashCaptureBenchmarkCount 100}
+ * to the instrumentation to change it.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class CrashCaptureBenchmarkAndroidTest {
+
+    /**
+     * Crash handling must complete while the App Center handler thread is blocked, well within this delay.
+     */
+    private static final long TIMEOUT = 5000;
+
+    @SuppressLint("StaticFieldLeak")
+    private static Application sApplication;
+
+    private static Thread.UncaughtExceptionHandler sDefaultCrashHandler;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sDefaultCrashHandler = Thread.getDefaultUncaughtExceptionHandler();
+        sApplication = (Application) InstrumentationRegistry.getContext().getApplicationContext();
+        FileManager.initialize(sApplication);
+        SharedPreferencesManager.initialize(sApplication);
+        Constants.loadFromContext(sApplication);
+    }
+
+    private static void deleteErrorLogFiles() {
+        for (File file : ErrorLogHelper.getErrorStorageDirectory().listFiles()) {
+            if (file.isFile()) {
+                assertTrue(file.delete());
+            }
+        }
+        ErrorLogHelper.clearErrorLogIndex();
+    }
+
+    @After
+    public void tearDown() {
+        Thread.setDefaultUncaughtExceptionHandler(sDefaultCrashHandler);
+        deleteErrorLogFiles();
+    }
+
+    @Test
+    public void crashToDurableFile() throws Exception {
+        int count = Integer.parseInt(InstrumentationRegistry.getArguments().getString("crashCaptureBenchmarkCount", "20"));
+        long[] latencies = new long[count];
+        for (int i = 0; i < count; i++) {
+            deleteErrorLogFiles();
+
+            /* Crash handler called after ours, so once the file is written. */
+            final long[] savedTime = new long[1];
+            Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    savedTime[0] = System.nanoTime();
+                }
+            });
+
+            /* Start a new process equivalent with a channel that blocks the App Center handler thread. */
+            final CountDownLatch handlerBlocked = new CountDownLatch(1);
+            final CountDownLatch releaseHandler = new CountDownLatch(1);
+            Channel channel = mock(Channel.class);
+            doAnswer(new Answer<Void>() {
+
+                @Override
+                public Void answer(InvocationOnMock invocation) throws Throwable {
+                    handlerBlocked.countDown();
+                    releaseHandler.await();
+                    return null;
+                }
+            }).when(channel).enqueue(any(Log.class), anyString(), anyInt());
+            AppCenterPrivateHelper.unsetInstance();
+            Crashes.unsetInstance();
+            AppCenter.configure(sApplication, "a");
+            AppCenter.getInstance().setChannel(channel);
+            AppCenter.start(Crashes.class);
+            assertTrue(Crashes.isEnabled().get());
+            Crashes.trackException(new IllegalStateException("keep handler busy"));
+            assertTrue(handlerBlocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+            /* Crash. */
+            final RuntimeException exception = new IllegalArgumentException("benchmark");
+            final long[] crashTime = new long[1];
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    crashTime[0] = System.nanoTime();
+                    throw exception;
+                }
+            };
+            thread.start();
+            thread.join(TIMEOUT);
+            releaseHandler.countDown();
+
+            /* Check the file was written without waiting for the handler. */
+            assertTrue("Crash handling waited for App Center handler thread", savedTime[0] > 0);
+            assertEquals(1, ErrorLogHelper.getStoredErrorLogFiles().length);
+            latencies[i] = savedTime[0] - crashTime[0];
+        }
+        Arrays.sort(latencies);
+        android.util.Log.i("Benchmark", "Crash to durable file count=" + count +
+                " min=" + TimeUnit.NANOSECONDS.toMicros(latencies[0]) + "us" +
+                " median=" + TimeUnit.NANOSECONDS.toMicros(latencies[count / 2]) + "us" +
+                " max=" + TimeUnit.NANOSECONDS.toMicros(latencies[count - 1]) + "us");
+    }
+}
@@ -80,12 +80,12 @@ public class CrashesAndroidTest {
 
     private Channel mChannel;
 
-    /* Filter out the minidump folder. */
+    /* Filter out the minidump folder and the error log index. */
     private FileFilter mMinidumpFilter = new FileFilter() {
 
         @Override
         public boolean accept(File file) {
-            return !file.isDirectory();
+            return !file.isDirectory() && !file.getName().startsWith(ErrorLogHelper.ERROR_LOG_INDEX_FILE);
         }
     };
 
@@ -102,6 +102,7 @@ public class CrashesAndroidTest {
     public void setUp() {
         Thread.setDefaultUncaughtExceptionHandler(sDefaultCrashHandler);
         SharedPreferencesManager.clear();
+        ErrorLogHelper.removeAttachmentFiles();
         for (File logFile : ErrorLogHelper.getErrorStorageDirectory().listFiles()) {
             if (logFile.isDirectory()) {
                 for (File dumpDir : logFile.listFiles()) {
@@ -113,6 +114,7 @@ public class CrashesAndroidTest {
                 assertTrue(logFile.delete());
             }
         }
+        ErrorLogHelper.clearErrorLogIndex();
         mChannel = mock(Channel.class);
     }
 
@@ -293,8 +295,17 @@ public class CrashesAndroidTest {
         new FileWriter(invalidFile2).append("fake_data").close();
         assertEquals(2, ErrorLogHelper.getStoredErrorLogFiles().length);
 
-        /* Invalid files should be cleared. */
+        /* Invalid files should be cleared when trying to send them. */
         startFresh(null);
+        final Semaphore semaphore = new Semaphore(0);
+        HandlerUtils.runOnUiThread(new Runnable() {
+
+            @Override
+            public void run() {
+                semaphore.release();
+            }
+        });
+        semaphore.acquire();
         assertTrue(Crashes.isEnabled().get());
         assertEquals(0, ErrorLogHelper.getStoredErrorLogFiles().length);
     }
@@ -433,9 +444,12 @@ public class CrashesAndroidTest {
         when(crashesListener.getErrorAttachments(any(ErrorReport.class))).thenReturn(Collections.singletonList(textAttachment));
         startFresh(crashesListener);
 
-        /* Check last session error report. */
+        /* Known before the minidump is converted in background. */
         assertTrue(Crashes.hasCrashedInLastSession().get());
 
+        /* Check last session error report, available once the minidump is converted. */
+        assertNotNull(Crashes.getLastSessionCrashReport().get());
+
         /* Wait U.I. thread callback (shouldAwaitUserConfirmation). */
         final Semaphore semaphore = new Semaphore(0);
         HandlerUtils.runOnUiThread(new Runnable() {
@@ -472,14 +486,21 @@ public class CrashesAndroidTest {
             public boolean matches(Object argument) {
                 if (argument instanceof ErrorAttachmentLog) {
                     ErrorAttachmentLog log = (ErrorAttachmentLog) argument;
-                    return "application/octet-stream".equals(log.getContentType()) && "minidump.dmp".equals(log.getFileName());
+                    return "application/octet-stream".equals(log.getContentType()) && "minidump.dmp".equals(log.getFileName())
+                            && log.getData() == null && log.getDataFile() != null;
                 }
                 return false;
             }
         }), anyString(), eq(DEFAULTS));
 
-        /* Verify custom text attachment. */
+        /* Verify custom text attachment, restored after its data was stored in a file. */
         verify(mChannel).enqueue(eq(textAttachment), anyString(), eq(DEFAULTS));
+        assertNotNull(textAttachment.getData());
+        assertNull(textAttachment.getDataFile());
+
+        /* Minidump moved along the text attachment data file. */
+        assertEquals(2, ErrorLogHelper.getAttachmentDirectory().listFiles().length);
+        assertEquals(0, ErrorLogHelper.getPendingMinidumpDirectory().listFiles().length);
     }
 
     @Test
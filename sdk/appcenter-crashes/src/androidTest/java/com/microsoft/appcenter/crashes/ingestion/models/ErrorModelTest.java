@@ -4,25 +4,38 @@ import com.microsoft.appcenter.crashes.ingestion.models.json.ErrorAttachmentLogF
 import com.microsoft.appcenter.crashes.ingestion.models.json.HandledErrorLogFactory;
 import com.microsoft.appcenter.crashes.ingestion.models.json.ManagedErrorLogFactory;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
 import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.JSONStringerWriter;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.UUID;
 
 import static com.microsoft.appcenter.crashes.ingestion.models.ErrorAttachmentLog.CHARSET;
 import static com.microsoft.appcenter.crashes.ingestion.models.ErrorAttachmentLog.DATA;
+import static com.microsoft.appcenter.crashes.ingestion.models.ErrorAttachmentLog.DATA_FILE;
 import static com.microsoft.appcenter.test.TestUtils.checkEquals;
 import static com.microsoft.appcenter.test.TestUtils.checkNotEquals;
 import static com.microsoft.appcenter.test.TestUtils.compareSelfNullClass;
 import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @SuppressWarnings("unused")
@@ -461,6 +474,102 @@ public class ErrorModelTest {
         checkSerialization(errorLog1, serializer);
     }
 
+    private static void checkDeserializationFails(String payload, LogSerializer serializer) {
+        try {
+            serializer.deserializeLog(payload, null);
+            fail();
+        } catch (JSONException ignored) {
+        }
+    }
+
+    private static StackFrame newFrame(String className, String methodName, String fileName, Integer lineNumber) {
+        StackFrame frame = new StackFrame();
+        frame.setClassName(className);
+        frame.setMethodName(methodName);
+        frame.setFileName(fileName);
+        frame.setLineNumber(lineNumber);
+        return frame;
+    }
+
+    @Test
+    public void compactFrames() throws JSONException {
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(ManagedErrorLog.TYPE, ManagedErrorLogFactory.getInstance());
+
+        /* Create a log with frames repeated across exceptions and threads. */
+        StackFrame loop = newFrame("android.os.Looper", "loop", "Looper.java", 193);
+        StackFrame main = newFrame("android.app.ActivityThread", "main", "ActivityThread.java", 6669);
+        StackFrame crash = newFrame("com.contoso.MainActivity", "onClick", null, null);
+        Exception innerException = new Exception();
+        innerException.setType("java.lang.IllegalStateException");
+        innerException.setFrames(Arrays.asList(crash, loop, main));
+        Exception exception = new Exception();
+        exception.setType("java.lang.RuntimeException");
+        exception.setFrames(Arrays.asList(newFrame("com.contoso.MainActivity", "onClick", null, null), loop, main));
+        exception.setInnerExceptions(singletonList(innerException));
+        Thread thread1 = new Thread();
+        thread1.setId(1);
+        thread1.setFrames(Arrays.asList(loop, main));
+        Thread thread2 = new Thread();
+        thread2.setId(2);
+        thread2.setFrames(Collections.<StackFrame>emptyList());
+        Thread thread3 = new Thread();
+        thread3.setId(3);
+        ManagedErrorLog errorLog = new ManagedErrorLog();
+        errorLog.setTimestamp(new Date());
+        errorLog.setAppLaunchTimestamp(new Date());
+        errorLog.setId(UUID.randomUUID());
+        errorLog.setProcessId(1);
+        errorLog.setProcessName("com.contoso");
+        errorLog.setFatal(true);
+        errorLog.setException(exception);
+        errorLog.setThreads(Arrays.asList(thread1, thread2, thread3));
+        String payload = serializer.serializeLog(errorLog);
+
+        /* Compact and check distinct frames and strings are stored once. */
+        errorLog.compactFrames();
+        assertEquals(3, errorLog.getFrameTable().size());
+        assertNull(exception.getFrames());
+        assertEquals(Arrays.asList(0, 1, 2), exception.getFrameIndexes());
+        assertEquals(Arrays.asList(0, 1, 2), innerException.getFrameIndexes());
+        assertEquals(Arrays.asList(1, 2), thread1.getFrameIndexes());
+        assertEquals(Collections.<Integer>emptyList(), thread2.getFrameIndexes());
+        assertNull(thread3.getFrameIndexes());
+        String compactPayload = serializer.serializeLog(errorLog);
+        assertTrue(compactPayload.length() < payload.length());
+        assertEquals(1, compactPayload.split("\"android.os.Looper\"", -1).length - 1);
+
+        /* Compacting twice has no effect. */
+        errorLog.compactFrames();
+        assertEquals(compactPayload, serializer.serializeLog(errorLog));
+
+        /* Read and expand back to the original payload. */
+        ManagedErrorLog readLog = (ManagedErrorLog) serializer.deserializeLog(compactPayload, null);
+        checkEquals(errorLog, readLog);
+        readLog.expandFrames();
+        assertNull(readLog.getFrameTable());
+        assertEquals(payload, serializer.serializeLog(readLog));
+        assertSame(readLog.getException().getFrames().get(1), readLog.getThreads().get(0).getFrames().get(0));
+
+        /* Expanding twice or a log that was never compacted has no effect. */
+        readLog.expandFrames();
+        assertEquals(payload, serializer.serializeLog(readLog));
+
+        /* Invalid indexes. */
+        JSONObject jLog = new JSONObject(compactPayload);
+        jLog.getJSONArray("threads").getJSONObject(0).put("frameIndexes", new JSONArray("[3]"));
+        checkDeserializationFails(jLog.toString(), serializer);
+        jLog = new JSONObject(compactPayload);
+        jLog.getJSONObject("exception").put("frameIndexes", new JSONArray("[-1]"));
+        checkDeserializationFails(jLog.toString(), serializer);
+        jLog = new JSONObject(compactPayload);
+        jLog.getJSONObject("frameTable").put("frames", new JSONArray("[0, 1]"));
+        checkDeserializationFails(jLog.toString(), serializer);
+        jLog = new JSONObject(compactPayload);
+        jLog.getJSONObject("frameTable").put("frames", new JSONArray("[0, 1, 42, 1]"));
+        checkDeserializationFails(jLog.toString(), serializer);
+    }
+
     @Test
     public void handledErrorLog() throws JSONException {
         LogSerializer serializer = new DefaultLogSerializer();
@@ -591,6 +700,42 @@ public class ErrorModelTest {
         }
     }
 
+    @Test
+    public void errorAttachmentLogDataFile() throws JSONException, IOException {
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(ErrorAttachmentLog.TYPE, ErrorAttachmentLogFactory.getInstance());
+        byte[] data = "Hello file".getBytes(CHARSET);
+        File file = File.createTempFile("attachment", null);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(file);
+            outputStream.write(data);
+            outputStream.close();
+            ErrorAttachmentLog log = ErrorAttachmentLog.attachmentWithBinary(null, "file.txt", "text/plain");
+            log.setTimestamp(new Date());
+            log.setId(UUID.randomUUID());
+            log.setErrorId(UUID.randomUUID());
+            log.setDataFile(file);
+            checkNotEquals(log, ErrorAttachmentLog.attachmentWithBinary(null, "file.txt", "text/plain"));
+
+            /* Only the file path is stored. */
+            String payload = serializer.serializeLog(log);
+            JSONObject json = new JSONObject(payload);
+            assertFalse(json.has(DATA));
+            assertEquals(file.getPath(), json.getString(DATA_FILE));
+            checkEquals(log, serializer.deserializeLog(payload, null));
+
+            /* Data is read from the file when sending. */
+            LogContainer container = new LogContainer();
+            container.setLogs(Collections.<Log>singletonList(log));
+            payload = serializer.serializeContainer(container);
+            ErrorAttachmentLog sentLog = (ErrorAttachmentLog) serializer.deserializeContainer(payload, null).getLogs().get(0);
+            assertArrayEquals(data, sentLog.getData());
+            assertNull(sentLog.getDataFile());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
     @Test
     public void deserializeInvalidBase64forErrorAttachment() throws JSONException {
         ErrorAttachmentLog log = new ErrorAttachmentLog();
@@ -599,7 +744,7 @@ public class ErrorModelTest {
         log.setErrorId(UUID.randomUUID());
         log.setData(new byte[0]);
         log.setContentType("text/plain");
-        JSONStringer jsonWriter = new JSONStringer();
+        JSONStringerWriter jsonWriter = new JSONStringerWriter();
         jsonWriter.object();
         log.write(jsonWriter);
         jsonWriter.endObject();
@@ -39,6 +39,7 @@ public class ErrorLogHelperAndroidTest {
                 file.delete();
             }
         }
+        ErrorLogHelper.clearErrorLogIndex();
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
@@ -51,6 +52,7 @@ public class ErrorLogHelperAndroidTest {
             }
         }
         mErrorDirectory.delete();
+        ErrorLogHelper.clearErrorLogIndex();
     }
 
     @Test
@@ -82,6 +84,9 @@ public class ErrorLogHelperAndroidTest {
             Thread.sleep(1000);
         }
 
+        /* Index files written without the index. */
+        ErrorLogHelper.clearErrorLogIndex();
+
         assertEquals(testFiles[2], ErrorLogHelper.getLastErrorLogFile());
 
         testFiles[3] = new File(mErrorDirectory, new UUID(0, 3).toString() + ErrorLogHelper.THROWABLE_FILE_EXTENSION);
@@ -0,0 +1,133 @@
+package com.microsoft.appcenter.crashes.utils;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
+import com.microsoft.appcenter.crashes.model.ErrorReport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the cost of the throwables of pending reports between Java serialization used by
+ * previous versions and the compact encoding, which is only decoded when the throwable is accessed.
+ * <p>
+ * Runs 50 reports by default, pass for example {@code -e pendingReportsBenchmarkCount 200}
+ * to the instrumentation to change it.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class PendingReportsBenchmarkAndroidTest {
+
+    /**
+     * Causes of each crash.
+     */
+    private static final int CAUSE_COUNT = 4;
+
+    /**
+     * Extra stack depth of each crash.
+     */
+    private static final int DEPTH = 60;
+
+    private static Throwable generateCrash(int index) {
+        try {
+            recurse(index, DEPTH);
+        } catch (RuntimeException e) {
+            return e;
+        }
+        throw new AssertionError();
+    }
+
+    private static void recurse(int index, int depth) {
+        if (depth > 0) {
+            recurse(index, depth - 1);
+            return;
+        }
+        Throwable cause = null;
+        for (int i = 0; i < CAUSE_COUNT; i++) {
+            cause = new IllegalStateException("crash " + index + " cause " + i, cause);
+        }
+        throw new RuntimeException("crash " + index, cause);
+    }
+
+    private static ManagedErrorLog createLog() {
+        ManagedErrorLog log = new ManagedErrorLog();
+        log.setId(UUID.randomUUID());
+        log.setTimestamp(new Date());
+        log.setAppLaunchTimestamp(new Date());
+        return log;
+    }
+
+    @Test
+    public void pendingReports() throws Exception {
+        int count = Integer.parseInt(InstrumentationRegistry.getArguments().getString("pendingReportsBenchmarkCount", "50"));
+        ManagedErrorLog[] logs = new ManagedErrorLog[count];
+        byte[][] serialized = new byte[count][];
+        byte[][] encoded = new byte[count][];
+        long serializedSize = 0;
+        long encodedSize = 0;
+        for (int i = 0; i < count; i++) {
+            Throwable throwable = generateCrash(i);
+            logs[i] = createLog();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(buffer);
+            objectOutputStream.writeObject(throwable);
+            objectOutputStream.close();
+            serialized[i] = buffer.toByteArray();
+            serializedSize += serialized[i].length;
+            buffer = new ByteArrayOutputStream();
+            ErrorLogHelper.writeThrowable(buffer, throwable);
+            encoded[i] = buffer.toByteArray();
+            encodedSize += encoded[i].length;
+        }
+
+        /* Previous versions deserialized every throwable when building reports. */
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(serialized[i]));
+            Throwable throwable = (Throwable) inputStream.readObject();
+            inputStream.close();
+            assertNotNull(ErrorLogHelper.getErrorReportFromErrorLog(logs[i], null));
+            assertNotNull(throwable);
+        }
+        long serializedTime = System.nanoTime() - start;
+
+        /* Building reports now defers decoding. */
+        ErrorReport[] reports = new ErrorReport[count];
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            reports[i] = ErrorLogHelper.getErrorReportFromErrorLog(logs[i], encoded[i]);
+        }
+        long buildTime = System.nanoTime() - start;
+
+        /* Then the application may access throwables. */
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Throwable throwable = reports[i].getThrowable();
+            assertNotNull(throwable);
+            assertEquals("crash " + i, throwable.getMessage());
+        }
+        long decodeTime = System.nanoTime() - start;
+        android.util.Log.i("Benchmark", "Pending reports count=" + count +
+                " serializedSize=" + serializedSize +
+                " encodedSize=" + encodedSize +
+                " deserialize=" + TimeUnit.NANOSECONDS.toMicros(serializedTime) + "us" +
+                " build=" + TimeUnit.NANOSECONDS.toMicros(buildTime) + "us" +
+                " decodeOnAccess=" + TimeUnit.NANOSECONDS.toMicros(decodeTime) + "us");
+        assertTrue(encodedSize < serializedSize);
+    }
+}
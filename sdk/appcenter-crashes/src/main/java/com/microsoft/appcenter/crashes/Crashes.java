@@ -9,6 +9,7 @@ import android.support.annotation.VisibleForTesting;
 import com.microsoft.appcenter.AbstractAppCenterService;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ContextHistory;
 import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.SessionContext;
 import com.microsoft.appcenter.channel.Channel;
@@ -22,7 +23,10 @@ import com.microsoft.appcenter.crashes.ingestion.models.json.ManagedErrorLogFact
 import com.microsoft.appcenter.crashes.model.ErrorReport;
 import com.microsoft.appcenter.crashes.model.NativeException;
 import com.microsoft.appcenter.crashes.model.TestCrashException;
+import com.microsoft.appcenter.crashes.utils.ByteLruCache;
 import com.microsoft.appcenter.crashes.utils.ErrorLogHelper;
+import com.microsoft.appcenter.crashes.utils.HandledErrorRateLimiter;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
@@ -38,6 +42,7 @@ import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 
 import org.json.JSONException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -47,8 +52,15 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Crashes service.
@@ -98,6 +110,22 @@ public class Crashes extends AbstractAppCenterService {
      */
     private static final int MAX_ATTACHMENT_PER_CRASH = 2;
 
+    /**
+     * Initial size of the buffer used to serialize error logs.
+     */
+    private static final int ERROR_LOG_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximum size of the reports kept in memory, in bytes.
+     */
+    @VisibleForTesting
+    static final long ERROR_REPORT_CACHE_SIZE = 1024 * 1024;
+
+    /**
+     * Time the minidump conversion thread is kept alive once idle, in seconds.
+     */
+    private static final long MINIDUMP_THREAD_KEEP_ALIVE = 1;
+
     /**
      * Default crashes listener.
      */
@@ -120,9 +148,9 @@ public class Crashes extends AbstractAppCenterService {
     private final Map<UUID, ErrorLogReport> mUnprocessedErrorReports;
 
     /**
-     * Cache for reports that are queued to channel but not yet sent.
+     * Cache for reports that are queued to channel but not yet sent, evicted reports are read again from their files.
      */
-    private final Map<UUID, ErrorLogReport> mErrorReportCache;
+    private final ByteLruCache<UUID, ErrorLogReport> mErrorReportCache;
 
     /**
      * Log serializer.
@@ -159,11 +187,47 @@ public class Crashes extends AbstractAppCenterService {
      */
     private boolean mSavedUncaughtException;
 
+    /**
+     * Enabled state of the crash handler, readable from a crashing thread without waiting for
+     * the App Center handler thread.
+     */
+    private volatile boolean mCrashCaptureEnabled;
+
+    /**
+     * Buffer allocated in advance to serialize error logs.
+     */
+    private final ByteArrayOutputStream mErrorLogBuffer;
+
     /**
      * Automatic processing flag (automatic is the default).
      */
     private boolean mAutomaticProcessing = true;
 
+    /**
+     * Limits identical handled errors.
+     */
+    private final HandledErrorRateLimiter mHandledErrorRateLimiter = new HandledErrorRateLimiter();
+
+    /**
+     * Executor converting new minidump files to error logs, so that startup does not wait for it.
+     */
+    private Executor mMinidumpExecutor;
+
+    /**
+     * True while new minidump files are converted in background.
+     */
+    private boolean mProcessingMinidumps;
+
+    /**
+     * Identifiers of the error logs converted from minidump files that are not processed yet.
+     */
+    private final Set<UUID> mMinidumpErrorLogIds = Collections.synchronizedSet(new LinkedHashSet<UUID>());
+
+    /**
+     * Last session crash report requests waiting for minidump files to be converted.
+     */
+    private final List<DefaultAppCenterFuture<ErrorReport>> mPendingLastSessionReportFutures = new ArrayList<>();
+
     /**
      * Init.
      */
@@ -177,7 +241,15 @@ public class Crashes extends AbstractAppCenterService {
         mLogSerializer.addLogFactory(ErrorAttachmentLog.TYPE, ErrorAttachmentLogFactory.getInstance());
         mCrashesListener = DEFAULT_ERROR_REPORTING_LISTENER;
         mUnprocessedErrorReports = new LinkedHashMap<>();
-        mErrorReportCache = new LinkedHashMap<>();
+        mErrorReportCache = new ByteLruCache<UUID, ErrorLogReport>(ERROR_REPORT_CACHE_SIZE) {
+
+            @Override
+            protected long sizeOf(@NonNull ErrorLogReport value) {
+                return value.size;
+            }
+        };
+        mErrorLogBuffer = new ByteArrayOutputStream(ERROR_LOG_BUFFER_SIZE);
+        mMinidumpExecutor = new ThreadPoolExecutor(0, 1, MINIDUMP_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
     }
 
     @NonNull
@@ -261,6 +333,39 @@ public class Crashes extends AbstractAppCenterService {
         getInstance().setInstanceListener(listener);
     }
 
+    /**
+     * Set limits on the thread states attached to crash reports. Threads with identical stacks
+     * are reported as one entry listing their names and count as one entry for the limit.
+     * The thread where the crash happened is always included.
+     *
+     * @param maxThreads         maximum number of thread entries, default is {@value ErrorLogHelper#DEFAULT_THREAD_LIMIT}.
+     * @param maxFramesPerThread maximum number of frames per thread, beginning and end of stacks are kept, default is {@value ErrorLogHelper#FRAME_LIMIT}.
+     */
+    public static void setThreadLimits(int maxThreads, int maxFramesPerThread) {
+        if (maxThreads < 1 || maxFramesPerThread < 1) {
+            AppCenterLog.error(LOG_TAG, "Thread limits must be at least 1.");
+            return;
+        }
+        ErrorLogHelper.setThreadLimits(maxThreads, maxFramesPerThread);
+    }
+
+    /**
+     * Set how often identical handled errors are tracked. Errors are identical when they have the
+     * same type and top stack frames. After a burst of identical errors, only one is tracked per
+     * interval, and it has a {@value HandledErrorRateLimiter#SUPPRESSED_COUNT_PROPERTY} property
+     * with the number of errors that were not tracked before it.
+     *
+     * @param burst          number of identical errors tracked in a row, default is {@value HandledErrorRateLimiter#DEFAULT_BURST}.
+     * @param intervalMillis time to wait to track one more identical error once the burst is used, default is {@value HandledErrorRateLimiter#DEFAULT_REFILL_INTERVAL}.
+     */
+    public static void setHandledErrorRateLimit(int burst, long intervalMillis) {
+        if (burst < 1 || intervalMillis < 1) {
+            AppCenterLog.error(LOG_TAG, "Handled error rate limit values must be at least 1.");
+            return;
+        }
+        getInstance().mHandledErrorRateLimiter.setLimits(burst, intervalMillis);
+    }
+
     /**
      * Get the path where NDK minidump files should be created.
      * <p>
@@ -327,7 +432,9 @@ public class Crashes extends AbstractAppCenterService {
 
             @Override
             public void run() {
-                future.complete(mLastSessionErrorReport != null);
+
+                /* A new minidump file is the last session crash even if not converted yet. */
+                future.complete(mLastSessionErrorReport != null || mProcessingMinidumps);
             }
         }, future, false);
         return future;
@@ -342,7 +449,11 @@ public class Crashes extends AbstractAppCenterService {
 
             @Override
             public void run() {
-                future.complete(mLastSessionErrorReport);
+                if (mProcessingMinidumps) {
+                    mPendingLastSessionReportFutures.add(future);
+                } else {
+                    future.complete(mLastSessionErrorReport);
+                }
             }
         }, future, null);
         return future;
@@ -353,12 +464,14 @@ public class Crashes extends AbstractAppCenterService {
     protected synchronized void applyEnabledState(boolean enabled) {
         initialize();
         if (!enabled) {
+            ErrorLogHelper.removeAttachmentFiles();
             for (File file : ErrorLogHelper.getErrorStorageDirectory().listFiles()) {
                 AppCenterLog.debug(LOG_TAG, "Deleting file " + file);
                 if (!file.delete()) {
                     AppCenterLog.warn(LOG_TAG, "Failed to delete file " + file);
                 }
             }
+            ErrorLogHelper.clearErrorLogIndex();
             AppCenterLog.info(LOG_TAG, "Deleted crashes local files");
         }
     }
@@ -410,20 +523,29 @@ public class Crashes extends AbstractAppCenterService {
                         if (log instanceof ManagedErrorLog) {
                             ManagedErrorLog errorLog = (ManagedErrorLog) log;
                             final ErrorReport report = buildErrorReport(errorLog);
-                            UUID id = errorLog.getId();
+                            final UUID id = errorLog.getId();
                             if (report != null) {
 
-                                /* Clean up before calling callbacks if requested. */
-                                if (callbackProcessor.shouldDeleteThrowable()) {
-                                    removeStoredThrowable(id);
-                                }
-
                                 /* Call back. */
                                 HandlerUtils.runOnUiThread(new Runnable() {
 
                                     @Override
                                     public void run() {
                                         callbackProcessor.onCallBack(report);
+
+                                        /*
+                                         * Clean up after calling callbacks if requested:
+                                         * wrapper SDKs load their exception data from the callbacks.
+                                         */
+                                        if (callbackProcessor.shouldDeleteThrowable()) {
+                                            post(new Runnable() {
+
+                                                @Override
+                                                public void run() {
+                                                    removeStoredThrowable(id);
+                                                }
+                                            });
+                                        }
                                     }
                                 });
                             } else {
@@ -454,6 +576,7 @@ public class Crashes extends AbstractAppCenterService {
 
             @Override
             public void onSuccess(Log log) {
+                removeAttachmentDataFile(log);
                 processCallback(log, new CallbackProcessor() {
 
                     @Override
@@ -470,6 +593,7 @@ public class Crashes extends AbstractAppCenterService {
 
             @Override
             public void onFailure(Log log, final java.lang.Exception e) {
+                removeAttachmentDataFile(log);
                 processCallback(log, new CallbackProcessor() {
 
                     @Override
@@ -503,7 +627,7 @@ public class Crashes extends AbstractAppCenterService {
      * @param properties optional properties.
      */
     private synchronized void queueException(@NonNull final Throwable throwable, Map<String, String> properties) {
-        queueException(new ExceptionModelBuilder() {
+        queueException(HandledErrorRateLimiter.getFingerprint(throwable), new ExceptionModelBuilder() {
 
             @Override
             public com.microsoft.appcenter.crashes.ingestion.models.Exception buildExceptionModel() {
@@ -519,7 +643,7 @@ public class Crashes extends AbstractAppCenterService {
      * @param properties     optional properties.
      */
     synchronized void queueException(@NonNull final com.microsoft.appcenter.crashes.ingestion.models.Exception modelException, Map<String, String> properties) {
-        queueException(new ExceptionModelBuilder() {
+        queueException(HandledErrorRateLimiter.getFingerprint(modelException), new ExceptionModelBuilder() {
 
             @Override
             public com.microsoft.appcenter.crashes.ingestion.models.Exception buildExceptionModel() {
@@ -528,7 +652,14 @@ public class Crashes extends AbstractAppCenterService {
         }, properties);
     }
 
-    private synchronized void queueException(@NonNull final ExceptionModelBuilder exceptionModelBuilder, final Map<String, String> properties) {
+    private synchronized void queueException(@NonNull String fingerprint, @NonNull final ExceptionModelBuilder exceptionModelBuilder, final Map<String, String> properties) {
+
+        /* Drop identical errors reported too often before doing any other work. */
+        final int suppressedCount = mHandledErrorRateLimiter.tryAcquire(fingerprint);
+        if (suppressedCount == HandledErrorRateLimiter.SUPPRESSED) {
+            AppCenterLog.verbose(LOG_TAG, "Identical handled errors tracked too often, suppressing this one.");
+            return;
+        }
         post(new Runnable() {
 
             @Override
@@ -537,15 +668,32 @@ public class Crashes extends AbstractAppCenterService {
                 errorLog.setId(UUID.randomUUID());
                 errorLog.setUserId(UserIdContext.getInstance().getUserId());
                 errorLog.setException(exceptionModelBuilder.buildExceptionModel());
-                errorLog.setProperties(properties);
+                errorLog.setProperties(addSuppressedCount(properties, suppressedCount));
                 mChannel.enqueue(errorLog, ERROR_GROUP, Flags.DEFAULTS);
             }
         });
     }
 
+    /**
+     * Add the number of identical errors suppressed before a handled error to its properties.
+     */
+    private static Map<String, String> addSuppressedCount(Map<String, String> properties, int suppressedCount) {
+        if (suppressedCount == 0) {
+            return properties;
+        }
+        Map<String, String> result = properties != null ? new HashMap<>(properties) : new HashMap<String, String>();
+        if (result.size() < ErrorLogHelper.MAX_PROPERTY_COUNT || result.containsKey(HandledErrorRateLimiter.SUPPRESSED_COUNT_PROPERTY)) {
+            result.put(HandledErrorRateLimiter.SUPPRESSED_COUNT_PROPERTY, String.valueOf(suppressedCount));
+        } else {
+            AppCenterLog.warn(LOG_TAG, "Cannot report " + suppressedCount + " suppressed identical handled errors as properties are full.");
+        }
+        return result;
+    }
+
     private void initialize() {
         boolean enabled = isInstanceEnabled();
         mInitializeTimestamp = enabled ? System.currentTimeMillis() : -1;
+        mCrashCaptureEnabled = enabled;
         if (!enabled) {
             if (mUncaughtExceptionHandler != null) {
                 mUncaughtExceptionHandler.unregister();
@@ -553,19 +701,81 @@ public class Crashes extends AbstractAppCenterService {
             }
         } else {
 
+            /* Look up process name and load error log index now so that the crash handler does not have to. */
+            ErrorLogHelper.getProcessName(mContext);
+            ErrorLogHelper.loadErrorLogIndex();
+
+            /* Enforce the attachment storage limit, which deletes data files orphaned at previous launches first. */
+            ErrorLogHelper.makeRoomForAttachmentFile(0);
+
             /* Register Java crash handler. */
             mUncaughtExceptionHandler = new UncaughtExceptionHandler();
             mUncaughtExceptionHandler.register();
 
-            /* Process minidump files. */
-            processMinidumpFiles();
+            /* Only check for minidump files now, converting them is done in background. */
+            if (mProcessingMinidumps) {
+                AppCenterLog.debug(LOG_TAG, "Minidump files are already being processed.");
+                return;
+            }
+            File[] minidumpFiles = ErrorLogHelper.getNewMinidumpFiles();
+            if (minidumpFiles.length > 0) {
+                processMinidumpFilesInBackground(minidumpFiles);
+            } else {
+                processLastSessionErrorLog();
+            }
         }
     }
 
-    private void processMinidumpFiles() {
+    private void processMinidumpFilesInBackground(final File[] minidumpFiles) {
+        AppCenterLog.debug(LOG_TAG, "Found " + minidumpFiles.length + " new minidump files, converting them in background.");
+        mProcessingMinidumps = true;
+        mMinidumpExecutor.execute(new Runnable() {
 
-        /* Convert minidump files to App Center crash files. */
-        for (File logFile : ErrorLogHelper.getNewMinidumpFiles()) {
+            @Override
+            public void run() {
+                processMinidumpFiles(minidumpFiles);
+
+                /* Discard what was converted if crashes were disabled in the meantime. */
+                Runnable disabledRunnable = new Runnable() {
+
+                    @Override
+                    public void run() {
+                        mProcessingMinidumps = false;
+                        for (UUID id : removeMinidumpErrorLogIds()) {
+                            removeAllStoredErrorLogFiles(id);
+                        }
+                        completeLastSessionReportFutures(null);
+                    }
+                };
+                post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        mProcessingMinidumps = false;
+                        processLastSessionErrorLog();
+
+                        /* Complete waiting requests once the user confirmation check is posted to the U.I. thread. */
+                        processMinidumpErrorLogs();
+                        completeLastSessionReportFutures(mLastSessionErrorReport);
+                    }
+                }, disabledRunnable, disabledRunnable);
+            }
+        });
+    }
+
+    /**
+     * Convert minidump files to App Center crash files, called on the minidump executor.
+     */
+    private void processMinidumpFiles(File[] minidumpFiles) {
+        Device device = null;
+        int processedCount = 0;
+        for (File logFile : minidumpFiles) {
+
+            /* Stop if crashes were disabled in the meantime, remaining files are processed next time. */
+            if (!mCrashCaptureEnabled) {
+                AppCenterLog.debug(LOG_TAG, "Crashes disabled, stop processing minidump files.");
+                return;
+            }
 
             /* Create missing files from the native crash that we detected. */
             AppCenterLog.debug(LOG_TAG, "Process pending minidump file: " + logFile);
@@ -606,15 +816,26 @@ public class Crashes extends AbstractAppCenterService {
             errorLog.setProcessId(0);
             errorLog.setProcessName("");
 
-            /*
-             * TODO user id and device properties are read after restart contrary to Java crashes.
-             * We should have a user/device property history like we did for session to fix that issue.
-             * The main issue with the current code is that app version or userId can change between crash and reporting.
-             */
-            errorLog.setUserId(UserIdContext.getInstance().getUserId());
+            /* Lookup user identifier and device properties at crash time in history. */
+            ContextHistory contextHistory = ContextHistory.getInstance();
+            errorLog.setUserId(contextHistory.getUserIdAt(minidumpDate));
             try {
-                errorLog.setDevice(DeviceInfoHelper.getDeviceInfo(mContext));
-                errorLog.getDevice().setWrapperSdkName(Constants.WRAPPER_SDK_NAME_NDK);
+                Device crashDevice = contextHistory.getDeviceAt(minidumpDate);
+                if (crashDevice != null) {
+                    crashDevice.setWrapperSdkName(Constants.WRAPPER_SDK_NAME_NDK);
+                } else {
+
+                    /* Fall back to current device properties, the same for every file, look them up once. */
+                    if (device == null) {
+                        device = DeviceInfoHelper.getDeviceInfo(mContext);
+                        device.setWrapperSdkName(Constants.WRAPPER_SDK_NAME_NDK);
+                    }
+                    crashDevice = device;
+                }
+                errorLog.setDevice(crashDevice);
+
+                /* Track the identifier before saving so that processing pending errors skips it. */
+                mMinidumpErrorLogIds.add(errorLog.getId());
                 saveErrorLogFiles(nativeException, errorLog);
                 if (!logFile.renameTo(dest)) {
                     throw new IOException("Failed to move file");
@@ -623,18 +844,61 @@ public class Crashes extends AbstractAppCenterService {
 
                 //noinspection ResultOfMethodCallIgnored
                 logFile.delete();
+                mMinidumpErrorLogIds.remove(errorLog.getId());
                 removeAllStoredErrorLogFiles(errorLog.getId());
                 AppCenterLog.error(LOG_TAG, "Failed to process new minidump file: " + logFile, e);
             }
+            processedCount++;
+            AppCenterLog.verbose(LOG_TAG, "Processed " + processedCount + "/" + minidumpFiles.length + " minidump files.");
+        }
+    }
+
+    /**
+     * Get and forget the error logs converted from minidump files.
+     */
+    private List<UUID> removeMinidumpErrorLogIds() {
+        synchronized (mMinidumpErrorLogIds) {
+            List<UUID> ids = new ArrayList<>(mMinidumpErrorLogIds);
+            mMinidumpErrorLogIds.clear();
+            return ids;
+        }
+    }
+
+    private void completeLastSessionReportFutures(ErrorReport report) {
+        for (DefaultAppCenterFuture<ErrorReport> future : mPendingLastSessionReportFutures) {
+            future.complete(report);
+        }
+        mPendingLastSessionReportFutures.clear();
+    }
+
+    /**
+     * Process the error logs converted from minidump files once they are all saved.
+     */
+    private void processMinidumpErrorLogs() {
+        List<UUID> ids = removeMinidumpErrorLogIds();
+        for (UUID id : ids) {
+            File logFile = ErrorLogHelper.getStoredErrorLogFile(id);
+            if (logFile != null) {
+                processPendingErrorLogFile(logFile, id);
+            }
+        }
+        if (mAutomaticProcessing && !ids.isEmpty()) {
+            sendCrashReportsOrAwaitUserConfirmation();
         }
+    }
 
-        /* Check last session crash. */
+    private void processLastSessionErrorLog() {
         File logFile = ErrorLogHelper.getLastErrorLogFile();
         while (logFile != null && logFile.length() == 0) {
             AppCenterLog.warn(Crashes.LOG_TAG, "Deleting empty error file: " + logFile);
+            UUID id = ErrorLogHelper.getStoredErrorLogId(logFile);
+            if (id != null) {
+                ErrorLogHelper.removeStoredErrorLogFile(id);
+            } else {
 
-            //noinspection ResultOfMethodCallIgnored
-            logFile.delete();
+                //noinspection ResultOfMethodCallIgnored
+                logFile.delete();
+            }
             logFile = ErrorLogHelper.getLastErrorLogFile();
         }
         if (logFile != null) {
@@ -656,31 +920,13 @@ public class Crashes extends AbstractAppCenterService {
 
     private void processPendingErrors() {
         for (File logFile : ErrorLogHelper.getStoredErrorLogFiles()) {
-            AppCenterLog.debug(LOG_TAG, "Process pending error file: " + logFile);
-            String logfileContents = FileManager.read(logFile);
-            if (logfileContents != null) {
-                try {
-                    ManagedErrorLog log = (ManagedErrorLog) mLogSerializer.deserializeLog(logfileContents, null);
-                    UUID id = log.getId();
-                    ErrorReport report = buildErrorReport(log);
-                    if (report == null) {
-                        removeAllStoredErrorLogFiles(id);
-                    } else if (!mAutomaticProcessing || mCrashesListener.shouldProcess(report)) {
-                        if (!mAutomaticProcessing) {
-                            AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned true, continue processing log: " + id.toString());
-                        }
-                        mUnprocessedErrorReports.put(id, mErrorReportCache.get(id));
-                    } else {
-                        AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned false, clean up and ignore log: " + id.toString());
-                        removeAllStoredErrorLogFiles(id);
-                    }
-                } catch (JSONException e) {
-                    AppCenterLog.error(LOG_TAG, "Error parsing error log. Deleting invalid file: " + logFile, e);
 
-                    //noinspection ResultOfMethodCallIgnored
-                    logFile.delete();
-                }
+            /* Error logs being converted from minidump files are processed once all are saved. */
+            UUID storedId = ErrorLogHelper.getStoredErrorLogId(logFile);
+            if (storedId != null && mMinidumpErrorLogIds.contains(storedId)) {
+                continue;
             }
+            processPendingErrorLogFile(logFile, storedId);
         }
 
         /* If automatic processing is enabled. */
@@ -691,6 +937,45 @@ public class Crashes extends AbstractAppCenterService {
         }
     }
 
+    private void processPendingErrorLogFile(File logFile, UUID storedId) {
+        AppCenterLog.debug(LOG_TAG, "Process pending error file: " + logFile);
+
+        /*
+         * The default listener processes every report and reports already accepted by the listener
+         * don't need to be checked again: read them only when sending.
+         */
+        if (mAutomaticProcessing && storedId != null && (mCrashesListener == DEFAULT_ERROR_REPORTING_LISTENER || ErrorLogHelper.isStoredErrorLogProcessed(storedId))) {
+            mUnprocessedErrorReports.put(storedId, mErrorReportCache.get(storedId));
+            return;
+        }
+        String logfileContents = FileManager.read(logFile);
+        if (logfileContents != null) {
+            try {
+                ManagedErrorLog log = (ManagedErrorLog) mLogSerializer.deserializeLog(logfileContents, null);
+                UUID id = log.getId();
+                ErrorLogReport errorLogReport = buildErrorLogReport(log);
+                if (errorLogReport == null) {
+                    removeAllStoredErrorLogFiles(id);
+                } else if (!mAutomaticProcessing || mCrashesListener.shouldProcess(errorLogReport.report)) {
+                    if (!mAutomaticProcessing) {
+                        AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned true, continue processing log: " + id.toString());
+                    } else {
+                        ErrorLogHelper.setStoredErrorLogProcessed(id);
+                    }
+                    mUnprocessedErrorReports.put(id, errorLogReport);
+                } else {
+                    AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned false, clean up and ignore log: " + id.toString());
+                    removeAllStoredErrorLogFiles(id);
+                }
+            } catch (JSONException e) {
+                AppCenterLog.error(LOG_TAG, "Error parsing error log. Deleting invalid file: " + logFile, e);
+
+                //noinspection ResultOfMethodCallIgnored
+                logFile.delete();
+            }
+        }
+    }
+
     /**
      * Send crashes or wait for user confirmation (either via callback or explicit call in manual processing).
      *
@@ -734,6 +1019,51 @@ public class Crashes extends AbstractAppCenterService {
         return alwaysSend;
     }
 
+    /**
+     * Read a stored error log whose processing was deferred until sending it.
+     *
+     * @param id error identifier.
+     * @return error log and report, or null if the error log could not be read, its files are then deleted.
+     */
+    @Nullable
+    private ErrorLogReport readErrorLogReport(UUID id) {
+        File logFile = ErrorLogHelper.getStoredErrorLogFile(id);
+        String logfileContents = logFile != null ? FileManager.read(logFile) : null;
+        if (logfileContents == null) {
+            AppCenterLog.error(LOG_TAG, "Error reading error log file for " + id);
+        } else {
+            try {
+                ManagedErrorLog log = (ManagedErrorLog) mLogSerializer.deserializeLog(logfileContents, null);
+                ErrorLogReport errorLogReport = buildErrorLogReport(log);
+                if (errorLogReport != null) {
+                    return errorLogReport;
+                }
+            } catch (JSONException e) {
+                AppCenterLog.error(LOG_TAG, "Error parsing error log. Deleting invalid file: " + logFile, e);
+            }
+        }
+        removeAllStoredErrorLogFiles(id);
+        return null;
+    }
+
+    /**
+     * Get an unprocessed report, reading the error log if its processing was deferred.
+     *
+     * @param entry unprocessed report entry, its value is updated once read.
+     * @return error log and report, or null if the error log could not be read, the entry must then be removed.
+     */
+    @Nullable
+    private ErrorLogReport resolveUnprocessedErrorReport(Map.Entry<UUID, ErrorLogReport> entry) {
+        ErrorLogReport errorLogReport = entry.getValue();
+        if (errorLogReport == null) {
+            errorLogReport = readErrorLogReport(entry.getKey());
+            if (errorLogReport != null) {
+                entry.setValue(errorLogReport);
+            }
+        }
+        return errorLogReport;
+    }
+
     private void removeAllStoredErrorLogFiles(UUID id) {
         ErrorLogHelper.removeStoredErrorLogFile(id);
         removeStoredThrowable(id);
@@ -755,28 +1085,39 @@ public class Crashes extends AbstractAppCenterService {
         mUncaughtExceptionHandler = handler;
     }
 
+    @VisibleForTesting
+    void setMinidumpExecutor(Executor executor) {
+        mMinidumpExecutor = executor;
+    }
+
     @VisibleForTesting
     @Nullable
     ErrorReport buildErrorReport(ManagedErrorLog log) {
+        ErrorLogReport errorLogReport = buildErrorLogReport(log);
+        return errorLogReport != null ? errorLogReport.report : null;
+    }
+
+    @Nullable
+    private ErrorLogReport buildErrorLogReport(ManagedErrorLog log) {
         UUID id = log.getId();
-        if (mErrorReportCache.containsKey(id)) {
-            ErrorReport report = mErrorReportCache.get(id).report;
-            report.setDevice(log.getDevice());
-            return report;
+        ErrorLogReport errorLogReport = mErrorReportCache.get(id);
+        if (errorLogReport != null) {
+            errorLogReport.report.setDevice(log.getDevice());
+            return errorLogReport;
         } else {
             File file = ErrorLogHelper.getStoredThrowableFile(id);
             if (file != null) {
-                Throwable throwable = null;
+
+                /* Throwable is only decoded if the application accesses it. */
+                byte[] encodedThrowable = null;
                 if (file.length() > 0) {
-                    try {
-                        throwable = FileManager.readObject(file);
-                    } catch (IOException | ClassNotFoundException | StackOverflowError e) {
-                        AppCenterLog.error(LOG_TAG, "Cannot read throwable file " + file.getName(), e);
-                    }
+                    encodedThrowable = FileManager.readBytes(file);
                 }
-                ErrorReport report = ErrorLogHelper.getErrorReportFromErrorLog(log, throwable);
-                mErrorReportCache.put(id, new ErrorLogReport(log, report));
-                return report;
+                ErrorReport report = ErrorLogHelper.getErrorReportFromErrorLog(log, encodedThrowable);
+                long size = ErrorLogHelper.getStoredErrorLogSize(id) + (encodedThrowable != null ? encodedThrowable.length : 0);
+                errorLogReport = new ErrorLogReport(log, report, size);
+                mErrorReportCache.put(id, errorLogReport);
+                return errorLogReport;
             }
         }
         return null;
@@ -826,27 +1167,27 @@ public class Crashes extends AbstractAppCenterService {
                     while (unprocessedIterator.hasNext()) {
 
                         /* If native crash, send dump as attachment and remove the fake stack trace. */
-                        File dumpFile = null;
                         ErrorAttachmentLog dumpAttachment = null;
                         Map.Entry<UUID, ErrorLogReport> unprocessedEntry = unprocessedIterator.next();
-                        ErrorLogReport errorLogReport = unprocessedEntry.getValue();
-                        if (errorLogReport.report.getThrowable() instanceof NativeException) {
+                        ErrorLogReport errorLogReport = resolveUnprocessedErrorReport(unprocessedEntry);
+                        if (errorLogReport == null) {
+                            unprocessedIterator.remove();
+                            continue;
+                        }
+                        if (ErrorLogHelper.isMinidumpErrorLog(errorLogReport.log)) {
                             Exception exception = errorLogReport.log.getException();
-                            dumpFile = new File(exception.getStackTrace());
+                            File dumpFile = new File(exception.getStackTrace());
                             exception.setStackTrace(null);
-                            byte[] logfileContents = FileManager.readBytes(dumpFile);
-                            dumpAttachment = ErrorAttachmentLog.attachmentWithBinary(logfileContents, "minidump.dmp", "application/octet-stream");
+                            dumpAttachment = getMinidumpAttachment(dumpFile);
                         }
 
-                        /* Send report. */
+                        /* Send report, restoring frames stored in compact form. */
+                        errorLogReport.log.expandFrames();
                         mChannel.enqueue(errorLogReport.log, ERROR_GROUP, Flags.PERSISTENCE_CRITICAL);
 
-                        /* Send dump attachment and remove file. */
+                        /* Send dump attachment, its file is deleted once sent. */
                         if (dumpAttachment != null) {
                             sendErrorAttachment(errorLogReport.log.getId(), Collections.singleton(dumpAttachment));
-
-                            //noinspection ResultOfMethodCallIgnored
-                            dumpFile.delete();
                         }
 
                         /* Get attachments from callback in automatic processing. */
@@ -878,7 +1219,27 @@ public class Crashes extends AbstractAppCenterService {
                     attachment.setErrorId(errorId);
                     if (attachment.isValid()) {
                         ++totalErrorAttachments;
+
+                        /*
+                         * Store data in a file so that only its path is persisted with the log,
+                         * data is then read from the file when sending.
+                         * Restore the attachment after enqueuing as the application may reuse it.
+                         */
+                        byte[] data = attachment.getData();
+                        if (data != null && !ErrorLogHelper.makeRoomForAttachmentFile(data.length)) {
+                            AppCenterLog.error(LOG_TAG, "Discarding error attachment of " + data.length + " bytes, larger than the attachment storage.");
+                            continue;
+                        }
+                        File dataFile = data != null ? writeAttachmentDataFile(attachment.getId(), data) : null;
+                        if (dataFile != null) {
+                            attachment.setData(null);
+                            attachment.setDataFile(dataFile);
+                        }
                         mChannel.enqueue(attachment, ERROR_GROUP, Flags.DEFAULTS);
+                        if (dataFile != null) {
+                            attachment.setDataFile(null);
+                            attachment.setData(data);
+                        }
                     } else {
                         AppCenterLog.error(LOG_TAG, "Not all required fields are present in ErrorAttachmentLog.");
                     }
@@ -892,6 +1253,58 @@ public class Crashes extends AbstractAppCenterService {
         }
     }
 
+    /**
+     * Write error attachment data to a file.
+     *
+     * @return the file or null if data could not be written, in which case it is kept in the log.
+     */
+    private static File writeAttachmentDataFile(UUID attachmentId, byte[] data) {
+        File file = ErrorLogHelper.getAttachmentFile(attachmentId);
+        try {
+            FileManager.writeAndSync(file, data);
+            return file;
+        } catch (IOException e) {
+            AppCenterLog.warn(LOG_TAG, "Failed to store error attachment data in a file, keeping it in the log.", e);
+            FileManager.delete(file);
+            return null;
+        }
+    }
+
+    /**
+     * Build the attachment of a minidump file, moving the file along error attachment data files
+     * so that it is sent without being loaded in memory.
+     */
+    private static ErrorAttachmentLog getMinidumpAttachment(File dumpFile) {
+        ErrorAttachmentLog dumpAttachment = ErrorAttachmentLog.attachmentWithBinary(null, "minidump.dmp", "application/octet-stream");
+        File dataFile = new File(ErrorLogHelper.getAttachmentDirectory(), dumpFile.getName());
+
+        /* A minidump larger than the attachment storage is still moved: it is the crash report itself. */
+        ErrorLogHelper.makeRoomForAttachmentFile(dumpFile.length());
+        if (dumpFile.renameTo(dataFile)) {
+            dumpAttachment.setDataFile(dataFile);
+        } else {
+            AppCenterLog.warn(LOG_TAG, "Failed to move minidump file, sending it from memory.");
+            dumpAttachment.setData(FileManager.readBytes(dumpFile));
+
+            //noinspection ResultOfMethodCallIgnored
+            dumpFile.delete();
+        }
+        return dumpAttachment;
+    }
+
+    /**
+     * Delete the data file of an error attachment log stored by this module once done with the log.
+     */
+    private static void removeAttachmentDataFile(Log log) {
+        if (log instanceof ErrorAttachmentLog) {
+            File dataFile = ((ErrorAttachmentLog) log).getDataFile();
+            if (dataFile != null && ErrorLogHelper.getAttachmentDirectory().equals(dataFile.getParentFile())) {
+                AppCenterLog.debug(LOG_TAG, "Deleting error attachment data file " + dataFile.getName());
+                FileManager.delete(dataFile);
+            }
+        }
+    }
+
     @VisibleForTesting
     void setLogSerializer(LogSerializer logSerializer) {
         mLogSerializer = logSerializer;
@@ -925,8 +1338,8 @@ public class Crashes extends AbstractAppCenterService {
      */
     UUID saveUncaughtException(Thread thread, Throwable throwable, com.microsoft.appcenter.crashes.ingestion.models.Exception modelException) throws JSONException, IOException {
 
-        /* Ignore call if Crash is disabled. */
-        if (!Crashes.isEnabled().get()) {
+        /* Ignore call if Crash is disabled. Don't wait on the App Center handler thread as it may be busy. */
+        if (!mCrashCaptureEnabled) {
             return null;
         }
 
@@ -951,23 +1364,23 @@ public class Crashes extends AbstractAppCenterService {
         String filename = errorLogId.toString();
         AppCenterLog.debug(Crashes.LOG_TAG, "Saving uncaught exception.");
         File errorLogFile = new File(errorStorageDirectory, filename + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
-        String errorLogString = mLogSerializer.serializeLog(errorLog);
-        FileManager.write(errorLogFile, errorLogString);
+        errorLog.compactFrames();
+        synchronized (mErrorLogBuffer) {
+            mErrorLogBuffer.reset();
+            mLogSerializer.serializeLog(mErrorLogBuffer, errorLog);
+            ErrorLogHelper.addStoredErrorLog(errorLog, mErrorLogBuffer.size());
+            FileManager.writeAndSync(errorLogFile, mErrorLogBuffer);
+        }
         AppCenterLog.debug(Crashes.LOG_TAG, "Saved JSON content for ingestion into " + errorLogFile);
         File throwableFile = new File(errorStorageDirectory, filename + ErrorLogHelper.THROWABLE_FILE_EXTENSION);
         if (throwable != null) {
-            try {
-                FileManager.writeObject(throwableFile, throwable);
-                AppCenterLog.debug(Crashes.LOG_TAG, "Saved Throwable as is for client side inspection in " + throwableFile + " throwable:", throwable);
-            } catch (StackOverflowError e) {
-                AppCenterLog.error(Crashes.LOG_TAG, "Failed to store throwable", e);
-                throwable = null;
-
-                //noinspection ResultOfMethodCallIgnored
-                throwableFile.delete();
+            synchronized (mErrorLogBuffer) {
+                mErrorLogBuffer.reset();
+                ErrorLogHelper.writeThrowable(mErrorLogBuffer, throwable);
+                FileManager.writeAndSync(throwableFile, mErrorLogBuffer);
             }
-        }
-        if (throwable == null) {
+            AppCenterLog.debug(Crashes.LOG_TAG, "Saved Throwable for client side inspection in " + throwableFile + " throwable:", throwable);
+        } else {
 
             /*
              * If there is no Java Throwable to save as is (typical in wrapper SDKs),
@@ -998,8 +1411,14 @@ public class Crashes extends AbstractAppCenterService {
             @Override
             public void run() {
                 Collection<ErrorReport> reports = new ArrayList<>(mUnprocessedErrorReports.size());
-                for (ErrorLogReport entry : mUnprocessedErrorReports.values()) {
-                    reports.add(entry.report);
+                Iterator<Map.Entry<UUID, ErrorLogReport>> iterator = mUnprocessedErrorReports.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    ErrorLogReport errorLogReport = resolveUnprocessedErrorReport(iterator.next());
+                    if (errorLogReport == null) {
+                        iterator.remove();
+                    } else {
+                        reports.add(errorLogReport.report);
+                    }
                 }
                 future.complete(reports);
             }
@@ -1022,7 +1441,12 @@ public class Crashes extends AbstractAppCenterService {
                 while (iterator.hasNext()) {
                     Map.Entry<UUID, ErrorLogReport> entry = iterator.next();
                     UUID id = entry.getKey();
-                    String idString = entry.getValue().report.getId();
+                    ErrorLogReport errorLogReport = resolveUnprocessedErrorReport(entry);
+                    if (errorLogReport == null) {
+                        iterator.remove();
+                        continue;
+                    }
+                    String idString = errorLogReport.report.getId();
                     if (filteredReportIds != null && filteredReportIds.contains(idString)) {
                         AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned true, continue processing log: " + idString);
                     } else {
@@ -1111,9 +1535,15 @@ public class Crashes extends AbstractAppCenterService {
 
         private final ErrorReport report;
 
-        private ErrorLogReport(ManagedErrorLog log, ErrorReport report) {
+        /**
+         * Approximate memory size in bytes, based on the size of the stored files.
+         */
+        private final long size;
+
+        private ErrorLogReport(ManagedErrorLog log, ErrorReport report, long size) {
             this.log = log;
             this.report = report;
+            this.size = size;
         }
     }
 }
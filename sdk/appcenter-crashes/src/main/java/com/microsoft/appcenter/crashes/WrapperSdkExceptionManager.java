@@ -5,6 +5,7 @@ import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.crashes.ingestion.models.ErrorAttachmentLog;
 import com.microsoft.appcenter.crashes.model.ErrorReport;
+import com.microsoft.appcenter.crashes.utils.ByteLruCache;
 import com.microsoft.appcenter.crashes.utils.ErrorLogHelper;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
@@ -22,10 +23,28 @@ import java.util.UUID;
 public class WrapperSdkExceptionManager {
 
     /**
-     * Contains wrapper SDK data that has been loaded into memory
+     * Maximum size of the wrapper SDK data kept in memory, in bytes.
      */
     @VisibleForTesting
-    static final Map<String, byte[]> sWrapperExceptionDataContainer = new HashMap<>();
+    static final long WRAPPER_EXCEPTION_DATA_CACHE_SIZE = 1024 * 1024;
+
+    /**
+     * Contains wrapper SDK data that has been loaded into memory, evicted data is read again from its file.
+     */
+    @VisibleForTesting
+    static final ByteLruCache<String, byte[]> sWrapperExceptionDataContainer = new ByteLruCache<String, byte[]>(WRAPPER_EXCEPTION_DATA_CACHE_SIZE) {
+
+        @Override
+        protected long sizeOf(@NonNull byte[] value) {
+            return value.length;
+        }
+    };
+
+    /**
+     * Contains wrapper SDK data whose file has been deleted, it is never evicted as it could not be read again.
+     */
+    @VisibleForTesting
+    static final Map<String, byte[]> sDeletedWrapperExceptionData = new HashMap<>();
 
     /**
      * File extension for data files created by this class.
@@ -62,7 +81,7 @@ public class WrapperSdkExceptionManager {
     }
 
     /**
-     * Delete wrapper exception data from disk and store it in memory
+     * Delete wrapper exception data from disk and keep it in memory.
      *
      * @param errorId The associated error UUID
      */
@@ -76,6 +95,11 @@ public class WrapperSdkExceptionManager {
             byte[] loadResult = loadWrapperExceptionData(errorId);
             if (loadResult == null) {
                 AppCenterLog.error(Crashes.LOG_TAG, "Failed to delete wrapper exception data: data not found");
+            } else {
+                synchronized (sDeletedWrapperExceptionData) {
+                    sDeletedWrapperExceptionData.put(errorId.toString(), loadResult);
+                }
+                sWrapperExceptionDataContainer.remove(errorId.toString());
             }
             FileManager.delete(dataFile);
         }
@@ -92,7 +116,14 @@ public class WrapperSdkExceptionManager {
             AppCenterLog.error(Crashes.LOG_TAG, "Failed to load wrapper exception data: null errorId");
             return null;
         }
-        byte[] dataBytes = sWrapperExceptionDataContainer.get(errorId.toString());
+        byte[] dataBytes;
+        synchronized (sDeletedWrapperExceptionData) {
+            dataBytes = sDeletedWrapperExceptionData.get(errorId.toString());
+        }
+        if (dataBytes != null) {
+            return dataBytes;
+        }
+        dataBytes = sWrapperExceptionDataContainer.get(errorId.toString());
         if (dataBytes != null) {
             return dataBytes;
         }
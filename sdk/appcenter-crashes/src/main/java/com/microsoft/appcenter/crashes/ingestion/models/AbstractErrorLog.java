@@ -3,10 +3,10 @@ package com.microsoft.appcenter.crashes.ingestion.models;
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.Date;
 import java.util.UUID;
@@ -284,7 +284,7 @@ public abstract class AbstractErrorLog extends AbstractLog {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         JSONUtils.write(writer, ID, getId());
         JSONUtils.write(writer, PROCESS_ID, getProcessId());
@@ -5,11 +5,12 @@ import android.util.Base64;
 
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
+import java.io.File;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.UUID;
@@ -41,6 +42,9 @@ public class ErrorAttachmentLog extends AbstractLog {
     @VisibleForTesting
     static final String DATA = "data";
 
+    @VisibleForTesting
+    static final String DATA_FILE = "dataFile";
+
     /**
      * Error attachment identifier.
      */
@@ -66,6 +70,12 @@ public class ErrorAttachmentLog extends AbstractLog {
      */
     private byte[] data;
 
+    /**
+     * File containing the data when not held in memory, only its path is stored on the device,
+     * the data is read from it when sending.
+     */
+    private File dataFile;
+
     /**
      * Build an error attachment log with text suitable for using in {link CrashesListener#getErrorAttachments(ErrorReport)}.
      *
@@ -190,13 +200,31 @@ public class ErrorAttachmentLog extends AbstractLog {
         this.data = data;
     }
 
+    /**
+     * Get the file containing the data when not held in memory.
+     *
+     * @return the data file or null.
+     */
+    public File getDataFile() {
+        return this.dataFile;
+    }
+
+    /**
+     * Set the file containing the data when not held in memory.
+     *
+     * @param dataFile the data file to set.
+     */
+    public void setDataFile(File dataFile) {
+        this.dataFile = dataFile;
+    }
+
     /**
      * Checks if the log's values are valid.
      *
      * @return true if validation succeeded, otherwise false.
      */
     public boolean isValid() {
-        return getId() != null && getErrorId() != null && getContentType() != null && getData() != null;
+        return getId() != null && getErrorId() != null && getContentType() != null && (getData() != null || getDataFile() != null);
     }
 
     @Override
@@ -206,21 +234,35 @@ public class ErrorAttachmentLog extends AbstractLog {
         setErrorId(UUID.fromString(object.getString(ERROR_ID)));
         setContentType(object.getString(CONTENT_TYPE));
         setFileName(object.optString(FILE_NAME, null));
-        try {
-            setData(Base64.decode(object.getString(DATA), Base64.DEFAULT));
-        } catch (IllegalArgumentException e) {
-            throw new JSONException(e.getMessage());
+        if (object.has(DATA)) {
+            try {
+                setData(Base64.decode(object.getString(DATA), Base64.DEFAULT));
+            } catch (IllegalArgumentException e) {
+                throw new JSONException(e.getMessage());
+            }
+        } else {
+            setDataFile(new File(object.getString(DATA_FILE)));
         }
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         JSONUtils.write(writer, ID, getId());
         JSONUtils.write(writer, ERROR_ID, getErrorId());
         JSONUtils.write(writer, CONTENT_TYPE, getContentType());
         JSONUtils.write(writer, FILE_NAME, getFileName());
-        JSONUtils.write(writer, DATA, Base64.encodeToString(getData(), Base64.NO_WRAP));
+        if (getData() != null) {
+            JSONUtils.write(writer, DATA, Base64.encodeToString(getData(), Base64.NO_WRAP));
+        } else if (getDataFile() != null) {
+
+            /* Data is only read from the file when sending, it is encoded while writing the request. */
+            if (writer.isRequestBody()) {
+                writer.key(DATA).base64Value(getDataFile());
+            } else {
+                JSONUtils.write(writer, DATA_FILE, getDataFile().getPath());
+            }
+        }
     }
 
     @SuppressWarnings("SimplifiableIfStatement")
@@ -248,6 +290,9 @@ public class ErrorAttachmentLog extends AbstractLog {
         if (fileName != null ? !fileName.equals(that.fileName) : that.fileName != null) {
             return false;
         }
+        if (dataFile != null ? !dataFile.equals(that.dataFile) : that.dataFile != null) {
+            return false;
+        }
         return Arrays.equals(data, that.data);
 
     }
@@ -259,6 +304,7 @@ public class ErrorAttachmentLog extends AbstractLog {
         result = 31 * result + (errorId != null ? errorId.hashCode() : 0);
         result = 31 * result + (contentType != null ? contentType.hashCode() : 0);
         result = 31 * result + (fileName != null ? fileName.hashCode() : 0);
+        result = 31 * result + (dataFile != null ? dataFile.hashCode() : 0);
         result = 31 * result + Arrays.hashCode(data);
         return result;
     }
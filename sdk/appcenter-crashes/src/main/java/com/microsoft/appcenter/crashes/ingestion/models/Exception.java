@@ -4,10 +4,10 @@ import com.microsoft.appcenter.crashes.ingestion.models.json.ExceptionFactory;
 import com.microsoft.appcenter.crashes.ingestion.models.json.StackFrameFactory;
 import com.microsoft.appcenter.ingestion.models.Model;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.List;
 
@@ -27,6 +27,8 @@ public class Exception implements Model {
 
     private static final String WRAPPER_SDK_NAME = "wrapperSdkName";
 
+    private static final String FRAME_INDEXES = "frameIndexes";
+
     /**
      * Exception type (fully qualified class name).
      */
@@ -47,6 +49,12 @@ public class Exception implements Model {
      */
     private List<StackFrame> frames;
 
+    /**
+     * Indexes of the frames in the {@link StackFrameTable} of the error log, replacing frames
+     * while the log is stored on disk.
+     */
+    private List<Integer> frameIndexes;
+
     /**
      * Inner exceptions of this exception.
      */
@@ -131,6 +139,24 @@ public class Exception implements Model {
         this.frames = frames;
     }
 
+    /**
+     * Get the frameIndexes value.
+     *
+     * @return the frameIndexes value
+     */
+    public List<Integer> getFrameIndexes() {
+        return this.frameIndexes;
+    }
+
+    /**
+     * Set the frameIndexes value.
+     *
+     * @param frameIndexes the frameIndexes value to set
+     */
+    public void setFrameIndexes(List<Integer> frameIndexes) {
+        this.frameIndexes = frameIndexes;
+    }
+
     /**
      * Get the innerExceptions value.
      *
@@ -173,16 +199,18 @@ public class Exception implements Model {
         setMessage(object.optString(MESSAGE, null));
         setStackTrace(object.optString(STACK_TRACE, null));
         setFrames(JSONUtils.readArray(object, FRAMES, StackFrameFactory.getInstance()));
+        setFrameIndexes(JSONUtils.readIntegerArray(object, FRAME_INDEXES));
         setInnerExceptions(JSONUtils.readArray(object, INNER_EXCEPTIONS, ExceptionFactory.getInstance()));
         setWrapperSdkName(object.optString(WRAPPER_SDK_NAME, null));
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         JSONUtils.write(writer, TYPE, getType());
         JSONUtils.write(writer, MESSAGE, getMessage());
         JSONUtils.write(writer, STACK_TRACE, getStackTrace());
         JSONUtils.writeArray(writer, FRAMES, getFrames());
+        JSONUtils.writeIntegerArray(writer, FRAME_INDEXES, getFrameIndexes());
         JSONUtils.writeArray(writer, INNER_EXCEPTIONS, getInnerExceptions());
         JSONUtils.write(writer, WRAPPER_SDK_NAME, getWrapperSdkName());
     }
@@ -209,6 +237,9 @@ public class Exception implements Model {
         if (frames != null ? !frames.equals(exception.frames) : exception.frames != null) {
             return false;
         }
+        if (frameIndexes != null ? !frameIndexes.equals(exception.frameIndexes) : exception.frameIndexes != null) {
+            return false;
+        }
         if (innerExceptions != null ? !innerExceptions.equals(exception.innerExceptions) : exception.innerExceptions != null) {
             return false;
         }
@@ -221,6 +252,7 @@ public class Exception implements Model {
         result = 31 * result + (message != null ? message.hashCode() : 0);
         result = 31 * result + (stackTrace != null ? stackTrace.hashCode() : 0);
         result = 31 * result + (frames != null ? frames.hashCode() : 0);
+        result = 31 * result + (frameIndexes != null ? frameIndexes.hashCode() : 0);
         result = 31 * result + (innerExceptions != null ? innerExceptions.hashCode() : 0);
         result = 31 * result + (wrapperSdkName != null ? wrapperSdkName.hashCode() : 0);
         return result;
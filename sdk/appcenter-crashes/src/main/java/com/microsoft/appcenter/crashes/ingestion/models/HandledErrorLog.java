@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.crashes.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.LogWithProperties;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.UUID;
 
@@ -90,7 +90,7 @@ public class HandledErrorLog extends LogWithProperties {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         writer.key(ID).value(getId());
         if (getException() != null) {
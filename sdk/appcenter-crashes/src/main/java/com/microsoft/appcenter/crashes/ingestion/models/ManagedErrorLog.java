@@ -2,11 +2,12 @@ package com.microsoft.appcenter.crashes.ingestion.models;
 
 import com.microsoft.appcenter.crashes.ingestion.models.json.ThreadFactory;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -23,6 +24,8 @@ public class ManagedErrorLog extends AbstractErrorLog {
 
     private static final String THREADS = "threads";
 
+    private static final String FRAME_TABLE = "frameTable";
+
     /**
      * Exception.
      */
@@ -33,6 +36,11 @@ public class ManagedErrorLog extends AbstractErrorLog {
      */
     private List<Thread> threads;
 
+    /**
+     * Distinct frames of the exception and threads when stored on disk, see {@link #compactFrames()}.
+     */
+    private StackFrameTable frameTable;
+
     @Override
     public String getType() {
         return TYPE;
@@ -74,6 +82,132 @@ public class ManagedErrorLog extends AbstractErrorLog {
         this.threads = threads;
     }
 
+    /**
+     * Get the frameTable value.
+     *
+     * @return the frameTable value
+     */
+    public StackFrameTable getFrameTable() {
+        return this.frameTable;
+    }
+
+    /**
+     * Set the frameTable value.
+     *
+     * @param frameTable the frameTable value to set
+     */
+    public void setFrameTable(StackFrameTable frameTable) {
+        this.frameTable = frameTable;
+    }
+
+    /**
+     * Replace the frames of the exception chain and threads by indexes in a frame table
+     * to store this log on disk. Each distinct frame and string is then serialized only once.
+     * {@link #expandFrames()} must be called before sending the log.
+     */
+    public void compactFrames() {
+        if (frameTable != null) {
+            return;
+        }
+        frameTable = new StackFrameTable();
+        compactFrames(exception);
+        if (threads != null) {
+            for (Thread thread : threads) {
+                thread.setFrameIndexes(compactFrames(thread.getFrames()));
+                thread.setFrames(null);
+            }
+        }
+    }
+
+    private void compactFrames(Exception exception) {
+        if (exception != null) {
+            exception.setFrameIndexes(compactFrames(exception.getFrames()));
+            exception.setFrames(null);
+            if (exception.getInnerExceptions() != null) {
+                for (Exception innerException : exception.getInnerExceptions()) {
+                    compactFrames(innerException);
+                }
+            }
+        }
+    }
+
+    private List<Integer> compactFrames(List<StackFrame> frames) {
+        if (frames == null) {
+            return null;
+        }
+        List<Integer> frameIndexes = new ArrayList<>(frames.size());
+        for (StackFrame frame : frames) {
+            frameIndexes.add(frameTable.add(frame));
+        }
+        return frameIndexes;
+    }
+
+    /**
+     * Restore the frames replaced by {@link #compactFrames()} so that the log matches the ingestion schema.
+     * Frames are shared between exceptions and threads referencing the same one.
+     */
+    public void expandFrames() {
+        if (frameTable == null) {
+            return;
+        }
+        expandFrames(exception);
+        if (threads != null) {
+            for (Thread thread : threads) {
+                thread.setFrames(expandFrames(thread.getFrameIndexes()));
+                thread.setFrameIndexes(null);
+            }
+        }
+        frameTable = null;
+    }
+
+    private void expandFrames(Exception exception) {
+        if (exception != null) {
+            exception.setFrames(expandFrames(exception.getFrameIndexes()));
+            exception.setFrameIndexes(null);
+            if (exception.getInnerExceptions() != null) {
+                for (Exception innerException : exception.getInnerExceptions()) {
+                    expandFrames(innerException);
+                }
+            }
+        }
+    }
+
+    private List<StackFrame> expandFrames(List<Integer> frameIndexes) {
+        if (frameIndexes == null) {
+            return null;
+        }
+        List<StackFrame> frames = new ArrayList<>(frameIndexes.size());
+        for (Integer frameIndex : frameIndexes) {
+            frames.add(frameTable.get(frameIndex));
+        }
+        return frames;
+    }
+
+    /**
+     * Check frame indexes read from disk so that {@link #expandFrames()} cannot fail.
+     */
+    private void checkFrameIndexes(Exception exception) throws JSONException {
+        if (exception != null) {
+            checkFrameIndexes(exception.getFrameIndexes());
+            if (exception.getInnerExceptions() != null) {
+                for (Exception innerException : exception.getInnerExceptions()) {
+                    checkFrameIndexes(innerException);
+                }
+            }
+        }
+    }
+
+    private void checkFrameIndexes(List<Integer> frameIndexes) throws JSONException {
+        if (frameIndexes != null) {
+            int size = frameTable == null ? 0 : frameTable.size();
+            for (Integer frameIndex : frameIndexes) {
+                if (frameIndex < 0 || frameIndex >= size) {
+                    throw new JSONException("Invalid frame index: " + frameIndex);
+                }
+            }
+        }
+    }
+
     @Override
     public void read(JSONObject object) throws JSONException {
         super.read(object);
@@ -84,10 +218,21 @@ public class ManagedErrorLog extends AbstractErrorLog {
             setException(exception);
         }
         setThreads(JSONUtils.readArray(object, THREADS, ThreadFactory.getInstance()));
+        if (object.has(FRAME_TABLE)) {
+            StackFrameTable frameTable = new StackFrameTable();
+            frameTable.read(object.getJSONObject(FRAME_TABLE));
+            setFrameTable(frameTable);
+        }
+        checkFrameIndexes(exception);
+        if (threads != null) {
+            for (Thread thread : threads) {
+                checkFrameIndexes(thread.getFrameIndexes());
+            }
+        }
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         if (getException() != null) {
             writer.key(EXCEPTION).object();
@@ -95,6 +240,11 @@ public class ManagedErrorLog extends AbstractErrorLog {
             writer.endObject();
         }
         JSONUtils.writeArray(writer, THREADS, getThreads());
+        if (getFrameTable() != null) {
+            writer.key(FRAME_TABLE).object();
+            frameTable.write(writer);
+            writer.endObject();
+        }
     }
 
     @Override
@@ -113,7 +263,10 @@ public class ManagedErrorLog extends AbstractErrorLog {
         if (exception != null ? !exception.equals(that.exception) : that.exception != null) {
             return false;
         }
-        return threads != null ? threads.equals(that.threads) : that.threads == null;
+        if (threads != null ? !threads.equals(that.threads) : that.threads != null) {
+            return false;
+        }
+        return frameTable != null ? frameTable.equals(that.frameTable) : that.frameTable == null;
     }
 
     @Override
@@ -121,6 +274,7 @@ public class ManagedErrorLog extends AbstractErrorLog {
         int result = super.hashCode();
         result = 31 * result + (exception != null ? exception.hashCode() : 0);
         result = 31 * result + (threads != null ? threads.hashCode() : 0);
+        result = 31 * result + (frameTable != null ? frameTable.hashCode() : 0);
         return result;
     }
 }
@@ -2,10 +2,10 @@ package com.microsoft.appcenter.crashes.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.Model;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 /**
  * The StackFrame model.
@@ -125,7 +125,7 @@ public class StackFrame implements Model {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         JSONUtils.write(writer, CLASS_NAME, getClassName());
         JSONUtils.write(writer, METHOD_NAME, getMethodName());
         JSONUtils.write(writer, LINE_NUMBER, getLineNumber());
@@ -0,0 +1,168 @@
+package com.microsoft.appcenter.crashes.ingestion.models;
+
+import com.microsoft.appcenter.ingestion.models.Model;
+import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distinct stack frames of an error log, referenced by index instead of repeating them
+ * in every exception and thread. Frame strings are also stored only once.
+ * <p>
+ * This is not part of the ingestion schema: it's only used to store error logs on disk.
+ */
+public class StackFrameTable implements Model {
+
+    private static final String STRINGS = "strings";
+
+    private static final String FRAMES = "frames";
+
+    /**
+     * Number of values used to encode a frame: class name, method name, file name and line number.
+     */
+    private static final int FRAME_FIELDS = 4;
+
+    /**
+     * Distinct class names, method names and file names.
+     */
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * Distinct frames.
+     */
+    private final List<StackFrame> frames = new ArrayList<>();
+
+    /**
+     * String indexes, only used while adding frames.
+     */
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    /**
+     * Frame indexes, only used while adding frames.
+     */
+    private final Map<StackFrame, Integer> frameIndexes = new HashMap<>();
+
+    /**
+     * Add a frame to the table if not already there.
+     *
+     * @param frame frame to add.
+     * @return frame index.
+     */
+    public int add(StackFrame frame) {
+        Integer index = frameIndexes.get(frame);
+        if (index == null) {
+            index = frames.size();
+            frames.add(frame);
+            frameIndexes.put(frame, index);
+        }
+        return index;
+    }
+
+    /**
+     * Get a frame.
+     *
+     * @param index frame index.
+     * @return the frame, shared by all the references to the same index.
+     * @throws IndexOutOfBoundsException if index is not valid.
+     */
+    public StackFrame get(int index) {
+        return frames.get(index);
+    }
+
+    /**
+     * Get the number of distinct frames.
+     *
+     * @return number of frames.
+     */
+    public int size() {
+        return frames.size();
+    }
+
+    private Integer addString(String value) {
+        if (value == null) {
+            return null;
+        }
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    private String readString(JSONArray jFrames, int index) throws JSONException {
+        if (jFrames.isNull(index)) {
+            return null;
+        }
+        int stringIndex = jFrames.getInt(index);
+        if (stringIndex < 0 || stringIndex >= strings.size()) {
+            throw new JSONException("Invalid string index: " + stringIndex);
+        }
+        return strings.get(stringIndex);
+    }
+
+    @Override
+    public void read(JSONObject object) throws JSONException {
+        strings.clear();
+        frames.clear();
+        stringIndexes.clear();
+        frameIndexes.clear();
+        JSONArray jStrings = object.getJSONArray(STRINGS);
+        for (int i = 0; i < jStrings.length(); i++) {
+            strings.add(jStrings.getString(i));
+        }
+        JSONArray jFrames = object.getJSONArray(FRAMES);
+        if (jFrames.length() % FRAME_FIELDS != 0) {
+            throw new JSONException("Invalid frame table length: " + jFrames.length());
+        }
+        for (int i = 0; i < jFrames.length(); i += FRAME_FIELDS) {
+            StackFrame frame = new StackFrame();
+            frame.setClassName(readString(jFrames, i));
+            frame.setMethodName(readString(jFrames, i + 1));
+            frame.setFileName(readString(jFrames, i + 2));
+            frame.setLineNumber(jFrames.isNull(i + 3) ? null : jFrames.getInt(i + 3));
+            frames.add(frame);
+        }
+    }
+
+    @Override
+    public void write(JSONWriter writer) throws JSONException {
+
+        /* Fill string table first as it's written before frames. */
+        List<Integer> values = new ArrayList<>(frames.size() * FRAME_FIELDS);
+        for (StackFrame frame : frames) {
+            values.add(addString(frame.getClassName()));
+            values.add(addString(frame.getMethodName()));
+            values.add(addString(frame.getFileName()));
+            values.add(frame.getLineNumber());
+        }
+        JSONUtils.writeStringArray(writer, STRINGS, strings);
+        JSONUtils.writeIntegerArray(writer, FRAMES, values);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        StackFrameTable that = (StackFrameTable) o;
+        return frames.equals(that.frames);
+    }
+
+    @Override
+    public int hashCode() {
+        return frames.hashCode();
+    }
+}
@@ -3,10 +3,10 @@ package com.microsoft.appcenter.crashes.ingestion.models;
 import com.microsoft.appcenter.crashes.ingestion.models.json.StackFrameFactory;
 import com.microsoft.appcenter.ingestion.models.Model;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.List;
 
@@ -19,6 +19,8 @@ import static com.microsoft.appcenter.ingestion.models.CommonProperties.NAME;
  */
 public class Thread implements Model {
 
+    private static final String FRAME_INDEXES = "frameIndexes";
+
     /**
      * Thread identifier.
      */
@@ -34,6 +36,12 @@ public class Thread implements Model {
      */
     private List<StackFrame> frames;
 
+    /**
+     * Indexes of the frames in the {@link StackFrameTable} of the error log, replacing frames
+     * while the log is stored on disk.
+     */
+    private List<Integer> frameIndexes;
+
     /**
      * Get the id value.
      *
@@ -88,18 +96,38 @@ public class Thread implements Model {
         this.frames = frames;
     }
 
+    /**
+     * Get the frameIndexes value.
+     *
+     * @return the frameIndexes value
+     */
+    public List<Integer> getFrameIndexes() {
+        return this.frameIndexes;
+    }
+
+    /**
+     * Set the frameIndexes value.
+     *
+     * @param frameIndexes the frameIndexes value to set
+     */
+    public void setFrameIndexes(List<Integer> frameIndexes) {
+        this.frameIndexes = frameIndexes;
+    }
+
     @Override
     public void read(JSONObject object) throws JSONException {
         setId(object.getLong(ID));
         setName(object.optString(NAME, null));
         setFrames(JSONUtils.readArray(object, FRAMES, StackFrameFactory.getInstance()));
+        setFrameIndexes(JSONUtils.readIntegerArray(object, FRAME_INDEXES));
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         JSONUtils.write(writer, ID, getId());
         JSONUtils.write(writer, NAME, getName());
         JSONUtils.writeArray(writer, FRAMES, getFrames());
+        JSONUtils.writeIntegerArray(writer, FRAME_INDEXES, getFrameIndexes());
     }
 
     @Override
@@ -118,7 +146,10 @@ public class Thread implements Model {
         if (name != null ? !name.equals(that.name) : that.name != null) {
             return false;
         }
-        return frames != null ? frames.equals(that.frames) : that.frames == null;
+        if (frames != null ? !frames.equals(that.frames) : that.frames != null) {
+            return false;
+        }
+        return frameIndexes != null ? frameIndexes.equals(that.frameIndexes) : that.frameIndexes == null;
     }
 
     @Override
@@ -126,6 +157,7 @@ public class Thread implements Model {
         int result = (int) (id ^ (id >>> 32));
         result = 31 * result + (name != null ? name.hashCode() : 0);
         result = 31 * result + (frames != null ? frames.hashCode() : 0);
+        result = 31 * result + (frameIndexes != null ? frameIndexes.hashCode() : 0);
         return result;
     }
 }
@@ -0,0 +1,238 @@
+package com.microsoft.appcenter.crashes.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.microsoft.appcenter.crashes.Crashes;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory cache bounded by the size in bytes of its values, least recently used values are evicted first.
+ * <p>
+ * Evicted values are only softly reachable: they can still be returned until the garbage collector
+ * needs the memory. Callers reload values from disk when {@link #get} returns null.
+ *
+ * @param <K> key type.
+ * @param <V> value type.
+ */
+public abstract class ByteLruCache<K, V> {
+
+    /**
+     * Values by key, in access order.
+     */
+    private final LinkedHashMap<K, Entry<V>> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Values evicted from {@link #mEntries}.
+     */
+    private final Map<K, SoftReference<V>> mEvictedEntries = new HashMap<>();
+
+    /**
+     * Maximum total size of the values kept in memory, in bytes.
+     */
+    private final long mMaxSize;
+
+    /**
+     * Total size of the values kept in memory, in bytes.
+     */
+    private long mSize;
+
+    /**
+     * Number of values found in memory.
+     */
+    private int mHitCount;
+
+    /**
+     * Number of evicted values found before being garbage collected.
+     */
+    private int mSoftHitCount;
+
+    /**
+     * Number of values not found.
+     */
+    private int mMissCount;
+
+    /**
+     * Number of values evicted.
+     */
+    private int mEvictionCount;
+
+    /**
+     * Init.
+     *
+     * @param maxSize maximum total size of the values kept in memory, in bytes.
+     */
+    public ByteLruCache(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Get the size of a value.
+     *
+     * @param value value.
+     * @return size in bytes.
+     */
+    protected abstract long sizeOf(@NonNull V value);
+
+    /**
+     * Get a value.
+     *
+     * @param key key.
+     * @return value or null if not found, the caller can then load it from disk and put it back.
+     */
+    @Nullable
+    public synchronized V get(@NonNull K key) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry != null) {
+            mHitCount++;
+            return entry.value;
+        }
+        SoftReference<V> reference = mEvictedEntries.remove(key);
+        V value = reference != null ? reference.get() : null;
+        if (value != null) {
+            mSoftHitCount++;
+            put(key, value);
+            return value;
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Put a value, which may evict the least recently used values.
+     *
+     * @param key   key.
+     * @param value value.
+     */
+    public synchronized void put(@NonNull K key, @NonNull V value) {
+        mEvictedEntries.remove(key);
+        long size = sizeOf(value);
+        Entry<V> previous = mEntries.put(key, new Entry<>(value, size));
+        mSize += size;
+        if (previous != null) {
+            mSize -= previous.size;
+        }
+        trimToMaxSize();
+    }
+
+    /**
+     * Remove a value.
+     *
+     * @param key key.
+     */
+    public synchronized void remove(@NonNull K key) {
+        mEvictedEntries.remove(key);
+        Entry<V> entry = mEntries.remove(key);
+        if (entry != null) {
+            mSize -= entry.size;
+        }
+    }
+
+    /**
+     * Remove all values, statistics are kept.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mEvictedEntries.clear();
+        mSize = 0;
+    }
+
+    private void trimToMaxSize() {
+        if (mSize <= mMaxSize) {
+            return;
+        }
+
+        /* Forget evicted values that were garbage collected. */
+        Iterator<SoftReference<V>> evictedIterator = mEvictedEntries.values().iterator();
+        while (evictedIterator.hasNext()) {
+            if (evictedIterator.next().get() == null) {
+                evictedIterator.remove();
+            }
+        }
+
+        /* Evict least recently used values. */
+        Iterator<Map.Entry<K, Entry<V>>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = iterator.next();
+            iterator.remove();
+            mSize -= eldest.getValue().size;
+            mEvictedEntries.put(eldest.getKey(), new SoftReference<>(eldest.getValue().value));
+            mEvictionCount++;
+            AppCenterLog.verbose(Crashes.LOG_TAG, "Evicted " + eldest.getKey() + " from memory: " + this);
+        }
+    }
+
+    /**
+     * @return total size of the values kept in memory, in bytes.
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * @return maximum total size of the values kept in memory, in bytes.
+     */
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return number of values found in memory.
+     */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of evicted values found before being garbage collected.
+     */
+    public synchronized int softHitCount() {
+        return mSoftHitCount;
+    }
+
+    /**
+     * @return number of values not found.
+     */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return number of values evicted.
+     */
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ByteLruCache{size=" + mSize +
+                ", maxSize=" + mMaxSize +
+                ", hits=" + mHitCount +
+                ", softHits=" + mSoftHitCount +
+                ", misses=" + mMissCount +
+                ", evictions=" + mEvictionCount +
+                '}';
+    }
+
+    /**
+     * Value with its size.
+     */
+    private static class Entry<V> {
+
+        final V value;
+
+        final long size;
+
+        Entry(V value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.microsoft.appcenter.crashes.utils;
+
+import com.microsoft.appcenter.crashes.model.ErrorReport;
+
+/**
+ * Error report that decodes its throwable only when accessed.
+ */
+class EncodedThrowableErrorReport extends ErrorReport {
+
+    /**
+     * Encoded throwable, null once decoded or if there is no throwable.
+     */
+    private byte[] encodedThrowable;
+
+    EncodedThrowableErrorReport(byte[] encodedThrowable) {
+        this.encodedThrowable = encodedThrowable;
+    }
+
+    @Override
+    public synchronized Throwable getThrowable() {
+        if (encodedThrowable != null) {
+            super.setThrowable(ThrowableEncoding.read(encodedThrowable));
+            encodedThrowable = null;
+        }
+        return super.getThrowable();
+    }
+
+    @Override
+    public synchronized void setThrowable(Throwable throwable) {
+        encodedThrowable = null;
+        super.setThrowable(throwable);
+    }
+}
@@ -11,12 +11,14 @@ import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ContextHistory;
 import com.microsoft.appcenter.crashes.Crashes;
 import com.microsoft.appcenter.crashes.ingestion.models.Exception;
 import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
 import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
 import com.microsoft.appcenter.crashes.ingestion.models.Thread;
 import com.microsoft.appcenter.crashes.model.ErrorReport;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.UUIDUtils;
@@ -25,10 +27,15 @@ import com.microsoft.appcenter.utils.storage.FileManager;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +56,12 @@ public class ErrorLogHelper {
      */
     public static final String THROWABLE_FILE_EXTENSION = ".throwable";
 
+    /**
+     * Name of the file indexing error logs in the error directory.
+     */
+    @VisibleForTesting
+    public static final String ERROR_LOG_INDEX_FILE = "error.index";
+
     /**
      * Directory under the FILES_PATH containing minidump files.
      */
@@ -64,6 +77,17 @@ public class ErrorLogHelper {
      */
     private static final String PENDING_MINIDUMP_DIRECTORY = "pending";
 
+    /**
+     * Directory under the FILES_PATH containing error attachment data files.
+     */
+    private static final String ATTACHMENT_DIRECTORY = "attachments";
+
+    /**
+     * Maximum total size of error attachment data files.
+     */
+    @VisibleForTesting
+    static final long MAX_ATTACHMENT_STORAGE_SIZE = 10 * 1024 * 1024;
+
     /**
      * For huge stack traces such as giant StackOverflowError, we keep only beginning and end of frames according to this limit.
      */
@@ -71,9 +95,16 @@ public class ErrorLogHelper {
     public static final int FRAME_LIMIT = 256;
 
     /**
-     * We keep the first half of the limit of frames from the beginning and the second half from end.
+     * Default limit of thread entries in a crash report, threads with identical stacks count as one entry.
      */
-    private static final int FRAME_LIMIT_HALF = FRAME_LIMIT / 2;
+    @VisibleForTesting
+    public static final int DEFAULT_THREAD_LIMIT = 64;
+
+    /**
+     * Maximum number of thread names listed in the name of a thread entry that groups identical stacks.
+     */
+    @VisibleForTesting
+    static final int GROUPED_THREAD_NAME_LIMIT = 16;
 
     /**
      * For huge exception cause chains, we keep only beginning and end of causes according to this limit.
@@ -100,7 +131,7 @@ public class ErrorLogHelper {
     /**
      * Max number of properties.
      */
-    private static final int MAX_PROPERTY_COUNT = 20;
+    public static final int MAX_PROPERTY_COUNT = 20;
 
     /**
      * Max length of properties.
@@ -117,6 +148,31 @@ public class ErrorLogHelper {
      */
     private static File sPendingMinidumpDirectory;
 
+    /**
+     * Directory for error attachment data files.
+     */
+    private static File sAttachmentDirectory;
+
+    /**
+     * Index of stored error logs.
+     */
+    private static ErrorLogIndex sErrorLogIndex;
+
+    /**
+     * Name of the current process.
+     */
+    private static String sProcessName;
+
+    /**
+     * Maximum number of thread entries in a crash report.
+     */
+    private static volatile int sThreadLimit = DEFAULT_THREAD_LIMIT;
+
+    /**
+     * Maximum number of frames per thread in a crash report.
+     */
+    private static volatile int sThreadFrameLimit = FRAME_LIMIT;
+
     @NonNull
     public static ManagedErrorLog createErrorLog(@NonNull Context context, @NonNull final java.lang.Thread thread, @NonNull final Throwable throwable, @NonNull final Map<java.lang.Thread, StackTraceElement[]> allStackTraces, final long initializeTimestamp) {
         return createErrorLog(context, thread, getModelExceptionFromThrowable(throwable), allStackTraces, initializeTimestamp, true);
@@ -135,34 +191,27 @@ public class ErrorLogHelper {
         /* Set user identifier. */
         errorLog.setUserId(UserIdContext.getInstance().getUserId());
 
-        /* Snapshot device properties. */
-        try {
-            errorLog.setDevice(DeviceInfoHelper.getDeviceInfo(context));
-        } catch (DeviceInfoHelper.DeviceInfoException e) {
-            AppCenterLog.error(Crashes.LOG_TAG, "Could not attach device properties snapshot to error log, will attach at sending time", e);
+        /* Snapshot device properties, use the recorded ones if available to avoid reading them at crash time. */
+        Device device = ContextHistory.getInstance().getDeviceAt(errorLog.getTimestamp().getTime());
+        if (device != null) {
+            errorLog.setDevice(device);
+        } else {
+            try {
+                errorLog.setDevice(DeviceInfoHelper.getDeviceInfo(context));
+            } catch (DeviceInfoHelper.DeviceInfoException e) {
+                AppCenterLog.error(Crashes.LOG_TAG, "Could not attach device properties snapshot to error log, will attach at sending time", e);
+            }
         }
 
         /* Process information. Parent one is not available on Android. */
         errorLog.setProcessId(Process.myPid());
-        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-        if (activityManager != null) {
-            List<ActivityManager.RunningAppProcessInfo> runningAppProcesses = activityManager.getRunningAppProcesses();
-            if (runningAppProcesses != null) {
-                for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
-                    if (info.pid == Process.myPid()) {
-                        errorLog.setProcessName(info.processName);
-                    }
-                }
-            }
-        }
+        String processName = getProcessName(context);
 
         /*
          * Process name is required field for crash processing but cannot always be available,
          * make sure we send a default value if not found.
          */
-        if (errorLog.getProcessName() == null) {
-            errorLog.setProcessName("");
-        }
+        errorLog.setProcessName(processName != null ? processName : "");
 
         /* CPU architecture. */
         errorLog.setArchitecture(getArchitecture());
@@ -181,16 +230,113 @@ public class ErrorLogHelper {
         errorLog.setException(exception);
 
         /* Attach thread states. */
-        List<Thread> threads = new ArrayList<>(allStackTraces.size());
+        errorLog.setThreads(getModelThreads(thread, allStackTraces));
+        return errorLog;
+    }
+
+    /**
+     * Convert thread states to model threads. The thread in error comes first, then threads with
+     * identical stacks are grouped in a single entry named after all of them.
+     * Number of entries and frames per thread are limited, see {@link #setThreadLimits(int, int)}.
+     */
+    @NonNull
+    private static List<Thread> getModelThreads(@NonNull java.lang.Thread errorThread, @NonNull Map<java.lang.Thread, StackTraceElement[]> allStackTraces) {
+        int threadLimit = sThreadLimit;
+        int frameLimit = sThreadFrameLimit;
+
+        /* Group threads by stack, keeping thread in error on its own. */
+        List<java.lang.Thread> errorThreadGroup = null;
+        Map<List<StackTraceElement>, List<java.lang.Thread>> groups = new LinkedHashMap<>();
         for (Map.Entry<java.lang.Thread, StackTraceElement[]> entry : allStackTraces.entrySet()) {
-            Thread javaThread = new Thread();
-            javaThread.setId(entry.getKey().getId());
-            javaThread.setName(entry.getKey().getName());
-            javaThread.setFrames(getModelFramesFromStackTrace(entry.getValue()));
-            threads.add(javaThread);
+            java.lang.Thread javaThread = entry.getKey();
+            if (javaThread == errorThread) {
+                errorThreadGroup = Collections.singletonList(javaThread);
+                continue;
+            }
+            List<StackTraceElement> stack = Arrays.asList(truncateFrames(entry.getValue(), frameLimit));
+            List<java.lang.Thread> group = groups.get(stack);
+            if (group == null) {
+                group = new ArrayList<>(1);
+                groups.put(stack, group);
+            }
+            group.add(javaThread);
         }
-        errorLog.setThreads(threads);
-        return errorLog;
+        List<Thread> threads = new ArrayList<>(Math.min(groups.size() + 1, threadLimit));
+        if (errorThreadGroup != null) {
+            threads.add(getModelThread(errorThreadGroup, Arrays.asList(truncateFrames(allStackTraces.get(errorThread), frameLimit))));
+        }
+        for (Map.Entry<List<StackTraceElement>, List<java.lang.Thread>> group : groups.entrySet()) {
+            if (threads.size() >= threadLimit) {
+                break;
+            }
+            threads.add(getModelThread(group.getValue(), group.getKey()));
+        }
+        int entryCount = groups.size() + (errorThreadGroup != null ? 1 : 0);
+        if (entryCount > threads.size()) {
+            AppCenterLog.warn(Crashes.LOG_TAG, "Crash threads truncated from " + entryCount + " to " + threads.size() + " entries.");
+        }
+        return threads;
+    }
+
+    @NonNull
+    private static Thread getModelThread(@NonNull List<java.lang.Thread> javaThreads, @NonNull List<StackTraceElement> stackTrace) {
+        Thread thread = new Thread();
+        thread.setId(javaThreads.get(0).getId());
+        if (javaThreads.size() == 1) {
+            thread.setName(javaThreads.get(0).getName());
+        } else {
+            StringBuilder name = new StringBuilder();
+            int listed = Math.min(javaThreads.size(), GROUPED_THREAD_NAME_LIMIT);
+            for (int i = 0; i < listed; i++) {
+                if (i > 0) {
+                    name.append(", ");
+                }
+                name.append(javaThreads.get(i).getName());
+            }
+            if (javaThreads.size() > listed) {
+                name.append(" and ").append(javaThreads.size() - listed).append(" more");
+            }
+            name.append(" (").append(javaThreads.size()).append(" threads)");
+            thread.setName(name.toString());
+        }
+        thread.setFrames(getModelFramesFromStackTrace(stackTrace));
+        return thread;
+    }
+
+    /**
+     * Set limits on thread states attached to crash reports.
+     *
+     * @param threadLimit maximum number of thread entries, threads with identical stacks count as one entry.
+     * @param frameLimit  maximum number of frames per thread, the beginning and end of stacks are kept.
+     */
+    public static void setThreadLimits(int threadLimit, int frameLimit) {
+        sThreadLimit = threadLimit;
+        sThreadFrameLimit = frameLimit;
+    }
+
+    /**
+     * Get the name of the current process. The result is cached once found,
+     * so that calling this early avoids an inter-process call while handling a crash.
+     *
+     * @param context context.
+     * @return process name or null if not available.
+     */
+    @Nullable
+    public static synchronized String getProcessName(@NonNull Context context) {
+        if (sProcessName == null) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            if (activityManager != null) {
+                List<ActivityManager.RunningAppProcessInfo> runningAppProcesses = activityManager.getRunningAppProcesses();
+                if (runningAppProcesses != null) {
+                    for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
+                        if (info.pid == Process.myPid()) {
+                            sProcessName = info.processName;
+                        }
+                    }
+                }
+            }
+        }
+        return sProcessName;
     }
 
     @SuppressWarnings("deprecation")
@@ -235,14 +381,220 @@ public class ErrorLogHelper {
     }
 
     @NonNull
-    public static File[] getStoredErrorLogFiles() {
-        File[] files = getErrorStorageDirectory().listFiles(new FilenameFilter() {
+    public static synchronized File getAttachmentDirectory() {
+        if (sAttachmentDirectory == null) {
+            sAttachmentDirectory = new File(getErrorStorageDirectory(), ATTACHMENT_DIRECTORY);
+        }
+
+        /* Create it every time as it can be deleted along with other crash files. */
+        FileManager.mkdir(sAttachmentDirectory.getPath());
+        return sAttachmentDirectory;
+    }
+
+    /**
+     * Get the file storing the data of an error attachment.
+     *
+     * @param attachmentId error attachment identifier.
+     * @return data file.
+     */
+    @NonNull
+    public static File getAttachmentFile(@NonNull UUID attachmentId) {
+        return new File(getAttachmentDirectory(), attachmentId.toString());
+    }
+
+    /**
+     * Delete the data files of all error attachments.
+     */
+    public static void removeAttachmentFiles() {
+        File[] files = getAttachmentDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                FileManager.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Make room in the error attachment directory for a new data file.
+     * The oldest files are deleted first: a file can outlive its log if the log is evicted from storage,
+     * the log of a deleted file is discarded alone when sending.
+     *
+     * @param size size of the new file, 0 to only enforce the limit.
+     * @return false if the new file alone exceeds {@link #MAX_ATTACHMENT_STORAGE_SIZE}, nothing is deleted then.
+     */
+    public static synchronized boolean makeRoomForAttachmentFile(long size) {
+        if (size > MAX_ATTACHMENT_STORAGE_SIZE) {
+            return false;
+        }
+        File[] files = getAttachmentDirectory().listFiles();
+        if (files == null) {
+            return true;
+        }
+        long totalSize = size;
+        for (File file : files) {
+            totalSize += file.length();
+        }
+        if (totalSize <= MAX_ATTACHMENT_STORAGE_SIZE) {
+            return true;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+
             @Override
-            public boolean accept(File dir, String filename) {
-                return filename.endsWith(ERROR_LOG_FILE_EXTENSION);
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
             }
         });
-        return files != null ? files : new File[0];
+        for (File file : files) {
+            if (totalSize <= MAX_ATTACHMENT_STORAGE_SIZE) {
+                break;
+            }
+            AppCenterLog.warn(Crashes.LOG_TAG, "Error attachment storage is full, deleting " + file.getName());
+            totalSize -= file.length();
+            FileManager.delete(file);
+        }
+        return true;
+    }
+
+    @NonNull
+    private static synchronized ErrorLogIndex getErrorLogIndex() {
+        if (sErrorLogIndex == null) {
+            File errorStorageDirectory = getErrorStorageDirectory();
+            ErrorLogIndex index = new ErrorLogIndex(new File(errorStorageDirectory, ERROR_LOG_INDEX_FILE));
+            if (index.load()) {
+
+                /* The index is saved before the error log file, drop entries of missing or incomplete files. */
+                boolean changed = false;
+                for (ErrorLogIndex.Entry entry : index.getEntries()) {
+                    File file = new File(errorStorageDirectory, entry.id + ERROR_LOG_FILE_EXTENSION);
+                    if (file.length() != entry.size) {
+                        AppCenterLog.warn(Crashes.LOG_TAG, "Deleting incomplete error log file: " + file);
+                        FileManager.delete(file);
+                        FileManager.delete(new File(errorStorageDirectory, entry.id + THROWABLE_FILE_EXTENSION));
+                        index.remove(entry.id);
+                        changed = true;
+                    }
+                }
+                sErrorLogIndex = index;
+                if (changed) {
+                    saveErrorLogIndex();
+                }
+            } else {
+
+                /* Index missing or written by another version: rebuild it from error log files. */
+                AppCenterLog.debug(Crashes.LOG_TAG, "Rebuilding error log index.");
+                File[] files = errorStorageDirectory.listFiles(new FilenameFilter() {
+                    @Override
+                    public boolean accept(File dir, String filename) {
+                        return filename.endsWith(ERROR_LOG_FILE_EXTENSION);
+                    }
+                });
+                if (files != null) {
+                    for (File file : files) {
+                        UUID id = getStoredErrorLogId(file);
+                        if (id != null) {
+                            index.put(new ErrorLogIndex.Entry(id, file.lastModified(), true, file.length(), ErrorLogIndex.STATE_NEW));
+                        } else {
+                            AppCenterLog.warn(Crashes.LOG_TAG, "Deleting invalid error log file: " + file);
+                            FileManager.delete(file);
+                        }
+                    }
+                }
+                sErrorLogIndex = index;
+                saveErrorLogIndex();
+            }
+        }
+        return sErrorLogIndex;
+    }
+
+    private static void saveErrorLogIndex() {
+        try {
+            getErrorLogIndex().save();
+        } catch (IOException e) {
+            AppCenterLog.error(Crashes.LOG_TAG, "Failed to save error log index.", e);
+        }
+    }
+
+    /**
+     * Load the index of stored error logs if not already done, so that saving a crash does not have to.
+     */
+    public static void loadErrorLogIndex() {
+        getErrorLogIndex();
+    }
+
+    /**
+     * Forget the index of stored error logs, to call after deleting the error directory content.
+     */
+    public static synchronized void clearErrorLogIndex() {
+        sErrorLogIndex = null;
+    }
+
+    /**
+     * Add an error log to the index before writing its file.
+     *
+     * @param errorLog error log.
+     * @param size     size of the error log file in bytes.
+     * @throws IOException if the index could not be saved.
+     */
+    public static void addStoredErrorLog(@NonNull ManagedErrorLog errorLog, long size) throws IOException {
+        long timestamp = errorLog.getTimestamp() != null ? errorLog.getTimestamp().getTime() : System.currentTimeMillis();
+        boolean fatal = !Boolean.FALSE.equals(errorLog.getFatal());
+        ErrorLogIndex index = getErrorLogIndex();
+        index.put(new ErrorLogIndex.Entry(errorLog.getId(), timestamp, fatal, size, ErrorLogIndex.STATE_NEW));
+        index.save();
+    }
+
+    /**
+     * Get the size of a stored error log file from the index.
+     *
+     * @param id error identifier.
+     * @return size in bytes or 0 if not in the index.
+     */
+    public static long getStoredErrorLogSize(@NonNull UUID id) {
+        ErrorLogIndex.Entry entry = getErrorLogIndex().get(id);
+        return entry != null ? entry.size : 0;
+    }
+
+    /**
+     * Check if a stored error log was already accepted by {@link com.microsoft.appcenter.crashes.CrashesListener#shouldProcess}.
+     *
+     * @param id error identifier.
+     * @return true if processed.
+     */
+    public static boolean isStoredErrorLogProcessed(@NonNull UUID id) {
+        ErrorLogIndex.Entry entry = getErrorLogIndex().get(id);
+        return entry != null && entry.state == ErrorLogIndex.STATE_PROCESSED;
+    }
+
+    /**
+     * Remember that a stored error log was accepted by {@link com.microsoft.appcenter.crashes.CrashesListener#shouldProcess}.
+     *
+     * @param id error identifier.
+     */
+    public static void setStoredErrorLogProcessed(@NonNull UUID id) {
+        ErrorLogIndex index = getErrorLogIndex();
+        ErrorLogIndex.Entry entry = index.get(id);
+        if (entry != null && entry.state != ErrorLogIndex.STATE_PROCESSED) {
+            index.put(new ErrorLogIndex.Entry(id, entry.timestamp, entry.fatal, entry.size, ErrorLogIndex.STATE_PROCESSED));
+            saveErrorLogIndex();
+        }
+    }
+
+    /**
+     * Get stored error log files from the index.
+     *
+     * @return error log files sorted by error timestamp.
+     */
+    @NonNull
+    public static File[] getStoredErrorLogFiles() {
+        File errorStorageDirectory = getErrorStorageDirectory();
+        List<ErrorLogIndex.Entry> entries = getErrorLogIndex().getEntries();
+        File[] files = new File[entries.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(errorStorageDirectory, entries.get(i).id + ERROR_LOG_FILE_EXTENSION);
+        }
+        return files;
     }
 
     @NonNull
@@ -251,14 +603,37 @@ public class ErrorLogHelper {
         return files != null ? files : new File[0];
     }
 
+    /**
+     * Get the error identifier of a stored error log file from its name.
+     *
+     * @param file error log file.
+     * @return error identifier or null if the file name is not an error identifier.
+     */
+    @Nullable
+    public static UUID getStoredErrorLogId(@NonNull File file) {
+        String filename = file.getName();
+        if (filename == null || !filename.endsWith(ERROR_LOG_FILE_EXTENSION)) {
+            return null;
+        }
+        try {
+            return UUID.fromString(filename.substring(0, filename.length() - ERROR_LOG_FILE_EXTENSION.length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the stored error log file with the most recent error timestamp.
+     *
+     * @return error log file or null if there is none.
+     */
     @Nullable
     public static File getLastErrorLogFile() {
-        return FileManager.lastModifiedFile(getErrorStorageDirectory(), new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String filename) {
-                return filename.endsWith(ERROR_LOG_FILE_EXTENSION);
-            }
-        });
+        List<ErrorLogIndex.Entry> entries = getErrorLogIndex().getEntries();
+        if (entries.isEmpty()) {
+            return null;
+        }
+        return new File(getErrorStorageDirectory(), entries.get(entries.size() - 1).id + ERROR_LOG_FILE_EXTENSION);
     }
 
     @Nullable
@@ -275,7 +650,7 @@ public class ErrorLogHelper {
     }
 
     @Nullable
-    static File getStoredErrorLogFile(@NonNull UUID id) {
+    public static File getStoredErrorLogFile(@NonNull UUID id) {
         return getStoredFile(id, ERROR_LOG_FILE_EXTENSION);
     }
 
@@ -285,14 +660,48 @@ public class ErrorLogHelper {
             AppCenterLog.info(Crashes.LOG_TAG, "Deleting error log file " + file.getName());
             FileManager.delete(file);
         }
+        if (getErrorLogIndex().remove(id)) {
+            saveErrorLogIndex();
+        }
+    }
+
+    /**
+     * Check if an error log was converted from a minidump file, without decoding its throwable.
+     *
+     * @param log error log.
+     * @return true if the exception stack trace is the minidump file path.
+     */
+    public static boolean isMinidumpErrorLog(@NonNull ManagedErrorLog log) {
+        Exception exception = log.getException();
+        return exception != null && Constants.WRAPPER_SDK_NAME_NDK.equals(exception.getWrapperSdkName());
     }
 
+    /**
+     * Encode a throwable for client side inspection, in a form that can be read back with
+     * {@link #getErrorReportFromErrorLog(ManagedErrorLog, byte[])}.
+     *
+     * @param outputStream stream to write to.
+     * @param throwable    throwable to encode.
+     * @throws IOException if the stream could not be written.
+     */
+    public static void writeThrowable(@NonNull OutputStream outputStream, @NonNull Throwable throwable) throws IOException {
+        ThrowableEncoding.write(outputStream, throwable);
+    }
+
+    /**
+     * Create an error report from an error log.
+     *
+     * @param log              error log.
+     * @param encodedThrowable throwable written by {@link #writeThrowable(OutputStream, Throwable)}
+     *                         or null if there is no Java throwable. It is only decoded when
+     *                         {@link ErrorReport#getThrowable()} is called.
+     * @return error report.
+     */
     @NonNull
-    public static ErrorReport getErrorReportFromErrorLog(@NonNull ManagedErrorLog log, Throwable throwable) {
-        ErrorReport report = new ErrorReport();
+    public static ErrorReport getErrorReportFromErrorLog(@NonNull ManagedErrorLog log, @Nullable byte[] encodedThrowable) {
+        ErrorReport report = new EncodedThrowableErrorReport(encodedThrowable);
         report.setId(log.getId().toString());
         report.setThreadName(log.getErrorThreadName());
-        report.setThrowable(throwable);
         report.setAppStartTime(log.getAppLaunchTimestamp());
         report.setAppErrorTime(log.getTimestamp());
         report.setDevice(log.getDevice());
@@ -300,34 +709,28 @@ public class ErrorLogHelper {
     }
 
     @VisibleForTesting
-    static void setErrorLogDirectory(File file) {
+    static synchronized void setErrorLogDirectory(File file) {
         sErrorLogDirectory = file;
+        sAttachmentDirectory = null;
+        sErrorLogIndex = null;
     }
 
-    @Nullable
-    private static File getStoredFile(@NonNull final UUID id, @NonNull final String extension) {
-        File[] files = getErrorStorageDirectory().listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String filename) {
-                return filename.startsWith(id.toString()) && filename.endsWith(extension);
-            }
-        });
+    @VisibleForTesting
+    static synchronized void setProcessName(String processName) {
+        sProcessName = processName;
+    }
 
-        return files != null && files.length > 0 ? files[0] : null;
+    @Nullable
+    private static File getStoredFile(@NonNull UUID id, @NonNull String extension) {
+        File file = new File(getErrorStorageDirectory(), id + extension);
+        return file.exists() ? file : null;
     }
 
     @NonNull
     public static Exception getModelExceptionFromThrowable(@NonNull Throwable t) {
         Exception topException = null;
         Exception parentException = null;
-        List<Throwable> causeChain = new LinkedList<>();
-        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
-            causeChain.add(cause);
-        }
-        if (causeChain.size() > CAUSE_LIMIT) {
-            AppCenterLog.warn(Crashes.LOG_TAG, "Crash causes truncated from " + causeChain.size() + " to " + CAUSE_LIMIT + " causes.");
-            causeChain.subList(CAUSE_LIMIT_HALF, causeChain.size() - CAUSE_LIMIT_HALF).clear();
-        }
+        List<Throwable> causeChain = getCauseChain(t);
         for (Throwable cause : causeChain) {
             Exception exception = new Exception();
             exception.setType(cause.getClass().getName());
@@ -345,23 +748,53 @@ public class ErrorLogHelper {
         return topException;
     }
 
+    /**
+     * Get a throwable and its causes, keeping only beginning and end of huge cause chains.
+     */
+    @NonNull
+    static List<Throwable> getCauseChain(@NonNull Throwable t) {
+        List<Throwable> causeChain = new LinkedList<>();
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            causeChain.add(cause);
+        }
+        if (causeChain.size() > CAUSE_LIMIT) {
+            AppCenterLog.warn(Crashes.LOG_TAG, "Crash causes truncated from " + causeChain.size() + " to " + CAUSE_LIMIT + " causes.");
+            causeChain.subList(CAUSE_LIMIT_HALF, causeChain.size() - CAUSE_LIMIT_HALF).clear();
+        }
+        return causeChain;
+    }
+
     @NonNull
     private static List<StackFrame> getModelFramesFromStackTrace(@NonNull Throwable throwable) {
         StackTraceElement[] stackTrace = throwable.getStackTrace();
         if (stackTrace.length > FRAME_LIMIT) {
-            StackTraceElement[] stackTraceTruncated = new StackTraceElement[FRAME_LIMIT];
-            System.arraycopy(stackTrace, 0, stackTraceTruncated, 0, FRAME_LIMIT_HALF);
-            System.arraycopy(stackTrace, stackTrace.length - FRAME_LIMIT_HALF, stackTraceTruncated, FRAME_LIMIT_HALF, FRAME_LIMIT_HALF);
+            StackTraceElement[] stackTraceTruncated = truncateFrames(stackTrace, FRAME_LIMIT);
             throwable.setStackTrace(stackTraceTruncated);
             AppCenterLog.warn(Crashes.LOG_TAG, "Crash frames truncated from " + stackTrace.length + " to " + stackTraceTruncated.length + " frames.");
             stackTrace = stackTraceTruncated;
         }
-        return getModelFramesFromStackTrace(stackTrace);
+        return getModelFramesFromStackTrace(Arrays.asList(stackTrace));
+    }
+
+    /**
+     * Keep the first half of the limit of frames from the beginning and the second half from end.
+     */
+    @NonNull
+    private static StackTraceElement[] truncateFrames(@NonNull StackTraceElement[] stackTrace, int limit) {
+        if (stackTrace.length <= limit) {
+            return stackTrace;
+        }
+        int head = (limit + 1) / 2;
+        int tail = limit - head;
+        StackTraceElement[] stackTraceTruncated = new StackTraceElement[limit];
+        System.arraycopy(stackTrace, 0, stackTraceTruncated, 0, head);
+        System.arraycopy(stackTrace, stackTrace.length - tail, stackTraceTruncated, head, tail);
+        return stackTraceTruncated;
     }
 
     @NonNull
-    private static List<StackFrame> getModelFramesFromStackTrace(@NonNull StackTraceElement[] stackTrace) {
-        List<StackFrame> stackFrames = new ArrayList<>();
+    private static List<StackFrame> getModelFramesFromStackTrace(@NonNull List<StackTraceElement> stackTrace) {
+        List<StackFrame> stackFrames = new ArrayList<>(stackTrace.size());
         for (StackTraceElement stackTraceElement : stackTrace) {
             stackFrames.add(getModelStackFrame(stackTraceElement));
         }
@@ -0,0 +1,239 @@
+package com.microsoft.appcenter.crashes.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.microsoft.appcenter.utils.storage.FileManager;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Index of the error logs stored in the error directory.
+ * <p>
+ * Entries are kept in memory and persisted to a small binary file that is replaced atomically
+ * on every change, so that pending errors can be listed without scanning the directory
+ * and without parsing error logs.
+ */
+class ErrorLogIndex {
+
+    /**
+     * Error log saved and not yet processed.
+     */
+    static final int STATE_NEW = 0;
+
+    /**
+     * Error log accepted by the crashes listener and waiting to be sent.
+     */
+    static final int STATE_PROCESSED = 1;
+
+    /**
+     * File format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Extension of the temporary file renamed over the index file.
+     */
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    /**
+     * Size of a serialized entry.
+     */
+    private static final int ENTRY_SIZE = 8 + 8 + 8 + 1 + 8 + 1;
+
+    /**
+     * Entries sorted by timestamp.
+     */
+    private static final Comparator<Entry> TIMESTAMP_COMPARATOR = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            return entry1.timestamp < entry2.timestamp ? -1 : entry1.timestamp == entry2.timestamp ? 0 : 1;
+        }
+    };
+
+    /**
+     * Index file.
+     */
+    private final File mFile;
+
+    /**
+     * Entries by error identifier.
+     */
+    private final Map<UUID, Entry> mEntries = new LinkedHashMap<>();
+
+    /**
+     * Buffer reused to serialize the index.
+     */
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(512);
+
+    /**
+     * Init.
+     *
+     * @param file index file.
+     */
+    ErrorLogIndex(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * Load entries from the index file.
+     *
+     * @return false if the file is missing or invalid, the index is then empty.
+     */
+    synchronized boolean load() {
+        mEntries.clear();
+        if (!mFile.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                if (inputStream.readInt() != VERSION) {
+                    return false;
+                }
+                int count = inputStream.readInt();
+                if (count < 0 || (long) count * ENTRY_SIZE != mFile.length() - 8) {
+                    return false;
+                }
+                for (int i = 0; i < count; i++) {
+                    UUID id = new UUID(inputStream.readLong(), inputStream.readLong());
+                    long timestamp = inputStream.readLong();
+                    boolean fatal = inputStream.readBoolean();
+                    long size = inputStream.readLong();
+                    int state = inputStream.readByte();
+                    mEntries.put(id, new Entry(id, timestamp, fatal, size, state));
+                }
+                return true;
+            } finally {
+
+                //noinspection ThrowFromFinallyBlock
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            mEntries.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Replace the index file by the current entries.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    synchronized void save() throws IOException {
+        mBuffer.reset();
+        DataOutputStream outputStream = new DataOutputStream(mBuffer);
+        outputStream.writeInt(VERSION);
+        outputStream.writeInt(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            outputStream.writeLong(entry.id.getMostSignificantBits());
+            outputStream.writeLong(entry.id.getLeastSignificantBits());
+            outputStream.writeLong(entry.timestamp);
+            outputStream.writeBoolean(entry.fatal);
+            outputStream.writeLong(entry.size);
+            outputStream.writeByte(entry.state);
+        }
+        File tempFile = new File(mFile.getPath() + TEMP_FILE_EXTENSION);
+        FileManager.writeAndSync(tempFile, mBuffer);
+        if (!tempFile.renameTo(mFile)) {
+            throw new IOException("Failed to rename " + tempFile + " to " + mFile);
+        }
+    }
+
+    /**
+     * Add or replace an entry without saving the index.
+     *
+     * @param entry entry.
+     */
+    synchronized void put(@NonNull Entry entry) {
+        mEntries.put(entry.id, entry);
+    }
+
+    /**
+     * Remove an entry without saving the index.
+     *
+     * @param id error identifier.
+     * @return true if the entry was in the index.
+     */
+    synchronized boolean remove(@NonNull UUID id) {
+        return mEntries.remove(id) != null;
+    }
+
+    /**
+     * Get an entry.
+     *
+     * @param id error identifier.
+     * @return the entry or null if not in the index.
+     */
+    @Nullable
+    synchronized Entry get(@NonNull UUID id) {
+        return mEntries.get(id);
+    }
+
+    /**
+     * Get all entries.
+     *
+     * @return entries sorted by timestamp.
+     */
+    @NonNull
+    synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, TIMESTAMP_COMPARATOR);
+        return entries;
+    }
+
+    /**
+     * Error log entry.
+     */
+    static class Entry {
+
+        /**
+         * Error identifier.
+         */
+        final UUID id;
+
+        /**
+         * Error timestamp in milliseconds.
+         */
+        final long timestamp;
+
+        /**
+         * Whether the error is a crash.
+         */
+        final boolean fatal;
+
+        /**
+         * Size of the error log file in bytes.
+         */
+        final long size;
+
+        /**
+         * Processing state.
+         */
+        final int state;
+
+        Entry(@NonNull UUID id, long timestamp, boolean fatal, long size, int state) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.fatal = fatal;
+            this.size = size;
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.microsoft.appcenter.crashes.utils;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits how often the same handled error is reported.
+ * <p>
+ * Errors are identified by a fingerprint made of their type and top stack frames. Each fingerprint
+ * has a token bucket: a burst of errors is reported, then one error per refill interval.
+ * Suppressed occurrences are counted and the count is reported with the next allowed error.
+ */
+public class HandledErrorRateLimiter {
+
+    /**
+     * Default number of identical errors reported in a row.
+     */
+    @VisibleForTesting
+    public static final int DEFAULT_BURST = 10;
+
+    /**
+     * Default time to wait to report one more identical error once the burst is used, in milliseconds.
+     */
+    @VisibleForTesting
+    public static final long DEFAULT_REFILL_INTERVAL = 60 * 1000;
+
+    /**
+     * Number of top stack frames used in a fingerprint.
+     */
+    @VisibleForTesting
+    static final int FINGERPRINT_FRAME_COUNT = 5;
+
+    /**
+     * Maximum number of fingerprints tracked, the least recently seen is forgotten first.
+     */
+    @VisibleForTesting
+    static final int MAX_FINGERPRINTS = 100;
+
+    /**
+     * Value returned by {@link #tryAcquire(String)} when the error must not be reported.
+     */
+    public static final int SUPPRESSED = -1;
+
+    /**
+     * Property added to a reported error with the number of identical errors suppressed before it.
+     */
+    public static final String SUPPRESSED_COUNT_PROPERTY = "suppressedCount";
+
+    /**
+     * Buckets by fingerprint, in access order.
+     */
+    private final Map<String, Bucket> mBuckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > MAX_FINGERPRINTS;
+        }
+    };
+
+    /**
+     * Number of identical errors reported in a row.
+     */
+    private int mBurst = DEFAULT_BURST;
+
+    /**
+     * Time to wait to report one more identical error once the burst is used.
+     */
+    private long mRefillInterval = DEFAULT_REFILL_INTERVAL;
+
+    /**
+     * Compute the fingerprint of a throwable without building its model.
+     *
+     * @param throwable throwable.
+     * @return fingerprint.
+     */
+    @NonNull
+    public static String getFingerprint(@NonNull Throwable throwable) {
+        StringBuilder builder = new StringBuilder(throwable.getClass().getName());
+        StackTraceElement[] stackTrace = throwable.getStackTrace();
+        for (int i = 0; i < stackTrace.length && i < FINGERPRINT_FRAME_COUNT; i++) {
+            StackTraceElement element = stackTrace[i];
+            builder.append('\n').append(element.getClassName()).append('.').append(element.getMethodName())
+                    .append('(').append(element.getFileName()).append(':').append(element.getLineNumber()).append(')');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Compute the fingerprint of an exception model, as tracked by wrapper SDKs.
+     *
+     * @param exception exception model.
+     * @return fingerprint.
+     */
+    @NonNull
+    public static String getFingerprint(@NonNull Exception exception) {
+        StringBuilder builder = new StringBuilder(String.valueOf(exception.getType()));
+        List<StackFrame> frames = exception.getFrames();
+        if (frames != null) {
+            for (int i = 0; i < frames.size() && i < FINGERPRINT_FRAME_COUNT; i++) {
+                StackFrame frame = frames.get(i);
+                builder.append('\n').append(frame.getClassName()).append('.').append(frame.getMethodName())
+                        .append('(').append(frame.getFileName()).append(':').append(frame.getLineNumber()).append(')');
+            }
+        } else if (exception.getStackTrace() != null) {
+
+            /* Wrapper SDKs can provide a raw stack trace instead of frames, use its first lines. */
+            String stackTrace = exception.getStackTrace();
+            int end = -1;
+            for (int i = 0; i < FINGERPRINT_FRAME_COUNT; i++) {
+                end = stackTrace.indexOf('\n', end + 1);
+                if (end < 0) {
+                    end = stackTrace.length();
+                    break;
+                }
+            }
+            builder.append('\n').append(stackTrace, 0, end);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Change the limits, which also resets the state of all fingerprints.
+     *
+     * @param burst          number of identical errors reported in a row.
+     * @param refillInterval time to wait to report one more identical error once the burst is used, in milliseconds.
+     */
+    public synchronized void setLimits(int burst, long refillInterval) {
+        mBurst = burst;
+        mRefillInterval = refillInterval;
+        mBuckets.clear();
+    }
+
+    /**
+     * Check if an error can be reported and consume a token if so.
+     *
+     * @param fingerprint error fingerprint.
+     * @return {@link #SUPPRESSED} if the error must not be reported, otherwise the number of
+     * identical errors suppressed since the last one reported.
+     */
+    public synchronized int tryAcquire(@NonNull String fingerprint) {
+        long now = SystemClock.elapsedRealtime();
+        Bucket bucket = mBuckets.get(fingerprint);
+        if (bucket == null) {
+            bucket = new Bucket(mBurst, now);
+            mBuckets.put(fingerprint, bucket);
+        } else {
+            long elapsed = now - bucket.refillTime;
+            if (elapsed >= mRefillInterval) {
+                long refilled = elapsed / mRefillInterval;
+                if (bucket.tokens + refilled >= mBurst) {
+                    bucket.tokens = mBurst;
+                    bucket.refillTime = now;
+                } else {
+                    bucket.tokens += refilled;
+                    bucket.refillTime += refilled * mRefillInterval;
+                }
+            }
+        }
+        if (bucket.tokens == 0) {
+            if (bucket.suppressedCount < Integer.MAX_VALUE) {
+                bucket.suppressedCount++;
+            }
+            return SUPPRESSED;
+        }
+        bucket.tokens--;
+        int suppressedCount = bucket.suppressedCount;
+        bucket.suppressedCount = 0;
+        return suppressedCount;
+    }
+
+    /**
+     * Token bucket of a fingerprint.
+     */
+    private static class Bucket {
+
+        /**
+         * Errors that can be reported now.
+         */
+        int tokens;
+
+        /**
+         * Time the tokens were last refilled, based on {@link SystemClock#elapsedRealtime()}.
+         */
+        long refillTime;
+
+        /**
+         * Errors suppressed since the last one reported.
+         */
+        int suppressedCount;
+
+        Bucket(int tokens, long refillTime) {
+            this.tokens = tokens;
+            this.refillTime = refillTime;
+        }
+    }
+}
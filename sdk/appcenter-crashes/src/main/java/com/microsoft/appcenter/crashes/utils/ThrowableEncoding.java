@@ -0,0 +1,276 @@
+package com.microsoft.appcenter.crashes.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.crashes.Crashes;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a throwable kept for client side inspection.
+ * <p>
+ * Only the type, message and stack trace of each cause are stored, the throwable is rebuilt
+ * from them by reflection when read. Strings repeated across frames and causes are stored once.
+ * Files written by previous versions using Java serialization can still be read.
+ */
+class ThrowableEncoding {
+
+    /**
+     * Header of the encoding, distinct from the Java serialization stream magic.
+     */
+    private static final int MAGIC = 0x41435401;
+
+    /**
+     * String reference used for null.
+     */
+    private static final int NULL_STRING = -1;
+
+    /**
+     * Charset used to encode strings.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Encode a throwable and its causes.
+     *
+     * @param outputStream stream to write to.
+     * @param throwable    throwable to encode.
+     * @throws IOException if the stream could not be written.
+     */
+    static void write(@NonNull OutputStream outputStream, @NonNull Throwable throwable) throws IOException {
+        List<Throwable> causeChain = ErrorLogHelper.getCauseChain(throwable);
+        Map<String, Integer> strings = new HashMap<>();
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(MAGIC);
+        dataOutputStream.writeInt(causeChain.size());
+        for (Throwable cause : causeChain) {
+            writeString(dataOutputStream, strings, cause.getClass().getName());
+            writeString(dataOutputStream, strings, cause.getMessage());
+            StackTraceElement[] stackTrace = cause.getStackTrace();
+            dataOutputStream.writeInt(stackTrace.length);
+            for (StackTraceElement element : stackTrace) {
+                writeString(dataOutputStream, strings, element.getClassName());
+                writeString(dataOutputStream, strings, element.getMethodName());
+                writeString(dataOutputStream, strings, element.getFileName());
+                dataOutputStream.writeInt(element.getLineNumber());
+            }
+        }
+        dataOutputStream.flush();
+    }
+
+    /**
+     * Rebuild a throwable.
+     *
+     * @param data encoded throwable or Java serialized throwable.
+     * @return the throwable or null if the data cannot be read.
+     */
+    @Nullable
+    static Throwable read(@NonNull byte[] data) {
+        if (data.length >= 2 && (short) (((data[0] & 0xFF) << 8) | (data[1] & 0xFF)) == ObjectStreamConstants.STREAM_MAGIC) {
+            return readSerialized(data);
+        }
+        try {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+            if (inputStream.readInt() != MAGIC) {
+                throw new IOException("Invalid header");
+            }
+            int causeCount = inputStream.readInt();
+            if (causeCount <= 0) {
+                throw new IOException("Invalid cause count: " + causeCount);
+            }
+            List<String> strings = new ArrayList<>();
+            Throwable topThrowable = null;
+            Throwable parentThrowable = null;
+            for (int i = 0; i < causeCount; i++) {
+                String type = readString(inputStream, strings);
+                String message = readString(inputStream, strings);
+                int frameCount = inputStream.readInt();
+                if (type == null || frameCount < 0 || frameCount > data.length) {
+                    throw new IOException("Invalid cause");
+                }
+                StackTraceElement[] stackTrace = new StackTraceElement[frameCount];
+                for (int j = 0; j < frameCount; j++) {
+                    String className = readString(inputStream, strings);
+                    String methodName = readString(inputStream, strings);
+                    String fileName = readString(inputStream, strings);
+                    int lineNumber = inputStream.readInt();
+                    if (className == null || methodName == null) {
+                        throw new IOException("Invalid frame");
+                    }
+                    stackTrace[j] = new StackTraceElement(className, methodName, fileName, lineNumber);
+                }
+                Throwable throwable = newThrowable(type, message);
+                throwable.setStackTrace(stackTrace);
+                if (topThrowable == null) {
+                    topThrowable = throwable;
+                } else {
+                    try {
+                        parentThrowable.initCause(throwable);
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+
+                        /* Constructor already set a cause, keep the chain as complete as we can. */
+                        AppCenterLog.warn(Crashes.LOG_TAG, "Cannot restore cause of " + parentThrowable.getClass().getName());
+                    }
+                }
+                parentThrowable = throwable;
+            }
+            return topThrowable;
+        } catch (IOException e) {
+            AppCenterLog.error(Crashes.LOG_TAG, "Cannot read throwable", e);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream outputStream, Map<String, Integer> strings, String value) throws IOException {
+        if (value == null) {
+            outputStream.writeInt(NULL_STRING);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            outputStream.writeInt(index);
+        } else {
+
+            /* Next index introduces a new string. */
+            outputStream.writeInt(strings.size());
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(UTF_8);
+            outputStream.writeInt(bytes.length);
+            outputStream.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream inputStream, List<String> strings) throws IOException {
+        int index = inputStream.readInt();
+        if (index == NULL_STRING) {
+            return null;
+        }
+        if (index < 0 || index > strings.size()) {
+            throw new IOException("Invalid string index: " + index);
+        }
+        if (index < strings.size()) {
+            return strings.get(index);
+        }
+        int length = inputStream.readInt();
+        if (length < 0 || length > inputStream.available()) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        inputStream.readFully(bytes);
+        String value = new String(bytes, UTF_8);
+        strings.add(value);
+        return value;
+    }
+
+    /**
+     * Create a throwable of the original type if it can be instantiated with the original message,
+     * otherwise fall back to {@link UnresolvedThrowable}.
+     */
+    @NonNull
+    @VisibleForTesting
+    static Throwable newThrowable(@NonNull String type, @Nullable String message) {
+        try {
+            Class<? extends Throwable> throwableClass = Class.forName(type, false, ThrowableEncoding.class.getClassLoader()).asSubclass(Throwable.class);
+            Throwable throwable = newInstance(throwableClass, message);
+            if (throwable != null) {
+                return throwable;
+            }
+        } catch (ClassNotFoundException | ClassCastException | LinkageError e) {
+            AppCenterLog.debug(Crashes.LOG_TAG, "Cannot load throwable class " + type);
+        }
+        return new UnresolvedThrowable(type, message);
+    }
+
+    @Nullable
+    private static Throwable newInstance(Class<? extends Throwable> throwableClass, String message) {
+        try {
+            Constructor<? extends Throwable> constructor = throwableClass.getDeclaredConstructor(String.class);
+            constructor.setAccessible(true);
+            Throwable throwable = constructor.newInstance(message);
+            if (equals(message, throwable.getMessage())) {
+                return throwable;
+            }
+        } catch (java.lang.Exception | LinkageError ignored) {
+        }
+        try {
+            Constructor<? extends Throwable> constructor = throwableClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            Throwable throwable = constructor.newInstance();
+            if (equals(message, throwable.getMessage())) {
+                return throwable;
+            }
+        } catch (java.lang.Exception | LinkageError ignored) {
+        }
+        return null;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Nullable
+    private static Throwable readSerialized(byte[] data) {
+        try {
+            ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(data));
+
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                return (Throwable) inputStream.readObject();
+            } finally {
+
+                //noinspection ThrowFromFinallyBlock
+                inputStream.close();
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException | StackOverflowError e) {
+            AppCenterLog.error(Crashes.LOG_TAG, "Cannot read serialized throwable", e);
+            return null;
+        }
+    }
+
+    /**
+     * Throwable used when the original type cannot be instantiated, it prints as the original type.
+     */
+    @VisibleForTesting
+    static class UnresolvedThrowable extends Throwable {
+
+        /**
+         * Original type name.
+         */
+        private final String mType;
+
+        UnresolvedThrowable(String type, String message) {
+            super(message);
+            mType = type;
+        }
+
+        /**
+         * Get the original type name.
+         *
+         * @return original type name.
+         */
+        String getType() {
+            return mType;
+        }
+
+        @Override
+        public String toString() {
+            String message = getLocalizedMessage();
+            return message != null ? mType + ": " + message : mType;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import android.os.SystemClock;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.AppCenterHandler;
 import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ContextHistory;
 import com.microsoft.appcenter.SessionContext;
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.crashes.ingestion.models.ErrorAttachmentLog;
@@ -17,9 +18,9 @@ import com.microsoft.appcenter.crashes.ingestion.models.json.ErrorAttachmentLogF
 import com.microsoft.appcenter.crashes.ingestion.models.json.HandledErrorLogFactory;
 import com.microsoft.appcenter.crashes.ingestion.models.json.ManagedErrorLogFactory;
 import com.microsoft.appcenter.crashes.model.ErrorReport;
-import com.microsoft.appcenter.crashes.model.NativeException;
 import com.microsoft.appcenter.crashes.model.TestCrashException;
 import com.microsoft.appcenter.crashes.utils.ErrorLogHelper;
+import com.microsoft.appcenter.crashes.utils.HandledErrorRateLimiter;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
@@ -45,7 +46,6 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
-import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
@@ -55,10 +55,11 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.powermock.reflect.Whitebox;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -69,6 +70,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import static com.microsoft.appcenter.Flags.DEFAULTS;
 import static com.microsoft.appcenter.Flags.PERSISTENCE_CRITICAL;
@@ -78,6 +80,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
@@ -90,7 +93,6 @@ import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Matchers.isNull;
-import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
@@ -99,6 +101,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
+import static org.powermock.api.mockito.PowerMockito.doNothing;
 import static org.powermock.api.mockito.PowerMockito.doThrow;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyNoMoreInteractions;
@@ -112,6 +115,8 @@ public class CrashesTest {
     @SuppressWarnings("ThrowableInstanceNeverThrown")
     private static final Exception EXCEPTION = new Exception("This is a test exception.");
 
+    private static final byte[] ENCODED_EXCEPTION = new byte[]{'e'};
+
     private static final String CRASHES_ENABLED_KEY = PrefStorageConstants.KEY_ENABLED + "_" + Crashes.getInstance().getServiceName();
 
     @Rule
@@ -191,6 +196,7 @@ public class CrashesTest {
 
     @After
     public void tearDown() {
+        ContextHistory.unsetInstance();
         UserIdContext.unsetInstance();
     }
 
@@ -330,9 +336,9 @@ public class CrashesTest {
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report);
         when(FileManager.read(any(File.class))).thenReturn("");
-        when(FileManager.readObject(any(File.class))).thenReturn(new RuntimeException());
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
         CrashesListener mockListener = mock(CrashesListener.class);
         when(mockListener.shouldProcess(report)).thenReturn(true);
         when(mockListener.shouldAwaitUserConfirmation()).thenReturn(false);
@@ -348,6 +354,8 @@ public class CrashesTest {
         List<ErrorAttachmentLog> errorAttachmentLogList = Arrays.asList(mockAttachment, mockAttachment, mockEmptyAttachment, null);
         when(mockListener.getErrorAttachments(report)).thenReturn(errorAttachmentLogList);
         LogSerializer logSerializer = mock(LogSerializer.class);
+        List<StackFrame> frames = mErrorLog.getException().getFrames();
+        mErrorLog.compactFrames();
         when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mErrorLog);
         Crashes crashes = Crashes.getInstance();
         crashes.setLogSerializer(logSerializer);
@@ -359,6 +367,10 @@ public class CrashesTest {
         verify(mockListener).shouldProcess(report);
         verify(mockListener).shouldAwaitUserConfirmation();
         verify(mockListener).getErrorAttachments(report);
+        assertNull(mErrorLog.getFrameTable());
+        assertEquals(frames, mErrorLog.getException().getFrames());
+        verifyStatic();
+        ErrorLogHelper.setStoredErrorLogProcessed(mErrorLog.getId());
         verify(mockChannel).enqueue(argThat(new ArgumentMatcher<Log>() {
             @Override
             public boolean matches(Object log) {
@@ -379,9 +391,9 @@ public class CrashesTest {
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report);
         when(FileManager.read(any(File.class))).thenReturn("");
-        when(FileManager.readObject(any(File.class))).thenReturn(new RuntimeException()).thenReturn(new byte[]{});
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
 
         CrashesListener mockListener = mock(CrashesListener.class);
         when(mockListener.shouldProcess(report)).thenReturn(false);
@@ -422,9 +434,9 @@ public class CrashesTest {
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report);
         when(FileManager.read(any(File.class))).thenReturn("");
-        when(FileManager.readObject(any(File.class))).thenReturn(new RuntimeException());
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
         when(SharedPreferencesManager.getBoolean(eq(Crashes.PREF_KEY_ALWAYS_SEND), anyBoolean())).thenReturn(true);
 
         CrashesListener mockListener = mock(CrashesListener.class);
@@ -458,6 +470,132 @@ public class CrashesTest {
         verify(mockChannel, times(errorAttachmentLogList.size())).enqueue(mockAttachment, crashes.getGroupName(), DEFAULTS);
     }
 
+    private void queuePendingCrashWithAttachment(Channel mockChannel, ErrorAttachmentLog attachment, File dataFile, boolean fitsStorage) throws JSONException {
+        ErrorReport report = new ErrorReport();
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report);
+        when(ErrorLogHelper.getAttachmentFile(any(UUID.class))).thenReturn(dataFile);
+        when(ErrorLogHelper.makeRoomForAttachmentFile(anyLong())).thenReturn(fitsStorage);
+        when(FileManager.read(any(File.class))).thenReturn("");
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
+        CrashesListener mockListener = mock(CrashesListener.class);
+        when(mockListener.shouldProcess(report)).thenReturn(true);
+        when(mockListener.shouldAwaitUserConfirmation()).thenReturn(false);
+        when(mockListener.getErrorAttachments(report)).thenReturn(singletonList(attachment));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mErrorLog);
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.setInstanceListener(mockListener);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mockChannel, "", null, true);
+    }
+
+    @Test
+    public void queuePendingCrashesAttachmentDataFile() throws Exception {
+        final ErrorAttachmentLog attachment = ErrorAttachmentLog.attachmentWithText("Hello", "hello.txt");
+        final File dataFile = new File("attachment");
+
+        /* Check attachment state when persisted. */
+        Channel mockChannel = mock(Channel.class);
+        final boolean[] storedInFile = new boolean[1];
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                storedInFile[0] = attachment.getData() == null && dataFile.equals(attachment.getDataFile());
+                return null;
+            }
+        }).when(mockChannel).enqueue(eq(attachment), anyString(), eq(DEFAULTS));
+        queuePendingCrashWithAttachment(mockChannel, attachment, dataFile, true);
+        verify(mockChannel).enqueue(eq(attachment), anyString(), eq(DEFAULTS));
+        assertTrue(storedInFile[0]);
+        verifyStatic();
+        FileManager.writeAndSync(eq(dataFile), any(byte[].class));
+
+        /* Attachment restored for the application. */
+        assertEquals("Hello", new String(attachment.getData(), "UTF-8"));
+        assertNull(attachment.getDataFile());
+    }
+
+    @Test
+    public void queuePendingCrashesAttachmentDataFileWriteFailed() throws Exception {
+        final ErrorAttachmentLog attachment = ErrorAttachmentLog.attachmentWithText("Hello", "hello.txt");
+        File dataFile = new File("attachment");
+        doThrow(new IOException("mock")).when(FileManager.class);
+        FileManager.writeAndSync(eq(dataFile), any(byte[].class));
+
+        /* Data is kept in the log. */
+        Channel mockChannel = mock(Channel.class);
+        final boolean[] storedInLog = new boolean[1];
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                storedInLog[0] = attachment.getData() != null && attachment.getDataFile() == null;
+                return null;
+            }
+        }).when(mockChannel).enqueue(eq(attachment), anyString(), eq(DEFAULTS));
+        queuePendingCrashWithAttachment(mockChannel, attachment, dataFile, true);
+        verify(mockChannel).enqueue(eq(attachment), anyString(), eq(DEFAULTS));
+        assertTrue(storedInLog[0]);
+        verifyStatic();
+        FileManager.delete(dataFile);
+    }
+
+    @Test
+    public void queuePendingCrashesAttachmentLargerThanStorage() throws Exception {
+        ErrorAttachmentLog attachment = ErrorAttachmentLog.attachmentWithText("Hello", "hello.txt");
+        File dataFile = new File("attachment");
+
+        /* Attachment is discarded. */
+        Channel mockChannel = mock(Channel.class);
+        queuePendingCrashWithAttachment(mockChannel, attachment, dataFile, false);
+        verify(mockChannel, never()).enqueue(eq(attachment), anyString(), anyInt());
+        verifyStatic(never());
+        FileManager.writeAndSync(eq(dataFile), any(byte[].class));
+    }
+
+    @Test
+    public void attachmentDataFileDeletedOnceSent() {
+        mockStatic(ErrorLogHelper.class);
+        File attachmentDirectory = new File("attachments");
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getAttachmentDirectory()).thenReturn(attachmentDirectory);
+        Crashes crashes = Crashes.getInstance();
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+
+        /* Not deleted before sending. */
+        ErrorAttachmentLog attachmentLog = new ErrorAttachmentLog();
+        File dataFile = new File(attachmentDirectory, "1");
+        attachmentLog.setDataFile(dataFile);
+        crashes.getChannelListener().onBeforeSending(attachmentLog);
+        verifyStatic(never());
+        FileManager.delete(any(File.class));
+
+        /* Deleted on success or failure. */
+        crashes.getChannelListener().onSuccess(attachmentLog);
+        verifyStatic();
+        FileManager.delete(dataFile);
+        dataFile = new File(attachmentDirectory, "2");
+        attachmentLog.setDataFile(dataFile);
+        crashes.getChannelListener().onFailure(attachmentLog, EXCEPTION);
+        verifyStatic();
+        FileManager.delete(dataFile);
+
+        /* Files not stored by the module are left untouched. */
+        dataFile = new File("application");
+        attachmentLog.setDataFile(dataFile);
+        crashes.getChannelListener().onSuccess(attachmentLog);
+        verifyStatic(never());
+        FileManager.delete(dataFile);
+    }
+
     @Test
     public void processPendingErrorsCorrupted() throws JSONException {
         mockStatic(ErrorLogHelper.class);
@@ -481,6 +619,153 @@ public class CrashesTest {
         verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
     }
 
+    @Test
+    public void queuePendingCrashesReadWhenSendingWithDefaultListener() throws JSONException {
+
+        /* Setup mock. */
+        File logFile = mock(File.class);
+        UUID id = mErrorLog.getId();
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{logFile});
+        when(ErrorLogHelper.getStoredErrorLogId(logFile)).thenReturn(id);
+        when(ErrorLogHelper.getStoredErrorLogFile(id)).thenReturn(logFile);
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(new ErrorReport());
+        when(FileManager.read(logFile)).thenReturn("");
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mErrorLog);
+        Channel mockChannel = mock(Channel.class);
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mockChannel, "", null, true);
+
+        /* Verify log was read once, to send it, then deleted. */
+        verify(logSerializer).deserializeLog(anyString(), anyString());
+        verify(mockChannel).enqueue(mErrorLog, crashes.getGroupName(), PERSISTENCE_CRITICAL);
+        verifyStatic(never());
+        ErrorLogHelper.setStoredErrorLogProcessed(any(UUID.class));
+        verifyStatic();
+        ErrorLogHelper.removeStoredErrorLogFile(id);
+    }
+
+    @Test
+    public void queuePendingCrashesAlreadyProcessed() throws JSONException {
+
+        /* Setup mock. */
+        File logFile = mock(File.class);
+        UUID id = mErrorLog.getId();
+        ErrorReport report = new ErrorReport();
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{logFile});
+        when(ErrorLogHelper.getStoredErrorLogId(logFile)).thenReturn(id);
+        when(ErrorLogHelper.isStoredErrorLogProcessed(id)).thenReturn(true);
+        when(ErrorLogHelper.getStoredErrorLogFile(id)).thenReturn(logFile);
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report);
+        when(FileManager.read(logFile)).thenReturn("");
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mErrorLog);
+        CrashesListener mockListener = mock(CrashesListener.class);
+        Channel mockChannel = mock(Channel.class);
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.setInstanceListener(mockListener);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mockChannel, "", null, true);
+
+        /* Listener is not asked again but still gets the report for attachments. */
+        verify(mockListener, never()).shouldProcess(any(ErrorReport.class));
+        verify(mockListener).getErrorAttachments(report);
+        verify(mockChannel).enqueue(mErrorLog, crashes.getGroupName(), PERSISTENCE_CRITICAL);
+    }
+
+    @Test
+    public void deferredReportsAreReadByWrapperApis() throws Exception {
+
+        /* Setup mock. */
+        File logFile = mock(File.class);
+        UUID id = mErrorLog.getId();
+        ErrorReport report = new ErrorReport();
+        report.setId(id.toString());
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{logFile});
+        when(ErrorLogHelper.getStoredErrorLogId(logFile)).thenReturn(id);
+        when(ErrorLogHelper.isStoredErrorLogProcessed(id)).thenReturn(true);
+        when(ErrorLogHelper.getStoredErrorLogFile(id)).thenReturn(logFile);
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report);
+        when(FileManager.read(logFile)).thenReturn("");
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mErrorLog);
+
+        /* Wait for user confirmation so that the report stays deferred. */
+        CrashesListener mockListener = mock(CrashesListener.class);
+        when(mockListener.shouldAwaitUserConfirmation()).thenReturn(true);
+        Channel mockChannel = mock(Channel.class);
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.setInstanceListener(mockListener);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mockChannel, "", null, true);
+        verify(logSerializer, never()).deserializeLog(anyString(), anyString());
+
+        /* Wrapper APIs read the deferred report. */
+        Collection<ErrorReport> reports = WrapperSdkExceptionManager.getUnprocessedErrorReports().get();
+        assertEquals(Collections.singletonList(report), new ArrayList<>(reports));
+        assertFalse(WrapperSdkExceptionManager.sendCrashReportsOrAwaitUserConfirmation(Collections.singletonList(report.getId())).get());
+        verify(logSerializer).deserializeLog(anyString(), anyString());
+
+        /* Report is sent without being read again. */
+        Crashes.notifyUserConfirmation(Crashes.SEND);
+        verify(mockChannel).enqueue(mErrorLog, crashes.getGroupName(), PERSISTENCE_CRITICAL);
+        verify(logSerializer).deserializeLog(anyString(), anyString());
+    }
+
+    @Test
+    public void queuePendingCrashesCorruptedWhenSending() throws JSONException {
+
+        /* Setup mock. */
+        File logFile = mock(File.class);
+        UUID id = UUID.randomUUID();
+        JSONException jsonException = new JSONException("Fake JSON exception");
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{logFile, mock(File.class)});
+        when(ErrorLogHelper.getStoredErrorLogId(logFile)).thenReturn(id);
+        when(ErrorLogHelper.getStoredErrorLogFile(id)).thenReturn(logFile);
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
+        when(FileManager.read(logFile)).thenReturn("");
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenThrow(jsonException);
+        Channel mockChannel = mock(Channel.class);
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mockChannel, "", null, true);
+
+        /* Verify invalid log is deleted. */
+        verify(mockChannel, never()).enqueue(any(Log.class), anyString(), anyInt());
+        verifyStatic();
+        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString(), eq(jsonException));
+        verifyStatic();
+        ErrorLogHelper.removeStoredErrorLogFile(id);
+
+        /* Missing file is also deleted. */
+        UUID otherId = UUID.randomUUID();
+        Crashes.unsetInstance();
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredErrorLogId(any(File.class))).thenReturn(otherId);
+        crashes = Crashes.getInstance();
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mockChannel, "", null, true);
+        verify(mockChannel, never()).enqueue(any(Log.class), anyString(), anyInt());
+        verifyStatic();
+        ErrorLogHelper.removeStoredErrorLogFile(otherId);
+    }
+
     @Test
     public void noQueueingWhenDisabled() {
         mockStatic(ErrorLogHelper.class);
@@ -719,6 +1004,64 @@ public class CrashesTest {
         }), eq(crashes.getGroupName()), eq(DEFAULTS));
     }
 
+    @Test
+    public void trackExceptionRateLimited() {
+        Crashes crashes = Crashes.getInstance();
+        Channel mockChannel = mock(Channel.class);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mockChannel, "", null, true);
+        when(SystemClock.elapsedRealtime()).thenReturn(0L);
+
+        /* Invalid limits are ignored. */
+        Crashes.setHandledErrorRateLimit(0, 1000);
+        Crashes.setHandledErrorRateLimit(2, 0);
+        verifyStatic(times(2));
+        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString());
+
+        /* Only the burst is sent. */
+        Crashes.setHandledErrorRateLimit(2, 1000);
+        for (int i = 0; i < 5; i++) {
+            Crashes.trackException(EXCEPTION);
+        }
+        verify(mockChannel, times(2)).enqueue(isA(HandledErrorLog.class), eq(crashes.getGroupName()), eq(DEFAULTS));
+
+        /* Next error reports suppressed ones. */
+        reset(mockChannel);
+        when(SystemClock.elapsedRealtime()).thenReturn(1000L);
+        Crashes.trackException(EXCEPTION, new HashMap<String, String>() {{
+            put("a", "b");
+        }});
+        ArgumentCaptor<HandledErrorLog> log = ArgumentCaptor.forClass(HandledErrorLog.class);
+        verify(mockChannel).enqueue(log.capture(), eq(crashes.getGroupName()), eq(DEFAULTS));
+        assertEquals("3", log.getValue().getProperties().get(HandledErrorRateLimiter.SUPPRESSED_COUNT_PROPERTY));
+        assertEquals("b", log.getValue().getProperties().get("a"));
+
+        /* Count is not reported if properties are full. */
+        reset(mockChannel);
+        Crashes.trackException(EXCEPTION);
+        when(SystemClock.elapsedRealtime()).thenReturn(2000L);
+        Crashes.trackException(EXCEPTION, new HashMap<String, String>() {{
+            for (int i = 0; i < ErrorLogHelper.MAX_PROPERTY_COUNT; i++) {
+                put("valid" + i, "valid");
+            }
+        }});
+        log = ArgumentCaptor.forClass(HandledErrorLog.class);
+        verify(mockChannel).enqueue(log.capture(), eq(crashes.getGroupName()), eq(DEFAULTS));
+        assertEquals(ErrorLogHelper.MAX_PROPERTY_COUNT, log.getValue().getProperties().size());
+        assertNull(log.getValue().getProperties().get(HandledErrorRateLimiter.SUPPRESSED_COUNT_PROPERTY));
+        verifyStatic();
+        AppCenterLog.warn(eq(Crashes.LOG_TAG), contains("suppressed"));
+
+        /* Wrapper SDK errors are limited as well. */
+        reset(mockChannel);
+        com.microsoft.appcenter.crashes.ingestion.models.Exception exception = new com.microsoft.appcenter.crashes.ingestion.models.Exception();
+        exception.setType("type");
+        for (int i = 0; i < 3; i++) {
+            WrapperSdkExceptionManager.trackException(exception);
+        }
+        verify(mockChannel, times(2)).enqueue(isA(HandledErrorLog.class), eq(crashes.getGroupName()), eq(DEFAULTS));
+    }
+
     @Test
     public void trackExceptionWithUserId() {
         UserIdContext.getInstance().setUserId("charlie");
@@ -738,7 +1081,8 @@ public class CrashesTest {
 
     @Test
     public void getChannelListener() throws IOException, ClassNotFoundException, JSONException {
-        ErrorReport errorReport = ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION);
+        ErrorReport errorReport = ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, null);
+        errorReport.setThrowable(EXCEPTION);
 
         mockStatic(ErrorLogHelper.class);
         File errorLogFile = mock(File.class);
@@ -749,9 +1093,9 @@ public class CrashesTest {
         File throwableFile = mock(File.class);
         when(throwableFile.length()).thenReturn(1L);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(throwableFile);
-        when(ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION)).thenReturn(errorReport);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, ENCODED_EXCEPTION)).thenReturn(errorReport);
         when(FileManager.read(any(File.class))).thenReturn("");
-        when(FileManager.readObject(any(File.class))).thenReturn(EXCEPTION);
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
 
         LogSerializer logSerializer = mock(LogSerializer.class);
         when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mErrorLog);
@@ -765,7 +1109,7 @@ public class CrashesTest {
 
         /* The error report was created and cached but device is null here. */
         verifyStatic();
-        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION);
+        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, ENCODED_EXCEPTION);
         assertNull(errorReport.getDevice());
 
         /* The channel sets a device. */
@@ -786,7 +1130,7 @@ public class CrashesTest {
 
         /* No more error reports should be produced at the point. */
         verifyStatic();
-        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION);
+        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, ENCODED_EXCEPTION);
 
         /* Simulate onFailure event. */
         channelListener.onFailure(mErrorLog, EXCEPTION);
@@ -795,7 +1139,53 @@ public class CrashesTest {
 
         /* onSuccess and onFailure invalidate the cache, so one more call is expected. */
         verifyStatic(times(2));
-        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION);
+        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, ENCODED_EXCEPTION);
+    }
+
+    @Test
+    public void throwableDeletedAfterCallbacks() throws IOException, ClassNotFoundException, JSONException {
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(new ErrorReport());
+        final boolean[] deleted = new boolean[1];
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                deleted[0] = true;
+                return null;
+            }
+        }).when(ErrorLogHelper.class);
+        ErrorLogHelper.removeStoredThrowableFile(any(UUID.class));
+
+        /* Record whether files were deleted when calling back. */
+        final List<Boolean> deletedWhenCalledBack = new ArrayList<>();
+        Answer<Void> recordDeleted = new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                deletedWhenCalledBack.add(deleted[0]);
+                return null;
+            }
+        };
+        CrashesListener crashesListener = mock(CrashesListener.class);
+        doAnswer(recordDeleted).when(crashesListener).onSendingSucceeded(any(ErrorReport.class));
+        doAnswer(recordDeleted).when(crashesListener).onSendingFailed(any(ErrorReport.class), any(java.lang.Exception.class));
+        Crashes crashes = Crashes.getInstance();
+        crashes.setInstanceListener(crashesListener);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+
+        /* Files are still there during the callbacks so that wrapper SDKs can load their data. */
+        Channel.GroupListener channelListener = crashes.getChannelListener();
+        channelListener.onSuccess(mErrorLog);
+        assertTrue(deleted[0]);
+        deleted[0] = false;
+        channelListener.onFailure(mErrorLog, EXCEPTION);
+        assertTrue(deleted[0]);
+        assertEquals(Arrays.asList(false, false), deletedWhenCalledBack);
     }
 
     @Test
@@ -804,7 +1194,6 @@ public class CrashesTest {
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(FileManager.readObject(any(File.class))).thenReturn(null);
 
         CrashesListener mockListener = mock(CrashesListener.class);
         Crashes crashes = Crashes.getInstance();
@@ -831,9 +1220,8 @@ public class CrashesTest {
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(new ErrorReport());
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(new ErrorReport());
         when(FileManager.read(any(File.class))).thenReturn("");
-        when(FileManager.readObject(any(File.class))).thenReturn(null);
 
         CrashesListener mockListener = mock(CrashesListener.class);
         when(mockListener.shouldProcess(any(ErrorReport.class))).thenReturn(true);
@@ -870,7 +1258,6 @@ public class CrashesTest {
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(FileManager.readObject(any(File.class))).thenReturn(null);
 
         CrashesListener mockListener = mock(CrashesListener.class);
         when(mockListener.shouldProcess(any(ErrorReport.class))).thenReturn(true);
@@ -893,25 +1280,26 @@ public class CrashesTest {
     @Test
     public void buildErrorReport() throws IOException, ClassNotFoundException {
         mErrorLog.setDevice(mock(Device.class));
-        ErrorReport errorReport = ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION);
+        ErrorReport errorReport = ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, null);
+        errorReport.setThrowable(EXCEPTION);
 
         mockStatic(ErrorLogHelper.class);
         File throwableFile = mock(File.class);
         when(throwableFile.length()).thenReturn(1L);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(throwableFile).thenReturn(null);
-        when(ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION)).thenReturn(errorReport);
-        when(FileManager.readObject(any(File.class))).thenReturn(EXCEPTION);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, ENCODED_EXCEPTION)).thenReturn(errorReport);
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
 
         Crashes crashes = Crashes.getInstance();
         ErrorReport report = crashes.buildErrorReport(mErrorLog);
         assertErrorEquals(mErrorLog, report);
         verifyStatic();
-        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION);
+        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, ENCODED_EXCEPTION);
 
         /* Verify the caching. */
         assertEquals(report, crashes.buildErrorReport(mErrorLog));
         verifyStatic();
-        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION);
+        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, ENCODED_EXCEPTION);
 
         mErrorLog.setId(UUIDUtils.randomUUID());
         report = crashes.buildErrorReport(mErrorLog);
@@ -919,44 +1307,19 @@ public class CrashesTest {
     }
 
     @Test
-    public void buildErrorReportError() throws IOException, ClassNotFoundException {
+    public void buildErrorReportReadError() {
         mockStatic(ErrorLogHelper.class);
-        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
-        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         File throwableFile = mock(File.class);
         when(throwableFile.length()).thenReturn(1L);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(throwableFile);
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(mock(ErrorReport.class));
-
-        /* Mock exceptions. */
-        Throwable classNotFoundException = mock(ClassNotFoundException.class);
-        Throwable ioException = mock(IOException.class);
-        Throwable stackOverflowError = mock(StackOverflowError.class);
-        when(FileManager.readObject(any(File.class)))
-                .thenThrow(classNotFoundException)
-                .thenThrow(ioException)
-                .thenThrow(stackOverflowError);
-        Crashes crashes = Crashes.getInstance();
-
-        /* Test ClassNotFoundException. */
-        ErrorReport report = crashes.buildErrorReport(mErrorLog);
-        assertNotNull(report);
-        verifyStatic();
-        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString(), eq(classNotFoundException));
+        ErrorReport errorReport = new ErrorReport();
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(errorReport);
 
-        /* Test IOException. */
-        mErrorLog.setId(UUIDUtils.randomUUID());
-        report = crashes.buildErrorReport(mErrorLog);
-        assertNotNull(report);
+        /* Throwable file cannot be read: report is built without throwable. */
+        when(FileManager.readBytes(throwableFile)).thenReturn(null);
+        assertEquals(errorReport, Crashes.getInstance().buildErrorReport(mErrorLog));
         verifyStatic();
-        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString(), eq(ioException));
-
-        /* Test StackOverflowError. */
-        mErrorLog.setId(UUIDUtils.randomUUID());
-        report = crashes.buildErrorReport(mErrorLog);
-        assertNotNull(report);
-        verifyStatic();
-        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString(), eq(stackOverflowError));
+        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, null);
     }
 
     @Test
@@ -1039,7 +1402,8 @@ public class CrashesTest {
         when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(errorLog);
 
         final Throwable throwable = mock(Throwable.class);
-        final ErrorReport errorReport = ErrorLogHelper.getErrorReportFromErrorLog(errorLog, throwable);
+        final ErrorReport errorReport = ErrorLogHelper.getErrorReportFromErrorLog(errorLog, null);
+        errorReport.setThrowable(throwable);
 
         mockStatic(ErrorLogHelper.class);
         File lastErrorLogFile = errorStorageDirectory.newFile("last-error-log.json");
@@ -1048,11 +1412,11 @@ public class CrashesTest {
         File throwableFile = errorStorageDirectory.newFile();
         new FileWriter(throwableFile).append("fake_data").close();
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(throwableFile);
-        when(ErrorLogHelper.getErrorReportFromErrorLog(errorLog, throwable)).thenReturn(errorReport);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(errorLog, ENCODED_EXCEPTION)).thenReturn(errorReport);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{lastErrorLogFile});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(FileManager.read(any(File.class))).thenReturn("fake_data");
-        when(FileManager.readObject(any(File.class))).thenReturn(throwable);
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
 
         Crashes crashes = Crashes.getInstance();
         crashes.setLogSerializer(logSerializer);
@@ -1207,10 +1571,10 @@ public class CrashesTest {
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(new ErrorReport());
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(new ErrorReport());
 
         when(FileManager.read(any(File.class))).thenReturn("");
-        when(FileManager.readObject(any(File.class))).thenReturn(mock(Throwable.class));
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
 
         Crashes crashes = Crashes.getInstance();
         crashes.setInstanceListener(listener);
@@ -1237,9 +1601,9 @@ public class CrashesTest {
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class), mock(File.class)});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report1).thenReturn(report2);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report1).thenReturn(report2);
         when(FileManager.read(any(File.class))).thenReturn("");
-        when(FileManager.readObject(any(File.class))).thenReturn(new RuntimeException());
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
         LogSerializer logSerializer = mock(LogSerializer.class);
         when(logSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<ManagedErrorLog>() {
 
@@ -1318,7 +1682,7 @@ public class CrashesTest {
         /* Reset instance to test another tine with always send. */
         Crashes.unsetInstance();
         crashes = Crashes.getInstance();
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report1).thenReturn(report2);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report1).thenReturn(report2);
         WrapperSdkExceptionManager.setAutomaticProcessing(false);
         crashes.setLogSerializer(logSerializer);
         crashes.onStarting(mAppCenterHandler);
@@ -1345,9 +1709,9 @@ public class CrashesTest {
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class), mock(File.class)});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report1).thenReturn(report2);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report1).thenReturn(report2);
         when(FileManager.read(any(File.class))).thenReturn("");
-        when(FileManager.readObject(any(File.class))).thenReturn(new RuntimeException());
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
         LogSerializer logSerializer = mock(LogSerializer.class);
         when(logSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<ManagedErrorLog>() {
 
@@ -1413,12 +1777,10 @@ public class CrashesTest {
         Whitebox.setInternalState(pendingDir, "path", "");
         when(ErrorLogHelper.getPendingMinidumpDirectory()).thenReturn(pendingDir);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report);
         when(FileManager.read(any(File.class))).thenReturn("");
-        when(FileManager.readObject(any(File.class))).thenReturn(new NativeException());
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
         LogSerializer logSerializer = mock(LogSerializer.class);
-        ArgumentCaptor<Log> log = ArgumentCaptor.forClass(Log.class);
-        when(logSerializer.serializeLog(log.capture())).thenReturn("{}");
         when(logSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<ManagedErrorLog>() {
 
             @Override
@@ -1429,14 +1791,23 @@ public class CrashesTest {
             }
         });
 
-        /* Start crashes. */
+        /* Start crashes, converting minidump files synchronously. */
         Crashes crashes = Crashes.getInstance();
         crashes.setLogSerializer(logSerializer);
+        crashes.setMinidumpExecutor(new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
         crashes.onStarting(mAppCenterHandler);
         crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
 
         /* Verify timestamps on the crash log. */
         assertTrue(Crashes.hasCrashedInLastSession().get());
+        ArgumentCaptor<Log> log = ArgumentCaptor.forClass(Log.class);
+        verify(logSerializer).serializeLog(any(OutputStream.class), log.capture());
         assertTrue(log.getValue() instanceof ManagedErrorLog);
         return (ManagedErrorLog) log.getValue();
     }
@@ -1476,7 +1847,106 @@ public class CrashesTest {
     }
 
     @Test
-    public void stackOverflowOnSavingThrowable() throws Exception {
+    @PrepareForTest({SessionContext.class, DeviceInfoHelper.class, ContextHistory.class})
+    public void minidumpUserIdAndDeviceFromHistory() throws Exception {
+        long crashTime = 123L;
+        mockStatic(ContextHistory.class);
+        ContextHistory contextHistory = mock(ContextHistory.class);
+        when(ContextHistory.getInstance()).thenReturn(contextHistory);
+        Device device = mock(Device.class);
+        when(contextHistory.getDeviceAt(crashTime)).thenReturn(device);
+        when(contextHistory.getUserIdAt(crashTime)).thenReturn("alice");
+        UserIdContext.getInstance().setUserId("bob");
+        ManagedErrorLog crashLog = testNativeCrashLog(99L, crashTime, true);
+
+        /* Verify values at crash time are used instead of current ones. */
+        assertEquals("alice", crashLog.getUserId());
+        assertSame(device, crashLog.getDevice());
+        verify(device).setWrapperSdkName(Constants.WRAPPER_SDK_NAME_NDK);
+        verifyStatic(never());
+        DeviceInfoHelper.getDeviceInfo(any(Context.class));
+    }
+
+    private LogSerializer startWithPendingMinidump(Executor minidumpExecutor, CrashesListener listener, ErrorReport report) throws Exception {
+        mockStatic(DeviceInfoHelper.class);
+        when(DeviceInfoHelper.getDeviceInfo(any(Context.class))).thenReturn(mock(Device.class));
+        File minidumpFile = mock(File.class);
+        when(minidumpFile.getName()).thenReturn("mockFile");
+        when(minidumpFile.renameTo(any(File.class))).thenReturn(true);
+        File errorLogFile = errorStorageDirectory.newFile();
+        FileWriter writer = new FileWriter(errorLogFile);
+        writer.write("{}");
+        writer.close();
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(ErrorLogHelper.getPendingMinidumpDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{minidumpFile});
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getLastErrorLogFile()).thenReturn(errorLogFile);
+        when(ErrorLogHelper.getStoredErrorLogFile(any(UUID.class))).thenReturn(errorLogFile);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(byte[].class))).thenReturn(report);
+        when(FileManager.read(any(File.class))).thenReturn("");
+        when(FileManager.readBytes(any(File.class))).thenReturn(ENCODED_EXCEPTION);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        ManagedErrorLog log = mock(ManagedErrorLog.class);
+        when(log.getId()).thenReturn(UUID.randomUUID());
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(log);
+        Crashes.setListener(listener);
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.setMinidumpExecutor(minidumpExecutor);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+        return logSerializer;
+    }
+
+    @Test
+    @PrepareForTest(DeviceInfoHelper.class)
+    public void minidumpProcessedInBackground() throws Exception {
+        CrashesListener listener = mock(CrashesListener.class);
+        when(listener.shouldProcess(any(ErrorReport.class))).thenReturn(true);
+        when(listener.shouldAwaitUserConfirmation()).thenReturn(true);
+        ErrorReport report = new ErrorReport();
+        Executor minidumpExecutor = mock(Executor.class);
+        LogSerializer logSerializer = startWithPendingMinidump(minidumpExecutor, listener, report);
+
+        /* Startup only knows there is a native crash. */
+        ArgumentCaptor<Runnable> job = ArgumentCaptor.forClass(Runnable.class);
+        verify(minidumpExecutor).execute(job.capture());
+        verify(logSerializer, never()).serializeLog(any(OutputStream.class), any(Log.class));
+        assertTrue(Crashes.hasCrashedInLastSession().get());
+        AppCenterFuture<ErrorReport> future = Crashes.getLastSessionCrashReport();
+        assertFalse(future.isDone());
+        verify(listener, never()).shouldProcess(any(ErrorReport.class));
+
+        /* Once converted, the report is processed and waiting requests complete. */
+        job.getValue().run();
+        verify(logSerializer).serializeLog(any(OutputStream.class), isA(ManagedErrorLog.class));
+        assertEquals(report, future.get());
+        assertEquals(report, Crashes.getLastSessionCrashReport().get());
+        verify(listener).shouldProcess(report);
+        verify(listener).shouldAwaitUserConfirmation();
+    }
+
+    @Test
+    @PrepareForTest(DeviceInfoHelper.class)
+    public void minidumpProcessingDiscardedWhenDisabled() throws Exception {
+        Executor minidumpExecutor = mock(Executor.class);
+        LogSerializer logSerializer = startWithPendingMinidump(minidumpExecutor, null, new ErrorReport());
+        ArgumentCaptor<Runnable> job = ArgumentCaptor.forClass(Runnable.class);
+        verify(minidumpExecutor).execute(job.capture());
+        AppCenterFuture<ErrorReport> future = Crashes.getLastSessionCrashReport();
+
+        /* Disable before the job runs: nothing is converted. */
+        Crashes.setEnabled(false);
+        job.getValue().run();
+        verify(logSerializer, never()).serializeLog(any(OutputStream.class), any(Log.class));
+        assertNull(future.get());
+    }
+
+    @Test
+    public void saveThrowable() throws Exception {
 
         /* Mock error log utils. */
         mockStatic(ErrorLogHelper.class);
@@ -1493,12 +1963,6 @@ public class CrashesTest {
             }
         })).thenReturn(throwableFile);
         LogSerializer logSerializer = mock(LogSerializer.class);
-        String jsonCrash = "{}";
-        when(logSerializer.serializeLog(any(Log.class))).thenReturn(jsonCrash);
-
-        /* Mock storage to fail on stack overflow when saving a Throwable as binary. */
-        doThrow(new StackOverflowError()).when(FileManager.class);
-        FileManager.writeObject(any(File.class), any(Serializable.class));
 
         /* Simulate start SDK. */
         Crashes crashes = Crashes.getInstance();
@@ -1510,20 +1974,95 @@ public class CrashesTest {
         Throwable throwable = new Throwable();
         Crashes.getInstance().saveUncaughtException(Thread.currentThread(), throwable);
 
-        /* Verify we gracefully abort saving throwable (no exception) and we created an empty file instead. */
+        /* Verify the JSON file is saved. */
+        verify(logSerializer).serializeLog(any(OutputStream.class), eq(mErrorLog));
+        assertNotNull(mErrorLog.getFrameTable());
+        assertNull(mErrorLog.getException().getFrames());
+
+        /* Verify the throwable is encoded and synced instead of creating an empty placeholder. */
         verifyStatic();
-        FileManager.writeObject(throwableFile, throwable);
-        assertNotNull(throwableFile);
-        InOrder inOrder = inOrder(throwableFile);
+        ErrorLogHelper.writeThrowable(any(ByteArrayOutputStream.class), eq(throwable));
+        verifyStatic();
+        FileManager.writeAndSync(eq(throwableFile), any(ByteArrayOutputStream.class));
+        verifyStatic(times(2));
+        FileManager.writeAndSync(any(File.class), any(ByteArrayOutputStream.class));
 
         //noinspection ResultOfMethodCallIgnored
-        inOrder.verify(throwableFile).delete();
+        verify(throwableFile, never()).createNewFile();
+    }
 
-        //noinspection ResultOfMethodCallIgnored
-        inOrder.verify(throwableFile).createNewFile();
+    @Test
+    public void saveUncaughtExceptionDoesNotWaitForHandler() throws Exception {
 
-        /* Verify it didn't prevent saving the JSON file. */
+        /* Mock error log utils. */
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.createErrorLog(any(Context.class), any(Thread.class), any(com.microsoft.appcenter.crashes.ingestion.models.Exception.class), anyMapOf(Thread.class, StackTraceElement[].class), anyLong(), anyBoolean())).thenReturn(mErrorLog);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+
+        /* Simulate start SDK. */
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        Context context = mock(Context.class);
+        crashes.onStarted(context, mock(Channel.class), "", null, true);
+
+        /* Process name is looked up at start. */
+        verifyStatic();
+        ErrorLogHelper.getProcessName(context);
+
+        /* Simulate a busy handler: nothing posted will run anymore. */
+        doNothing().when(mAppCenterHandler).post(any(Runnable.class), any(Runnable.class));
+
+        /* Crash is still saved. */
+        assertEquals(mErrorLog.getId(), crashes.saveUncaughtException(Thread.currentThread(), new RuntimeException(), new com.microsoft.appcenter.crashes.ingestion.models.Exception()));
+        verify(logSerializer).serializeLog(any(OutputStream.class), eq(mErrorLog));
+        verifyStatic(times(2));
+        FileManager.writeAndSync(any(File.class), any(ByteArrayOutputStream.class));
+    }
+
+    @Test
+    public void saveUncaughtExceptionWhenDisabled() throws Exception {
+
+        /* Mock error log utils. */
+        mockStatic(ErrorLogHelper.class);
+        File errorStorageDirectory = mock(File.class);
+        when(errorStorageDirectory.listFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory);
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
+        LogSerializer logSerializer = mock(LogSerializer.class);
+
+        /* Not started: ignored. */
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        assertNull(crashes.saveUncaughtException(Thread.currentThread(), new RuntimeException(), new com.microsoft.appcenter.crashes.ingestion.models.Exception()));
+
+        /* Started then disabled: ignored. */
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+        Crashes.setEnabled(false);
+        assertNull(crashes.saveUncaughtException(Thread.currentThread(), new RuntimeException(), new com.microsoft.appcenter.crashes.ingestion.models.Exception()));
+        verify(logSerializer, never()).serializeLog(any(OutputStream.class), any(Log.class));
+        verifyStatic(never());
+        FileManager.writeAndSync(any(File.class), any(ByteArrayOutputStream.class));
+    }
+
+    @Test
+    public void setThreadLimits() {
+        mockStatic(ErrorLogHelper.class);
+        Crashes.setThreadLimits(10, 20);
         verifyStatic();
-        FileManager.write(any(File.class), eq(jsonCrash));
+        ErrorLogHelper.setThreadLimits(10, 20);
+
+        /* Invalid values are ignored. */
+        Crashes.setThreadLimits(0, 20);
+        Crashes.setThreadLimits(10, -1);
+        verifyStatic(times(1));
+        ErrorLogHelper.setThreadLimits(anyInt(), anyInt());
+        verifyStatic(times(2));
+        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString());
     }
 }
@@ -31,8 +31,10 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.UUID;
 
@@ -47,6 +49,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
+import static org.powermock.api.mockito.PowerMockito.doThrow;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
@@ -124,6 +127,9 @@ public class UncaughtExceptionHandlerTest {
         AppCenterHandler handler = mock(AppCenterHandler.class);
         Crashes.getInstance().onStarting(handler);
         doAnswer(runNow).when(handler).post(any(Runnable.class), any(Runnable.class));
+
+        /* Simulate enabled state applied at start without registering the handler under test. */
+        Whitebox.setInternalState(Crashes.getInstance(), "mCrashCaptureEnabled", true);
     }
 
     @Test
@@ -191,7 +197,7 @@ public class UncaughtExceptionHandlerTest {
 
         LogSerializer logSerializer = mock(LogSerializer.class);
         final JSONException jsonException = new JSONException("Fake JSON serializing exception");
-        when(logSerializer.serializeLog(any(Log.class))).thenThrow(jsonException);
+        doThrow(jsonException).when(logSerializer).serializeLog(any(OutputStream.class), any(Log.class));
 
         Whitebox.setInternalState(Crashes.getInstance(), "mLogSerializer", logSerializer);
 
@@ -211,7 +217,7 @@ public class UncaughtExceptionHandlerTest {
 
         IOException ioException = new IOException("Fake IO exception");
         PowerMockito.doThrow(ioException).when(FileManager.class);
-        FileManager.write(any(File.class), anyString());
+        FileManager.writeAndSync(any(File.class), any(ByteArrayOutputStream.class));
 
         final Thread thread = Thread.currentThread();
         final RuntimeException exception = new RuntimeException();
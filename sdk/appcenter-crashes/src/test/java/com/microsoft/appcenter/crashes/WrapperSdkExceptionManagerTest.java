@@ -23,18 +23,22 @@ import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.mockito.internal.util.reflection.Whitebox;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.UUID;
 
 import static com.microsoft.appcenter.utils.PrefStorageConstants.KEY_ENABLED;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyLong;
@@ -99,6 +103,9 @@ public class WrapperSdkExceptionManagerTest {
         AppCenterHandler handler = mock(AppCenterHandler.class);
         Crashes.getInstance().onStarting(handler);
         doAnswer(runNow).when(handler).post(any(Runnable.class), any(Runnable.class));
+
+        /* Simulate enabled state applied at start. */
+        Whitebox.setInternalState(Crashes.getInstance(), "mCrashCaptureEnabled", true);
     }
 
     @Test
@@ -156,10 +163,31 @@ public class WrapperSdkExceptionManagerTest {
         AppCenterLog.error(eq(Crashes.LOG_TAG), anyString());
     }
 
+    @Test
+    public void deletedWrapperExceptionDataIsNeverEvicted() throws java.lang.Exception {
+        UUID errorId = UUID.randomUUID();
+        byte[] data = {1, 2, 3};
+        File file = mock(File.class);
+        whenNew(File.class).withAnyArguments().thenReturn(file);
+        when(file.exists()).thenReturn(true);
+        when(FileManager.readObject(file)).thenReturn(data);
+
+        /* Data is kept in memory when its file is deleted. */
+        WrapperSdkExceptionManager.deleteWrapperExceptionData(errorId);
+        verifyStatic();
+        FileManager.delete(file);
+        assertSame(data, WrapperSdkExceptionManager.sDeletedWrapperExceptionData.get(errorId.toString()));
+
+        /* Still loaded after the cache is cleared and without the file. */
+        WrapperSdkExceptionManager.sWrapperExceptionDataContainer.clear();
+        when(file.exists()).thenReturn(false);
+        assertSame(data, WrapperSdkExceptionManager.loadWrapperExceptionData(errorId));
+        WrapperSdkExceptionManager.sDeletedWrapperExceptionData.remove(errorId.toString());
+    }
+
     @Test
     public void saveWrapperSdkCrash() throws JSONException, IOException {
         LogSerializer logSerializer = Mockito.mock(LogSerializer.class);
-        when(logSerializer.serializeLog(any(ManagedErrorLog.class))).thenReturn("mock");
         Crashes.getInstance().setLogSerializer(logSerializer);
         byte[] data = new byte[]{'d'};
         WrapperSdkExceptionManager.saveWrapperException(Thread.currentThread(), null, new Exception(), data);
@@ -176,7 +204,6 @@ public class WrapperSdkExceptionManagerTest {
     @Test
     public void saveWrapperSdkCrashWithJavaThrowable() throws JSONException, IOException {
         LogSerializer logSerializer = Mockito.mock(LogSerializer.class);
-        when(logSerializer.serializeLog(any(ManagedErrorLog.class))).thenReturn("mock");
         Crashes.getInstance().setLogSerializer(logSerializer);
         byte[] data = new byte[]{'d'};
         Throwable throwable = new Throwable();
@@ -184,7 +211,7 @@ public class WrapperSdkExceptionManagerTest {
         verifyStatic();
         FileManager.writeObject(any(File.class), eq(data));
         verifyStatic();
-        FileManager.writeObject(any(File.class), eq(throwable));
+        ErrorLogHelper.writeThrowable(any(OutputStream.class), eq(throwable));
 
         /* We can't do it twice in the same process. */
         data = new byte[]{'e'};
@@ -192,31 +219,29 @@ public class WrapperSdkExceptionManagerTest {
         verifyStatic(never());
         FileManager.writeObject(any(File.class), eq(data));
         verifyStatic();
-        FileManager.writeObject(any(File.class), eq(throwable));
+        ErrorLogHelper.writeThrowable(any(OutputStream.class), eq(throwable));
     }
 
     @Test
     public void saveWrapperSdkCrashWithOnlyJavaThrowable() throws JSONException, IOException {
         LogSerializer logSerializer = Mockito.mock(LogSerializer.class);
-        when(logSerializer.serializeLog(any(ManagedErrorLog.class))).thenReturn("mock");
         Crashes.getInstance().setLogSerializer(logSerializer);
         Throwable throwable = new Throwable();
         WrapperSdkExceptionManager.saveWrapperException(Thread.currentThread(), throwable, new Exception(), null);
         verifyStatic(never());
         FileManager.writeObject(any(File.class), isNull(byte[].class));
         verifyStatic();
-        FileManager.writeObject(any(File.class), eq(throwable));
+        ErrorLogHelper.writeThrowable(any(OutputStream.class), eq(throwable));
 
         /* We can't do it twice in the same process. */
         WrapperSdkExceptionManager.saveWrapperException(Thread.currentThread(), throwable, new Exception(), null);
         verifyStatic();
-        FileManager.writeObject(any(File.class), eq(throwable));
+        ErrorLogHelper.writeThrowable(any(OutputStream.class), eq(throwable));
     }
 
     @Test
     public void saveWrapperSdkCrashFailsToCreateThrowablePlaceholder() throws java.lang.Exception {
         LogSerializer logSerializer = Mockito.mock(LogSerializer.class);
-        when(logSerializer.serializeLog(any(ManagedErrorLog.class))).thenReturn("mock");
         Crashes.getInstance().setLogSerializer(logSerializer);
         File throwableFile = mock(File.class);
         whenNew(File.class).withParameterTypes(String.class, String.class).withArguments(anyString(), argThat(new ArgumentMatcher<String>() {
@@ -256,7 +281,7 @@ public class WrapperSdkExceptionManagerTest {
     @Test
     public void saveWrapperSdkCrashFailsWithJSONException() throws JSONException {
         LogSerializer logSerializer = Mockito.mock(LogSerializer.class);
-        when(logSerializer.serializeLog(any(ManagedErrorLog.class))).thenThrow(new JSONException("mock"));
+        doThrow(new JSONException("mock")).when(logSerializer).serializeLog(any(OutputStream.class), any(ManagedErrorLog.class));
         Crashes.getInstance().setLogSerializer(logSerializer);
         WrapperSdkExceptionManager.saveWrapperException(Thread.currentThread(), null, new Exception(), new byte[]{'d'});
         verifyStatic();
@@ -285,9 +310,8 @@ public class WrapperSdkExceptionManagerTest {
     @Test
     public void saveWrapperSdkCrashFailsWithIOException() throws IOException, JSONException {
         doThrow(new IOException()).when(FileManager.class);
-        FileManager.write(any(File.class), anyString());
+        FileManager.writeAndSync(any(File.class), any(ByteArrayOutputStream.class));
         LogSerializer logSerializer = Mockito.mock(LogSerializer.class);
-        when(logSerializer.serializeLog(any(ManagedErrorLog.class))).thenReturn("mock");
         Crashes.getInstance().setLogSerializer(logSerializer);
         WrapperSdkExceptionManager.saveWrapperException(Thread.currentThread(), null, new Exception(), new byte[]{'d'});
         verifyStatic();
@@ -319,7 +343,6 @@ public class WrapperSdkExceptionManagerTest {
         doThrow(new IOException()).when(FileManager.class);
         FileManager.writeObject(any(File.class), eq(data));
         LogSerializer logSerializer = Mockito.mock(LogSerializer.class);
-        when(logSerializer.serializeLog(any(ManagedErrorLog.class))).thenReturn("mock");
         Crashes.getInstance().setLogSerializer(logSerializer);
         WrapperSdkExceptionManager.saveWrapperException(Thread.currentThread(), null, new Exception(), data);
         verifyStatic();
@@ -347,11 +370,11 @@ public class WrapperSdkExceptionManagerTest {
 
     @Test
     public void saveWrapperExceptionWhenSDKDisabled() throws JSONException {
-        when(SharedPreferencesManager.getBoolean(CRASHES_ENABLED_KEY, true)).thenReturn(false);
+        Whitebox.setInternalState(Crashes.getInstance(), "mCrashCaptureEnabled", false);
         LogSerializer logSerializer = Mockito.mock(LogSerializer.class);
         Crashes.getInstance().setLogSerializer(logSerializer);
         WrapperSdkExceptionManager.saveWrapperException(Thread.currentThread(), null, new Exception(), new byte[]{'d'});
-        verify(logSerializer, never()).serializeLog(any(Log.class));
+        verify(logSerializer, never()).serializeLog(any(OutputStream.class), any(Log.class));
         verifyNoMoreInteractions(ErrorLogHelper.class);
     }
 }
@@ -2,6 +2,7 @@ package com.microsoft.appcenter.crashes.ingestion.models;
 
 import org.junit.Test;
 
+import java.io.File;
 import java.util.UUID;
 
 import static com.microsoft.appcenter.crashes.ingestion.models.ErrorAttachmentLog.CHARSET;
@@ -74,5 +75,13 @@ public class ErrorAttachmentLogTest {
             log.setFileName(null);
             assertTrue(log.isValid());
         }
+        {
+            log.setData(null);
+            assertFalse(log.isValid());
+        }
+        {
+            log.setDataFile(new File("attachment"));
+            assertTrue(log.isValid());
+        }
     }
 }
@@ -0,0 +1,87 @@
+package com.microsoft.appcenter.crashes.utils;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ByteLruCacheTest {
+
+    private static ByteLruCache<String, byte[]> createCache(long maxSize) {
+        return new ByteLruCache<String, byte[]>(maxSize) {
+
+            @Override
+            protected long sizeOf(@NonNull byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        ByteLruCache<String, byte[]> cache = createCache(10);
+        byte[] a = new byte[4];
+        byte[] b = new byte[4];
+        byte[] c = new byte[4];
+        cache.put("a", a);
+        cache.put("b", b);
+        assertEquals(8, cache.size());
+
+        /* Use a so that b is the least recently used. */
+        assertSame(a, cache.get("a"));
+        cache.put("c", c);
+        assertEquals(8, cache.size());
+        assertEquals(1, cache.evictionCount());
+
+        /* Evicted value is still softly reachable and comes back. */
+        assertSame(b, cache.get("b"));
+        assertEquals(1, cache.softHitCount());
+        assertEquals(2, cache.evictionCount());
+        assertEquals(8, cache.size());
+
+        /* Missing values. */
+        assertNull(cache.get("d"));
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(10, cache.maxSize());
+        assertNotNull(cache.toString());
+    }
+
+    @Test
+    public void replaceAndRemove() {
+        ByteLruCache<String, byte[]> cache = createCache(10);
+        cache.put("a", new byte[4]);
+        cache.put("a", new byte[6]);
+        assertEquals(6, cache.size());
+        cache.remove("a");
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+        cache.remove("a");
+
+        /* Removing evicted values forgets them too. */
+        cache.put("b", new byte[8]);
+        cache.put("c", new byte[8]);
+        assertEquals(1, cache.evictionCount());
+        cache.remove("b");
+        assertNull(cache.get("b"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("c"));
+        assertEquals(3, cache.missCount());
+    }
+
+    @Test
+    public void valueLargerThanMaxSize() {
+        ByteLruCache<String, byte[]> cache = createCache(10);
+        byte[] value = new byte[20];
+        cache.put("a", value);
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertSame(value, cache.get("a"));
+        assertEquals(1, cache.softHitCount());
+    }
+}
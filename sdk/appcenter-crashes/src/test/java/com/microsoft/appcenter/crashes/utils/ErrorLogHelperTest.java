@@ -7,6 +7,7 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Process;
 
+import com.microsoft.appcenter.ContextHistory;
 import com.microsoft.appcenter.crashes.ingestion.models.Exception;
 import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
 import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
@@ -22,43 +23,75 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import static com.microsoft.appcenter.test.TestUtils.generateString;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @SuppressWarnings("unused")
-@PrepareForTest({DeviceInfoHelper.class, Process.class, Build.class, ErrorLogHelper.class})
+@PrepareForTest({DeviceInfoHelper.class, Process.class, Build.class, ErrorLogHelper.class, ContextHistory.class})
 public class ErrorLogHelperTest {
 
     @Rule
     public PowerMockRule mRule = new PowerMockRule();
 
+    @Rule
+    public final TemporaryFolder mErrorDirectory = new TemporaryFolder();
+
+    private static void write(File file, String contents) throws IOException {
+        FileWriter writer = new FileWriter(file);
+
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private ContextHistory mContextHistory;
+
     @Before
     public void setUp() {
         mockStatic(DeviceInfoHelper.class);
         mockStatic(Process.class);
+        mockStatic(ContextHistory.class);
+        mContextHistory = mock(ContextHistory.class);
+        when(ContextHistory.getInstance()).thenReturn(mContextHistory);
     }
 
     @After
@@ -66,6 +99,8 @@ public class ErrorLogHelperTest {
         TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", 0);
         TestUtils.setInternalState(Build.class, "SUPPORTED_ABIS", null);
         TestUtils.setInternalState(Build.class, "CPU_ABI", null);
+        ErrorLogHelper.setProcessName(null);
+        ErrorLogHelper.setErrorLogDirectory(null);
     }
 
     @Test
@@ -144,7 +179,8 @@ public class ErrorLogHelperTest {
 
         /* Check threads. */
         assertNotNull(errorLog.getThreads());
-        assertEquals(java.lang.Thread.getAllStackTraces().size(), errorLog.getThreads().size());
+        assertTrue(errorLog.getThreads().size() <= java.lang.Thread.getAllStackTraces().size());
+        assertEquals(java.lang.Thread.currentThread().getId(), errorLog.getThreads().get(0).getId());
         for (Thread thread : errorLog.getThreads()) {
             assertNotNull(thread);
             assertTrue(thread.getId() > 0);
@@ -170,6 +206,32 @@ public class ErrorLogHelperTest {
         }
     }
 
+    @Test
+    public void createErrorLogWithRecordedDevice() throws java.lang.Exception {
+
+        /* Mock base. */
+        Context mockContext = mock(Context.class);
+        Date logTimestamp = new Date(1000L);
+        whenNew(Date.class).withNoArguments().thenReturn(logTimestamp);
+        whenNew(Date.class).withArguments(anyLong()).thenAnswer(new Answer<Date>() {
+
+            @Override
+            public Date answer(InvocationOnMock invocation) {
+                return new Date((Long) invocation.getArguments()[0]);
+            }
+        });
+
+        /* Mock device history. */
+        Device recordedDevice = mock(Device.class);
+        when(mContextHistory.getDeviceAt(1000L)).thenReturn(recordedDevice);
+
+        /* Device properties are not read at crash time. */
+        ManagedErrorLog errorLog = ErrorLogHelper.createErrorLog(mockContext, java.lang.Thread.currentThread(), new java.lang.Exception(), java.lang.Thread.getAllStackTraces(), 0);
+        assertSame(recordedDevice, errorLog.getDevice());
+        verifyStatic(never());
+        DeviceInfoHelper.getDeviceInfo(any(Context.class));
+    }
+
     @Test
     public void createErrorLogWithFailedDeviceGetAndNoActivityManager() throws java.lang.Exception {
 
@@ -257,6 +319,80 @@ public class ErrorLogHelperTest {
         assertEquals(launchTimeStamp, errorLog.getAppLaunchTimestamp().getTime());
     }
 
+    @Test
+    public void threadLimits() {
+        Context mockContext = mock(Context.class);
+        java.lang.Thread errorThread = new java.lang.Thread("error");
+        StackTraceElement[] idleStack = {
+                new StackTraceElement("Idle", "park", "Idle.java", 1),
+                new StackTraceElement("Idle", "run", "Idle.java", 2)
+        };
+        StackTraceElement[] longStack = new StackTraceElement[10];
+        for (int i = 0; i < longStack.length; i++) {
+            longStack[i] = new StackTraceElement("Deep", "call" + i, "Deep.java", i);
+        }
+        Map<java.lang.Thread, StackTraceElement[]> allStackTraces = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            allStackTraces.put(new java.lang.Thread("worker-" + i), idleStack);
+        }
+        allStackTraces.put(new java.lang.Thread("deep"), longStack);
+        allStackTraces.put(errorThread, idleStack);
+
+        /* Identical stacks are grouped, thread in error comes first and is never grouped. */
+        ManagedErrorLog errorLog = ErrorLogHelper.createErrorLog(mockContext, errorThread, new RuntimeException(), allStackTraces, 0);
+        List<Thread> threads = errorLog.getThreads();
+        assertEquals(3, threads.size());
+        assertEquals("error", threads.get(0).getName());
+        assertEquals(errorThread.getId(), threads.get(0).getId());
+        assertEquals(2, threads.get(0).getFrames().size());
+        assertTrue(threads.get(1).getName().startsWith("worker-0, worker-1, "));
+        assertTrue(threads.get(1).getName().endsWith(" and " + (20 - ErrorLogHelper.GROUPED_THREAD_NAME_LIMIT) + " more (20 threads)"));
+        assertEquals(2, threads.get(1).getFrames().size());
+        assertEquals("deep", threads.get(2).getName());
+        assertEquals(10, threads.get(2).getFrames().size());
+
+        /* Limit entries and frames, keeping beginning and end of stacks. */
+        ErrorLogHelper.setThreadLimits(2, 3);
+        try {
+            threads = ErrorLogHelper.createErrorLog(mockContext, errorThread, new RuntimeException(), allStackTraces, 0).getThreads();
+            assertEquals(2, threads.size());
+            assertEquals("error", threads.get(0).getName());
+            allStackTraces.remove(errorThread);
+            threads = ErrorLogHelper.createErrorLog(mockContext, errorThread, new RuntimeException(), allStackTraces, 0).getThreads();
+            assertEquals(2, threads.size());
+            assertEquals("deep", threads.get(1).getName());
+            List<StackFrame> frames = threads.get(1).getFrames();
+            assertEquals(3, frames.size());
+            assertEquals("call0", frames.get(0).getMethodName());
+            assertEquals("call1", frames.get(1).getMethodName());
+            assertEquals("call9", frames.get(2).getMethodName());
+        } finally {
+            ErrorLogHelper.setThreadLimits(ErrorLogHelper.DEFAULT_THREAD_LIMIT, ErrorLogHelper.FRAME_LIMIT);
+        }
+    }
+
+    @Test
+    public void processNameIsCached() {
+        Context mockContext = mock(Context.class);
+        when(Process.myPid()).thenReturn(123);
+        ActivityManager activityManager = mock(ActivityManager.class);
+        when(mockContext.getSystemService(Context.ACTIVITY_SERVICE)).thenReturn(activityManager);
+
+        /* Not found is not cached. */
+        assertNull(ErrorLogHelper.getProcessName(mockContext));
+
+        /* Found. */
+        RunningAppProcessInfo runningAppProcessInfo = new RunningAppProcessInfo(null, 0, null);
+        runningAppProcessInfo.pid = 123;
+        runningAppProcessInfo.processName = "right.process";
+        when(activityManager.getRunningAppProcesses()).thenReturn(Arrays.asList(mock(RunningAppProcessInfo.class), runningAppProcessInfo));
+        assertEquals("right.process", ErrorLogHelper.getProcessName(mockContext));
+
+        /* Activity manager is not called again. */
+        assertEquals("right.process", ErrorLogHelper.getProcessName(mockContext));
+        verify(activityManager, times(2)).getRunningAppProcesses();
+    }
+
     @Test
     public void getErrorReportFromErrorLog() throws java.lang.Exception {
 
@@ -285,36 +421,228 @@ public class ErrorLogHelperTest {
         assertNotNull(errorLog);
 
         /* Test. */
-        Throwable throwable = new RuntimeException();
-        ErrorReport report = ErrorLogHelper.getErrorReportFromErrorLog(errorLog, throwable);
+        Throwable throwable = new RuntimeException("test");
+        ErrorReport report = ErrorLogHelper.getErrorReportFromErrorLog(errorLog, encode(throwable));
         assertNotNull(report);
         assertEquals(errorLog.getId().toString(), report.getId());
         assertEquals(errorLog.getErrorThreadName(), report.getThreadName());
-        assertEquals(throwable, report.getThrowable());
+        assertThrowableEquals(throwable, report.getThrowable());
         assertEquals(errorLog.getAppLaunchTimestamp(), report.getAppStartTime());
         assertEquals(errorLog.getTimestamp(), report.getAppErrorTime());
         assertEquals(errorLog.getDevice(), report.getDevice());
+
+        /* Decoded only once. */
+        assertSame(report.getThrowable(), report.getThrowable());
+
+        /* Setting throwable replaces the encoded one. */
+        report = ErrorLogHelper.getErrorReportFromErrorLog(errorLog, encode(throwable));
+        report.setThrowable(throwable);
+        assertSame(throwable, report.getThrowable());
+
+        /* No throwable. */
+        report = ErrorLogHelper.getErrorReportFromErrorLog(errorLog, null);
+        assertNull(report.getThrowable());
+    }
+
+    @Test
+    public void encodeThrowable() throws java.lang.Exception {
+
+        /* Cause chain with a private type and repeated frames. */
+        Throwable throwable = new IllegalStateException("outer", new PrivateException(new IllegalArgumentException((String) null)));
+        Throwable decoded = decode(encode(throwable));
+        assertThrowableEquals(throwable, decoded);
+        assertThrowableEquals(throwable.getCause(), decoded.getCause());
+        assertThrowableEquals(throwable.getCause().getCause(), decoded.getCause().getCause());
+        assertNull(decoded.getCause().getCause().getCause());
+
+        /* Type that cannot be rebuilt with its message prints as the original type. */
+        throwable = new PrefixedException("message");
+        decoded = decode(encode(throwable));
+        assertTrue(decoded instanceof ThrowableEncoding.UnresolvedThrowable);
+        assertEquals(PrefixedException.class.getName(), ((ThrowableEncoding.UnresolvedThrowable) decoded).getType());
+        assertEquals(throwable.toString(), decoded.toString());
+        assertStackTraceEquals(throwable.getStackTrace(), decoded.getStackTrace());
+
+        /* Unknown type. */
+        decoded = ThrowableEncoding.newThrowable("com.example.Missing", null);
+        assertEquals("com.example.Missing", decoded.toString());
+
+        /* Type that is not a throwable. */
+        decoded = ThrowableEncoding.newThrowable(String.class.getName(), "message");
+        assertEquals(String.class.getName() + ": message", decoded.toString());
+
+        /* Huge cause chain is truncated like the model. */
+        throwable = new RuntimeException();
+        for (int i = 0; i < ErrorLogHelper.CAUSE_LIMIT * 2; i++) {
+            throwable = new RuntimeException(Integer.toString(i), throwable);
+        }
+        int causes = 0;
+        for (decoded = decode(encode(throwable)); decoded != null; decoded = decoded.getCause()) {
+            causes++;
+        }
+        assertEquals(ErrorLogHelper.CAUSE_LIMIT, causes);
+    }
+
+    @Test
+    public void decodeThrowableLegacyAndCorrupted() throws java.lang.Exception {
+
+        /* Java serialization written by previous versions. */
+        Throwable throwable = new IllegalArgumentException("legacy");
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(buffer);
+        objectOutputStream.writeObject(throwable);
+        objectOutputStream.close();
+        assertThrowableEquals(throwable, decode(buffer.toByteArray()));
+        assertNull(decode(Arrays.copyOf(buffer.toByteArray(), 10)));
+
+        /* Corrupted encodings. */
+        byte[] encoded = encode(new RuntimeException("test"));
+        assertNull(decode(new byte[0]));
+        assertNull(decode(new byte[]{1, 2, 3, 4, 5}));
+        assertNull(decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        byte[] invalidStringIndex = encoded.clone();
+        invalidStringIndex[11] = 42;
+        assertNull(decode(invalidStringIndex));
+    }
+
+    private static byte[] encode(Throwable throwable) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ErrorLogHelper.writeThrowable(buffer, throwable);
+        return buffer.toByteArray();
+    }
+
+    private static Throwable decode(byte[] data) {
+        return ThrowableEncoding.read(data);
+    }
+
+    private static void assertThrowableEquals(Throwable expected, Throwable actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertStackTraceEquals(expected.getStackTrace(), actual.getStackTrace());
+    }
+
+    private static void assertStackTraceEquals(StackTraceElement[] expected, StackTraceElement[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getClassName(), actual[i].getClassName());
+            assertEquals(expected[i].getMethodName(), actual[i].getMethodName());
+            assertEquals(expected[i].getFileName(), actual[i].getFileName());
+            assertEquals(expected[i].getLineNumber(), actual[i].getLineNumber());
+        }
+    }
+
+    private static class PrivateException extends java.lang.Exception {
+
+        private PrivateException(Throwable cause) {
+            super(cause);
+        }
+
+        @SuppressWarnings("unused")
+        private PrivateException(String message) {
+            super(message);
+        }
+    }
+
+    private static class PrefixedException extends RuntimeException {
+
+        PrefixedException(String message) {
+            super("prefix " + message);
+        }
     }
 
     @Test
     public void getStoredErrorLogFilesNullCases() {
 
-        /* Mock instance. */
-        File mockErrorLogDirectory = mock(File.class);
-        when(mockErrorLogDirectory.listFiles(any(FilenameFilter.class))).thenReturn(null);
-        ErrorLogHelper.setErrorLogDirectory(mockErrorLogDirectory);
+        /* Use a missing directory. */
+        ErrorLogHelper.setErrorLogDirectory(new File(mErrorDirectory.getRoot(), "missing"));
 
         /* Test getStoredErrorLogFiles. */
         File[] files = ErrorLogHelper.getStoredErrorLogFiles();
         assertNotNull(files);
         assertEquals(0, files.length);
+        assertNull(ErrorLogHelper.getLastErrorLogFile());
 
         /* Test getStoredErrorLogFiles. */
         File file = ErrorLogHelper.getStoredErrorLogFile(UUIDUtils.randomUUID());
         assertNull(file);
+    }
 
-        /* Clean up. */
-        ErrorLogHelper.setErrorLogDirectory(null);
+    @Test
+    public void getStoredErrorLogId() {
+        UUID id = UUIDUtils.randomUUID();
+        assertEquals(id, ErrorLogHelper.getStoredErrorLogId(new File(id + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION)));
+        assertNull(ErrorLogHelper.getStoredErrorLogId(new File(id + ErrorLogHelper.THROWABLE_FILE_EXTENSION)));
+        assertNull(ErrorLogHelper.getStoredErrorLogId(new File("invalid" + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION)));
+    }
+
+    @Test
+    public void errorLogIndex() throws IOException {
+        File directory = mErrorDirectory.getRoot();
+        ErrorLogHelper.setErrorLogDirectory(directory);
+
+        /* Files written without index are indexed by modification date. */
+        File oldFile = new File(directory, new UUID(0, 1) + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
+        write(oldFile, "old");
+        assertTrue(oldFile.setLastModified(1000));
+        File invalidFile = new File(directory, "invalid" + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
+        write(invalidFile, "invalid");
+        assertArrayEquals(new File[]{oldFile}, ErrorLogHelper.getStoredErrorLogFiles());
+        assertFalse(invalidFile.exists());
+        File indexFile = new File(directory, ErrorLogHelper.ERROR_LOG_INDEX_FILE);
+        assertTrue(indexFile.exists());
+
+        /* Add error logs, index is sorted by error timestamp. */
+        ManagedErrorLog errorLog2 = new ManagedErrorLog();
+        errorLog2.setId(new UUID(0, 2));
+        errorLog2.setTimestamp(new Date(3000));
+        errorLog2.setFatal(true);
+        ErrorLogHelper.addStoredErrorLog(errorLog2, 4);
+        File file2 = new File(directory, errorLog2.getId() + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
+        write(file2, "log2");
+        ManagedErrorLog errorLog3 = new ManagedErrorLog();
+        errorLog3.setId(new UUID(0, 3));
+        errorLog3.setTimestamp(new Date(2000));
+        ErrorLogHelper.addStoredErrorLog(errorLog3, 4);
+        File file3 = new File(directory, errorLog3.getId() + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
+        write(file3, "log3");
+        assertArrayEquals(new File[]{oldFile, file3, file2}, ErrorLogHelper.getStoredErrorLogFiles());
+        assertEquals(file2, ErrorLogHelper.getLastErrorLogFile());
+        assertEquals(file3, ErrorLogHelper.getStoredErrorLogFile(errorLog3.getId()));
+
+        /* Processed state. */
+        assertFalse(ErrorLogHelper.isStoredErrorLogProcessed(errorLog2.getId()));
+        ErrorLogHelper.setStoredErrorLogProcessed(errorLog2.getId());
+        ErrorLogHelper.setStoredErrorLogProcessed(new UUID(0, 42));
+        assertTrue(ErrorLogHelper.isStoredErrorLogProcessed(errorLog2.getId()));
+        assertFalse(ErrorLogHelper.isStoredErrorLogProcessed(errorLog3.getId()));
+        assertFalse(ErrorLogHelper.isStoredErrorLogProcessed(new UUID(0, 42)));
+
+        /* Reload index: state is kept and incomplete file is deleted. */
+        write(file3, "log3 and more");
+        ErrorLogHelper.setErrorLogDirectory(directory);
+        assertArrayEquals(new File[]{oldFile, file2}, ErrorLogHelper.getStoredErrorLogFiles());
+        assertFalse(file3.exists());
+        assertTrue(ErrorLogHelper.isStoredErrorLogProcessed(errorLog2.getId()));
+
+        /* Remove an error log. */
+        ErrorLogHelper.removeStoredErrorLogFile(errorLog2.getId());
+        assertFalse(file2.exists());
+        ErrorLogHelper.setErrorLogDirectory(directory);
+        assertArrayEquals(new File[]{oldFile}, ErrorLogHelper.getStoredErrorLogFiles());
+        assertEquals(oldFile, ErrorLogHelper.getLastErrorLogFile());
+
+        /* Corrupted index is rebuilt. */
+        write(indexFile, "corrupted");
+        ErrorLogHelper.setErrorLogDirectory(directory);
+        assertArrayEquals(new File[]{oldFile}, ErrorLogHelper.getStoredErrorLogFiles());
+
+        /* Index is reloaded after deleting files. */
+        assertTrue(oldFile.delete());
+        assertTrue(indexFile.delete());
+        ErrorLogHelper.clearErrorLogIndex();
+        assertEquals(0, ErrorLogHelper.getStoredErrorLogFiles().length);
+        assertNull(ErrorLogHelper.getLastErrorLogFile());
     }
 
     @Test
@@ -358,4 +686,45 @@ public class ErrorLogHelperTest {
         }
         assertEquals(ErrorLogHelper.CAUSE_LIMIT, depth);
     }
+
+    @Test
+    public void makeRoomForAttachmentFile() throws java.lang.Exception {
+        ErrorLogHelper.setErrorLogDirectory(mErrorDirectory.getRoot());
+        File directory = ErrorLogHelper.getAttachmentDirectory();
+        long half = ErrorLogHelper.MAX_ATTACHMENT_STORAGE_SIZE / 2;
+        File oldest = createAttachmentFile(directory, "oldest", half, 1000);
+        File newest = createAttachmentFile(directory, "newest", half, 2000);
+
+        /* Files fit. */
+        assertTrue(ErrorLogHelper.makeRoomForAttachmentFile(0));
+        assertTrue(oldest.exists());
+        assertTrue(newest.exists());
+
+        /* Oldest file is deleted to make room. */
+        assertTrue(ErrorLogHelper.makeRoomForAttachmentFile(1));
+        assertFalse(oldest.exists());
+        assertTrue(newest.exists());
+
+        /* File larger than the limit is rejected without deleting anything. */
+        assertFalse(ErrorLogHelper.makeRoomForAttachmentFile(ErrorLogHelper.MAX_ATTACHMENT_STORAGE_SIZE + 1));
+        assertTrue(newest.exists());
+
+        /* The whole limit can be used. */
+        assertTrue(ErrorLogHelper.makeRoomForAttachmentFile(ErrorLogHelper.MAX_ATTACHMENT_STORAGE_SIZE));
+        assertFalse(newest.exists());
+    }
+
+    private static File createAttachmentFile(File directory, String name, long size, long lastModified) throws IOException {
+        File file = new File(directory, name);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            randomAccessFile.setLength(size);
+        } finally {
+            randomAccessFile.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
 }
@@ -0,0 +1,157 @@
+package com.microsoft.appcenter.crashes.utils;
+
+import android.os.SystemClock;
+
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.microsoft.appcenter.crashes.utils.HandledErrorRateLimiter.DEFAULT_BURST;
+import static com.microsoft.appcenter.crashes.utils.HandledErrorRateLimiter.DEFAULT_REFILL_INTERVAL;
+import static com.microsoft.appcenter.crashes.utils.HandledErrorRateLimiter.FINGERPRINT_FRAME_COUNT;
+import static com.microsoft.appcenter.crashes.utils.HandledErrorRateLimiter.MAX_FINGERPRINTS;
+import static com.microsoft.appcenter.crashes.utils.HandledErrorRateLimiter.SUPPRESSED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest(SystemClock.class)
+public class HandledErrorRateLimiterTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    private static StackFrame frame(int line) {
+        StackFrame frame = new StackFrame();
+        frame.setClassName("Class");
+        frame.setMethodName("method");
+        frame.setFileName("Class.java");
+        frame.setLineNumber(line);
+        return frame;
+    }
+
+    private static Exception exception(int frameCount, int firstLine) {
+        Exception exception = new Exception();
+        exception.setType("Type");
+        List<StackFrame> frames = new ArrayList<>();
+        for (int i = 0; i < frameCount; i++) {
+            frames.add(frame(firstLine + i));
+        }
+        exception.setFrames(frames);
+        return exception;
+    }
+
+    @Before
+    public void setUp() {
+        mockStatic(SystemClock.class);
+        when(SystemClock.elapsedRealtime()).thenReturn(0L);
+    }
+
+    @Test
+    public void burstThenRefill() {
+        HandledErrorRateLimiter limiter = new HandledErrorRateLimiter();
+        for (int i = 0; i < DEFAULT_BURST; i++) {
+            assertEquals(0, limiter.tryAcquire("a"));
+        }
+        assertEquals(SUPPRESSED, limiter.tryAcquire("a"));
+        assertEquals(SUPPRESSED, limiter.tryAcquire("a"));
+
+        /* Other fingerprints are not limited. */
+        assertEquals(0, limiter.tryAcquire("b"));
+
+        /* One token per interval, with the number of suppressed errors. */
+        when(SystemClock.elapsedRealtime()).thenReturn(DEFAULT_REFILL_INTERVAL);
+        assertEquals(2, limiter.tryAcquire("a"));
+        assertEquals(SUPPRESSED, limiter.tryAcquire("a"));
+        when(SystemClock.elapsedRealtime()).thenReturn(2 * DEFAULT_REFILL_INTERVAL - 1);
+        assertEquals(SUPPRESSED, limiter.tryAcquire("a"));
+        when(SystemClock.elapsedRealtime()).thenReturn(2 * DEFAULT_REFILL_INTERVAL);
+        assertEquals(2, limiter.tryAcquire("a"));
+
+        /* Refill does not exceed the burst. */
+        when(SystemClock.elapsedRealtime()).thenReturn(100 * DEFAULT_REFILL_INTERVAL);
+        for (int i = 0; i < DEFAULT_BURST; i++) {
+            assertEquals(0, limiter.tryAcquire("a"));
+        }
+        assertEquals(SUPPRESSED, limiter.tryAcquire("a"));
+    }
+
+    @Test
+    public void setLimits() {
+        HandledErrorRateLimiter limiter = new HandledErrorRateLimiter();
+        assertEquals(0, limiter.tryAcquire("a"));
+        limiter.setLimits(1, 10);
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertEquals(SUPPRESSED, limiter.tryAcquire("a"));
+        when(SystemClock.elapsedRealtime()).thenReturn(35L);
+        assertEquals(1, limiter.tryAcquire("a"));
+        assertEquals(SUPPRESSED, limiter.tryAcquire("a"));
+    }
+
+    @Test
+    public void leastRecentFingerprintForgotten() {
+        HandledErrorRateLimiter limiter = new HandledErrorRateLimiter();
+        limiter.setLimits(1, DEFAULT_REFILL_INTERVAL);
+        assertEquals(0, limiter.tryAcquire("first"));
+        for (int i = 0; i < MAX_FINGERPRINTS; i++) {
+            assertEquals(0, limiter.tryAcquire("other" + i));
+        }
+
+        /* First fingerprint was evicted so it gets a new bucket. */
+        assertEquals(0, limiter.tryAcquire("first"));
+        assertEquals(SUPPRESSED, limiter.tryAcquire("other" + (MAX_FINGERPRINTS - 1)));
+    }
+
+    @Test
+    public void throwableFingerprint() {
+        RuntimeException exception = new RuntimeException("a");
+        assertEquals(HandledErrorRateLimiter.getFingerprint(exception), HandledErrorRateLimiter.getFingerprint(exception));
+
+        /* Message is not part of the fingerprint but type and top frames are. */
+        RuntimeException otherMessage = new RuntimeException("b");
+        otherMessage.setStackTrace(exception.getStackTrace());
+        assertEquals(HandledErrorRateLimiter.getFingerprint(exception), HandledErrorRateLimiter.getFingerprint(otherMessage));
+        IllegalStateException otherType = new IllegalStateException("a");
+        otherType.setStackTrace(exception.getStackTrace());
+        assertNotEquals(HandledErrorRateLimiter.getFingerprint(exception), HandledErrorRateLimiter.getFingerprint(otherType));
+        RuntimeException otherFrames = new RuntimeException("a");
+        otherFrames.setStackTrace(new StackTraceElement[]{new StackTraceElement("Class", "method", "Class.java", 1)});
+        assertNotEquals(HandledErrorRateLimiter.getFingerprint(exception), HandledErrorRateLimiter.getFingerprint(otherFrames));
+    }
+
+    @Test
+    public void modelFingerprint() {
+        assertEquals(HandledErrorRateLimiter.getFingerprint(exception(3, 1)), HandledErrorRateLimiter.getFingerprint(exception(3, 1)));
+        assertNotEquals(HandledErrorRateLimiter.getFingerprint(exception(3, 1)), HandledErrorRateLimiter.getFingerprint(exception(3, 2)));
+
+        /* Only top frames are used. */
+        Exception exception = exception(FINGERPRINT_FRAME_COUNT + 1, 1);
+        Exception other = exception(FINGERPRINT_FRAME_COUNT + 1, 1);
+        other.getFrames().set(FINGERPRINT_FRAME_COUNT, frame(100));
+        assertEquals(HandledErrorRateLimiter.getFingerprint(exception), HandledErrorRateLimiter.getFingerprint(other));
+
+        /* Raw stack traces use their first lines. */
+        Exception raw = new Exception();
+        raw.setType("Type");
+        raw.setStackTrace("1\n2\n3\n4\n5\n6");
+        Exception rawOther = new Exception();
+        rawOther.setType("Type");
+        rawOther.setStackTrace("1\n2\n3\n4\n5\n7");
+        assertEquals(HandledErrorRateLimiter.getFingerprint(raw), HandledErrorRateLimiter.getFingerprint(rawOther));
+        rawOther.setStackTrace("1\n2");
+        assertNotEquals(HandledErrorRateLimiter.getFingerprint(raw), HandledErrorRateLimiter.getFingerprint(rawOther));
+
+        /* No stack. */
+        Exception empty = new Exception();
+        assertEquals("null", HandledErrorRateLimiter.getFingerprint(empty));
+    }
+}
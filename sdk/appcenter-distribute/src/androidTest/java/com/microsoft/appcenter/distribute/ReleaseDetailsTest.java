@@ -25,7 +25,9 @@ public class ReleaseDetailsTest {
                 "download_url: 'http://download.thinkbroadband.com/1GB.zip'," +
                 "mandatory_update: false," +
                 "package_hashes: ['9f52199c986d9210842824df695900e1656180946212bd5e8978501a5b732e60']," +
-                "distribution_group_id: 'fd37a4b1-4937-45ef-97fb-b864154371f0'" +
+                "distribution_group_id: 'fd37a4b1-4937-45ef-97fb-b864154371f0'," +
+                "fingerprint: '1cc9e5c5a3e2b1f4e4fd4c6a2b3f0e22'," +
+                "size: 4242424" +
                 "}";
         ReleaseDetails releaseDetails = ReleaseDetails.parse(json);
         assertNotNull(releaseDetails);
@@ -39,6 +41,8 @@ public class ReleaseDetailsTest {
         assertFalse(releaseDetails.isMandatoryUpdate());
         assertEquals("9f52199c986d9210842824df695900e1656180946212bd5e8978501a5b732e60", releaseDetails.getReleaseHash());
         assertEquals("fd37a4b1-4937-45ef-97fb-b864154371f0", releaseDetails.getDistributionGroupId());
+        assertEquals("1cc9e5c5a3e2b1f4e4fd4c6a2b3f0e22", releaseDetails.getFingerprint());
+        assertEquals(4242424, releaseDetails.getSize());
     }
 
     @Test(expected = JSONException.class)
@@ -8,6 +8,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.support.annotation.WorkerThread;
 
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.HandlerUtils;
@@ -142,26 +143,7 @@ class CheckDownloadTask extends AsyncTask<Void, Void, DownloadProgress> {
                 }
 
                 /* Check if a should install now. */
-                if (!distribute.notifyDownload(mReleaseDetails, intent)) {
-
-                    /*
-                     * This start call triggers strict mode in U.I. thread so it
-                     * needs to be done here without synchronizing
-                     * (not to block methods waiting on synchronized on U.I. thread)
-                     * so yes we could launch install and SDK being disabled...
-                     *
-                     * This corner case cannot be avoided without triggering
-                     * strict mode exception.
-                     */
-                    AppCenterLog.info(LOG_TAG, "Show install UI now intentUri=" + intent.getData());
-                    mContext.startActivity(intent);
-                    if (mReleaseDetails != null && mReleaseDetails.isMandatoryUpdate()) {
-                        distribute.setInstalling(mReleaseDetails);
-                    } else {
-                        distribute.completeWorkflow(mReleaseDetails);
-                    }
-                    storeDownloadedReleaseDetails();
-                }
+                installOrNotify(mContext, mReleaseDetails, intent);
             } finally {
                 cursor.close();
             }
@@ -187,18 +169,51 @@ class CheckDownloadTask extends AsyncTask<Void, Void, DownloadProgress> {
         }
     }
 
+    /**
+     * Show install U.I. for a completed download unless a notification was posted instead.
+     * This is also used by {@link ResumableDownloadTask} once its file is verified.
+     *
+     * @param context        context.
+     * @param releaseDetails release details.
+     * @param intent         prepared install intent.
+     */
+    @WorkerThread
+    static void installOrNotify(Context context, ReleaseDetails releaseDetails, Intent intent) {
+        Distribute distribute = Distribute.getInstance();
+        if (!distribute.notifyDownload(releaseDetails, intent)) {
+
+            /*
+             * This start call triggers strict mode in U.I. thread so it
+             * needs to be done here without synchronizing
+             * (not to block methods waiting on synchronized on U.I. thread)
+             * so yes we could launch install and SDK being disabled...
+             *
+             * This corner case cannot be avoided without triggering
+             * strict mode exception.
+             */
+            AppCenterLog.info(LOG_TAG, "Show install UI now intentUri=" + intent.getData());
+            context.startActivity(intent);
+            if (releaseDetails != null && releaseDetails.isMandatoryUpdate()) {
+                distribute.setInstalling(releaseDetails);
+            } else {
+                distribute.completeWorkflow(releaseDetails);
+            }
+            storeDownloadedReleaseDetails(releaseDetails);
+        }
+    }
+
     /**
      * Store details about downloaded release.
      * After app update and restart, this info is used to report new download and to update group ID (if it's changed).
      */
-    private void storeDownloadedReleaseDetails() {
-        if (mReleaseDetails == null) {
+    private static void storeDownloadedReleaseDetails(ReleaseDetails releaseDetails) {
+        if (releaseDetails == null) {
             AppCenterLog.debug(LOG_TAG, "Downloaded release details are missing or broken, won't store.");
             return;
         }
-        String groupId = mReleaseDetails.getDistributionGroupId();
-        String releaseHash = mReleaseDetails.getReleaseHash();
-        int releaseId = mReleaseDetails.getId();
+        String groupId = releaseDetails.getDistributionGroupId();
+        String releaseHash = releaseDetails.getReleaseHash();
+        int releaseId = releaseDetails.getId();
         AppCenterLog.debug(LOG_TAG, "Store downloaded group id=" + groupId + " release hash=" + releaseHash + " release id=" + releaseId);
         SharedPreferencesManager.putString(PREFERENCE_KEY_DOWNLOADED_DISTRIBUTION_GROUP_ID, groupId);
         SharedPreferencesManager.putString(PREFERENCE_KEY_DOWNLOADED_RELEASE_HASH, releaseHash);
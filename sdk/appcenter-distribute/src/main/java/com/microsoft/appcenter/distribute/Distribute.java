@@ -17,6 +17,7 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.SystemClock;
@@ -51,6 +52,7 @@ import com.microsoft.appcenter.utils.AppNameHelper;
 import com.microsoft.appcenter.utils.AsyncTaskUtils;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.HandlerUtils;
+import com.microsoft.appcenter.utils.HashUtils;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
 import com.microsoft.appcenter.utils.async.AppCenterConsumer;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
@@ -81,6 +83,9 @@ import static com.microsoft.appcenter.distribute.DistributeConstants.GET_LATEST_
 import static com.microsoft.appcenter.distribute.DistributeConstants.GET_LATEST_PUBLIC_RELEASE_PATH_FORMAT;
 import static com.microsoft.appcenter.distribute.DistributeConstants.HANDLER_TOKEN_CHECK_PROGRESS;
 import static com.microsoft.appcenter.distribute.DistributeConstants.HEADER_API_TOKEN;
+import static com.microsoft.appcenter.distribute.DistributeConstants.HEADER_ETAG;
+import static com.microsoft.appcenter.distribute.DistributeConstants.HEADER_IF_NONE_MATCH;
+import static com.microsoft.appcenter.distribute.DistributeConstants.LATEST_RELEASE_CACHE_TTL;
 import static com.microsoft.appcenter.distribute.DistributeConstants.LOG_TAG;
 import static com.microsoft.appcenter.distribute.DistributeConstants.MEBIBYTE_IN_BYTES;
 import static com.microsoft.appcenter.distribute.DistributeConstants.NOTIFICATION_CHANNEL_ID;
@@ -95,8 +100,13 @@ import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOADED_RELEASE_HASH;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOADED_RELEASE_ID;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOAD_ID;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOAD_RESUMABLE;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOAD_STATE;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOAD_TIME;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_LATEST_RELEASE_DETAILS;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_LATEST_RELEASE_ETAG;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_LATEST_RELEASE_REQUEST_HASH;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_POSTPONE_TIME;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_RELEASE_DETAILS;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_REQUEST_ID;
@@ -109,6 +119,7 @@ import static com.microsoft.appcenter.distribute.DistributeUtils.computeReleaseH
 import static com.microsoft.appcenter.distribute.DistributeUtils.getStoredDownloadState;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
 import static com.microsoft.appcenter.http.HttpUtils.createHttpClient;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 
 
 /**
@@ -203,6 +214,16 @@ public class Distribute extends AbstractAppCenterService {
      */
     private ServiceCall mCheckReleaseApiCall;
 
+    /**
+     * Entity tag of the latest release returned by the current API call.
+     */
+    private String mCheckReleaseETag;
+
+    /**
+     * HTTP client used to check latest release, created on first check and kept for the process.
+     */
+    private HttpClient mHttpClient;
+
     /**
      * Latest release details waiting to be shown to user.
      */
@@ -253,6 +274,16 @@ public class Distribute extends AbstractAppCenterService {
      */
     private CheckDownloadTask mCheckDownloadTask;
 
+    /**
+     * Current task downloading a release without the download manager.
+     */
+    private ResumableDownloadTask mResumableDownloadTask;
+
+    /**
+     * True to download releases with {@link ResumableDownloadTask} when the device supports it.
+     */
+    private boolean mResumableDownloadEnabled;
+
     /**
      * Remember if we checked download since our own process restarted.
      */
@@ -360,6 +391,19 @@ public class Distribute extends AbstractAppCenterService {
         getInstance().setInstanceApiUrl(apiUrl);
     }
 
+    /**
+     * Download releases with the SDK instead of the download manager. Interrupted downloads are
+     * resumed and packages are checked against the release fingerprint before being installed.
+     * This is only used on Android 7.0 and later, older package installers cannot read the
+     * downloaded file, and applies to the next download.
+     *
+     * @param enabled <code>true</code> to download with the SDK, <code>false</code> to use the download manager.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static void setResumableDownloadEnabled(boolean enabled) {
+        getInstance().setInstanceResumableDownloadEnabled(enabled);
+    }
+
     /**
      * Sets a distribute listener.
      *
@@ -512,6 +556,7 @@ public class Distribute extends AbstractAppCenterService {
             SharedPreferencesManager.remove(PREFERENCE_KEY_UPDATE_SETUP_FAILED_PACKAGE_HASH_KEY);
             SharedPreferencesManager.remove(PREFERENCE_KEY_UPDATE_SETUP_FAILED_MESSAGE_KEY);
             SharedPreferencesManager.remove(PREFERENCE_KEY_TESTER_APP_UPDATE_SETUP_FAILED_MESSAGE_KEY);
+            removeLatestReleaseCache();
 
             /* Disable the distribute info tracker. */
             mChannel.removeListener(mDistributeInfoTracker);
@@ -580,6 +625,13 @@ public class Distribute extends AbstractAppCenterService {
         mApiUrl = apiUrl;
     }
 
+    /**
+     * Implements {@link #setResumableDownloadEnabled(boolean)}.
+     */
+    private synchronized void setInstanceResumableDownloadEnabled(boolean enabled) {
+        mResumableDownloadEnabled = enabled;
+    }
+
     /**
      * Implements {@link #setListener(DistributeListener)}.
      */
@@ -612,14 +664,22 @@ public class Distribute extends AbstractAppCenterService {
             mCheckDownloadTask.cancel(true);
             mCheckDownloadTask = null;
         }
+        if (mResumableDownloadTask != null) {
+            mResumableDownloadTask.cancel(true);
+            mResumableDownloadTask = null;
+        }
         mCheckedDownload = false;
         long downloadId = DistributeUtils.getStoredDownloadId();
         if (downloadId >= 0) {
             AppCenterLog.debug(LOG_TAG, "Removing download and notification id=" + downloadId);
             removeDownload(downloadId);
+        } else if (isResumableDownload()) {
+            AppCenterLog.debug(LOG_TAG, "Removing resumable download files and notification.");
+            removeDownload(downloadId);
         }
         SharedPreferencesManager.remove(PREFERENCE_KEY_RELEASE_DETAILS);
         SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_ID);
+        SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_RESUMABLE);
         SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_STATE);
         SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_TIME);
     }
@@ -708,7 +768,7 @@ public class Distribute extends AbstractAppCenterService {
 
                     /* If app restarted, check if download completed to bring install U.I. */
                     mCheckedDownload = true;
-                    checkDownload(mContext, DistributeUtils.getStoredDownloadId(), false);
+                    checkStoredDownload(false);
 
                     /* If downloading mandatory update proceed to restore progress dialog in the meantime. */
                     if (mReleaseDetails == null || !mReleaseDetails.isMandatoryUpdate() || downloadState != DOWNLOAD_STATE_ENQUEUED) {
@@ -736,7 +796,7 @@ public class Distribute extends AbstractAppCenterService {
                     /* Refresh mandatory dialog progress or do nothing otherwise. */
                     if (mReleaseDetails.isMandatoryUpdate()) {
                         showDownloadProgress();
-                        checkDownload(mContext, DistributeUtils.getStoredDownloadId(), true);
+                        checkStoredDownload(true);
                     }
                 }
 
@@ -898,6 +958,7 @@ public class Distribute extends AbstractAppCenterService {
         SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_STATE);
         mCheckReleaseApiCall = null;
         mCheckReleaseCallId = null;
+        mCheckReleaseETag = null;
         mUpdateDialog = null;
         mUpdateSetupFailedDialog = null;
         mUnknownSourcesDialog = null;
@@ -979,7 +1040,9 @@ public class Distribute extends AbstractAppCenterService {
     @VisibleForTesting
     synchronized void getLatestReleaseDetails(String distributionGroupId, String updateToken) {
         AppCenterLog.debug(LOG_TAG, "Get latest release details...");
-        HttpClient httpClient = createHttpClient(mContext);
+        if (mHttpClient == null) {
+            mHttpClient = createHttpClient(mContext);
+        }
         String releaseHash = computeReleaseHash(mPackageInfo);
         String url = mApiUrl;
         if (updateToken == null) {
@@ -992,7 +1055,27 @@ public class Distribute extends AbstractAppCenterService {
             headers.put(HEADER_API_TOKEN, updateToken);
         }
         final Object releaseCallId = mCheckReleaseCallId = new Object();
-        mCheckReleaseApiCall = httpClient.callAsync(url, METHOD_GET, headers, new HttpClient.CallTemplate() {
+        mCheckReleaseETag = null;
+
+        /* Use the cached latest release if it answers the same request and was checked recently. */
+        final String requestHash = HashUtils.sha256(url + ":" + updateToken);
+        final String cachedReleaseDetails = requestHash.equals(SharedPreferencesManager.getString(PREFERENCE_KEY_LATEST_RELEASE_REQUEST_HASH)) ?
+                SharedPreferencesManager.getString(PREFERENCE_KEY_LATEST_RELEASE_DETAILS) : null;
+        if (cachedReleaseDetails != null) {
+            long checkAge = System.currentTimeMillis() - SharedPreferencesManager.getLong(PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME);
+            if (checkAge >= 0 && checkAge < LATEST_RELEASE_CACHE_TTL) {
+                AppCenterLog.debug(LOG_TAG, "Latest release checked " + checkAge + "ms ago, use cached release details.");
+                processReleaseDetails(releaseCallId, cachedReleaseDetails, null);
+                return;
+            }
+
+            /* Otherwise ask the server only for a release different from the cached one. */
+            String eTag = SharedPreferencesManager.getString(PREFERENCE_KEY_LATEST_RELEASE_ETAG);
+            if (eTag != null) {
+                headers.put(HEADER_IF_NONE_MATCH, eTag);
+            }
+        }
+        mCheckReleaseApiCall = mHttpClient.callAsync(url, METHOD_GET, headers, new HttpClient.ResponseHeadersCallTemplate() {
 
             @Override
             public String buildRequestBody() {
@@ -1018,32 +1101,111 @@ public class Distribute extends AbstractAppCenterService {
                     AppCenterLog.verbose(LOG_TAG, "Headers: " + logHeaders);
                 }
             }
+
+            @Override
+            public void onResponseHeaders(Map<String, String> headers) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    if (HEADER_ETAG.equalsIgnoreCase(header.getKey())) {
+                        setCheckReleaseETag(releaseCallId, header.getValue());
+                    }
+                }
+            }
         }, new ServiceCallback() {
 
             @Override
-            public void onCallSucceeded(final String payload) {
+            public void onCallSucceeded(String payload) {
+                processReleaseDetails(releaseCallId, payload, requestHash);
+            }
 
-                /* onPostExecute is not always called on UI thread due to an old Android bug. */
-                HandlerUtils.runOnUiThread(new Runnable() {
+            @Override
+            public void onCallFailed(Exception e) {
 
-                    @Override
-                    public void run() {
-                        try {
-                            handleApiCallSuccess(releaseCallId, payload, ReleaseDetails.parse(payload));
-                        } catch (JSONException e) {
-                            onCallFailed(e);
-                        }
-                    }
-                });
+                /* The cached release is still the latest one. */
+                if (cachedReleaseDetails != null && e instanceof HttpException && ((HttpException) e).getStatusCode() == HTTP_NOT_MODIFIED) {
+                    AppCenterLog.debug(LOG_TAG, "Latest release not modified, use cached release details.");
+                    SharedPreferencesManager.putLong(PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME, System.currentTimeMillis());
+                    processReleaseDetails(releaseCallId, cachedReleaseDetails, null);
+                } else {
+                    handleApiCallFailure(releaseCallId, e);
+                }
             }
+        });
+    }
+
+    /**
+     * Parse release details in background, then handle them on U.I. thread.
+     *
+     * @param releaseCallId     API call identifier.
+     * @param rawReleaseDetails release details as returned by the server.
+     * @param requestHash       hash of the request to cache the release details for, null if already cached.
+     */
+    private void processReleaseDetails(final Object releaseCallId, final String rawReleaseDetails, final String requestHash) {
+        post(new Runnable() {
 
             @Override
-            public void onCallFailed(Exception e) {
-                handleApiCallFailure(releaseCallId, e);
+            public void run() {
+                try {
+                    final ReleaseDetails releaseDetails = ReleaseDetails.parse(rawReleaseDetails);
+                    if (requestHash != null) {
+                        cacheLatestRelease(releaseCallId, requestHash, rawReleaseDetails);
+                    }
+
+                    /* onPostExecute is not always called on UI thread due to an old Android bug. */
+                    HandlerUtils.runOnUiThread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            handleApiCallSuccess(releaseCallId, rawReleaseDetails, releaseDetails);
+                        }
+                    });
+                } catch (final JSONException e) {
+                    HandlerUtils.runOnUiThread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            handleApiCallFailure(releaseCallId, e);
+                        }
+                    });
+                }
             }
         });
     }
 
+    /**
+     * Keep the entity tag of the latest release returned by the current API call.
+     */
+    private synchronized void setCheckReleaseETag(Object releaseCallId, String eTag) {
+        if (mCheckReleaseCallId == releaseCallId) {
+            mCheckReleaseETag = eTag;
+        }
+    }
+
+    /**
+     * Cache the latest release returned by the current API call with its entity tag.
+     */
+    private synchronized void cacheLatestRelease(Object releaseCallId, String requestHash, String rawReleaseDetails) {
+        if (mCheckReleaseCallId == releaseCallId) {
+            SharedPreferencesManager.putString(PREFERENCE_KEY_LATEST_RELEASE_REQUEST_HASH, requestHash);
+            SharedPreferencesManager.putString(PREFERENCE_KEY_LATEST_RELEASE_DETAILS, rawReleaseDetails);
+            if (mCheckReleaseETag != null) {
+                SharedPreferencesManager.putString(PREFERENCE_KEY_LATEST_RELEASE_ETAG, mCheckReleaseETag);
+            } else {
+                SharedPreferencesManager.remove(PREFERENCE_KEY_LATEST_RELEASE_ETAG);
+            }
+            SharedPreferencesManager.putLong(PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Remove the cached latest release.
+     */
+    private static void removeLatestReleaseCache() {
+        SharedPreferencesManager.remove(PREFERENCE_KEY_LATEST_RELEASE_REQUEST_HASH);
+        SharedPreferencesManager.remove(PREFERENCE_KEY_LATEST_RELEASE_DETAILS);
+        SharedPreferencesManager.remove(PREFERENCE_KEY_LATEST_RELEASE_ETAG);
+        SharedPreferencesManager.remove(PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME);
+    }
+
     /**
      * Handle API call failure.
      */
@@ -1080,6 +1242,7 @@ public class Distribute extends AbstractAppCenterService {
                     AppCenterLog.error(LOG_TAG, "Failed to check latest release:", e);
                     SharedPreferencesManager.remove(PREFERENCE_KEY_DISTRIBUTION_GROUP_ID);
                     SharedPreferencesManager.remove(PREFERENCE_KEY_UPDATE_TOKEN);
+                    removeLatestReleaseCache();
                     mDistributeInfoTracker.removeDistributionGroupId();
                 }
             }
@@ -1555,7 +1718,11 @@ public class Distribute extends AbstractAppCenterService {
                     showDownloadProgress();
                 }
                 mCheckedDownload = true;
-                mDownloadTask = AsyncTaskUtils.execute(LOG_TAG, new DownloadTask(mContext, releaseDetails));
+                if (mResumableDownloadEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    startResumableDownload(releaseDetails);
+                } else {
+                    mDownloadTask = AsyncTaskUtils.execute(LOG_TAG, new DownloadTask(mContext, releaseDetails));
+                }
 
                 /*
                  * If we restored a cached dialog, we also started a new check release call.
@@ -1607,6 +1774,7 @@ public class Distribute extends AbstractAppCenterService {
             }
 
             /* Store new download identifier. */
+            SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_RESUMABLE);
             SharedPreferencesManager.putLong(PREFERENCE_KEY_DOWNLOAD_ID, downloadId);
             SharedPreferencesManager.putInt(PREFERENCE_KEY_DOWNLOAD_STATE, DOWNLOAD_STATE_ENQUEUED);
             SharedPreferencesManager.putLong(PREFERENCE_KEY_DOWNLOAD_TIME, enqueueTime);
@@ -1623,6 +1791,56 @@ public class Distribute extends AbstractAppCenterService {
         }
     }
 
+    /**
+     * Persist download state and start downloading with {@link ResumableDownloadTask}.
+     *
+     * @param releaseDetails release details.
+     */
+    private synchronized void startResumableDownload(ReleaseDetails releaseDetails) {
+
+        /* Delete previous download. */
+        long previousDownloadId = DistributeUtils.getStoredDownloadId();
+        if (previousDownloadId >= 0) {
+            AppCenterLog.debug(LOG_TAG, "Delete previous download id=" + previousDownloadId);
+            removeDownload(previousDownloadId);
+        }
+        SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_ID);
+        SharedPreferencesManager.putBoolean(PREFERENCE_KEY_DOWNLOAD_RESUMABLE, true);
+        SharedPreferencesManager.putInt(PREFERENCE_KEY_DOWNLOAD_STATE, DOWNLOAD_STATE_ENQUEUED);
+        SharedPreferencesManager.putLong(PREFERENCE_KEY_DOWNLOAD_TIME, System.currentTimeMillis());
+        mResumableDownloadTask = AsyncTaskUtils.execute(LOG_TAG, new ResumableDownloadTask(mContext, releaseDetails));
+    }
+
+    /**
+     * Check if the current/last download is made by {@link ResumableDownloadTask}.
+     */
+    private static boolean isResumableDownload() {
+        return SharedPreferencesManager.getBoolean(PREFERENCE_KEY_DOWNLOAD_RESUMABLE);
+    }
+
+    /**
+     * Check the stored download state and take action depending on that state.
+     * A resumable download reports its own progress and shows install U.I. when done,
+     * it only needs to be started again if its task is not running, for example after a process restart.
+     *
+     * @param checkProgress true to only check progress, false to also process install if done.
+     */
+    private synchronized void checkStoredDownload(boolean checkProgress) {
+        if (isResumableDownload()) {
+            if (mResumableDownloadTask == null || mResumableDownloadTask.getStatus() == AsyncTask.Status.FINISHED) {
+                if (mReleaseDetails == null) {
+                    AppCenterLog.debug(LOG_TAG, "Resumable download has no release details, discard it.");
+                    cancelPreviousTasks();
+                    return;
+                }
+                AppCenterLog.debug(LOG_TAG, "Resume download of release id=" + mReleaseDetails.getId());
+                mResumableDownloadTask = AsyncTaskUtils.execute(LOG_TAG, new ResumableDownloadTask(mContext, mReleaseDetails));
+            }
+        } else {
+            checkDownload(mContext, DistributeUtils.getStoredDownloadId(), checkProgress);
+        }
+    }
+
     /**
      * Bring app to foreground if in background.
      *
@@ -1804,6 +2022,11 @@ public class Distribute extends AbstractAppCenterService {
                 mProgressDialog.setProgress((int) (downloadProgress.getCurrentSize() / MEBIBYTE_IN_BYTES));
             }
 
+            /* Resumable download reports progress without being polled. */
+            if (isResumableDownload()) {
+                return;
+            }
+
             /* And schedule the next check. */
             HandlerUtils.getMainHandler().postAtTime(new Runnable() {
 
@@ -1859,7 +2082,7 @@ public class Distribute extends AbstractAppCenterService {
      */
     private synchronized void installMandatoryUpdate(ReleaseDetails releaseDetails) {
         if (releaseDetails == mReleaseDetails) {
-            checkDownload(mContext, DistributeUtils.getStoredDownloadId(), false);
+            checkStoredDownload(false);
         } else {
             showDisabledToast();
         }
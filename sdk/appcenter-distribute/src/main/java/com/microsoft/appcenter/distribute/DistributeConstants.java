@@ -131,6 +131,16 @@ final class DistributeConstants {
      */
     static final String HEADER_API_TOKEN = "x-api-token";
 
+    /**
+     * Header used to send the entity tag of the cached latest release.
+     */
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    /**
+     * Response header holding the entity tag of the latest release.
+     */
+    static final String HEADER_ETAG = "ETag";
+
     /**
      * Invalid download identifier.
      */
@@ -185,6 +195,11 @@ final class DistributeConstants {
      */
     static final long POSTPONE_TIME_THRESHOLD = 24 * 60 * 60 * 1000;
 
+    /**
+     * Time during which the cached latest release is used without calling the server, in millis.
+     */
+    static final long LATEST_RELEASE_CACHE_TTL = 5 * 60 * 1000;
+
     /**
      * Notification channel identifier.
      */
@@ -211,6 +226,12 @@ final class DistributeConstants {
      */
     static final String PREFERENCE_KEY_DOWNLOAD_STATE = PREFERENCE_PREFIX + "download_state";
 
+    /**
+     * Preference key set when the current/last download is made by {@link ResumableDownloadTask}
+     * instead of the download manager.
+     */
+    static final String PREFERENCE_KEY_DOWNLOAD_RESUMABLE = PREFERENCE_PREFIX + "download_resumable";
+
     /**
      * Preference key for request identifier to validate deep link intent.
      */
@@ -246,6 +267,26 @@ final class DistributeConstants {
      */
     static final String PREFERENCE_KEY_RELEASE_DETAILS = PREFERENCE_PREFIX + "release_details";
 
+    /**
+     * Preference key to store the request the cached latest release answers, as a hash.
+     */
+    static final String PREFERENCE_KEY_LATEST_RELEASE_REQUEST_HASH = PREFERENCE_PREFIX + "latest_release_request_hash";
+
+    /**
+     * Preference key to store the cached latest release details, as returned by the server.
+     */
+    static final String PREFERENCE_KEY_LATEST_RELEASE_DETAILS = PREFERENCE_PREFIX + "latest_release_details";
+
+    /**
+     * Preference key to store the entity tag of the cached latest release.
+     */
+    static final String PREFERENCE_KEY_LATEST_RELEASE_ETAG = PREFERENCE_PREFIX + "latest_release_etag";
+
+    /**
+     * Preference key to store the last time the server confirmed the cached latest release.
+     */
+    static final String PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME = PREFERENCE_PREFIX + "latest_release_check_time";
+
     /**
      * Preference key to store download start time. Used to avoid showing install U.I. of a completed
      * download if we already updated (the download workflow can work across process restarts).
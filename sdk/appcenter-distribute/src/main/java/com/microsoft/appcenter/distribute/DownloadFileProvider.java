@@ -0,0 +1,119 @@
+package com.microsoft.appcenter.distribute;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import static com.microsoft.appcenter.distribute.ResumableDownloadTask.FILE_EXTENSION;
+
+/**
+ * Share packages verified by {@link ResumableDownloadTask} with the package installer.
+ * Only verified packages can be read, the provider is not exported and access is granted by the install intent.
+ */
+public class DownloadFileProvider extends ContentProvider {
+
+    /**
+     * Suffix appended to the application identifier to build the authority, must match the manifest.
+     */
+    private static final String AUTHORITY_SUFFIX = ".appcenter.distribute.download";
+
+    /**
+     * MIME type of packages.
+     */
+    private static final String PACKAGE_MIME_TYPE = "application/vnd.android.package-archive";
+
+    /**
+     * Get the content URI of a verified package.
+     *
+     * @param context context.
+     * @param file    verified package.
+     * @return content URI.
+     */
+    static Uri getUri(Context context, File file) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(context.getPackageName() + AUTHORITY_SUFFIX)
+                .appendPath(file.getName())
+                .build();
+    }
+
+    /**
+     * Get the verified package for a content URI.
+     *
+     * @param uri content URI.
+     * @return package file.
+     * @throws FileNotFoundException if the URI does not point to a verified package.
+     */
+    @NonNull
+    private File getFile(@NonNull Uri uri) throws FileNotFoundException {
+        String name = uri.getLastPathSegment();
+        Context context = getContext();
+        if (context == null || name == null || uri.getPathSegments().size() != 1 || !name.endsWith(FILE_EXTENSION)) {
+            throw new FileNotFoundException("Invalid uri " + uri);
+        }
+        File file = new File(ResumableDownloadTask.getDownloadDirectory(context), name);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("No file for uri " + uri);
+        }
+        return file;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        File file;
+        try {
+            file = getFile(uri);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        MatrixCursor cursor = new MatrixCursor(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, 1);
+        cursor.addRow(new Object[]{file.getName(), file.length()});
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return PACKAGE_MIME_TYPE;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Packages are read only.");
+        }
+        return ParcelFileDescriptor.open(getFile(uri), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -32,6 +32,10 @@ public class ReleaseDetails {
 
     private static final String DISTRIBUTION_GROUP_ID = "distribution_group_id";
 
+    private static final String FINGERPRINT = "fingerprint";
+
+    private static final String SIZE = "size";
+
     /**
      * ID identifying this unique release.
      */
@@ -86,6 +90,16 @@ public class ReleaseDetails {
      */
     private String distributionGroupId;
 
+    /**
+     * Checksum of the release package in hexadecimal, if known.
+     */
+    private String fingerprint;
+
+    /**
+     * Size of the release package in bytes, 0 if unknown.
+     */
+    private long size;
+
     /**
      * Parse a JSON string describing release details.
      *
@@ -110,6 +124,8 @@ public class ReleaseDetails {
         releaseDetails.mandatoryUpdate = object.getBoolean(MANDATORY_UPDATE);
         releaseDetails.releaseHash = object.getJSONArray(PACKAGE_HASHES).getString(0);
         releaseDetails.distributionGroupId = object.isNull(DISTRIBUTION_GROUP_ID) ? null : object.getString(DISTRIBUTION_GROUP_ID);
+        releaseDetails.fingerprint = object.isNull(FINGERPRINT) ? null : object.getString(FINGERPRINT);
+        releaseDetails.size = object.optLong(SIZE);
         return releaseDetails;
     }
 
@@ -208,4 +224,23 @@ public class ReleaseDetails {
     String getDistributionGroupId() {
         return distributionGroupId;
     }
+
+    /**
+     * Get the fingerprint value.
+     *
+     * @return the fingerprint value, null if unknown.
+     */
+    @Nullable
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Get the size value.
+     *
+     * @return the size value in bytes, 0 if unknown.
+     */
+    long getSize() {
+        return size;
+    }
 }
@@ -25,7 +25,7 @@ class RemoveDownloadTask extends AsyncTask<Void, Void, Void> {
      * Init.
      *
      * @param context    context.
-     * @param downloadId download identifier to remove.
+     * @param downloadId download identifier to remove, negative to only remove resumable download files.
      */
     RemoveDownloadTask(Context context, long downloadId) {
         mContext = context;
@@ -37,8 +37,13 @@ class RemoveDownloadTask extends AsyncTask<Void, Void, Void> {
     protected Void doInBackground(Void... params) {
 
         /* This special cleanup task does not require any cancellation on state change as a previous download will never be reused. */
-        DownloadManager downloadManager = (DownloadManager) mContext.getSystemService(Context.DOWNLOAD_SERVICE);
-        downloadManager.remove(mDownloadId);
+        if (mDownloadId >= 0) {
+            DownloadManager downloadManager = (DownloadManager) mContext.getSystemService(Context.DOWNLOAD_SERVICE);
+            downloadManager.remove(mDownloadId);
+        }
+
+        /* Also delete files of the resumable download, if any, except the ones of a download that started meanwhile. */
+        ResumableDownloadTask.deleteFiles(mContext, -1);
         return null;
     }
 }
@@ -0,0 +1,507 @@
+package com.microsoft.appcenter.distribute;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.http.HttpException;
+import com.microsoft.appcenter.http.HttpUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HashUtils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.microsoft.appcenter.distribute.DistributeConstants.CHECK_PROGRESS_TIME_INTERVAL_IN_MILLIS;
+import static com.microsoft.appcenter.distribute.DistributeConstants.LOG_TAG;
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+
+/**
+ * Download a release package without the download manager.
+ * <p>
+ * An interrupted download is resumed with a range request, and the package is checked against the
+ * release fingerprint while it is written, so that only a complete and verified file is passed to
+ * the installer.
+ */
+class ResumableDownloadTask extends AsyncTask<Void, DownloadProgress, Void> {
+
+    /**
+     * Directory, relative to the application files directory, where packages are downloaded.
+     */
+    private static final String DOWNLOAD_DIRECTORY = "appcenter/distribute";
+
+    /**
+     * Extension of verified packages.
+     */
+    @VisibleForTesting
+    static final String FILE_EXTENSION = ".apk";
+
+    /**
+     * Extension of packages being downloaded.
+     */
+    @VisibleForTesting
+    static final String PARTIAL_FILE_EXTENSION = ".apk.part";
+
+    /**
+     * Maximum number of connections made for one download.
+     */
+    @VisibleForTesting
+    static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Base delay before connecting again after a recoverable error, multiplied by the attempt number.
+     */
+    @VisibleForTesting
+    static final long RETRY_INTERVAL = 2000;
+
+    /**
+     * Buffer size used to read and write the package.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Status code when the requested range starts after the end of the file.
+     */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Connect timeout in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT = 60000;
+
+    /**
+     * Read timeout in milliseconds.
+     */
+    private static final int READ_TIMEOUT = 20000;
+
+    /**
+     * Releases being downloaded, their files are never deleted as cleanup runs on other threads.
+     */
+    private static final Set<Integer> sActiveReleaseIds = new HashSet<>();
+
+    /**
+     * Context.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private final Context mContext;
+
+    /**
+     * Release details to download.
+     */
+    private final ReleaseDetails mReleaseDetails;
+
+    /**
+     * Last time progress was published.
+     */
+    private long mLastProgressTime;
+
+    /**
+     * Init.
+     *
+     * @param context        context.
+     * @param releaseDetails release details to download.
+     */
+    ResumableDownloadTask(Context context, ReleaseDetails releaseDetails) {
+        mContext = context.getApplicationContext();
+        mReleaseDetails = releaseDetails;
+    }
+
+    /**
+     * Get the directory where packages are downloaded.
+     *
+     * @param context context.
+     * @return download directory.
+     */
+    static File getDownloadDirectory(Context context) {
+        return new File(context.getFilesDir(), DOWNLOAD_DIRECTORY);
+    }
+
+    /**
+     * Delete downloaded packages, except the ones of a release.
+     *
+     * @param context   context.
+     * Files of a release being downloaded by a task that is not finished yet are always kept.
+     *
+     * @param context   context.
+     * @param releaseId release identifier whose files are kept, or a negative value to delete all other files.
+     */
+    static synchronized void deleteFiles(Context context, int releaseId) {
+        File[] files = getDownloadDirectory(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!isKept(name, releaseId) && !isActive(name)) {
+                AppCenterLog.debug(LOG_TAG, "Delete downloaded file " + name);
+
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Check if a file name belongs to a release.
+     */
+    private static boolean isKept(String name, int releaseId) {
+        return name.equals(releaseId + FILE_EXTENSION) || name.equals(releaseId + PARTIAL_FILE_EXTENSION);
+    }
+
+    /**
+     * Check if a file name belongs to a release being downloaded.
+     */
+    private static boolean isActive(String name) {
+        for (Integer releaseId : sActiveReleaseIds) {
+            if (isKept(name, releaseId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Protect or release the files of a download from {@link #deleteFiles}.
+     *
+     * @param releaseId release identifier.
+     * @param active    true when the download starts, false when it is finished.
+     */
+    @VisibleForTesting
+    static synchronized void setActive(int releaseId, boolean active) {
+        if (active) {
+            sActiveReleaseIds.add(releaseId);
+        } else {
+            sActiveReleaseIds.remove(releaseId);
+        }
+    }
+
+    /**
+     * Get a digest matching the fingerprint format.
+     *
+     * @param fingerprint expected checksum in hexadecimal.
+     * @return digest or null if the fingerprint is unknown.
+     * @throws IOException if the fingerprint format is not supported.
+     */
+    @Nullable
+    private static MessageDigest getFingerprintDigest(@Nullable String fingerprint) throws IOException {
+        if (fingerprint == null) {
+            return null;
+        }
+        switch (fingerprint.length()) {
+            case 64:
+                return HashUtils.getMessageDigest("SHA-256");
+
+            case 32:
+                return HashUtils.getMessageDigest("MD5");
+
+            default:
+                throw new IOException("Unsupported release fingerprint: " + fingerprint);
+        }
+    }
+
+    /**
+     * Add the content of a file to a digest.
+     */
+    private static void updateDigest(@NonNull File file, @NonNull MessageDigest digest) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the total size from a content range header such as "bytes 100-999/1000".
+     */
+    private static long getTotalSize(String contentRange) {
+        if (contentRange != null) {
+            int index = contentRange.lastIndexOf('/');
+            if (index >= 0) {
+                return parseLong(contentRange.substring(index + 1));
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected void onPreExecute() {
+
+        /* Runs synchronously in execute, before any previously scheduled cleanup task could delete our files. */
+        setActive(mReleaseDetails.getId(), true);
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        try {
+            download();
+        } finally {
+            setActive(mReleaseDetails.getId(), false);
+        }
+        return null;
+    }
+
+    @Override
+    protected void onCancelled() {
+
+        /* doInBackground is skipped if canceled before it started. */
+        setActive(mReleaseDetails.getId(), false);
+    }
+
+    /**
+     * Download, verify and install the package.
+     */
+    private void download() {
+        AppCenterLog.debug(LOG_TAG, "Start resumable download of release id=" + mReleaseDetails.getId());
+        Distribute distribute = Distribute.getInstance();
+        try {
+            File file = downloadAndVerify();
+
+            /* Build install intent, the package installer reads the file from our provider. */
+            Intent intent = DistributeUtils.getInstallIntent(DownloadFileProvider.getUri(mContext, file));
+            if (intent.resolveActivity(mContext.getPackageManager()) == null) {
+                AppCenterLog.error(LOG_TAG, "Installer not found");
+                distribute.completeWorkflow(mReleaseDetails);
+                return;
+            }
+            CheckDownloadTask.installOrNotify(mContext, mReleaseDetails, intent);
+        } catch (IOException | RuntimeException e) {
+            if (isCancelled()) {
+                AppCenterLog.debug(LOG_TAG, "Resumable download canceled.");
+            } else {
+                AppCenterLog.error(LOG_TAG, "Failed to download update id=" + mReleaseDetails.getId(), e);
+                distribute.completeWorkflow(mReleaseDetails);
+            }
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(DownloadProgress... values) {
+        Distribute.getInstance().updateProgressDialog(mReleaseDetails, values[0]);
+    }
+
+    /**
+     * Download the package, resuming a previous partial download, then verify it.
+     *
+     * @return verified package.
+     * @throws IOException if the download failed or the package does not match the release.
+     */
+    @VisibleForTesting
+    File downloadAndVerify() throws IOException {
+        File directory = getDownloadDirectory(mContext);
+        int releaseId = mReleaseDetails.getId();
+        File file = new File(directory, releaseId + FILE_EXTENSION);
+        File partialFile = new File(directory, releaseId + PARTIAL_FILE_EXTENSION);
+        deleteFiles(mContext, releaseId);
+
+        /* A previous task may have completed the download, check it again before reuse. */
+        if (file.exists()) {
+            MessageDigest digest = getFingerprintDigest(mReleaseDetails.getFingerprint());
+            if (digest != null) {
+                updateDigest(file, digest);
+            }
+            try {
+                verify(file, digest);
+                AppCenterLog.debug(LOG_TAG, "Reuse downloaded file " + file);
+                return file;
+            } catch (IOException e) {
+                AppCenterLog.warn(LOG_TAG, "Downloaded file is no longer valid, download again.");
+
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        /* Download, retrying on recoverable errors: each attempt resumes where the previous one stopped. */
+        MessageDigest digest;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                digest = download(partialFile);
+                break;
+            } catch (IOException e) {
+                if (isCancelled() || attempt >= MAX_ATTEMPTS || !HttpUtils.isRecoverableError(e)) {
+                    throw e;
+                }
+                AppCenterLog.warn(LOG_TAG, "Download interrupted, attempt " + attempt + " of " + MAX_ATTEMPTS + ", resuming later.", e);
+                try {
+                    Thread.sleep(RETRY_INTERVAL * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to resume download.");
+                }
+            }
+        }
+
+        /* Never keep a file that does not match the release. */
+        try {
+            verify(partialFile, digest);
+        } catch (IOException e) {
+
+            //noinspection ResultOfMethodCallIgnored
+            partialFile.delete();
+            throw e;
+        }
+        if (!partialFile.renameTo(file)) {
+            throw new IOException("Could not rename " + partialFile + " to " + file);
+        }
+        AppCenterLog.debug(LOG_TAG, "Download verified for release id=" + releaseId);
+        return file;
+    }
+
+    /**
+     * Make one download request, appending to the partial file when the server accepts the range.
+     *
+     * @param partialFile file to write to.
+     * @return digest of the whole partial file, null if the release has no fingerprint.
+     * @throws IOException if the request fails or is interrupted.
+     */
+    private MessageDigest download(File partialFile) throws IOException {
+
+        /* Hash the bytes already downloaded, it's much cheaper than downloading them again. */
+        MessageDigest digest = getFingerprintDigest(mReleaseDetails.getFingerprint());
+        long offset = partialFile.length();
+        if (offset > 0 && digest != null) {
+            updateDigest(partialFile, digest);
+        }
+
+        /* The previous process may have been stopped after writing the last byte. */
+        if (offset > 0 && offset == mReleaseDetails.getSize()) {
+            return digest;
+        }
+
+        /* Connect. */
+        URL url = new URL(mReleaseDetails.getDownloadUrl().toString());
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
+            urlConnection.setReadTimeout(READ_TIMEOUT);
+            urlConnection.setRequestMethod(METHOD_GET);
+            if (offset > 0) {
+                AppCenterLog.debug(LOG_TAG, "Resume download from byte " + offset);
+                urlConnection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+            int status = urlConnection.getResponseCode();
+            long totalSize;
+            if (status == HTTP_PARTIAL && offset > 0) {
+                totalSize = getTotalSize(urlConnection.getHeaderField("Content-Range"));
+            } else if (status == HTTP_OK) {
+                if (offset > 0) {
+                    AppCenterLog.debug(LOG_TAG, "Server does not support resuming, download from the start.");
+                    offset = 0;
+                    if (digest != null) {
+                        digest.reset();
+                    }
+                }
+                totalSize = parseLong(urlConnection.getHeaderField("Content-Length"));
+            } else if (status == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+
+                /* The partial file does not match the remote file anymore, start over. */
+                AppCenterLog.debug(LOG_TAG, "Partial download is not valid anymore, download from the start.");
+
+                //noinspection ResultOfMethodCallIgnored
+                partialFile.delete();
+                return download(partialFile);
+            } else {
+                throw new HttpException(status);
+            }
+
+            /* Copy the response while hashing it. */
+            long currentSize = offset;
+            publishProgress(new DownloadProgress(currentSize, totalSize));
+            InputStream inputStream = urlConnection.getInputStream();
+            OutputStream outputStream = new FileOutputStream(partialFile, offset > 0);
+
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int length;
+                while ((length = inputStream.read(buffer)) != -1) {
+                    if (isCancelled()) {
+                        throw new InterruptedIOException("Download canceled.");
+                    }
+                    outputStream.write(buffer, 0, length);
+                    if (digest != null) {
+                        digest.update(buffer, 0, length);
+                    }
+                    currentSize += length;
+                    long now = SystemClock.uptimeMillis();
+                    if (now - mLastProgressTime >= CHECK_PROGRESS_TIME_INTERVAL_IN_MILLIS) {
+                        mLastProgressTime = now;
+                        publishProgress(new DownloadProgress(currentSize, totalSize));
+                    }
+                }
+            } finally {
+                outputStream.close();
+                inputStream.close();
+            }
+            publishProgress(new DownloadProgress(currentSize, totalSize));
+
+            /* Resume if the connection was closed before the end of the file. */
+            if (totalSize >= 0 && currentSize < totalSize) {
+                throw new EOFException("Download stopped at " + currentSize + " of " + totalSize + " bytes.");
+            }
+            return digest;
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * Check a downloaded file against the release fingerprint, or only its size if the fingerprint is unknown.
+     *
+     * @param file   downloaded file.
+     * @param digest digest of the file content, null if the release has no fingerprint.
+     * @throws IOException if the file does not match the release.
+     */
+    private void verify(File file, MessageDigest digest) throws IOException {
+        long size = mReleaseDetails.getSize();
+        if (size > 0 && file.length() != size) {
+            throw new IOException("Downloaded file size is " + file.length() + " instead of " + size + ".");
+        }
+        if (digest == null) {
+            AppCenterLog.warn(LOG_TAG, "Release has no fingerprint, only the file size was checked.");
+            return;
+        }
+        String checksum = HashUtils.encodeHex(digest.digest());
+        if (!checksum.equalsIgnoreCase(mReleaseDetails.getFingerprint())) {
+            throw new IOException("Downloaded file checksum " + checksum + " does not match release fingerprint " + mReleaseDetails.getFingerprint() + ".");
+        }
+    }
+}
@@ -38,9 +38,11 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import static com.microsoft.appcenter.distribute.DistributeConstants.DOWNLOAD_STATE_AVAILABLE;
 import static com.microsoft.appcenter.distribute.DistributeConstants.DOWNLOAD_STATE_COMPLETED;
+import static com.microsoft.appcenter.distribute.DistributeConstants.DOWNLOAD_STATE_ENQUEUED;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DISTRIBUTION_GROUP_ID;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOADED_RELEASE_HASH;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOADED_RELEASE_ID;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOAD_RESUMABLE;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOAD_STATE;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_POSTPONE_TIME;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_RELEASE_DETAILS;
@@ -52,6 +54,7 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
@@ -902,6 +905,94 @@ public class DistributeBeforeDownloadTest extends AbstractDistributeTest {
     /**
      * Mock some storage calls.
      */
+    @Test
+    public void resumableDownload() throws Exception {
+
+        /* Mock we already have redirection parameters. */
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.N);
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_DISTRIBUTION_GROUP_ID)).thenReturn("some group");
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_UPDATE_TOKEN)).thenReturn("some token");
+        when(mHttpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class))).thenAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                ((ServiceCallback) invocation.getArguments()[4]).onCallSucceeded("mock");
+                return mock(ServiceCall.class);
+            }
+        });
+        ReleaseDetails releaseDetails = mock(ReleaseDetails.class);
+        when(releaseDetails.getId()).thenReturn(4);
+        when(releaseDetails.getVersion()).thenReturn(7);
+        when(ReleaseDetails.parse(anyString())).thenReturn(releaseDetails);
+        mockStatic(AsyncTaskUtils.class);
+        when(InstallerUtils.isUnknownSourcesEnabled(any(Context.class))).thenReturn(true);
+
+        /* Trigger call. */
+        Distribute.setResumableDownloadEnabled(true);
+        start();
+        Distribute.getInstance().onActivityResumed(mock(Activity.class));
+
+        /* Click on download. */
+        ArgumentCaptor<DialogInterface.OnClickListener> clickListener = ArgumentCaptor.forClass(DialogInterface.OnClickListener.class);
+        verify(mDialogBuilder).setPositiveButton(eq(R.string.appcenter_distribute_update_dialog_download), clickListener.capture());
+        clickListener.getValue().onClick(mDialog, DialogInterface.BUTTON_POSITIVE);
+
+        /* Verify the SDK downloads instead of the download manager. */
+        verifyStatic();
+        AsyncTaskUtils.execute(anyString(), isA(ResumableDownloadTask.class), Mockito.<Void>anyVararg());
+        verifyStatic(never());
+        AsyncTaskUtils.execute(anyString(), isA(DownloadTask.class), Mockito.<Void>anyVararg());
+        verifyStatic();
+        SharedPreferencesManager.putBoolean(PREFERENCE_KEY_DOWNLOAD_RESUMABLE, true);
+        verifyStatic();
+        SharedPreferencesManager.putInt(PREFERENCE_KEY_DOWNLOAD_STATE, DOWNLOAD_STATE_ENQUEUED);
+
+        /* Disabling removes downloaded files. */
+        when(SharedPreferencesManager.getBoolean(PREFERENCE_KEY_DOWNLOAD_RESUMABLE)).thenReturn(true);
+        Distribute.setEnabled(false);
+        verifyStatic();
+        AsyncTaskUtils.execute(anyString(), isA(RemoveDownloadTask.class), Mockito.<Void>anyVararg());
+        verifyStatic();
+        SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_RESUMABLE);
+    }
+
+    @Test
+    public void resumableDownloadNotUsedBeforeNougat() throws Exception {
+
+        /* Mock we already have redirection parameters. */
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.M);
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_DISTRIBUTION_GROUP_ID)).thenReturn("some group");
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_UPDATE_TOKEN)).thenReturn("some token");
+        when(mHttpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class))).thenAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                ((ServiceCallback) invocation.getArguments()[4]).onCallSucceeded("mock");
+                return mock(ServiceCall.class);
+            }
+        });
+        ReleaseDetails releaseDetails = mock(ReleaseDetails.class);
+        when(releaseDetails.getId()).thenReturn(4);
+        when(releaseDetails.getVersion()).thenReturn(7);
+        when(ReleaseDetails.parse(anyString())).thenReturn(releaseDetails);
+        mockStatic(AsyncTaskUtils.class);
+        when(InstallerUtils.isUnknownSourcesEnabled(any(Context.class))).thenReturn(true);
+
+        /* Trigger call and click on download. */
+        Distribute.setResumableDownloadEnabled(true);
+        start();
+        Distribute.getInstance().onActivityResumed(mock(Activity.class));
+        ArgumentCaptor<DialogInterface.OnClickListener> clickListener = ArgumentCaptor.forClass(DialogInterface.OnClickListener.class);
+        verify(mDialogBuilder).setPositiveButton(eq(R.string.appcenter_distribute_update_dialog_download), clickListener.capture());
+        clickListener.getValue().onClick(mDialog, DialogInterface.BUTTON_POSITIVE);
+
+        /* Download manager is used. */
+        verifyStatic();
+        AsyncTaskUtils.execute(anyString(), isA(DownloadTask.class), Mockito.<Void>anyVararg());
+        verifyStatic(never());
+        AsyncTaskUtils.execute(anyString(), isA(ResumableDownloadTask.class), Mockito.<Void>anyVararg());
+    }
+
     private void mockSomeStorage() {
         doAnswer(new Answer<Void>() {
 
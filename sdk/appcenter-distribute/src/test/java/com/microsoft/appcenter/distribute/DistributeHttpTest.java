@@ -5,13 +5,16 @@ import android.util.Log;
 
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.http.HttpException;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
@@ -22,11 +25,21 @@ import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.microsoft.appcenter.distribute.DistributeConstants.HEADER_API_TOKEN;
+import static com.microsoft.appcenter.distribute.DistributeConstants.HEADER_IF_NONE_MATCH;
+import static com.microsoft.appcenter.distribute.DistributeConstants.LATEST_RELEASE_CACHE_TTL;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_LATEST_RELEASE_DETAILS;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_LATEST_RELEASE_ETAG;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_LATEST_RELEASE_REQUEST_HASH;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -134,6 +147,83 @@ public class DistributeHttpTest extends AbstractDistributeTest {
         Assert.assertNull(callTemplate.buildRequestBody());
     }
 
+    @Test
+    public void latestReleaseCachedWithETag() throws Exception {
+
+        /* The server returns the release with an entity tag, or not modified when asked with it. */
+        Distribute.getInstance().onStarting(mAppCenterHandler);
+        Distribute.getInstance().onStarted(mContext, mock(Channel.class), "a", null, true);
+        ReleaseDetails releaseDetails = mock(ReleaseDetails.class);
+        when(releaseDetails.getMinApiLevel()).thenReturn(Integer.MAX_VALUE);
+        when(ReleaseDetails.parse("mock")).thenReturn(releaseDetails);
+        when(mHttpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class))).then(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                @SuppressWarnings("unchecked")
+                Map<String, String> headers = (Map<String, String>) invocation.getArguments()[2];
+                ServiceCallback serviceCallback = (ServiceCallback) invocation.getArguments()[4];
+                if ("\"v1\"".equals(headers.get(HEADER_IF_NONE_MATCH))) {
+                    serviceCallback.onCallFailed(new HttpException(304));
+                } else {
+                    Map<String, String> responseHeaders = new HashMap<>();
+                    responseHeaders.put("etag", "\"v1\"");
+                    ((HttpClient.ResponseHeadersCallTemplate) invocation.getArguments()[3]).onResponseHeaders(responseHeaders);
+                    serviceCallback.onCallSucceeded("mock");
+                }
+                return mock(ServiceCall.class);
+            }
+        });
+
+        /* First check is cached. */
+        Distribute.getInstance().getLatestReleaseDetails("mockGroup", null);
+        ArgumentCaptor<String> requestHash = ArgumentCaptor.forClass(String.class);
+        verifyStatic();
+        SharedPreferencesManager.putString(eq(PREFERENCE_KEY_LATEST_RELEASE_REQUEST_HASH), requestHash.capture());
+        verifyStatic();
+        SharedPreferencesManager.putString(PREFERENCE_KEY_LATEST_RELEASE_DETAILS, "mock");
+        verifyStatic();
+        SharedPreferencesManager.putString(PREFERENCE_KEY_LATEST_RELEASE_ETAG, "\"v1\"");
+        verifyStatic();
+        SharedPreferencesManager.putLong(eq(PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME), anyLong());
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_LATEST_RELEASE_REQUEST_HASH)).thenReturn(requestHash.getValue());
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_LATEST_RELEASE_DETAILS)).thenReturn("mock");
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_LATEST_RELEASE_ETAG)).thenReturn("\"v1\"");
+        when(SharedPreferencesManager.getLong(PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME)).thenReturn(System.currentTimeMillis());
+
+        /* Check again while cache is fresh: no call. */
+        Distribute.getInstance().getLatestReleaseDetails("mockGroup", null);
+        verify(mHttpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        verifyStatic(times(2));
+        ReleaseDetails.parse("mock");
+
+        /* Check once cache expired: conditional call, not modified. */
+        when(SharedPreferencesManager.getLong(PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME)).thenReturn(System.currentTimeMillis() - LATEST_RELEASE_CACHE_TTL - 1);
+        Distribute.getInstance().getLatestReleaseDetails("mockGroup", null);
+        Map<String, String> conditionalHeaders = new HashMap<>();
+        conditionalHeaders.put(HEADER_IF_NONE_MATCH, "\"v1\"");
+        verify(mHttpClient).callAsync(anyString(), anyString(), eq(conditionalHeaders), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        verifyStatic(times(2));
+        SharedPreferencesManager.putLong(eq(PREFERENCE_KEY_LATEST_RELEASE_CHECK_TIME), anyLong());
+        verifyStatic(times(3));
+        ReleaseDetails.parse("mock");
+
+        /* A single client is used for all checks. */
+        verifyStatic();
+        HttpUtils.createHttpClient(mContext);
+
+        /* Cache does not answer another request. */
+        Distribute.getInstance().getLatestReleaseDetails("otherGroup", null);
+        verify(mHttpClient, times(2)).callAsync(anyString(), anyString(), eq(new HashMap<String, String>()), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+
+        /* Cache is cleared when disabled. */
+        Distribute.setEnabled(false);
+        verifyStatic();
+        SharedPreferencesManager.remove(PREFERENCE_KEY_LATEST_RELEASE_DETAILS);
+        verifyStatic();
+        SharedPreferencesManager.remove(PREFERENCE_KEY_LATEST_RELEASE_ETAG);
+    }
+
     private HttpClient.CallTemplate getCallTemplate(String appSecret, String apiToken) throws Exception {
 
         /* Configure mock HTTP to get an instance of IngestionCallTemplate. */
@@ -0,0 +1,347 @@
+package com.microsoft.appcenter.distribute;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+
+import com.microsoft.appcenter.http.HttpException;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HashUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static com.microsoft.appcenter.distribute.ResumableDownloadTask.FILE_EXTENSION;
+import static com.microsoft.appcenter.distribute.ResumableDownloadTask.PARTIAL_FILE_EXTENSION;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+@SuppressWarnings({"unused", "TryFinallyCanBeTryWithResources"})
+@PrepareForTest({
+        AppCenterLog.class,
+        CheckDownloadTask.class,
+        Distribute.class,
+        DistributeUtils.class,
+        DownloadFileProvider.class,
+        ResumableDownloadTask.class
+})
+public class ResumableDownloadTaskTest {
+
+    private static final String DOWNLOAD_URL = "https://mock/package.apk";
+
+    private static final int RELEASE_ID = 42;
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private Context mContext;
+
+    @Mock
+    private ReleaseDetails mReleaseDetails;
+
+    @Mock
+    private URL mUrl;
+
+    @Mock
+    private Distribute mDistribute;
+
+    private File mFile;
+
+    private File mPartialFile;
+
+    private byte[] mPayload;
+
+    private static String hash(String algorithm, byte[] data) {
+        MessageDigest digest = HashUtils.getMessageDigest(algorithm);
+        digest.update(data);
+        return HashUtils.encodeHex(digest.digest());
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += inputStream.read(data, offset, data.length - offset);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return data;
+    }
+
+    private static void write(File file, byte[] data, int length) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data, 0, length);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(AppCenterLog.class);
+        mockStatic(Distribute.class);
+        when(Distribute.getInstance()).thenReturn(mDistribute);
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getFilesDir()).thenReturn(mTemporaryFolder.getRoot());
+        when(mReleaseDetails.getId()).thenReturn(RELEASE_ID);
+        when(mReleaseDetails.getDownloadUrl()).thenReturn(mock(Uri.class));
+        when(mReleaseDetails.getDownloadUrl().toString()).thenReturn(DOWNLOAD_URL);
+        whenNew(URL.class).withArguments(DOWNLOAD_URL).thenReturn(mUrl);
+        File directory = ResumableDownloadTask.getDownloadDirectory(mContext);
+        mFile = new File(directory, RELEASE_ID + FILE_EXTENSION);
+        mPartialFile = new File(directory, RELEASE_ID + PARTIAL_FILE_EXTENSION);
+        mPayload = new byte[20000];
+        for (int i = 0; i < mPayload.length; i++) {
+            mPayload[i] = (byte) (i * 31);
+        }
+    }
+
+    private HttpURLConnection mockConnection(int status, byte[] body, String contentLength, String contentRange) throws IOException {
+        HttpURLConnection urlConnection = mock(HttpURLConnection.class);
+        when(urlConnection.getResponseCode()).thenReturn(status);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream(body));
+        when(urlConnection.getHeaderField("Content-Length")).thenReturn(contentLength);
+        when(urlConnection.getHeaderField("Content-Range")).thenReturn(contentRange);
+        return urlConnection;
+    }
+
+    private void createPartialFile(byte[] data, int length) throws IOException {
+        assertTrue(mPartialFile.getParentFile().mkdirs());
+        write(mPartialFile, data, length);
+    }
+
+    @Test
+    public void downloadAndVerifySha256() throws Exception {
+        when(mReleaseDetails.getFingerprint()).thenReturn(hash("SHA-256", mPayload));
+        when(mReleaseDetails.getSize()).thenReturn((long) mPayload.length);
+        HttpURLConnection urlConnection = mockConnection(200, mPayload, String.valueOf(mPayload.length), null);
+        when(mUrl.openConnection()).thenReturn(urlConnection);
+
+        /* Download from the start. */
+        File file = new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify();
+        assertEquals(mFile, file);
+        assertArrayEquals(mPayload, read(file));
+        assertFalse(mPartialFile.exists());
+        verify(urlConnection, never()).setRequestProperty(eq("Range"), anyString());
+        verify(urlConnection).disconnect();
+
+        /* A verified file is reused without connecting again. */
+        assertEquals(mFile, new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify());
+        verify(mUrl).openConnection();
+    }
+
+    @Test
+    public void resumeWithRangeAndMd5() throws Exception {
+        when(mReleaseDetails.getFingerprint()).thenReturn(hash("MD5", mPayload).toUpperCase());
+        createPartialFile(mPayload, 5000);
+        byte[] remaining = Arrays.copyOfRange(mPayload, 5000, mPayload.length);
+        HttpURLConnection urlConnection = mockConnection(206, remaining, String.valueOf(remaining.length), "bytes 5000-19999/20000");
+        when(mUrl.openConnection()).thenReturn(urlConnection);
+
+        /* Only the missing bytes are downloaded and the whole file is verified. */
+        File file = new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify();
+        verify(urlConnection).setRequestProperty("Range", "bytes=5000-");
+        assertArrayEquals(mPayload, read(file));
+        assertFalse(mPartialFile.exists());
+    }
+
+    @Test
+    public void restartWhenRangeNotSupported() throws Exception {
+        when(mReleaseDetails.getFingerprint()).thenReturn(hash("SHA-256", mPayload));
+        createPartialFile(new byte[100], 100);
+        HttpURLConnection urlConnection = mockConnection(200, mPayload, String.valueOf(mPayload.length), null);
+        when(mUrl.openConnection()).thenReturn(urlConnection);
+
+        /* Partial bytes are replaced by the full response. */
+        File file = new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify();
+        verify(urlConnection).setRequestProperty("Range", "bytes=100-");
+        assertArrayEquals(mPayload, read(file));
+    }
+
+    @Test
+    public void restartWhenRangeNotSatisfiable() throws Exception {
+        when(mReleaseDetails.getFingerprint()).thenReturn(hash("SHA-256", mPayload));
+        createPartialFile(new byte[100], 100);
+        HttpURLConnection rangeConnection = mockConnection(416, new byte[0], null, null);
+        HttpURLConnection fullConnection = mockConnection(200, mPayload, String.valueOf(mPayload.length), null);
+        when(mUrl.openConnection()).thenReturn(rangeConnection).thenReturn(fullConnection);
+        File file = new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify();
+        verify(rangeConnection).setRequestProperty("Range", "bytes=100-");
+        verify(fullConnection, never()).setRequestProperty(eq("Range"), anyString());
+        assertArrayEquals(mPayload, read(file));
+    }
+
+    @Test
+    public void retryAfterConnectionLost() throws Exception {
+        when(mReleaseDetails.getFingerprint()).thenReturn(hash("SHA-256", mPayload));
+
+        /* The first response ends before the expected length. */
+        HttpURLConnection firstConnection = mockConnection(200, Arrays.copyOf(mPayload, 8000), String.valueOf(mPayload.length), null);
+        byte[] remaining = Arrays.copyOfRange(mPayload, 8000, mPayload.length);
+        HttpURLConnection secondConnection = mockConnection(206, remaining, String.valueOf(remaining.length), "bytes 8000-19999/20000");
+        when(mUrl.openConnection()).thenReturn(firstConnection).thenReturn(secondConnection);
+
+        /* The next attempt resumes. */
+        File file = new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify();
+        verify(secondConnection).setRequestProperty("Range", "bytes=8000-");
+        assertArrayEquals(mPayload, read(file));
+    }
+
+    @Test
+    public void doNotRetryClientError() throws Exception {
+        when(mReleaseDetails.getFingerprint()).thenReturn(hash("SHA-256", mPayload));
+        HttpURLConnection urlConnection = mockConnection(404, new byte[0], null, null);
+        when(mUrl.openConnection()).thenReturn(urlConnection);
+        try {
+            new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify();
+            fail("Expected an exception");
+        } catch (HttpException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        verify(mUrl).openConnection();
+    }
+
+    @Test
+    public void fingerprintMismatch() throws Exception {
+        when(mReleaseDetails.getFingerprint()).thenReturn(hash("SHA-256", new byte[]{1}));
+        HttpURLConnection urlConnection = mockConnection(200, mPayload, String.valueOf(mPayload.length), null);
+        when(mUrl.openConnection()).thenReturn(urlConnection);
+        try {
+            new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify();
+            fail("Expected an exception");
+        } catch (IOException ignored) {
+        }
+
+        /* Nothing is kept. */
+        assertFalse(mFile.exists());
+        assertFalse(mPartialFile.exists());
+    }
+
+    @Test
+    public void sizeCheckedWithoutFingerprint() throws Exception {
+        when(mReleaseDetails.getSize()).thenReturn(mPayload.length + 1L);
+        HttpURLConnection urlConnection = mockConnection(200, mPayload, null, null);
+        when(mUrl.openConnection()).thenReturn(urlConnection);
+        try {
+            new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify();
+            fail("Expected an exception");
+        } catch (IOException ignored) {
+        }
+        assertFalse(mPartialFile.exists());
+
+        /* Accepted when the size matches. */
+        when(mReleaseDetails.getSize()).thenReturn((long) mPayload.length);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream(mPayload));
+        assertArrayEquals(mPayload, read(new ResumableDownloadTask(mContext, mReleaseDetails).downloadAndVerify()));
+    }
+
+    @Test
+    public void deleteFilesOfOtherReleases() throws Exception {
+        createPartialFile(mPayload, 10);
+        File otherFile = new File(mPartialFile.getParentFile(), "41" + FILE_EXTENSION);
+        write(otherFile, mPayload, 10);
+        ResumableDownloadTask.deleteFiles(mContext, RELEASE_ID);
+        assertTrue(mPartialFile.exists());
+        assertFalse(otherFile.exists());
+        ResumableDownloadTask.deleteFiles(mContext, -1);
+        assertFalse(mPartialFile.exists());
+    }
+
+    @Test
+    public void keepFilesOfActiveDownload() throws Exception {
+        createPartialFile(mPayload, 10);
+        ResumableDownloadTask.setActive(RELEASE_ID, true);
+        try {
+            ResumableDownloadTask.deleteFiles(mContext, -1);
+            assertTrue(mPartialFile.exists());
+        } finally {
+            ResumableDownloadTask.setActive(RELEASE_ID, false);
+        }
+        ResumableDownloadTask.deleteFiles(mContext, -1);
+        assertFalse(mPartialFile.exists());
+    }
+
+    @Test
+    public void installWhenVerified() throws Exception {
+        mockStatic(CheckDownloadTask.class);
+        mockStatic(DistributeUtils.class);
+        mockStatic(DownloadFileProvider.class);
+        when(mReleaseDetails.getFingerprint()).thenReturn(hash("SHA-256", mPayload));
+        HttpURLConnection urlConnection = mockConnection(200, mPayload, String.valueOf(mPayload.length), null);
+        when(mUrl.openConnection()).thenReturn(urlConnection);
+        Uri uri = mock(Uri.class);
+        when(DownloadFileProvider.getUri(mContext, mFile)).thenReturn(uri);
+        Intent intent = mock(Intent.class);
+        when(DistributeUtils.getInstallIntent(uri)).thenReturn(intent);
+        when(intent.resolveActivity(any(PackageManager.class))).thenReturn(mock(android.content.ComponentName.class));
+        new ResumableDownloadTask(mContext, mReleaseDetails).doInBackground();
+        verifyStatic();
+        CheckDownloadTask.installOrNotify(mContext, mReleaseDetails, intent);
+        verify(mDistribute, never()).completeWorkflow(any(ReleaseDetails.class));
+    }
+
+    @Test
+    public void completeWorkflowWhenFailed() throws Exception {
+        mockStatic(CheckDownloadTask.class);
+        when(mReleaseDetails.getFingerprint()).thenReturn("not a fingerprint");
+        new ResumableDownloadTask(mContext, mReleaseDetails).doInBackground();
+        verify(mUrl, never()).openConnection();
+        verify(mDistribute).completeWorkflow(mReleaseDetails);
+        verifyStatic(never());
+        CheckDownloadTask.installOrNotify(any(Context.class), any(ReleaseDetails.class), any(Intent.class));
+    }
+
+    @Test
+    public void completeWorkflowWhenInstallerNotFound() throws Exception {
+        mockStatic(CheckDownloadTask.class);
+        mockStatic(DistributeUtils.class);
+        mockStatic(DownloadFileProvider.class);
+        HttpURLConnection urlConnection = mockConnection(200, mPayload, String.valueOf(mPayload.length), null);
+        when(mUrl.openConnection()).thenReturn(urlConnection);
+        Intent intent = mock(Intent.class);
+        when(DistributeUtils.getInstallIntent(any(Uri.class))).thenReturn(intent);
+        new ResumableDownloadTask(mContext, mReleaseDetails).doInBackground();
+        verify(mDistribute, times(1)).completeWorkflow(mReleaseDetails);
+        verifyStatic(never());
+        CheckDownloadTask.installOrNotify(any(Context.class), any(ReleaseDetails.class), any(Intent.class));
+    }
+}
@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.push.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 /**
  * Push installation log.
@@ -51,7 +51,7 @@ public class PushInstallationLog extends AbstractLog {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         writer.key(PUSH_TOKEN).value(getPushToken());
     }
@@ -10,3 +10,7 @@
 -keepclassmembers class * implements javax.net.ssl.SSLSocketFactory {
     private final javax.net.ssl.SSLSocketFactory delegate;
 }
+
+# OkHttp is an optional dependency used only by OkHttpClientAdapter.
+-dontwarn okhttp3.**
+-dontwarn okio.**
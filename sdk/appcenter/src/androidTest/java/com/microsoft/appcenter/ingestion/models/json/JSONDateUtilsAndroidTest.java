@@ -3,13 +3,24 @@ package com.microsoft.appcenter.ingestion.models.json;
 import org.json.JSONException;
 import org.junit.Test;
 
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
 
 import static org.junit.Assert.assertEquals;
 
 @SuppressWarnings("unused")
 public class JSONDateUtilsAndroidTest {
 
+    static DateFormat newReferenceFormat() {
+        DateFormat dateFormat = new SimpleDateFormat(JSONDateUtils.PATTERN, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat;
+    }
+
     @Test
     public void utilsCoverage() {
         new JSONDateUtils();
@@ -40,4 +51,50 @@ public class JSONDateUtilsAndroidTest {
     public void parseInvalidDate() throws JSONException {
         JSONDateUtils.toDate("Fri Jul 07 17:43:56 PDT 2017");
     }
+
+    @Test
+    public void sameAsSimpleDateFormat() throws Exception {
+        DateFormat reference = newReferenceFormat();
+        long[] edges = {
+                0, -1, 1,
+
+                /* Gregorian cutover and first fast path year. */
+                -12219292800001L, -12219292800000L, -11676096000001L, -11676096000000L,
+
+                /* Leap days and last 4 digit year. */
+                951782400000L, 4107542399999L, 253402300799999L, 253402300800000L,
+                Long.MIN_VALUE / 1000, Long.MAX_VALUE / 1000
+        };
+        for (long millis : edges) {
+            checkSameAsReference(reference, millis);
+        }
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            checkSameAsReference(reference, (long) ((random.nextDouble() * 2 - 1) * 3e14));
+        }
+    }
+
+    private static void checkSameAsReference(DateFormat reference, long millis) throws Exception {
+        Date date = new Date(millis);
+        String expected = reference.format(date);
+        assertEquals(expected, JSONDateUtils.toString(date));
+        assertEquals(reference.parse(expected), JSONDateUtils.toDate(expected));
+    }
+
+    @Test
+    public void parseLenientLikeSimpleDateFormat() throws Exception {
+        DateFormat reference = newReferenceFormat();
+        String[] dates = {
+                "2017-02-29T00:00:00.000Z",
+                "2016-02-29T23:59:59.999Z",
+                "2017-13-01T00:00:00.000Z",
+                "2017-01-01T24:00:00.000Z",
+                "2017-01-01T00:00:60.000Z",
+                "2017-1-01T00:00:00.000Z",
+                "2017-01-01T00:00:00.000Z trailing"
+        };
+        for (String date : dates) {
+            assertEquals(date, reference.parse(date), JSONDateUtils.toDate(date));
+        }
+    }
 }
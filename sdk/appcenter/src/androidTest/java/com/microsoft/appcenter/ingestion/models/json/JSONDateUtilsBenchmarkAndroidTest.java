@@ -0,0 +1,95 @@
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link JSONDateUtils} with the {@link java.text.SimpleDateFormat} it used to rely on.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class JSONDateUtilsBenchmarkAndroidTest {
+
+    private static final int WARM_UP = 10000;
+
+    private static final int ITERATIONS = 200000;
+
+    /**
+     * Base timestamp of the benchmark, dates are then spread over a few days.
+     */
+    private static final long BASE_TIME = 1500000000000L;
+
+    private static long formatReference(DateFormat dateFormat, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            dateFormat.format(new Date(BASE_TIME + i * 997L));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long format(int count) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            JSONDateUtils.toString(new Date(BASE_TIME + i * 997L));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long parseReference(DateFormat dateFormat, String[] dates) throws Exception {
+        long start = System.nanoTime();
+        for (String date : dates) {
+            dateFormat.parse(date);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long parse(String[] dates) throws Exception {
+        long start = System.nanoTime();
+        for (String date : dates) {
+            JSONDateUtils.toDate(date);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long referenceTime, long time) {
+        android.util.Log.i("Benchmark", "JSONDateUtils." + name + " iterations=" + ITERATIONS +
+                " SimpleDateFormat=" + referenceTime / ITERATIONS + "ns/op" +
+                " JSONDateUtils=" + time / ITERATIONS + "ns/op");
+    }
+
+    @Test
+    public void compareFormat() throws Exception {
+        DateFormat dateFormat = JSONDateUtilsAndroidTest.newReferenceFormat();
+        formatReference(dateFormat, WARM_UP);
+        format(WARM_UP);
+        long referenceTime = formatReference(dateFormat, ITERATIONS);
+        long time = format(ITERATIONS);
+        report("toString", referenceTime, time);
+        assertTrue(time < referenceTime);
+    }
+
+    @Test
+    public void compareParse() throws Exception {
+        DateFormat dateFormat = JSONDateUtilsAndroidTest.newReferenceFormat();
+        String[] dates = new String[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            dates[i] = dateFormat.format(new Date(BASE_TIME + i * 997L));
+        }
+        assertEquals(dateFormat.parse(dates[ITERATIONS - 1]), JSONDateUtils.toDate(dates[ITERATIONS - 1]));
+        parseReference(dateFormat, dates);
+        parse(dates);
+        long referenceTime = parseReference(dateFormat, dates);
+        long time = parse(dates);
+        report("toDate", referenceTime, time);
+        assertTrue(time < referenceTime);
+    }
+}
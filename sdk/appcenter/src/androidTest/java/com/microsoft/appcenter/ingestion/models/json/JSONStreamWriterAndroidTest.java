@@ -0,0 +1,236 @@
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.util.Base64;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("unused")
+public class JSONStreamWriterAndroidTest {
+
+    private static void writeSample(JSONWriter writer) throws JSONException {
+        JSONObject nested = new JSONObject();
+        nested.put("a", new JSONArray().put(1).put("x").put(JSONObject.NULL).put(new JSONObject()));
+        nested.put("b", 2.5);
+        writer.object();
+        writer.key("string").value("quote \" backslash \\ slash / tab \t newline \n control \u0001 unicode \u00e9\u4e2d");
+        writer.key("int").value(42);
+        writer.key("long").value(1234567890123L);
+        writer.key("integralDouble").value(3.0);
+        writer.key("double").value(0.1);
+        writer.key("boolean").value(true);
+        writer.key("null").value(null);
+        writer.key("uuid").value(UUID.fromString("00000000-0000-0000-0000-000000000001"));
+        writer.key("nested").value(nested);
+        writer.key("emptyArray").array().endArray();
+        writer.key("array").array().value(false).value(1.5d).value(7L).object().endObject().endArray();
+        writer.endObject();
+    }
+
+    private static String stream(JSONWriter writer, ByteArrayOutputStream outputStream) throws IOException {
+        ((JSONStreamWriter) writer).flush();
+        return outputStream.toString("UTF-8");
+    }
+
+    @Test
+    public void sameOutputAsStringer() throws Exception {
+        JSONStringerWriter stringerWriter = new JSONStringerWriter();
+        writeSample(stringerWriter);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JSONStreamWriter streamWriter = new JSONStreamWriter(outputStream);
+        writeSample(streamWriter);
+        assertEquals(stringerWriter.toString(), stream(streamWriter, outputStream));
+    }
+
+    @Test
+    public void serializeContainerToStream() throws Exception {
+        LogContainer container = new LogContainer();
+        List<Log> logs = new ArrayList<>();
+        logs.add(AndroidTestUtils.generateMockLog());
+        logs.add(AndroidTestUtils.generateMockLog());
+        container.setLogs(logs);
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        serializer.serializeContainer(outputStream, container);
+        String payload = outputStream.toString("UTF-8");
+        assertEquals(serializer.serializeContainer(container), payload);
+        assertEquals(container, serializer.deserializeContainer(payload, null));
+    }
+
+    @Test
+    public void serializeLogToStream() throws Exception {
+        Log log = AndroidTestUtils.generateMockLog();
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        serializer.serializeLog(outputStream, log);
+        String payload = outputStream.toString("UTF-8");
+        assertEquals(serializer.serializeLog(log), payload);
+        assertEquals(log, serializer.deserializeLog(payload, null));
+    }
+
+    @Test
+    public void requestSize() throws Exception {
+        Log log = AndroidTestUtils.generateMockLog();
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        serializer.serializeLog(outputStream, log);
+        assertEquals(outputStream.size(), serializer.getRequestSize(log));
+    }
+
+    @Test
+    public void requestSizeEstimatesFiles() throws Exception {
+        File file = File.createTempFile("base64", null);
+        try {
+            byte[] data = new byte[100 * 1024];
+            new Random(42).nextBytes(data);
+            FileOutputStream fileOutputStream = new FileOutputStream(file);
+            fileOutputStream.write(data);
+            fileOutputStream.close();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            JSONStreamWriter streamWriter = new JSONStreamWriter(outputStream, true);
+            streamWriter.object().key("data").base64Value(file).endObject();
+            long size = stream(streamWriter, outputStream).getBytes("UTF-8").length;
+            JSONSizeWriter sizeWriter = new JSONSizeWriter();
+            sizeWriter.object().key("data").base64Value(file).endObject();
+            assertEquals(size, sizeWriter.getSize(), size / 100);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void base64FileSameAsStringer() throws Exception {
+        File file = File.createTempFile("base64", null);
+        try {
+            Random random = new Random(42);
+            for (int size : new int[]{0, 1, 2, 3, 3 * 1024 - 1, 3 * 1024, 3 * 1024 + 1, 100 * 1024 + 2}) {
+                byte[] data = new byte[size];
+                random.nextBytes(data);
+                FileOutputStream fileOutputStream = new FileOutputStream(file);
+                fileOutputStream.write(data);
+                fileOutputStream.close();
+                JSONStringerWriter stringerWriter = new JSONStringerWriter();
+                stringerWriter.object().key("data").base64Value(file).endObject();
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                JSONStreamWriter streamWriter = new JSONStreamWriter(outputStream);
+                streamWriter.object().key("data").base64Value(file).endObject();
+                String json = stream(streamWriter, outputStream);
+                assertEquals(stringerWriter.toString(), json);
+                assertArrayEquals(data, Base64.decode(new JSONObject(json).getString("data"), Base64.DEFAULT));
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+
+        /* Missing file, not reported as a stream error. */
+        try {
+            new JSONStreamWriter(new ByteArrayOutputStream()).object().key("data").base64Value(file);
+            fail();
+        } catch (JSONException e) {
+            assertNull(e.getCause());
+        }
+        try {
+            new JSONSizeWriter().object().key("data").base64Value(file);
+            fail();
+        } catch (JSONException ignored) {
+        }
+        try {
+            new JSONStringerWriter().object().key("data").base64Value(file);
+            fail();
+        } catch (JSONException ignored) {
+        }
+    }
+
+    @Test
+    public void nestingProblems() throws Exception {
+        JSONStreamWriter writer = new JSONStreamWriter(new ByteArrayOutputStream());
+        try {
+            writer.value("top level");
+            fail();
+        } catch (JSONException ignored) {
+        }
+        try {
+            writer.key("no object");
+            fail();
+        } catch (JSONException ignored) {
+        }
+        writer.object();
+        try {
+            writer.value("no key");
+            fail();
+        } catch (JSONException ignored) {
+        }
+        try {
+            writer.key(null);
+            fail();
+        } catch (JSONException ignored) {
+        }
+        try {
+            writer.endArray();
+            fail();
+        } catch (JSONException ignored) {
+        }
+        try {
+            writer.key("double").value(Double.NaN);
+            fail();
+        } catch (JSONException ignored) {
+        }
+        writer = new JSONStreamWriter(new ByteArrayOutputStream());
+        writer.object().endObject();
+        try {
+            writer.object();
+            fail();
+        } catch (JSONException ignored) {
+        }
+    }
+
+    @Test
+    public void streamErrorsAreWrapped() throws Exception {
+        final IOException ioException = new IOException("mock");
+        OutputStream outputStream = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                throw ioException;
+            }
+        };
+        JSONStreamWriter writer = new JSONStreamWriter(outputStream);
+        try {
+
+            /* Write more than the encoder buffer so that the stream is actually written. */
+            writer.object().key("key").value(new String(new char[64 * 1024])).endObject();
+            writer.flush();
+            fail();
+        } catch (JSONException e) {
+            assertEquals(ioException, e.getCause());
+        } catch (IOException e) {
+            assertEquals(ioException, e);
+        }
+    }
+}
@@ -8,7 +8,6 @@ import com.microsoft.appcenter.utils.AppCenterLog;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -33,7 +32,7 @@ public class JSONUtilsAndroidTest {
     public void writeReadObject() throws JSONException {
 
         /* Write to JSON object. */
-        JSONStringer writer = new JSONStringer();
+        JSONStringerWriter writer = new JSONStringerWriter();
         writer.object();
         JSONUtils.write(writer, "int", 1);
         JSONUtils.write(writer, "long", 1000000000L);
@@ -59,7 +58,7 @@ public class JSONUtilsAndroidTest {
         map.put("key", "value");
 
         /* Write to JSON object. */
-        JSONStringer writer = new JSONStringer();
+        JSONStringerWriter writer = new JSONStringerWriter();
         writer.object();
         JSONUtils.writeMap(writer, "map", map);
         writer.endObject();
@@ -86,7 +85,7 @@ public class JSONUtilsAndroidTest {
         list.add(secondLog);
 
         /* Write to JSON object. */
-        JSONStringer writer = new JSONStringer();
+        JSONStringerWriter writer = new JSONStringerWriter();
         writer.object();
         JSONUtils.writeArray(writer, "list", list);
         writer.endObject();
@@ -100,7 +99,7 @@ public class JSONUtilsAndroidTest {
         assertEquals(list, JSONUtils.readArray(object, "list", new MockLogFactory()));
 
         /* Test null value. */
-        writer = new JSONStringer();
+        writer = new JSONStringerWriter();
         JSONUtils.writeArray(writer, "null", null);
         assertNull(writer.toString());
     }
@@ -114,7 +113,7 @@ public class JSONUtilsAndroidTest {
         list.add("SECOND");
 
         /* Write to JSON object. */
-        JSONStringer writer = new JSONStringer();
+        JSONStringerWriter writer = new JSONStringerWriter();
         writer.object();
         JSONUtils.writeStringArray(writer, "list", list);
         writer.endObject();
@@ -129,11 +128,40 @@ public class JSONUtilsAndroidTest {
         assertNull(JSONUtils.readStringArray(object, "missing"));
 
         /* Test null value. */
-        writer = new JSONStringer();
+        writer = new JSONStringerWriter();
         JSONUtils.writeStringArray(writer, "null", null);
         assertNull(writer.toString());
     }
 
+    @Test
+    public void writeReadIntegerArray() throws JSONException {
+
+        /* Create a test list. */
+        final List<Integer> list = new ArrayList<>();
+        list.add(0);
+        list.add(42);
+
+        /* Write to JSON object. */
+        JSONStringerWriter writer = new JSONStringerWriter();
+        writer.object();
+        JSONUtils.writeIntegerArray(writer, "list", list);
+        writer.endObject();
+
+        /* Convert to string. */
+        String json = writer.toString();
+        assertEquals("{\"list\":[0,42]}", json);
+
+        /* Read a JSON object and verify. */
+        JSONObject object = new JSONObject(json);
+        assertEquals(list, JSONUtils.readIntegerArray(object, "list"));
+        assertNull(JSONUtils.readIntegerArray(object, "missing"));
+
+        /* Test null value. */
+        writer = new JSONStringerWriter();
+        JSONUtils.writeIntegerArray(writer, "null", null);
+        assertNull(writer.toString());
+    }
+
     @Test
     public void readKeyNotExists() throws JSONException {
 
@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.ingestion.models.one;
 
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 import com.microsoft.appcenter.test.TestUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 import org.junit.Test;
 import org.mockito.InOrder;
 
@@ -47,7 +47,7 @@ public class DataTest {
         d.getProperties().put("baseType", "type");
 
         /* When serializing properties. */
-        JSONStringer writer = mock(JSONStringer.class);
+        JSONWriter writer = mock(JSONWriter.class);
         when(writer.key(anyString())).thenReturn(writer);
         d.write(writer);
 
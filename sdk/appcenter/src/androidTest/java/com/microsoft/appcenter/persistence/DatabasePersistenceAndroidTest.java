@@ -1085,7 +1085,79 @@ public class DatabasePersistenceAndroidTest {
     }
 
     @Test
-    public void upgradeFromVersion1to4() throws PersistenceException, JSONException {
+    public void putCompressedLog() throws PersistenceException {
+
+        /* Initialize database persistence with compression. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setPayloadCompressionEnabled(true);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Put a log. */
+            Log log = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log, "test", PERSISTENCE_NORMAL);
+
+            /* Verify only the compressed payload is stored. */
+            ContentValues values = getContentValues(persistence, "test");
+            assertNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+            assertNotNull(values.getAsByteArray(DatabasePersistence.COLUMN_COMPRESSED_LOG));
+            assertEquals((Integer) PayloadCompression.DEFLATE_DICTIONARY_V1, values.getAsInteger(DatabasePersistence.COLUMN_COMPRESSION));
+
+            /* Put an uncompressed log after disabling compression. */
+            persistence.setPayloadCompressionEnabled(false);
+            Log uncompressedLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(uncompressedLog, "test", PERSISTENCE_NORMAL);
+
+            /* Both logs can be read. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 2, outputLogs);
+            assertEquals(2, outputLogs.size());
+            assertEquals(log, outputLogs.get(0));
+            assertEquals(uncompressedLog, outputLogs.get(1));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void getCorruptedCompressedLog() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Insert corrupted compressed payload, one without payload and one with an unknown compression. */
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_COMPRESSED_LOG, new byte[]{1, 2, 3});
+            contentValues.put(DatabasePersistence.COLUMN_COMPRESSION, PayloadCompression.DEFLATE_DICTIONARY_V1);
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, MOCK_LOG_TYPE);
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, PERSISTENCE_NORMAL);
+            persistence.mDatabaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+            contentValues.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+            persistence.mDatabaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+            contentValues.put(DatabasePersistence.COLUMN_COMPRESSED_LOG, new byte[]{1, 2, 3});
+            contentValues.put(DatabasePersistence.COLUMN_COMPRESSION, 42);
+            persistence.mDatabaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+            assertEquals(3, persistence.countLogs("test"));
+
+            /* Logs are deleted when read. */
+            List<Log> outputLogs = new ArrayList<>();
+            assertNull(persistence.getLogs("test", Collections.<String>emptyList(), 3, outputLogs));
+            assertEquals(0, outputLogs.size());
+            assertEquals(0, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1to5() throws PersistenceException, JSONException {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
@@ -1093,6 +1165,8 @@ public class DatabasePersistenceAndroidTest {
         oldSchema.remove(DatabasePersistence.COLUMN_DATA_TYPE);
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_KEY);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSION);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, 1, oldSchema, mock(DatabaseManager.Listener.class));
 
         /* Init log serializer. */
@@ -1174,12 +1248,14 @@ public class DatabasePersistenceAndroidTest {
     }
 
     @Test
-    public void upgradeFromVersion2to4() throws PersistenceException, JSONException {
+    public void upgradeFromVersion2to5() throws PersistenceException, JSONException {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_KEY);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSION);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_TYPE_API_KEY, oldSchema, mock(DatabaseManager.Listener.class));
 
         /* Init log serializer. */
@@ -1262,11 +1338,13 @@ public class DatabasePersistenceAndroidTest {
     }
 
     @Test
-    public void upgradeFromVersion3to4() throws PersistenceException, JSONException {
+    public void upgradeFromVersion3to5() throws PersistenceException, JSONException {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSION);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_TARGET_KEY, oldSchema, mock(DatabaseManager.Listener.class));
 
         /* Init log serializer. */
@@ -1347,4 +1425,57 @@ public class DatabasePersistenceAndroidTest {
             persistence.close();
         }
     }
+
+    @Test
+    public void upgradeFromVersion4to5() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence with old schema. */
+        ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSION);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_PRIORITY, oldSchema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Insert old data before upgrade. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, MOCK_LOG_TYPE);
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, PERSISTENCE_CRITICAL);
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setPayloadCompressionEnabled(true);
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Check compression migration. */
+            ContentValues values = getContentValues(persistence, "test");
+            assertEquals((Integer) PayloadCompression.NONE, values.getAsInteger(DatabasePersistence.COLUMN_COMPRESSION));
+            assertEquals((Integer) PERSISTENCE_CRITICAL, values.getAsInteger(DatabasePersistence.COLUMN_PRIORITY));
+
+            /* Put new compressed data. */
+            Log newLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(newLog, "test", PERSISTENCE_CRITICAL);
+
+            /* Get old and new data. */
+            assertEquals(2, persistence.countLogs("test"));
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 2, outputLogs);
+            assertEquals(2, outputLogs.size());
+            assertEquals(oldLog, outputLogs.get(0));
+            assertEquals(newLog, outputLogs.get(1));
+        } finally {
+            persistence.close();
+        }
+    }
 }
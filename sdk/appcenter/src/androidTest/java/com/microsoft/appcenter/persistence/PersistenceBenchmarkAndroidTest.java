@@ -0,0 +1,152 @@
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Throughput comparison of {@link DatabasePersistence} and {@link SegmentPersistence},
+ * and cost of {@link DatabasePersistence} payload compression.
+ * <p>
+ * Runs with 10k logs by default, pass for example
+ * {@code -e persistenceBenchmarkCounts 10000,100000,1000000} to the instrumentation to run larger sizes.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class PersistenceBenchmarkAndroidTest {
+
+    private static final String GROUP = "benchmark";
+
+    private static final int BATCH_SIZE = 50;
+
+    private static final long MAX_STORAGE_SIZE = 2L * 1024 * 1024 * 1024;
+
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        FileManager.initialize(sContext);
+        SharedPreferencesManager.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    private static void run(String name, Persistence persistence, int count) throws Exception {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        persistence.setMaxStorageSize(MAX_STORAGE_SIZE);
+        Log log = AndroidTestUtils.generateMockLog();
+        try {
+            long start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < count; i++) {
+                persistence.putLog(log, GROUP, PERSISTENCE_NORMAL);
+            }
+            long enqueueTime = SystemClock.elapsedRealtime() - start;
+            start = SystemClock.elapsedRealtime();
+            List<Log> logs = new ArrayList<>(BATCH_SIZE);
+            String id;
+            int drained = 0;
+            while ((id = persistence.getLogs(GROUP, Collections.<String>emptyList(), BATCH_SIZE, logs)) != null) {
+                drained += logs.size();
+                logs.clear();
+                persistence.deleteLogs(GROUP, id);
+            }
+            long drainTime = SystemClock.elapsedRealtime() - start;
+            assertEquals(count, drained);
+            android.util.Log.i("Benchmark", name + " count=" + count + " enqueue=" + enqueueTime + "ms (" + (count * 1000L / Math.max(1, enqueueTime)) + " logs/s)" +
+                    " drain=" + drainTime + "ms (" + (count * 1000L / Math.max(1, drainTime)) + " logs/s)");
+        } finally {
+            persistence.deleteLogs(GROUP);
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void compareThroughput() throws Exception {
+        String counts = InstrumentationRegistry.getArguments().getString("persistenceBenchmarkCounts", "10000");
+        for (String value : counts.split(",")) {
+            int count = Integer.parseInt(value.trim());
+            sContext.deleteDatabase(DatabasePersistence.DATABASE);
+            run("DatabasePersistence", new DatabasePersistence(sContext), count);
+            run("SegmentPersistence", new SegmentPersistence(sContext, new File(sContext.getCacheDir(), "segments-benchmark")), count);
+        }
+    }
+
+    @Test
+    public void compareCompression() throws Exception {
+        String counts = InstrumentationRegistry.getArguments().getString("persistenceBenchmarkCounts", "10000");
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        for (String value : counts.split(",")) {
+            int count = Integer.parseInt(value.trim());
+
+            /* Compression ratio and CPU time of compression alone. */
+            List<String> payloads = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                payloads.add(logSerializer.serializeLog(AndroidTestUtils.generateMockLog()));
+            }
+            long payloadSize = 0;
+            long compressedSize = 0;
+            long start = SystemClock.elapsedRealtime();
+            for (String payload : payloads) {
+                byte[] compressed = PayloadCompression.compress(payload);
+                payloadSize += payload.length();
+                compressedSize += compressed == null ? payload.length() : compressed.length;
+            }
+            long compressionTime = SystemClock.elapsedRealtime() - start;
+            android.util.Log.i("Benchmark", "PayloadCompression count=" + count + " ratio=" + (compressedSize * 100 / payloadSize) + "%" +
+                    " compress=" + compressionTime + "ms (" + (count * 1000L / Math.max(1, compressionTime)) + " logs/s)");
+
+            /* Enqueue cost and database size with and without compression. */
+            for (boolean compression : new boolean[]{false, true}) {
+                sContext.deleteDatabase(DatabasePersistence.DATABASE);
+                DatabasePersistence persistence = new DatabasePersistence(sContext);
+                persistence.setPayloadCompressionEnabled(compression);
+                persistence.setLogSerializer(logSerializer);
+                persistence.setMaxStorageSize(MAX_STORAGE_SIZE);
+                Log log = AndroidTestUtils.generateMockLog();
+                try {
+                    start = SystemClock.elapsedRealtime();
+                    for (int i = 0; i < count; i++) {
+                        persistence.putLog(log, GROUP, PERSISTENCE_NORMAL);
+                    }
+                    long enqueueTime = SystemClock.elapsedRealtime() - start;
+                    android.util.Log.i("Benchmark", "DatabasePersistence compression=" + compression + " count=" + count +
+                            " enqueue=" + enqueueTime + "ms (" + (count * 1000L / Math.max(1, enqueueTime)) + " logs/s)" +
+                            " databaseSize=" + sContext.getDatabasePath(DatabasePersistence.DATABASE).length() + " bytes");
+                } finally {
+                    persistence.deleteLogs(GROUP);
+                    persistence.close();
+                }
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -212,6 +213,26 @@ public class FileManagerAndroidTest {
         assertNull(FileManager.readBytes(file));
     }
 
+    @Test
+    public void fileManagerForSyncedBuffer() throws IOException {
+        File file = new File(sAndroidFilesPath + UUIDUtils.randomUUID().toString() + FILE_STORAGE_TEST_FILE_EXTENSION);
+
+        /* Write a buffer. */
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write("Hello world".getBytes("UTF-8"));
+        FileManager.writeAndSync(file, buffer);
+        assertEquals("Hello world", new String(FileManager.readBytes(file), "UTF-8"));
+
+        /* Reuse buffer to overwrite with shorter content. */
+        buffer.reset();
+        buffer.write("Hi".getBytes("UTF-8"));
+        FileManager.writeAndSync(file, buffer);
+        assertEquals("Hi", new String(FileManager.readBytes(file), "UTF-8"));
+
+        /* Delete the files to clean up. */
+        FileManager.delete(file);
+    }
+
     /**
      * Temporary class for testing object serialization.
      */
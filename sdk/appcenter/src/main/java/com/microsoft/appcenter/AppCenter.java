@@ -14,6 +14,14 @@ import android.util.Log;
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.channel.DefaultChannel;
 import com.microsoft.appcenter.channel.OneCollectorChannelListener;
+import com.microsoft.appcenter.http.BandwidthLimiter;
+import com.microsoft.appcenter.http.CompressionPolicy;
+import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.http.HttpException;
+import com.microsoft.appcenter.http.HttpUtils;
+import com.microsoft.appcenter.http.NetworkWarmUp;
+import com.microsoft.appcenter.ingestion.AppCenterIngestion;
+import com.microsoft.appcenter.ingestion.OneCollectorIngestion;
 import com.microsoft.appcenter.ingestion.models.CustomPropertiesLog;
 import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import com.microsoft.appcenter.ingestion.models.WrapperSdk;
@@ -22,6 +30,10 @@ import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.StartServiceLogFactory;
+import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.MemoryPersistence;
+import com.microsoft.appcenter.persistence.Persistence;
+import com.microsoft.appcenter.persistence.SegmentPersistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.IdHelper;
@@ -113,6 +125,11 @@ public class AppCenter {
      */
     private String mLogUrl;
 
+    /**
+     * Custom compression policy if any.
+     */
+    private CompressionPolicy mCompressionPolicy;
+
     /**
      * Application context.
      */
@@ -190,6 +207,31 @@ public class AppCenter {
      */
     private DefaultAppCenterFuture<Boolean> mSetMaxStorageSizeFuture;
 
+    /**
+     * Maximum size in bytes of logs kept in memory, 0 to use the SQLite database.
+     */
+    private long mMaxMemoryStorageSizeInBytes;
+
+    /**
+     * Whether critical logs are written to disk when using in-memory storage.
+     */
+    private boolean mPersistCriticalLogs;
+
+    /**
+     * Whether log payloads are compressed in the SQLite database.
+     */
+    private boolean mStorageCompressionEnabled;
+
+    /**
+     * Whether to resolve ingestion hosts when App Center is configured.
+     */
+    private boolean mNetworkWarmUpEnabled;
+
+    /**
+     * Whether network warm-up also opens an idle connection to ingestion hosts.
+     */
+    private boolean mNetworkWarmUpOpenConnection;
+
     /**
      * Get unique instance.
      *
@@ -252,6 +294,16 @@ public class AppCenter {
         getInstance().setInstanceLogUrl(logUrl);
     }
 
+    /**
+     * Change how request bodies sent to the log URL are compressed, for example to use a faster
+     * level on low-end devices or another codec supported by a self-hosted collector.
+     *
+     * @param compressionPolicy compression policy, null to restore the default gzip policy.
+     */
+    public static void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        getInstance().setInstanceCompressionPolicy(compressionPolicy);
+    }
+
     /**
      * Get the current version of App Center SDK.
      *
@@ -409,6 +461,74 @@ public class AppCenter {
         return getInstance().setInstanceMaxStorageSizeAsync(storageSizeInBytes);
     }
 
+    /**
+     * Keep logs in memory instead of storing them in a SQLite database. Logs that are not sent
+     * yet are lost when the process ends. When the memory budget is exceeded, the oldest logs
+     * with the lowest priority are discarded. Can only be called before AppCenter.start(...) or
+     * AppCenter.configure(...).
+     *
+     * @param maxMemorySizeInBytes Maximum size of logs kept in memory.
+     * @param persistCriticalLogs  true to still write logs with {@link Flags#PERSISTENCE_CRITICAL} to disk.
+     */
+    public static void setInMemoryStorage(long maxMemorySizeInBytes, boolean persistCriticalLogs) {
+        getInstance().setInstanceInMemoryStorage(maxMemorySizeInBytes, persistCriticalLogs);
+    }
+
+    /**
+     * Compress logs stored in the SQLite database. This reduces the storage used by logs waiting to
+     * be sent at the expense of some CPU time when storing and reading them. Logs stored by a previous
+     * launch are read whatever this setting. Can only be called before AppCenter.start(...) or
+     * AppCenter.configure(...).
+     *
+     * @param enabled true to compress stored logs, false otherwise (default).
+     */
+    public static void setStorageCompressionEnabled(boolean enabled) {
+        getInstance().setInstanceStorageCompressionEnabled(enabled);
+    }
+
+    /**
+     * Make all SDK network calls through an HTTP client of the application, for example an
+     * {@link com.microsoft.appcenter.http.OkHttpClientAdapter} over an already configured OkHttp
+     * client, so that the SDK reuses its connections.
+     * Can only be called before AppCenter.start(...) or AppCenter.configure(...).
+     * <p>
+     * The client must accept concurrent calls, call back on any thread once per call unless
+     * cancelled, report non 2xx responses as {@link HttpException} with the response headers,
+     * and write the request body of POST calls using {@link HttpClient.StreamingCallTemplate} when
+     * implemented or {@link HttpClient.CallTemplate#buildRequestBody()} otherwise. The SDK never
+     * closes that client.
+     *
+     * @param httpClient HTTP client, null to use the default client of the SDK.
+     */
+    public static void setHttpClient(HttpClient httpClient) {
+        getInstance().setInstanceHttpClient(httpClient);
+    }
+
+    /**
+     * Resolve the addresses of ingestion hosts in background when App Center is configured, so that
+     * the first logs are sent faster. Timings are logged at info level. Can only be called before
+     * AppCenter.start(...) or AppCenter.configure(...).
+     *
+     * @param enabled        true to warm up the network, false otherwise (default).
+     * @param openConnection true to also open an idle connection to each host.
+     */
+    public static void setNetworkWarmUpEnabled(boolean enabled, boolean openConnection) {
+        getInstance().setInstanceNetworkWarmUpEnabled(enabled, openConnection);
+    }
+
+    /**
+     * Limit the rate at which the SDK uploads data, for example to leave the uplink to the
+     * application while it is in foreground or to save cellular data. Uploads of the default HTTP
+     * client are paced. With {@link #setHttpClient(HttpClient)}, only the start of new batches is.
+     *
+     * @param meteredNetwork true to set the limit of metered networks such as cellular, false for other networks.
+     * @param foreground     true to set the limit while the application is in foreground, false while in background.
+     * @param bytesPerSecond maximum upload rate in bytes per second, 0 for no limit (default).
+     */
+    public static void setMaxUploadRate(boolean meteredNetwork, boolean foreground, long bytesPerSecond) {
+        getInstance().setInstanceMaxUploadRate(meteredNetwork, foreground, bytesPerSecond);
+    }
+
     /**
      * {@link #setUserId(String)} implementation at instance level.
      */
@@ -462,6 +582,7 @@ public class AppCenter {
                 @Override
                 public void run() {
                     mChannel.invalidateDeviceCache();
+                    addDeviceToHistory();
                 }
             });
         }
@@ -499,6 +620,29 @@ public class AppCenter {
         }
     }
 
+    /**
+     * {@link #setCompressionPolicy(CompressionPolicy)} implementation at instance level.
+     *
+     * @param compressionPolicy compression policy.
+     */
+    private synchronized void setInstanceCompressionPolicy(CompressionPolicy compressionPolicy) {
+        final CompressionPolicy policy = compressionPolicy != null ? compressionPolicy : new CompressionPolicy();
+        mCompressionPolicy = policy;
+
+        /* If SDK already configured, set compression policy. */
+        if (mHandler != null) {
+
+            /* Every channel operation must be in background since it uses locks and accesses disks. */
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setCompressionPolicy(policy);
+                }
+            });
+        }
+    }
+
     /**
      * {@link #setCustomProperties(CustomProperties)} implementation at instance level.
      *
@@ -551,6 +695,77 @@ public class AppCenter {
         return setMaxStorageSizeFuture;
     }
 
+    /**
+     * {@link #setInMemoryStorage(long, boolean)} implementation at instance level.
+     *
+     * @param maxMemorySizeInBytes maximum size of logs kept in memory.
+     * @param persistCriticalLogs  true to write critical logs to disk.
+     */
+    private synchronized void setInstanceInMemoryStorage(long maxMemorySizeInBytes, boolean persistCriticalLogs) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setInMemoryStorage may not be called after App Center has been configured.");
+            return;
+        }
+        if (maxMemorySizeInBytes < MINIMUM_STORAGE_SIZE) {
+            AppCenterLog.error(LOG_TAG, "Maximum memory storage size must be at least " + MINIMUM_STORAGE_SIZE + " bytes.");
+            return;
+        }
+        mMaxMemoryStorageSizeInBytes = maxMemorySizeInBytes;
+        mPersistCriticalLogs = persistCriticalLogs;
+    }
+
+    /**
+     * {@link #setStorageCompressionEnabled(boolean)} implementation at instance level.
+     *
+     * @param enabled true to compress stored logs.
+     */
+    private synchronized void setInstanceStorageCompressionEnabled(boolean enabled) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setStorageCompressionEnabled may not be called after App Center has been configured.");
+            return;
+        }
+        mStorageCompressionEnabled = enabled;
+    }
+
+    /**
+     * {@link #setHttpClient(HttpClient)} implementation at instance level.
+     *
+     * @param httpClient HTTP client.
+     */
+    private synchronized void setInstanceHttpClient(HttpClient httpClient) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setHttpClient may not be called after App Center has been configured.");
+            return;
+        }
+        HttpUtils.setHttpClient(httpClient);
+    }
+
+    /**
+     * {@link #setNetworkWarmUpEnabled(boolean, boolean)} implementation at instance level.
+     *
+     * @param enabled        true to warm up the network.
+     * @param openConnection true to also open an idle connection.
+     */
+    private synchronized void setInstanceNetworkWarmUpEnabled(boolean enabled, boolean openConnection) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setNetworkWarmUpEnabled may not be called after App Center has been configured.");
+            return;
+        }
+        mNetworkWarmUpEnabled = enabled;
+        mNetworkWarmUpOpenConnection = openConnection;
+    }
+
+    /**
+     * {@link #setMaxUploadRate(boolean, boolean, long)} implementation at instance level.
+     *
+     * @param meteredNetwork true for metered networks.
+     * @param foreground     true for foreground.
+     * @param bytesPerSecond maximum upload rate.
+     */
+    private synchronized void setInstanceMaxUploadRate(boolean meteredNetwork, boolean foreground, long bytesPerSecond) {
+        BandwidthLimiter.getSharedInstance().setMaxRate(meteredNetwork, foreground, bytesPerSecond);
+    }
+
     /**
      * {@link #isConfigured()} implementation at instance level.
      */
@@ -723,6 +938,15 @@ public class AppCenter {
         }
     }
 
+    @WorkerThread
+    private void addDeviceToHistory() {
+        try {
+            ContextHistory.getInstance().addDevice(DeviceInfoHelper.getDeviceInfo(mApplication));
+        } catch (DeviceInfoHelper.DeviceInfoException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to record device properties in history.", e);
+        }
+    }
+
     @WorkerThread
     private void finishConfiguration(boolean configureFromApp) {
 
@@ -736,6 +960,9 @@ public class AppCenter {
         /* Initialize session storage. */
         SessionContext.getInstance();
 
+        /* Record device properties now so that crashes do not have to read them. */
+        addDeviceToHistory();
+
         /* Get enabled state. */
         boolean enabled = isInstanceEnabled();
 
@@ -743,7 +970,19 @@ public class AppCenter {
         mLogSerializer = new DefaultLogSerializer();
         mLogSerializer.addLogFactory(StartServiceLog.TYPE, new StartServiceLogFactory());
         mLogSerializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
-        mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, mHandler);
+        if (mMaxMemoryStorageSizeInBytes > 0) {
+            Persistence criticalLogPersistence = mPersistCriticalLogs ? new SegmentPersistence(mApplication) : null;
+            Persistence persistence = new MemoryPersistence(mMaxMemoryStorageSizeInBytes, criticalLogPersistence);
+            persistence.setLogSerializer(mLogSerializer);
+            mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, persistence, mHandler);
+        } else if (mStorageCompressionEnabled) {
+            DatabasePersistence persistence = new DatabasePersistence(mApplication);
+            persistence.setPayloadCompressionEnabled(true);
+            persistence.setLogSerializer(mLogSerializer);
+            mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, persistence, mHandler);
+        } else {
+            mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, mHandler);
+        }
 
         /* Complete set maximum storage size future if starting from app. */
         if (configureFromApp) {
@@ -758,6 +997,9 @@ public class AppCenter {
         if (mLogUrl != null) {
             mChannel.setLogUrl(mLogUrl);
         }
+        if (mCompressionPolicy != null) {
+            mChannel.setCompressionPolicy(mCompressionPolicy);
+        }
         mChannel.addListener(new OneCollectorChannelListener(mApplication, mChannel, mLogSerializer, IdHelper.getInstallId()));
 
         /* Disable listening network if we start while being disabled. */
@@ -765,6 +1007,21 @@ public class AppCenter {
             NetworkStateHelper.getSharedInstance(mApplication).close();
         }
 
+        /* Upload rate limits depend on the application being in foreground. */
+        BandwidthLimiter.getSharedInstance().trackForeground(mApplication);
+
+        /* Prepare network for the first logs. */
+        if (enabled && mNetworkWarmUpEnabled && NetworkStateHelper.getSharedInstance(mApplication).isNetworkConnected()) {
+            List<String> urls = new ArrayList<>();
+            if (mAppSecret != null) {
+                urls.add(mLogUrl != null ? mLogUrl : AppCenterIngestion.DEFAULT_LOG_URL);
+            }
+            if (mTransmissionTargetToken != null) {
+                urls.add(OneCollectorIngestion.DEFAULT_LOG_URL);
+            }
+            NetworkWarmUp.warmUp(urls, mNetworkWarmUpOpenConnection);
+        }
+
         /* Init uncaught exception handler. */
         mUncaughtExceptionHandler = new UncaughtExceptionHandler(mHandler, mChannel);
         if (enabled) {
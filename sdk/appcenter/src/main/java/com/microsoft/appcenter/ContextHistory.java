@@ -0,0 +1,211 @@
+package com.microsoft.appcenter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.ingestion.models.json.JSONStringerWriter;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.UserIdContext;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Persistent history of device properties and user identifiers.
+ * <p>
+ * Values are recorded only when they change, so that a crash can be attributed the values at crash time
+ * without reading device properties while the process is dying, or after a restart for minidumps.
+ */
+public class ContextHistory implements UserIdContext.Listener {
+
+    /**
+     * Key used in storage to persist device properties.
+     */
+    private static final String DEVICE_STORAGE_KEY = "deviceHistory";
+
+    /**
+     * Key used in storage to persist user identifiers.
+     */
+    private static final String USER_ID_STORAGE_KEY = "userIdHistory";
+
+    /**
+     * Maximum number of device properties snapshots to persist.
+     */
+    @VisibleForTesting
+    static final int STORAGE_MAX_DEVICES = 5;
+
+    /**
+     * Maximum number of user identifiers to persist.
+     */
+    @VisibleForTesting
+    static final int STORAGE_MAX_USER_IDS = 10;
+
+    /**
+     * Separator used for persistent storage format.
+     * We store the timestamp then the value, a null value is stored without separator.
+     */
+    private static final String STORAGE_KEY_VALUE_SEPARATOR = "/";
+
+    /**
+     * Singleton.
+     */
+    private static ContextHistory sInstance;
+
+    /**
+     * Device properties in JSON sorted by timestamp (ascending).
+     */
+    private final NavigableMap<Long, String> mDevices = new TreeMap<>();
+
+    /**
+     * User identifiers sorted by timestamp (ascending).
+     */
+    private final NavigableMap<Long, String> mUserIds = new TreeMap<>();
+
+    /**
+     * Init.
+     */
+    @WorkerThread
+    private ContextHistory() {
+
+        /* Try loading history from storage. */
+        load(DEVICE_STORAGE_KEY, mDevices);
+        load(USER_ID_STORAGE_KEY, mUserIds);
+        AppCenterLog.debug(LOG_TAG, "Loaded " + mDevices.size() + " device snapshots and " + mUserIds.size() + " user identifiers from history.");
+
+        /*
+         * Record the user identifier at launch, usually not set yet,
+         * to avoid correlating a crash to the user identifier of a previous process.
+         */
+        UserIdContext userIdContext = UserIdContext.getInstance();
+        userIdContext.addListener(this);
+        onNewUserId(userIdContext.getUserId());
+    }
+
+    @WorkerThread
+    public static synchronized ContextHistory getInstance() {
+        if (sInstance == null) {
+            sInstance = new ContextHistory();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public static synchronized void unsetInstance() {
+        if (sInstance != null) {
+            UserIdContext.getInstance().removeListener(sInstance);
+        }
+        sInstance = null;
+    }
+
+    private static void load(String key, NavigableMap<Long, String> history) {
+        Set<String> storedEntries = SharedPreferencesManager.getStringSet(key);
+        if (storedEntries != null) {
+            for (String entry : storedEntries) {
+                int separatorIndex = entry.indexOf(STORAGE_KEY_VALUE_SEPARATOR);
+                try {
+                    if (separatorIndex < 0) {
+                        history.put(Long.parseLong(entry), null);
+                    } else {
+                        history.put(Long.parseLong(entry.substring(0, separatorIndex)), entry.substring(separatorIndex + 1));
+                    }
+                } catch (NumberFormatException e) {
+                    AppCenterLog.warn(LOG_TAG, "Ignore invalid history entry in store: " + entry, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a value if it changed and persist the history.
+     * If maximum capacity of storage has been reached, the oldest value is discarded.
+     *
+     * @return true if recorded, false if the value did not change.
+     */
+    private static boolean add(String key, NavigableMap<Long, String> history, String value, int maxSize) {
+        Map.Entry<Long, String> lastEntry = history.lastEntry();
+        if (lastEntry != null && (value == null ? lastEntry.getValue() == null : value.equals(lastEntry.getValue()))) {
+            return false;
+        }
+        history.put(System.currentTimeMillis(), value);
+        if (history.size() > maxSize) {
+            history.pollFirstEntry();
+        }
+        Set<String> storage = new LinkedHashSet<>();
+        for (Map.Entry<Long, String> entry : history.entrySet()) {
+            String rawEntry = String.valueOf(entry.getKey());
+            if (entry.getValue() != null) {
+                rawEntry += STORAGE_KEY_VALUE_SEPARATOR + entry.getValue();
+            }
+            storage.add(rawEntry);
+        }
+        SharedPreferencesManager.putStringSet(key, storage);
+        return true;
+    }
+
+    /**
+     * Record device properties if they changed.
+     *
+     * @param device current device properties.
+     */
+    public synchronized void addDevice(@NonNull Device device) {
+        try {
+            JSONStringer stringer = new JSONStringer();
+            stringer.object();
+            device.write(new JSONStringerWriter(stringer));
+            stringer.endObject();
+            if (add(DEVICE_STORAGE_KEY, mDevices, stringer.toString(), STORAGE_MAX_DEVICES)) {
+                AppCenterLog.debug(LOG_TAG, "Recorded new device properties in history.");
+            }
+        } catch (JSONException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to record device properties in history.", e);
+        }
+    }
+
+    /**
+     * Get the device properties that were current at the specified timestamp.
+     *
+     * @param timestamp timestamp.
+     * @return a new device properties instance, or null if not found.
+     */
+    public synchronized Device getDeviceAt(long timestamp) {
+        Map.Entry<Long, String> entry = mDevices.floorEntry(timestamp);
+        if (entry != null) {
+            try {
+                Device device = new Device();
+                device.read(new JSONObject(entry.getValue()));
+                return device;
+            } catch (JSONException e) {
+                AppCenterLog.warn(LOG_TAG, "Ignore invalid device properties in history.", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the user identifier that was current at the specified timestamp.
+     *
+     * @param timestamp timestamp.
+     * @return user identifier, or null if not set at that time or not found.
+     */
+    public synchronized String getUserIdAt(long timestamp) {
+        Map.Entry<Long, String> entry = mUserIds.floorEntry(timestamp);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Override
+    public synchronized void onNewUserId(String userId) {
+        add(USER_ID_STORAGE_KEY, mUserIds, userId, STORAGE_MAX_USER_IDS);
+    }
+}
@@ -3,6 +3,7 @@ package com.microsoft.appcenter.channel;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 
+import com.microsoft.appcenter.http.CompressionPolicy;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Log;
 
@@ -98,6 +99,13 @@ public interface Channel {
      */
     void setLogUrl(String logUrl);
 
+    /**
+     * Update the compression policy of the default ingestion.
+     *
+     * @param compressionPolicy compression policy.
+     */
+    void setCompressionPolicy(CompressionPolicy compressionPolicy);
+
     /**
      * Clear all persisted logs for the given group.
      *
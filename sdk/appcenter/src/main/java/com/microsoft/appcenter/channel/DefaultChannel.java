@@ -7,6 +7,9 @@ import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.http.BandwidthLimiter;
+import com.microsoft.appcenter.http.CompressionPolicy;
+import com.microsoft.appcenter.http.HttpException;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
@@ -23,6 +26,8 @@ import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.IdHelper;
 
+import org.json.JSONException;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -31,6 +36,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -38,6 +44,7 @@ import java.util.Set;
 import java.util.UUID;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+import static java.net.HttpURLConnection.HTTP_ENTITY_TOO_LARGE;
 
 public class DefaultChannel implements Channel {
 
@@ -47,6 +54,12 @@ public class DefaultChannel implements Channel {
     @VisibleForTesting
     static final int CLEAR_BATCH_SIZE = 100;
 
+    /**
+     * Maximum serialized size of the logs sent in a single request.
+     */
+    @VisibleForTesting
+    static final long MAX_BATCH_SIZE_IN_BYTES = 1024 * 1024;
+
     /**
      * Application context.
      */
@@ -126,6 +139,19 @@ public class DefaultChannel implements Channel {
         this(context, appSecret, buildDefaultPersistence(context, logSerializer), new AppCenterIngestion(context, logSerializer), appCenterHandler);
     }
 
+    /**
+     * Creates and initializes a new instance with a specific persistence.
+     *
+     * @param context          The context.
+     * @param appSecret        The application secret.
+     * @param logSerializer    The log serializer.
+     * @param persistence      The persistence, with its log serializer already set.
+     * @param appCenterHandler App Center looper thread handler.
+     */
+    public DefaultChannel(@NonNull Context context, String appSecret, @NonNull LogSerializer logSerializer, @NonNull Persistence persistence, @NonNull Handler appCenterHandler) {
+        this(context, appSecret, persistence, new AppCenterIngestion(context, logSerializer), appCenterHandler);
+    }
+
     /**
      * Overloaded constructor with limited visibility that allows for dependency injection.
      *
@@ -334,6 +360,11 @@ public class DefaultChannel implements Channel {
         mIngestion.setLogUrl(logUrl);
     }
 
+    @Override
+    public synchronized void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        mIngestion.setCompressionPolicy(compressionPolicy);
+    }
+
     /**
      * Delete all persisted logs for the given group.
      *
@@ -371,19 +402,9 @@ public class DefaultChannel implements Channel {
         for (GroupState groupState : mGroupStates.values()) {
             cancelTimer(groupState);
 
-            /* Delete all other batches and call callback method that are currently in progress. */
-            for (Iterator<Map.Entry<String, List<Log>>> iterator = groupState.mSendingBatches.entrySet().iterator(); iterator.hasNext(); ) {
-                Map.Entry<String, List<Log>> entry = iterator.next();
-                iterator.remove();
-                if (deleteLogs) {
-                    GroupListener groupListener = groupState.mListener;
-                    if (groupListener != null) {
-                        for (Log log : entry.getValue()) {
-                            groupListener.onFailure(log, exception);
-                        }
-                    }
-                }
-            }
+            /* Delete all other batches and call callback method that are currently in progress or waiting to be sent. */
+            failBatches(groupState, groupState.mSendingBatches, deleteLogs, exception);
+            failBatches(groupState, groupState.mQueuedBatches, deleteLogs, exception);
         }
         for (Ingestion ingestion : mIngestions) {
             try {
@@ -417,6 +438,29 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    /**
+     * Forget batches when suspending.
+     *
+     * @param groupState the group state.
+     * @param batches    batches to forget.
+     * @param deleteLogs if the logs are deleted, in which case the listener is notified.
+     * @param exception  the exception that caused suspension.
+     */
+    private static void failBatches(GroupState groupState, Map<String, List<Log>> batches, boolean deleteLogs, Exception exception) {
+        for (Iterator<Map.Entry<String, List<Log>>> iterator = batches.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, List<Log>> entry = iterator.next();
+            iterator.remove();
+            if (deleteLogs) {
+                GroupListener groupListener = groupState.mListener;
+                if (groupListener != null) {
+                    for (Log log : entry.getValue()) {
+                        groupListener.onFailure(log, exception);
+                    }
+                }
+            }
+        }
+    }
+
     @VisibleForTesting
     void cancelTimer(GroupState groupState) {
         if (groupState.mScheduled) {
@@ -443,11 +487,35 @@ public class DefaultChannel implements Channel {
         cancelTimer(groupState);
 
         /* Check if we have reached the maximum number of pending batches, log to LogCat and don't trigger another sending. */
-        if (groupState.mSendingBatches.size() == groupState.mMaxParallelBatches) {
+        if (groupState.mSendingBatches.size() >= groupState.mMaxParallelBatches) {
             AppCenterLog.debug(LOG_TAG, "Already sending " + groupState.mMaxParallelBatches + " batches of analytics data to the server.");
             return;
         }
 
+        /* Don't build batches while the circuit of the ingestion host is open, check again when it expires. */
+        long remainingOpenTime = groupState.mIngestion.getCircuitRemainingOpenTime();
+        if (remainingOpenTime > 0) {
+            AppCenterLog.debug(LOG_TAG, "Ingestion host is unavailable, next batch for " + groupState.mName + " in " + remainingOpenTime + " ms.");
+            groupState.mScheduled = true;
+            mAppCenterHandler.postDelayed(groupState.mRunnable, remainingOpenTime);
+            return;
+        }
+
+        /* Don't start a batch while uploads wait for bandwidth, check again when there is some. */
+        long uploadDelay = BandwidthLimiter.getSharedInstance().getDelay();
+        if (uploadDelay > 0) {
+            AppCenterLog.debug(LOG_TAG, "Upload bandwidth is exhausted, next batch for " + groupState.mName + " in " + uploadDelay + " ms.");
+            groupState.mScheduled = true;
+            mAppCenterHandler.postDelayed(groupState.mRunnable, uploadDelay);
+            return;
+        }
+
+        /* Send parts of a previous batch first. */
+        if (!groupState.mQueuedBatches.isEmpty()) {
+            sendQueuedBatches(groupState);
+            return;
+        }
+
         /* Get a batch from Persistence. */
         final List<Log> batch = new ArrayList<>(maxFetch);
         final int stateSnapshot = mCurrentState;
@@ -469,6 +537,144 @@ public class DefaultChannel implements Channel {
             }
         }
 
+        /* Split the batch if its logs exceed the request size limit. */
+        List<List<Log>> parts = splitBatch(groupState, batchId, batch);
+        if (parts.isEmpty()) {
+            mPersistence.deleteLogs(groupState.mName, batchId);
+            checkPendingLogs(groupState);
+        } else if (parts.size() > 1 && queueBatchParts(groupState, batchId, parts)) {
+            AppCenterLog.debug(LOG_TAG, "Batch " + batchId + " is too large, sending it in " + parts.size() + " parts.");
+            sendQueuedBatches(groupState);
+        } else {
+
+            /* Send the batch as a whole if it fits or cannot be split. */
+            List<Log> logs = new ArrayList<>(batch.size());
+            for (List<Log> part : parts) {
+                logs.addAll(part);
+            }
+            sendBatch(groupState, stateSnapshot, batchId, logs);
+        }
+    }
+
+    /**
+     * Split logs in parts that do not exceed {@link #MAX_BATCH_SIZE_IN_BYTES} in a request body.
+     * A log larger than the limit is in its own part.
+     * A log that cannot be written in a request, like an attachment whose data file is missing,
+     * is discarded without affecting other logs.
+     *
+     * @param groupState the group state.
+     * @param batchId    the batch ID.
+     * @param batch      logs.
+     * @return parts, in order, empty if all logs were discarded.
+     */
+    private List<List<Log>> splitBatch(GroupState groupState, String batchId, List<Log> batch) {
+        LogSerializer logSerializer = mPersistence.getLogSerializer();
+        List<List<Log>> parts = new ArrayList<>();
+        List<Log> part = new ArrayList<>();
+        long partSize = 0;
+        int index = 0;
+        for (Log log : batch) {
+            long logSize;
+            try {
+                logSize = logSerializer.getRequestSize(log);
+            } catch (JSONException | IOException e) {
+                discardLog(groupState, batchId, index, log, e);
+                continue;
+            }
+            if (!part.isEmpty() && partSize + logSize > MAX_BATCH_SIZE_IN_BYTES) {
+                parts.add(part);
+                part = new ArrayList<>();
+                partSize = 0;
+            }
+            part.add(log);
+            partSize += logSize;
+            index++;
+        }
+        if (!part.isEmpty()) {
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    /**
+     * Discard a log of a batch that is not sent yet.
+     *
+     * @param groupState the group state.
+     * @param batchId    the batch ID.
+     * @param index      index of the log in the batch.
+     * @param log        the log.
+     * @param e          the reason.
+     */
+    private void discardLog(GroupState groupState, String batchId, int index, Log log, Exception e) {
+        AppCenterLog.error(LOG_TAG, "Log cannot be sent, discarding it.", e);
+        String logBatchId = mPersistence.splitLogs(groupState.mName, batchId, index, index + 1);
+        if (logBatchId != null) {
+            mPersistence.deleteLogs(groupState.mName, logBatchId);
+        }
+        if (groupState.mListener != null) {
+            groupState.mListener.onFailure(log, e);
+        }
+    }
+
+    /**
+     * Queue the parts of a batch to send them without exceeding the maximum number of parallel batches.
+     * Each part is split to its own persistence batch so that it is deleted as soon as it is sent,
+     * and not sent again if another part fails.
+     *
+     * @param groupState the group state.
+     * @param batchId    the batch ID, kept by the last part.
+     * @param parts      logs of each part, in batch order.
+     * @return false if the persistence cannot split the batch, nothing is queued in that case.
+     */
+    private boolean queueBatchParts(GroupState groupState, String batchId, List<List<Log>> parts) {
+        int index = 0;
+        for (; index < parts.size() - 1; index++) {
+            List<Log> part = parts.get(index);
+            String partId = mPersistence.splitLogs(groupState.mName, batchId, 0, part.size());
+            if (partId == null) {
+                break;
+            }
+            groupState.mQueuedBatches.put(partId, part);
+        }
+        if (index == 0) {
+            return false;
+        }
+
+        /* The batch ID keeps the remaining logs. */
+        List<Log> lastPart = new ArrayList<>();
+        for (; index < parts.size(); index++) {
+            lastPart.addAll(parts.get(index));
+        }
+        groupState.mQueuedBatches.put(batchId, lastPart);
+        return true;
+    }
+
+    /**
+     * Send queued batches, in order, while the maximum number of parallel batches is not reached.
+     *
+     * @param groupState the group state.
+     */
+    private void sendQueuedBatches(GroupState groupState) {
+        while (!groupState.mQueuedBatches.isEmpty() && groupState.mSendingBatches.size() < groupState.mMaxParallelBatches) {
+
+            /* Sending can complete synchronously and reenter, so don't keep an iterator. */
+            Iterator<Map.Entry<String, List<Log>>> iterator = groupState.mQueuedBatches.entrySet().iterator();
+            Map.Entry<String, List<Log>> entry = iterator.next();
+            iterator.remove();
+            sendBatch(groupState, mCurrentState, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Remember a batch and send it from the UI thread.
+     *
+     * @param groupState    the group state.
+     * @param stateSnapshot the current state.
+     * @param batchId       the batch ID.
+     * @param batch         the log batch.
+     */
+    private void sendBatch(final GroupState groupState, final int stateSnapshot, final String batchId, final List<Log> batch) {
+
         /* Remember this batch. */
         groupState.mSendingBatches.put(batchId, batch);
 
@@ -567,6 +773,7 @@ public class DefaultChannel implements Channel {
                     groupListener.onSuccess(log);
                 }
             }
+            sendQueuedBatches(groupState);
             checkPendingLogs(groupState);
         }
     }
@@ -585,6 +792,10 @@ public class DefaultChannel implements Channel {
         List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
         if (removedLogsForBatchId != null) {
             AppCenterLog.error(LOG_TAG, "Sending logs groupName=" + groupName + " id=" + batchId + " failed", e);
+            if (e instanceof JSONException || e instanceof HttpException && ((HttpException) e).getStatusCode() == HTTP_ENTITY_TOO_LARGE) {
+                handleUnsendableBatch(groupState, batchId, removedLogsForBatchId, e);
+                return;
+            }
             boolean recoverableError = HttpUtils.isRecoverableError(e);
             if (recoverableError) {
                 groupState.mPendingLogCount += removedLogsForBatchId.size();
@@ -600,6 +811,39 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    /**
+     * Bisect a batch rejected for its size, or that could not be written in a request, and queue both halves.
+     * A single log rejected for that reason is discarded without affecting other logs, and so is
+     * the whole batch if the persistence cannot split it.
+     *
+     * @param groupState the group state.
+     * @param batchId    the batch ID.
+     * @param logs       logs of the batch.
+     * @param e          the exception.
+     */
+    private void handleUnsendableBatch(@NonNull GroupState groupState, @NonNull String batchId, @NonNull List<Log> logs, @NonNull Exception e) {
+        if (logs.size() > 1) {
+            int middle = logs.size() / 2;
+            List<List<Log>> halves = new ArrayList<>();
+            halves.add(new ArrayList<>(logs.subList(0, middle)));
+            halves.add(new ArrayList<>(logs.subList(middle, logs.size())));
+            if (queueBatchParts(groupState, batchId, halves)) {
+                sendQueuedBatches(groupState);
+                return;
+            }
+        }
+        AppCenterLog.error(LOG_TAG, "Logs cannot be sent, discarding " + logs.size() + " log(s).");
+        GroupListener groupListener = groupState.mListener;
+        if (groupListener != null) {
+            for (Log log : logs) {
+                groupListener.onFailure(log, e);
+            }
+        }
+        mPersistence.deleteLogs(groupState.mName, batchId);
+        sendQueuedBatches(groupState);
+        checkPendingLogs(groupState);
+    }
+
     @Override
     public synchronized void enqueue(@NonNull Log log, @NonNull final String groupName, int flags) {
 
@@ -772,6 +1016,11 @@ public class DefaultChannel implements Channel {
          */
         final Map<String, List<Log>> mSendingBatches = new HashMap<>();
 
+        /**
+         * Batches waiting for the number of parallel batches to decrease, in sending order.
+         */
+        final Map<String, List<Log>> mQueuedBatches = new LinkedHashMap<>();
+
         /**
          * Ingestion for the group state.
          */
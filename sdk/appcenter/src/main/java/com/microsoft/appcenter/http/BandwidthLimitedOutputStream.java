@@ -0,0 +1,64 @@
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream writing at the rate allowed by a {@link BandwidthLimiter}.
+ * <p>
+ * The wait before each write is capped, as the stream is written from a thread pool shared with
+ * the application: the limiter keeps the debt of a write made earlier, and new batches wait for
+ * {@link BandwidthLimiter#getDelay()} instead.
+ */
+class BandwidthLimitedOutputStream extends FilterOutputStream {
+
+    /**
+     * Maximum number of bytes written between two checks of the limiter.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Maximum time in milliseconds to wait before writing a chunk.
+     */
+    @VisibleForTesting
+    static final long MAX_WRITE_DELAY = 1000;
+
+    private final BandwidthLimiter mBandwidthLimiter;
+
+    BandwidthLimitedOutputStream(@NonNull OutputStream out, @NonNull BandwidthLimiter bandwidthLimiter) {
+        super(out);
+        mBandwidthLimiter = bandwidthLimiter;
+    }
+
+    private void await(int length) throws IOException {
+        long delay = mBandwidthLimiter.reserve(length);
+        if (delay > 0) {
+            try {
+                Thread.sleep(Math.min(delay, MAX_WRITE_DELAY));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload bandwidth.");
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        await(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        for (int i = 0; i < len; i += CHUNK_SIZE) {
+            int chunkLength = Math.min(len - i, CHUNK_SIZE);
+            await(chunkLength);
+            out.write(b, off + i, chunkLength);
+        }
+    }
+}
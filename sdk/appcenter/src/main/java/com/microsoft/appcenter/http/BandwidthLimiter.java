@@ -0,0 +1,257 @@
+package com.microsoft.appcenter.http;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.NetworkStateHelper;
+
+/**
+ * Token bucket limiting the upload rate of all SDK HTTP calls of the application process.
+ * Other applications, and other processes of the same application, have their own limit.
+ * <p>
+ * Each call spends tokens for the bytes it writes and waits when the bucket is empty. The bucket
+ * holds up to one second of tokens. The rate depends on whether the network is metered and
+ * whether the application is in foreground.
+ */
+public class BandwidthLimiter {
+
+    /**
+     * Shared instance.
+     */
+    private static BandwidthLimiter sSharedInstance;
+
+    /**
+     * Maximum rates in bytes per second, indexed by {@link #getRateIndex(boolean, boolean)}, 0 when unlimited.
+     */
+    private final long[] mMaxRates = new long[4];
+
+    /**
+     * Network state helper used to know if the network is metered.
+     */
+    private NetworkStateHelper mNetworkStateHelper;
+
+    /**
+     * True if the network was metered at the start of the last call.
+     */
+    private boolean mMetered;
+
+    /**
+     * True if the application is in foreground.
+     */
+    private boolean mForeground;
+
+    /**
+     * Number of started activities.
+     */
+    private int mStartedActivityCount;
+
+    /**
+     * True once activities are tracked.
+     */
+    private boolean mTrackingForeground;
+
+    /**
+     * Available tokens in bytes, negative when calls wait for tokens.
+     */
+    private double mTokens;
+
+    /**
+     * Last time tokens were added.
+     */
+    private long mLastRefillTime;
+
+    @VisibleForTesting
+    BandwidthLimiter() {
+    }
+
+    /**
+     * Get shared instance.
+     *
+     * @return shared instance.
+     */
+    public static synchronized BandwidthLimiter getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new BandwidthLimiter();
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sSharedInstance = null;
+    }
+
+    private static int getRateIndex(boolean metered, boolean foreground) {
+        return (metered ? 2 : 0) + (foreground ? 1 : 0);
+    }
+
+    /**
+     * Set the maximum upload rate for a network and application state.
+     *
+     * @param metered        true for metered networks, false for the others.
+     * @param foreground     true while the application is in foreground, false in background.
+     * @param bytesPerSecond maximum rate, 0 or negative for no limit.
+     */
+    public synchronized void setMaxRate(boolean metered, boolean foreground, long bytesPerSecond) {
+        mMaxRates[getRateIndex(metered, foreground)] = Math.max(bytesPerSecond, 0);
+    }
+
+    /**
+     * Get the maximum upload rate for a network and application state.
+     *
+     * @param metered    true for metered networks, false for the others.
+     * @param foreground true while the application is in foreground, false in background.
+     * @return maximum rate in bytes per second, 0 for no limit.
+     */
+    public synchronized long getMaxRate(boolean metered, boolean foreground) {
+        return mMaxRates[getRateIndex(metered, foreground)];
+    }
+
+    /**
+     * Check if a rate is limited in any state.
+     *
+     * @return true if any rate is limited.
+     */
+    public synchronized boolean isEnabled() {
+        for (long maxRate : mMaxRates) {
+            if (maxRate > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Set the helper used to know if the network is metered, the first one is kept.
+     *
+     * @param networkStateHelper network state helper.
+     */
+    synchronized void setNetworkStateHelper(@NonNull NetworkStateHelper networkStateHelper) {
+        if (mNetworkStateHelper == null) {
+            mNetworkStateHelper = networkStateHelper;
+        }
+    }
+
+    /**
+     * Track activities of the application to know if it is in foreground.
+     *
+     * @param application application.
+     */
+    public synchronized void trackForeground(@NonNull Application application) {
+        if (mTrackingForeground) {
+            return;
+        }
+        mTrackingForeground = true;
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+                synchronized (BandwidthLimiter.this) {
+                    mStartedActivityCount++;
+                    setForeground(true);
+                }
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+                synchronized (BandwidthLimiter.this) {
+                    mStartedActivityCount = Math.max(mStartedActivityCount - 1, 0);
+                    setForeground(mStartedActivityCount > 0);
+                }
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+
+    /**
+     * Set whether the application is in foreground.
+     *
+     * @param foreground true if in foreground.
+     */
+    @VisibleForTesting
+    synchronized void setForeground(boolean foreground) {
+        mForeground = foreground;
+    }
+
+    /**
+     * Refresh the network state before a call writes its body.
+     */
+    synchronized void onCallStarted() {
+        if (mNetworkStateHelper != null) {
+            mMetered = mNetworkStateHelper.isNetworkMetered();
+        }
+    }
+
+    /**
+     * Get the maximum rate of the current state.
+     *
+     * @return rate in bytes per second, 0 for no limit.
+     */
+    private long getCurrentMaxRate() {
+        return mMaxRates[getRateIndex(mMetered, mForeground)];
+    }
+
+    /**
+     * Add the tokens earned since the last refill, up to one second of tokens.
+     */
+    private void refill(long maxRate) {
+        long now = SystemClock.elapsedRealtime();
+        mTokens = Math.min(mTokens + (now - mLastRefillTime) * maxRate / 1000.0, maxRate);
+        mLastRefillTime = now;
+    }
+
+    /**
+     * Spend tokens to write bytes.
+     *
+     * @param length number of bytes to write.
+     * @return time in milliseconds to wait before writing them, 0 to write them now.
+     */
+    synchronized long reserve(int length) {
+        long maxRate = getCurrentMaxRate();
+        if (maxRate == 0) {
+            mTokens = 0;
+            mLastRefillTime = SystemClock.elapsedRealtime();
+            return 0;
+        }
+        refill(maxRate);
+        mTokens -= length;
+        return mTokens >= 0 ? 0 : (long) Math.ceil(-mTokens * 1000 / maxRate);
+    }
+
+    /**
+     * Get the time before calls waiting for tokens can write again, used to pace new calls.
+     *
+     * @return time in milliseconds, 0 if tokens are available.
+     */
+    public synchronized long getDelay() {
+        long maxRate = getCurrentMaxRate();
+        if (maxRate == 0) {
+            return 0;
+        }
+        refill(maxRate);
+        return mTokens >= 0 ? 0 : (long) Math.ceil(-mTokens * 1000 / maxRate);
+    }
+}
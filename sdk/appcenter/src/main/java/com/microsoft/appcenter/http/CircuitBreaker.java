@@ -0,0 +1,325 @@
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Circuit breaker of a host, shared by all HTTP clients.
+ * <p>
+ * The circuit opens after consecutive recoverable failures. While open, calls must wait. Once the
+ * open duration expired, the circuit is half-open and a single probe call is allowed: its success
+ * closes the circuit, its failure opens it again for twice as long.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Number of consecutive recoverable failures that opens the circuit.
+     */
+    @VisibleForTesting
+    static final int FAILURE_THRESHOLD = 3;
+
+    /**
+     * Duration of the circuit being open the first time.
+     */
+    @VisibleForTesting
+    static final long INITIAL_OPEN_DURATION = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Maximum duration of the circuit being open.
+     */
+    @VisibleForTesting
+    static final long MAX_OPEN_DURATION = TimeUnit.MINUTES.toMillis(20);
+
+    /**
+     * Circuit breakers by host.
+     */
+    private static final Map<String, CircuitBreaker> sCircuitBreakers = new HashMap<>();
+
+    /**
+     * State change listeners.
+     */
+    private static final Set<Listener> sListeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * Host.
+     */
+    private final String mHost;
+
+    /**
+     * Current state.
+     */
+    private State mState = State.CLOSED;
+
+    /**
+     * Number of consecutive recoverable failures while closed.
+     */
+    private int mFailureCount;
+
+    /**
+     * Duration of the current or last open state.
+     */
+    private long mOpenDuration;
+
+    /**
+     * Time when the open state expires.
+     */
+    private long mOpenUntil;
+
+    /**
+     * Whether the probe call of the half-open state is in progress.
+     */
+    private boolean mProbing;
+
+    @VisibleForTesting
+    CircuitBreaker(@NonNull String host) {
+        mHost = host;
+    }
+
+    /**
+     * Get the circuit breaker of the host of an URL.
+     *
+     * @param url URL.
+     * @return circuit breaker shared by all calls to that host.
+     */
+    @NonNull
+    public static CircuitBreaker forUrl(@NonNull String url) {
+        String host = HttpUtils.getHost(url);
+        synchronized (sCircuitBreakers) {
+            CircuitBreaker circuitBreaker = sCircuitBreakers.get(host);
+            if (circuitBreaker == null) {
+                circuitBreaker = new CircuitBreaker(host);
+                sCircuitBreakers.put(host, circuitBreaker);
+            }
+            return circuitBreaker;
+        }
+    }
+
+    @VisibleForTesting
+    static void unsetInstances() {
+        synchronized (sCircuitBreakers) {
+            sCircuitBreakers.clear();
+        }
+        sListeners.clear();
+    }
+
+    /**
+     * Add a listener notified when any circuit changes state.
+     *
+     * @param listener listener.
+     */
+    public static void addListener(@NonNull Listener listener) {
+        sListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener listener.
+     */
+    public static void removeListener(@NonNull Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * @return host.
+     */
+    @NonNull
+    public String getHost() {
+        return mHost;
+    }
+
+    /**
+     * @return current state, an expired open state is reported as half-open.
+     */
+    @NonNull
+    public synchronized State getState() {
+        if (mState == State.OPEN && System.currentTimeMillis() >= mOpenUntil) {
+            return State.HALF_OPEN;
+        }
+        return mState;
+    }
+
+    /**
+     * Get the time remaining before a probe call can be attempted.
+     *
+     * @return time in milliseconds, 0 if the circuit is not open.
+     */
+    public synchronized long getRemainingOpenTime() {
+        if (mState != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, mOpenUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * Check if a call can be made now and whether it is the probe call of the half-open state.
+     * The caller of a probe call must report its completion or call {@link #onCallCancelled()}
+     * if it will never complete, otherwise no other call can probe.
+     *
+     * @return permit of the call.
+     */
+    @NonNull
+    public synchronized Permit acquire() {
+        State state = getState();
+        if (state == State.CLOSED) {
+            return Permit.CALL;
+        }
+        if (state == State.HALF_OPEN && !mProbing) {
+            AppCenterLog.debug(LOG_TAG, "Circuit of " + mHost + " is half-open, sending a probe call.");
+            mState = State.HALF_OPEN;
+            mProbing = true;
+            return Permit.PROBE;
+        }
+        return Permit.DENIED;
+    }
+
+    /**
+     * Notify a call was successful.
+     */
+    public void onCallSucceeded() {
+        boolean closed;
+        synchronized (this) {
+            mFailureCount = 0;
+            closed = mState != State.CLOSED;
+            if (closed) {
+                mState = State.CLOSED;
+                mOpenDuration = 0;
+                mProbing = false;
+            }
+        }
+        if (closed) {
+            AppCenterLog.info(LOG_TAG, "Circuit of " + mHost + " is closed.");
+            notifyListeners(State.CLOSED);
+        }
+    }
+
+    /**
+     * Notify the probe call was cancelled or will never complete. Listeners are notified that
+     * another call can probe.
+     *
+     * @return true if another probe call can be made.
+     */
+    public boolean onCallCancelled() {
+        synchronized (this) {
+            if (mState != State.HALF_OPEN || !mProbing) {
+                return false;
+            }
+            mProbing = false;
+        }
+        notifyListeners(State.HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * Notify a call failed. In half-open state, only the failure of the probe call opens the
+     * circuit again: other calls were started before the circuit opened and their failure is stale.
+     *
+     * @param e     call error, only recoverable errors count as failures.
+     * @param probe true if the call was made with {@link Permit#PROBE}.
+     */
+    public void onCallFailed(Exception e, boolean probe) {
+
+        /* A server that returns a client error is available. */
+        if (!HttpUtils.isRecoverableError(e)) {
+            onCallSucceeded();
+            return;
+        }
+        boolean opened = false;
+        long openDuration;
+        synchronized (this) {
+            if (mState == State.CLOSED) {
+                mFailureCount++;
+                if (mFailureCount >= FAILURE_THRESHOLD) {
+                    mOpenDuration = INITIAL_OPEN_DURATION;
+                    opened = true;
+                }
+            } else if (mState == State.HALF_OPEN && probe) {
+                mOpenDuration = Math.min(MAX_OPEN_DURATION, mOpenDuration * 2);
+                opened = true;
+            }
+            if (opened) {
+                mState = State.OPEN;
+                mFailureCount = 0;
+                mProbing = false;
+                mOpenUntil = System.currentTimeMillis() + mOpenDuration;
+            }
+            openDuration = mOpenDuration;
+        }
+        if (opened) {
+            AppCenterLog.warn(LOG_TAG, "Circuit of " + mHost + " is open for " + openDuration + " ms.");
+            notifyListeners(State.OPEN);
+        }
+    }
+
+    private void notifyListeners(State state) {
+        for (Listener listener : sListeners) {
+            listener.onCircuitStateChanged(this, state);
+        }
+    }
+
+    /**
+     * Circuit state.
+     */
+    public enum State {
+
+        /**
+         * Calls are made.
+         */
+        CLOSED,
+
+        /**
+         * Calls wait.
+         */
+        OPEN,
+
+        /**
+         * A single probe call is made.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Result of {@link #acquire()}.
+     */
+    public enum Permit {
+
+        /**
+         * Call must wait.
+         */
+        DENIED,
+
+        /**
+         * Call can be made, the circuit is closed.
+         */
+        CALL,
+
+        /**
+         * Call can be made as the single probe call of the half-open state.
+         */
+        PROBE
+    }
+
+    /**
+     * Circuit state listener.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a circuit opens or closes, or when its probe call was cancelled.
+         *
+         * @param circuitBreaker circuit breaker.
+         * @param state          new state, {@link State#HALF_OPEN} meaning another call can probe.
+         */
+        void onCircuitStateChanged(@NonNull CircuitBreaker circuitBreaker, @NonNull State state);
+    }
+}
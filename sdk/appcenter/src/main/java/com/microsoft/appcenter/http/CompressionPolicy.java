@@ -0,0 +1,242 @@
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_VALUE;
+
+/**
+ * Compression policy of request bodies: codec, level and minimum size.
+ * <p>
+ * An adaptive policy measures the compression ratio and CPU time of the calls and stops
+ * compressing while it saves too few bytes for the time it takes, trying again from time to time.
+ * An instance keeps these measures, so it should not be shared by ingestions sending different
+ * payloads.
+ */
+public class CompressionPolicy {
+
+    /**
+     * Default minimum body length in bytes to compress.
+     */
+    public static final int DEFAULT_MIN_LENGTH = 1400;
+
+    /**
+     * Gzip codec.
+     */
+    public static final Codec GZIP = new Codec() {
+
+        @Override
+        public String getContentEncoding() {
+            return CONTENT_ENCODING_VALUE;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream outputStream, int bufferSize, final int level) throws IOException {
+            return new GZIPOutputStream(outputStream, bufferSize) {{
+                def.setLevel(level);
+            }};
+        }
+    };
+
+    /**
+     * Minimum saved fraction of the body for an adaptive policy to keep compressing.
+     */
+    @VisibleForTesting
+    static final double MIN_ADAPTIVE_SAVING = 0.1;
+
+    /**
+     * Minimum number of bytes saved per millisecond of compression for an adaptive policy to keep
+     * compressing. Below that, sending the bytes costs less than compressing them on a slow radio.
+     */
+    @VisibleForTesting
+    static final double MIN_ADAPTIVE_SAVED_BYTES_PER_MILLISECOND = 1024;
+
+    /**
+     * Number of calls sent uncompressed by an adaptive policy before measuring compression again.
+     */
+    @VisibleForTesting
+    static final int ADAPTIVE_PROBE_INTERVAL = 20;
+
+    /**
+     * Weight of the last measure in the moving averages of an adaptive policy.
+     */
+    private static final double ADAPTIVE_MEASURE_WEIGHT = 0.3;
+
+    /**
+     * Codec, null to never compress.
+     */
+    private final Codec mCodec;
+
+    /**
+     * Codec level.
+     */
+    private final int mLevel;
+
+    /**
+     * Minimum body length to compress.
+     */
+    private final int mMinLength;
+
+    /**
+     * True to decide from measures.
+     */
+    private final boolean mAdaptive;
+
+    /**
+     * True once a compressed body has been measured.
+     */
+    private boolean mMeasured;
+
+    /**
+     * Moving average of the saved fraction of the body.
+     */
+    private double mSaving;
+
+    /**
+     * Moving average of the bytes saved per millisecond of compression.
+     */
+    private double mSavedBytesPerMillisecond;
+
+    /**
+     * Number of calls sent uncompressed since the last measure.
+     */
+    private int mSkippedCount;
+
+    /**
+     * Init default policy: gzip with default level for bodies of at least {@link #DEFAULT_MIN_LENGTH} bytes.
+     */
+    public CompressionPolicy() {
+        this(GZIP, Deflater.DEFAULT_COMPRESSION, DEFAULT_MIN_LENGTH, false);
+    }
+
+    /**
+     * Init.
+     *
+     * @param codec     codec, null to never compress.
+     * @param level     codec level, for gzip from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param minLength minimum body length in bytes to compress.
+     * @param adaptive  true to stop compressing while it is not worth the CPU time.
+     */
+    public CompressionPolicy(@Nullable Codec codec, int level, int minLength, boolean adaptive) {
+        mCodec = codec;
+        mLevel = level;
+        mMinLength = minLength;
+        mAdaptive = adaptive;
+    }
+
+    /**
+     * Get codec.
+     *
+     * @return codec, null if bodies are never compressed.
+     */
+    public Codec getCodec() {
+        return mCodec;
+    }
+
+    /**
+     * Get codec level.
+     *
+     * @return codec level.
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Get minimum body length to compress.
+     *
+     * @return length in bytes.
+     */
+    public int getMinLength() {
+        return mMinLength;
+    }
+
+    /**
+     * Check if the policy is adaptive.
+     *
+     * @return true if adaptive.
+     */
+    public boolean isAdaptive() {
+        return mAdaptive;
+    }
+
+    /**
+     * Check if a body must be compressed.
+     *
+     * @param length body length in bytes (or an estimate for streamed bodies), negative if unknown.
+     * @return true to compress it.
+     */
+    public synchronized boolean shouldCompress(long length) {
+        if (mCodec == null || length >= 0 && length < mMinLength) {
+            return false;
+        }
+        if (!mAdaptive || !mMeasured || mSaving >= MIN_ADAPTIVE_SAVING && mSavedBytesPerMillisecond >= MIN_ADAPTIVE_SAVED_BYTES_PER_MILLISECOND) {
+            return true;
+        }
+
+        /* Not worth it, measure again after a while as payloads change. */
+        if (++mSkippedCount >= ADAPTIVE_PROBE_INTERVAL) {
+            mSkippedCount = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record the measures of a compressed body, used by adaptive policies.
+     *
+     * @param length           body length in bytes.
+     * @param compressedLength compressed body length in bytes.
+     * @param duration         compression time in nanoseconds.
+     */
+    public synchronized void onCompressed(long length, long compressedLength, long duration) {
+        if (!mAdaptive || length <= 0) {
+            return;
+        }
+        long savedBytes = length - compressedLength;
+        double saving = (double) savedBytes / length;
+        double savedBytesPerMillisecond = savedBytes * 1000000.0 / Math.max(duration, 1);
+        if (mMeasured) {
+            mSaving += ADAPTIVE_MEASURE_WEIGHT * (saving - mSaving);
+            mSavedBytesPerMillisecond += ADAPTIVE_MEASURE_WEIGHT * (savedBytesPerMillisecond - mSavedBytesPerMillisecond);
+        } else {
+            mSaving = saving;
+            mSavedBytesPerMillisecond = savedBytesPerMillisecond;
+            mMeasured = true;
+        }
+        mSkippedCount = 0;
+    }
+
+    /**
+     * Request body compression codec.
+     */
+    public interface Codec {
+
+        /**
+         * Get the value of the Content-Encoding header of compressed bodies.
+         *
+         * @return content encoding.
+         */
+        @NonNull
+        String getContentEncoding();
+
+        /**
+         * Wrap a stream to compress what is written to it. Closing the returned stream must finish
+         * the compression and close the wrapped stream.
+         *
+         * @param outputStream stream receiving the compressed bytes.
+         * @param bufferSize   buffer size hint.
+         * @param level        codec level.
+         * @return stream to write the body to.
+         * @throws IOException if the stream cannot be wrapped.
+         */
+        @NonNull
+        OutputStream compress(@NonNull OutputStream outputStream, int bufferSize, int level) throws IOException;
+    }
+}
@@ -3,13 +3,16 @@ package com.microsoft.appcenter.http;
 import android.net.TrafficStats;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.microsoft.appcenter.utils.AppCenterLog;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -17,16 +20,16 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CHARSET_NAME;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_KEY;
-import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_VALUE;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_KEY;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_VALUE;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
@@ -41,7 +44,7 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
     /**
      * Thread stats tag for App Center HTTP calls.
      */
-    private static final int THREAD_STATS_TAG = 0xD83DDC19;
+    static final int THREAD_STATS_TAG = 0xD83DDC19;
 
     /**
      * Default string builder capacity.
@@ -49,9 +52,9 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
     private static final int DEFAULT_STRING_BUILDER_CAPACITY = 16;
 
     /**
-     * Minimum payload length in bytes to use gzip.
+     * Compression policy of calls that do not specify one.
      */
-    private static final int MIN_GZIP_LENGTH = 1400;
+    private static final CompressionPolicy DEFAULT_COMPRESSION_POLICY = new CompressionPolicy();
 
     /**
      * Read buffer size.
@@ -66,12 +69,12 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
     /**
      * HTTP connection timeout.
      */
-    private static final int CONNECT_TIMEOUT = 60000;
+    static final int CONNECT_TIMEOUT = 60000;
 
     /**
      * HTTP read timeout.
      */
-    private static final int READ_TIMEOUT = 20000;
+    static final int READ_TIMEOUT = 20000;
 
     /**
      * Maximum payload length to use prettify for logging.
@@ -151,6 +154,38 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         }
     }
 
+    /**
+     * Read the response stream to the end without keeping it, so that the connection can be reused.
+     */
+    private void drainResponse(HttpURLConnection urlConnection) throws IOException {
+        InputStream stream = getInputStream(urlConnection);
+
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            while (stream.read(buffer) > 0) {
+                if (isCancelled()) {
+                    break;
+                }
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Get the stream to write the request body to, paced by the bandwidth limiter if enabled.
+     */
+    private static OutputStream getOutputStream(HttpURLConnection urlConnection) throws IOException {
+        OutputStream outputStream = urlConnection.getOutputStream();
+        BandwidthLimiter bandwidthLimiter = BandwidthLimiter.getSharedInstance();
+        if (bandwidthLimiter.isEnabled()) {
+            bandwidthLimiter.onCallStarted();
+            return new BandwidthLimitedOutputStream(outputStream, bandwidthLimiter);
+        }
+        return outputStream;
+    }
+
     private static InputStream getInputStream(HttpURLConnection urlConnection) throws IOException {
         int status = urlConnection.getResponseCode();
         if (status >= 200 && status < 400) {
@@ -160,12 +195,28 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         }
     }
 
+    /**
+     * Get the first value of each response header.
+     */
+    private static Map<String, String> getResponseHeaders(HttpURLConnection urlConnection) {
+        Map<String, String> responseHeaders = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : urlConnection.getHeaderFields().entrySet()) {
+
+            /* Status line has a null key. */
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                responseHeaders.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        return responseHeaders;
+    }
+
     /**
      * Do http call.
      */
     private String doHttpCall() throws Exception {
 
         /* HTTP session. */
+        long startTime = SystemClock.elapsedRealtime();
         URL url = new URL(mUrl);
         HttpsURLConnection urlConnection = (HttpsURLConnection) url.openConnection();
         try {
@@ -191,18 +242,28 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
             urlConnection.setReadTimeout(READ_TIMEOUT);
 
-            /* Build payload now if POST. */
+            /* Build payload now if POST, unless it can be streamed as it does not need to be logged. */
             urlConnection.setRequestMethod(mMethod);
             String payload = null;
             byte[] binaryPayload = null;
             boolean shouldCompress = false;
+            CompressionPolicy compressionPolicy = mCallTemplate instanceof HttpClient.CompressionCallTemplate ?
+                    ((HttpClient.CompressionCallTemplate) mCallTemplate).getCompressionPolicy() : DEFAULT_COMPRESSION_POLICY;
             boolean isPost = mMethod.equals(METHOD_POST);
-            if (isPost && mCallTemplate != null) {
+            boolean shouldStream = isPost && mCallTemplate instanceof HttpClient.StreamingCallTemplate && AppCenterLog.getLogLevel() > Log.VERBOSE;
+            if (shouldStream) {
+
+                /* Estimate length without writing the body, check if large enough to compress. */
+                shouldCompress = compressionPolicy.shouldCompress(((HttpClient.StreamingCallTemplate) mCallTemplate).getRequestBodySize());
+                if (!mHeaders.containsKey(CONTENT_TYPE_KEY)) {
+                    mHeaders.put(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE);
+                }
+            } else if (isPost && mCallTemplate != null) {
 
                 /* Get bytes, check if large enough to compress. */
                 payload = mCallTemplate.buildRequestBody();
                 binaryPayload = payload.getBytes(CHARSET_NAME);
-                shouldCompress = binaryPayload.length >= MIN_GZIP_LENGTH;
+                shouldCompress = compressionPolicy.shouldCompress(binaryPayload.length);
 
                 /* If no content type specified, assume json. */
                 if (!mHeaders.containsKey(CONTENT_TYPE_KEY)) {
@@ -212,7 +273,7 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
 
             /* If about to compress, add corresponding header. */
             if (shouldCompress) {
-                mHeaders.put(CONTENT_ENCODING_KEY, CONTENT_ENCODING_VALUE);
+                mHeaders.put(CONTENT_ENCODING_KEY, compressionPolicy.getCodec().getContentEncoding());
             }
 
             /* Send headers. */
@@ -229,7 +290,40 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             }
 
             /* Send payload. */
-            if (binaryPayload != null) {
+            if (shouldStream) {
+                urlConnection.setDoOutput(true);
+                urlConnection.setChunkedStreamingMode(0);
+                OutputStream out = getOutputStream(urlConnection);
+                CountingOutputStream compressedCounter = null;
+                CountingOutputStream counter = null;
+                if (shouldCompress) {
+                    compressedCounter = new CountingOutputStream(out);
+                    counter = new CountingOutputStream(compressionPolicy.getCodec().compress(compressedCounter, WRITE_BUFFER_SIZE, compressionPolicy.getLevel()));
+                    out = counter;
+                }
+
+                //noinspection TryFinallyCanBeTryWithResources
+                try {
+                    ((HttpClient.StreamingCallTemplate) mCallTemplate).writeRequestBody(out);
+                } catch (JSONException e) {
+
+                    /*
+                     * Report errors writing to the connection as such so that they can be retried.
+                     * Errors reading attachment files have no IOException cause and are not retried.
+                     */
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw e;
+                } finally {
+                    out.close();
+                }
+
+                /* Compression time is the time spent in the codec, without writing to the network. */
+                if (counter != null) {
+                    compressionPolicy.onCompressed(counter.getCount(), compressedCounter.getCount(), counter.getDuration() - compressedCounter.getDuration());
+                }
+            } else if (binaryPayload != null) {
 
                 /* Log payload. */
                 if (AppCenterLog.getLogLevel() <= Log.VERBOSE) {
@@ -244,17 +338,20 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
 
                 /* Compress payload if large enough to be worth it. */
                 if (shouldCompress) {
-                    ByteArrayOutputStream gzipBuffer = new ByteArrayOutputStream(binaryPayload.length);
-                    GZIPOutputStream gzipStream = new GZIPOutputStream(gzipBuffer);
-                    gzipStream.write(binaryPayload);
-                    gzipStream.close();
-                    binaryPayload = gzipBuffer.toByteArray();
+                    long compressionStartTime = System.nanoTime();
+                    ByteArrayOutputStream compressedBuffer = new ByteArrayOutputStream(binaryPayload.length);
+                    OutputStream compressedStream = compressionPolicy.getCodec().compress(compressedBuffer, WRITE_BUFFER_SIZE, compressionPolicy.getLevel());
+                    compressedStream.write(binaryPayload);
+                    compressedStream.close();
+                    int length = binaryPayload.length;
+                    binaryPayload = compressedBuffer.toByteArray();
+                    compressionPolicy.onCompressed(length, binaryPayload.length, System.nanoTime() - compressionStartTime);
                 }
 
                 /* Send payload on the wire. */
                 urlConnection.setDoOutput(true);
                 urlConnection.setFixedLengthStreamingMode(binaryPayload.length);
-                OutputStream out = urlConnection.getOutputStream();
+                OutputStream out = getOutputStream(urlConnection);
 
                 //noinspection TryFinallyCanBeTryWithResources
                 try {
@@ -269,7 +366,14 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
 
             /* Read response. */
             int status = urlConnection.getResponseCode();
-            String response = readResponse(urlConnection);
+            String response;
+            if (status >= 200 && status < 300 && mCallTemplate instanceof HttpClient.DiscardResponseCallTemplate && AppCenterLog.getLogLevel() > Log.VERBOSE) {
+                drainResponse(urlConnection);
+                response = "";
+            } else {
+                response = readResponse(urlConnection);
+            }
+            AppCenterLog.debug(LOG_TAG, "HTTP call to " + url.getHost() + " took " + (SystemClock.elapsedRealtime() - startTime) + " ms.");
             if (AppCenterLog.getLogLevel() <= Log.VERBOSE) {
                 String contentType = urlConnection.getHeaderField(CONTENT_TYPE_KEY);
                 String logPayload;
@@ -283,11 +387,14 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
 
             /* Accept all 2xx codes. */
             if (status >= 200 && status < 300) {
+                if (mCallTemplate instanceof HttpClient.ResponseHeadersCallTemplate) {
+                    ((HttpClient.ResponseHeadersCallTemplate) mCallTemplate).onResponseHeaders(getResponseHeaders(urlConnection));
+                }
                 return response;
             }
 
-            /* Generate exception on failure. */
-            throw new HttpException(status, response);
+            /* Generate exception on failure, with headers such as Retry-After. */
+            throw new HttpException(status, response, getResponseHeaders(urlConnection));
         } finally {
 
             /* Release connection. */
@@ -335,6 +442,51 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         }
     }
 
+    /**
+     * Count the bytes written to a stream and the time spent writing them.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long mCount;
+
+        private long mDuration;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long startTime = System.nanoTime();
+            out.write(b);
+            mDuration += System.nanoTime() - startTime;
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long startTime = System.nanoTime();
+            out.write(b, off, len);
+            mDuration += System.nanoTime() - startTime;
+            mCount += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long startTime = System.nanoTime();
+            super.close();
+            mDuration += System.nanoTime() - startTime;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getDuration() {
+            return mDuration;
+        }
+    }
+
     /**
      * The callback used for maintain ongoing call tasks.
      */
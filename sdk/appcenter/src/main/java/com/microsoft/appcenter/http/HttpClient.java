@@ -3,6 +3,8 @@ package com.microsoft.appcenter.http;
 import org.json.JSONException;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.Map;
 
@@ -45,6 +47,70 @@ public interface HttpClient extends Closeable {
         void onBeforeCalling(URL url, Map<String, String> headers);
     }
 
+    /**
+     * Call callbacks for request bodies that can be written directly to the connection, so that
+     * the body does not have to be held in memory. {@link #buildRequestBody()} is still used when
+     * the payload is logged.
+     */
+    interface StreamingCallTemplate extends CallTemplate {
+
+        /**
+         * Called when the method is POST to write the request body.
+         *
+         * @param outputStream stream to write the request body to.
+         * @throws JSONException callback can throw this to make the call fail if a JSON error occurs.
+         * @throws IOException   if writing to the stream fails.
+         */
+        void writeRequestBody(OutputStream outputStream) throws JSONException, IOException;
+
+        /**
+         * Called when the method is POST to estimate the request body size before writing it, so that
+         * the compression policy can check the body is large enough to compress.
+         * Measuring can stop once the size reaches the minimum length to compress.
+         *
+         * @return estimated size in bytes, negative if unknown.
+         * @throws JSONException callback can throw this to make the call fail if a JSON error occurs.
+         * @throws IOException   if measuring fails.
+         */
+        long getRequestBodySize() throws JSONException, IOException;
+    }
+
+    /**
+     * Call template for calls that do not use the body of a successful response. The body is
+     * drained without being kept and the call succeeds with an empty payload, unless verbose
+     * logging needs to print it.
+     */
+    interface DiscardResponseCallTemplate extends CallTemplate {
+    }
+
+    /**
+     * Call template for calls that choose how their request body is compressed. Bodies of other
+     * calls use the default {@link CompressionPolicy}.
+     */
+    interface CompressionCallTemplate extends CallTemplate {
+
+        /**
+         * Get the compression policy of the request body.
+         *
+         * @return compression policy.
+         */
+        CompressionPolicy getCompressionPolicy();
+    }
+
+    /**
+     * Call template for calls that read the headers of a successful response, such as an entity
+     * tag to send in the next conditional request.
+     */
+    interface ResponseHeadersCallTemplate extends CallTemplate {
+
+        /**
+         * Called in background when a successful response is received, before the service callback.
+         *
+         * @param headers response headers, names are kept as sent by the server.
+         */
+        void onResponseHeaders(Map<String, String> headers);
+    }
+
     /**
      * Make this client active again after closing.
      */
@@ -12,7 +12,10 @@ abstract class HttpClientCallDecorator implements Runnable, ServiceCall, Service
      */
     private final HttpClient mDecoratedApi;
 
-    private final String mUrl;
+    /**
+     * URL.
+     */
+    final String mUrl;
 
     private final String mMethod;
 
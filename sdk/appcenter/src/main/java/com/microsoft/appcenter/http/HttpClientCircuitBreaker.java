@@ -0,0 +1,244 @@
+package com.microsoft.appcenter.http;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Decorator pausing calls while the circuit of their host is open.
+ * It listens to circuit changes only while calls are waiting, so that the shared circuit
+ * breakers never keep an idle client.
+ */
+public class HttpClientCircuitBreaker extends HttpClientDecorator implements CircuitBreaker.Listener {
+
+    /**
+     * Android "timer" using the main thread loop.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Calls waiting for their circuit to close, in call order.
+     */
+    private final List<Call> mCalls = new LinkedList<>();
+
+    /**
+     * Calls made and not completed yet.
+     */
+    private final Set<Call> mRunningCalls = new HashSet<>();
+
+    /**
+     * Try sending a probe call for the waiting calls.
+     */
+    private final Runnable mProbeRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            runWaitingCalls();
+        }
+    };
+
+    /**
+     * Init.
+     *
+     * @param decoratedApi decorated API.
+     */
+    public HttpClientCircuitBreaker(HttpClient decoratedApi) {
+        this(decoratedApi, new Handler(Looper.getMainLooper()));
+    }
+
+    @VisibleForTesting
+    HttpClientCircuitBreaker(HttpClient decoratedApi, Handler handler) {
+        super(decoratedApi);
+        mHandler = handler;
+    }
+
+    @Override
+    public synchronized ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forUrl(url);
+        Call call = new Call(mDecoratedApi, url, method, headers, callTemplate, serviceCallback, circuitBreaker);
+        if (!call.acquire()) {
+
+            /* Listen before checking again, not to miss a state change in the meantime. */
+            CircuitBreaker.addListener(this);
+            if (!call.acquire()) {
+                mCalls.add(call);
+                AppCenterLog.debug(LOG_TAG, "Circuit of " + circuitBreaker.getHost() + " is open, call is waiting.");
+                scheduleProbe();
+                return call;
+            }
+            removeListenerIfIdle();
+        }
+        mRunningCalls.add(call);
+        call.run();
+        return call;
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<Call> probeCalls = new ArrayList<>();
+        synchronized (this) {
+            CircuitBreaker.removeListener(this);
+            mHandler.removeCallbacks(mProbeRunnable);
+            mCalls.clear();
+            for (Call call : mRunningCalls) {
+                if (call.mProbe) {
+                    probeCalls.add(call);
+                }
+            }
+            mRunningCalls.clear();
+        }
+        super.close();
+
+        /* Closing cancels running calls without any callback, let another call probe. */
+        for (Call call : probeCalls) {
+            call.mCircuitBreaker.onCallCancelled();
+        }
+    }
+
+    @Override
+    public void onCircuitStateChanged(@NonNull CircuitBreaker circuitBreaker, @NonNull CircuitBreaker.State state) {
+        if (state != CircuitBreaker.State.OPEN) {
+            runWaitingCalls();
+        } else {
+            scheduleProbe();
+        }
+    }
+
+    /**
+     * Schedule a probe call attempt when the first open circuit of waiting calls expires.
+     * Circuits already probing are resumed by their state change instead.
+     */
+    private synchronized void scheduleProbe() {
+        mHandler.removeCallbacks(mProbeRunnable);
+        long delay = 0;
+        for (Call call : mCalls) {
+            long remainingOpenTime = call.mCircuitBreaker.getRemainingOpenTime();
+            if (remainingOpenTime > 0 && (delay == 0 || remainingOpenTime < delay)) {
+                delay = remainingOpenTime;
+            }
+        }
+        if (delay > 0) {
+            mHandler.postDelayed(mProbeRunnable, delay);
+        }
+    }
+
+    /**
+     * Run the waiting calls whose circuit allows it.
+     */
+    private void runWaitingCalls() {
+        List<Call> calls = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Call> iterator = mCalls.iterator(); iterator.hasNext(); ) {
+                Call call = iterator.next();
+                if (call.acquire()) {
+                    iterator.remove();
+                    mRunningCalls.add(call);
+                    calls.add(call);
+                }
+            }
+            removeListenerIfIdle();
+        }
+        if (!calls.isEmpty()) {
+            AppCenterLog.debug(LOG_TAG, calls.size() + " waiting call(s) to submit now.");
+        }
+        for (Call call : calls) {
+            call.run();
+        }
+        scheduleProbe();
+    }
+
+    private void cancelCall(Call call) {
+        boolean probing;
+        synchronized (this) {
+            if (call.mServiceCall != null) {
+                call.mServiceCall.cancel();
+            }
+            probing = mRunningCalls.remove(call) && call.mProbe;
+            mCalls.remove(call);
+            removeListenerIfIdle();
+        }
+
+        /* A cancelled probe call will never complete, let another call probe. */
+        if (probing) {
+            call.mCircuitBreaker.onCallCancelled();
+        }
+    }
+
+    /**
+     * Stop listening to circuit changes when no call is waiting.
+     */
+    private synchronized void removeListenerIfIdle() {
+        if (mCalls.isEmpty()) {
+            CircuitBreaker.removeListener(this);
+        }
+    }
+
+    private synchronized void onCallCompleted(Call call) {
+        mRunningCalls.remove(call);
+    }
+
+    /**
+     * Call wrapper logic.
+     */
+    private class Call extends HttpClientCallDecorator {
+
+        /**
+         * Circuit breaker of the call host.
+         */
+        final CircuitBreaker mCircuitBreaker;
+
+        /**
+         * Whether this is the probe call of the half-open circuit.
+         */
+        boolean mProbe;
+
+        Call(HttpClient decoratedApi, String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback, CircuitBreaker circuitBreaker) {
+            super(decoratedApi, url, method, headers, callTemplate, serviceCallback);
+            mCircuitBreaker = circuitBreaker;
+        }
+
+        /**
+         * Check if the circuit allows this call now.
+         *
+         * @return true if the call can be made.
+         */
+        boolean acquire() {
+            CircuitBreaker.Permit permit = mCircuitBreaker.acquire();
+            mProbe = permit == CircuitBreaker.Permit.PROBE;
+            return permit != CircuitBreaker.Permit.DENIED;
+        }
+
+        @Override
+        public void cancel() {
+            cancelCall(this);
+        }
+
+        @Override
+        public void onCallSucceeded(String payload) {
+            onCallCompleted(this);
+            mCircuitBreaker.onCallSucceeded();
+            super.onCallSucceeded(payload);
+        }
+
+        @Override
+        public void onCallFailed(Exception e) {
+            onCallCompleted(this);
+            mCircuitBreaker.onCallFailed(e, mProbe);
+            super.onCallFailed(e);
+        }
+    }
+}
@@ -9,33 +9,21 @@ import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.net.UnknownHostException;
 import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Decorator managing retries.
  */
 public class HttpClientRetryer extends HttpClientDecorator {
 
-    /**
-     * Retry intervals to use, array index is to use the value for each retry. When we used all the array values, we give up and forward the last error.
-     */
-    @VisibleForTesting
-    static final long[] RETRY_INTERVALS = new long[]{
-            TimeUnit.SECONDS.toMillis(10),
-            TimeUnit.MINUTES.toMillis(5),
-            TimeUnit.MINUTES.toMillis(20)
-    };
-
     /**
      * Android "timer" using the main thread loop.
      */
     private final Handler mHandler;
 
     /**
-     * Random object for interval randomness.
+     * Retry policy.
      */
-    private final Random mRandom = new Random();
+    private final RetryPolicy mRetryPolicy;
 
     /**
      * Init with default retry policy.
@@ -43,28 +31,45 @@ public class HttpClientRetryer extends HttpClientDecorator {
      * @param decoratedApi API to decorate.
      */
     public HttpClientRetryer(HttpClient decoratedApi) {
-        this(decoratedApi, new Handler(Looper.getMainLooper()));
+        this(decoratedApi, RetryPolicy.getDefault());
+    }
+
+    /**
+     * Init.
+     *
+     * @param decoratedApi API to decorate.
+     * @param retryPolicy  retry policy.
+     */
+    public HttpClientRetryer(HttpClient decoratedApi, RetryPolicy retryPolicy) {
+        this(decoratedApi, retryPolicy, new Handler(Looper.getMainLooper()));
     }
 
     /**
      * Init.
      *
      * @param decoratedApi API to decorate.
+     * @param retryPolicy  retry policy.
      * @param handler      handler for timed retries.
      */
     @VisibleForTesting
-    HttpClientRetryer(HttpClient decoratedApi, Handler handler) {
+    HttpClientRetryer(HttpClient decoratedApi, RetryPolicy retryPolicy, Handler handler) {
         super(decoratedApi);
+        mRetryPolicy = retryPolicy;
         mHandler = handler;
     }
 
-
     @Override
     public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
 
-        /* Wrap the call with the retry logic and call delegate. */
+        /* Wrap the call with the retry logic and call delegate, unless previous calls asked to wait. */
         RetryableCall retryableCall = new RetryableCall(mDecoratedApi, url, method, headers, callTemplate, serviceCallback);
-        retryableCall.run();
+        long delay = mRetryPolicy.getDelayBeforeCall(url);
+        if (delay > 0) {
+            AppCenterLog.debug(AppCenter.LOG_TAG, "Previous calls to this host failed, call will be attempted in " + delay + " ms");
+            mHandler.postDelayed(retryableCall, delay);
+        } else {
+            retryableCall.run();
+        }
         return retryableCall;
     }
 
@@ -85,14 +90,24 @@ public class HttpClientRetryer extends HttpClientDecorator {
         @Override
         public synchronized void cancel() {
             mHandler.removeCallbacks(this);
-            super.cancel();
+
+            /* Nothing else to cancel if the first attempt was delayed. */
+            if (mServiceCall != null) {
+                super.cancel();
+            }
+        }
+
+        @Override
+        public void onCallSucceeded(String payload) {
+            mRetryPolicy.onCallSucceeded(mUrl);
+            super.onCallSucceeded(payload);
         }
 
         @Override
         public void onCallFailed(Exception e) {
-            if (mRetryCount < RETRY_INTERVALS.length && HttpUtils.isRecoverableError(e)) {
-                long delay = RETRY_INTERVALS[mRetryCount++] / 2;
-                delay += mRandom.nextInt((int) delay);
+            long delay = mRetryPolicy.onCallFailed(mUrl, mRetryCount, e);
+            if (delay >= 0) {
+                mRetryCount++;
                 String message = "Try #" + mRetryCount + " failed and will be retried in " + delay + " ms";
                 if (e instanceof UnknownHostException) {
                     message += " (UnknownHostException)";
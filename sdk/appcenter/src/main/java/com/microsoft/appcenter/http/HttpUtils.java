@@ -9,7 +9,9 @@ import com.microsoft.appcenter.utils.NetworkStateHelper;
 import java.io.EOFException;
 import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.SocketException;
+import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.Locale;
@@ -55,6 +57,11 @@ public class HttpUtils {
      */
     private static final Pattern API_KEY_PATTERN = Pattern.compile("-[^,]+(,|$)");
 
+    /**
+     * HTTP client provided by the application, if any.
+     */
+    private static HttpClient sHttpClient;
+
     @VisibleForTesting
     HttpUtils() {
     }
@@ -144,6 +151,20 @@ public class HttpUtils {
         return buffer.toString();
     }
 
+    /**
+     * Get the host of an URL, which keys state shared by all calls to that host.
+     *
+     * @param url URL.
+     * @return host, or the URL as is if it cannot be parsed.
+     */
+    public static String getHost(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
     /**
      * Hide token values in Tickets header string, expecting One Collector format.
      *
@@ -154,10 +175,29 @@ public class HttpUtils {
         return TOKEN_VALUE_PATTERN.matcher(tickets).replaceAll(":***");
     }
 
+    /**
+     * Set the HTTP client that all clients created by {@link #createHttpClient(Context)} use to make
+     * calls instead of their own {@link DefaultHttpClient}.
+     *
+     * @param httpClient HTTP client shared with the application, null to use the default client.
+     */
+    public static synchronized void setHttpClient(HttpClient httpClient) {
+        sHttpClient = httpClient;
+    }
+
+    static synchronized HttpClient getHttpClient() {
+        return sHttpClient;
+    }
+
     public static HttpClient createHttpClient(@NonNull Context context) {
-        HttpClient httpClient = new DefaultHttpClient();
+        HttpClient httpClient;
+        synchronized (HttpUtils.class) {
+            httpClient = sHttpClient != null ? new SharedHttpClient(sHttpClient) : new DefaultHttpClient();
+        }
         NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
+        BandwidthLimiter.getSharedInstance().setNetworkStateHelper(networkStateHelper);
         httpClient = new HttpClientNetworkStateHandler(httpClient, networkStateHelper);
+        httpClient = new HttpClientCircuitBreaker(httpClient);
 
         /* Retryer should be applied last to avoid retries in offline. */
         return new HttpClientRetryer(httpClient);
@@ -0,0 +1,129 @@
+package com.microsoft.appcenter.http;
+
+import android.net.TrafficStats;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Resolve host names and optionally open a connection ahead of the first call, so that the first
+ * batch does not pay for DNS lookup, TCP connect and TLS handshake.
+ */
+public class NetworkWarmUp {
+
+    /**
+     * HTTP method used to open a connection, the response has no body so the connection can be
+     * kept alive right away.
+     */
+    private static final String METHOD_HEAD = "HEAD";
+
+    @VisibleForTesting
+    NetworkWarmUp() {
+    }
+
+    /**
+     * Warm up the network for URLs in background.
+     *
+     * @param urls           URLs that will be called.
+     * @param openConnection true to also open an idle connection to each host.
+     */
+    public static void warmUp(@NonNull Collection<String> urls, final boolean openConnection) {
+        final Collection<String> urlsCopy = new ArrayList<>(urls);
+        try {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    TrafficStats.setThreadStatsTag(DefaultHttpClientCallTask.THREAD_STATS_TAG);
+                    try {
+                        for (String url : urlsCopy) {
+                            warmUp(url, openConnection);
+                        }
+                    } finally {
+                        TrafficStats.clearThreadStatsTag();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            AppCenterLog.warn(LOG_TAG, "Network warm-up skipped as the executor is saturated.");
+        }
+    }
+
+    /**
+     * Warm up the network for a URL on the current thread.
+     *
+     * @param urlString      URL that will be called.
+     * @param openConnection true to also open an idle connection.
+     */
+    @VisibleForTesting
+    static void warmUp(@NonNull String urlString, boolean openConnection) {
+        URL url;
+        try {
+            url = new URL(urlString);
+        } catch (MalformedURLException e) {
+            AppCenterLog.warn(LOG_TAG, "Network warm-up skipped for invalid URL " + urlString);
+            return;
+        }
+        String host = url.getHost();
+
+        /* The system resolver caches the addresses for the following calls. */
+        long startTime = SystemClock.elapsedRealtime();
+        try {
+            InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            AppCenterLog.warn(LOG_TAG, "Network warm-up failed to resolve " + host);
+            return;
+        }
+        StringBuilder message = new StringBuilder("Network warm-up of ").append(host)
+                .append(": DNS resolution ").append(SystemClock.elapsedRealtime() - startTime).append(" ms");
+
+        /*
+         * Calls use a new TLS 1.2 socket factory on old Android versions and an HTTP client of
+         * the application uses its own pool: a connection opened here would never be reused.
+         */
+        if (openConnection && Build.VERSION.SDK_INT > Build.VERSION_CODES.LOLLIPOP && HttpUtils.getHttpClient() == null) {
+            startTime = SystemClock.elapsedRealtime();
+            try {
+                openIdleConnection(url);
+                message.append(", connection ").append(SystemClock.elapsedRealtime() - startTime).append(" ms");
+            } catch (IOException e) {
+                AppCenterLog.warn(LOG_TAG, "Network warm-up failed to open a connection to " + host, e);
+            }
+        }
+        AppCenterLog.info(LOG_TAG, message.append('.').toString());
+    }
+
+    /**
+     * Make a request to the root of the host and read the response without disconnecting, so that
+     * the connection stays in the system connection pool.
+     */
+    private static void openIdleConnection(URL url) throws IOException {
+        URL rootUrl = new URL(url.getProtocol(), url.getHost(), url.getPort(), "/");
+        HttpURLConnection urlConnection = (HttpURLConnection) rootUrl.openConnection();
+        urlConnection.setConnectTimeout(DefaultHttpClientCallTask.CONNECT_TIMEOUT);
+        urlConnection.setReadTimeout(DefaultHttpClientCallTask.READ_TIMEOUT);
+        urlConnection.setRequestMethod(METHOD_HEAD);
+        int status = urlConnection.getResponseCode();
+        InputStream stream = status < 400 ? urlConnection.getInputStream() : urlConnection.getErrorStream();
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+
+import com.microsoft.appcenter.utils.HandlerUtils;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.CHARSET_NAME;
+import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_KEY;
+import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_VALUE;
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+
+/**
+ * HTTP client adapter over an OkHttp client configured by the application, to pass to
+ * {@link com.microsoft.appcenter.AppCenter#setHttpClient(HttpClient)}.
+ * <p>
+ * OkHttp is an optional dependency of the SDK: the application must depend on OkHttp 3 to use
+ * this class. Request bodies are not compressed by the adapter, an interceptor of the OkHttp
+ * client can do it.
+ */
+public class OkHttpClientAdapter implements HttpClient {
+
+    /**
+     * OkHttp client of the application.
+     */
+    private final OkHttpClient mClient;
+
+    /**
+     * Init.
+     *
+     * @param client OkHttp client of the application.
+     */
+    public OkHttpClientAdapter(@NonNull OkHttpClient client) {
+        mClient = client;
+    }
+
+    /**
+     * Get the first value of each response header.
+     */
+    private static Map<String, String> getResponseHeaders(Headers headers) {
+        Map<String, String> responseHeaders = new HashMap<>();
+        for (String name : headers.names()) {
+            List<String> values = headers.values(name);
+            if (!values.isEmpty()) {
+                responseHeaders.put(name, values.get(0));
+            }
+        }
+        return responseHeaders;
+    }
+
+    /**
+     * Create the request body of a POST call.
+     */
+    private static RequestBody createRequestBody(final CallTemplate callTemplate, Map<String, String> headers) throws JSONException, IOException {
+        String contentType = headers.get(CONTENT_TYPE_KEY);
+        final MediaType mediaType = MediaType.parse(contentType != null ? contentType : CONTENT_TYPE_VALUE);
+        if (callTemplate == null) {
+            return RequestBody.create(mediaType, new byte[0]);
+        }
+        if (callTemplate instanceof StreamingCallTemplate) {
+            return new RequestBody() {
+
+                @Override
+                public MediaType contentType() {
+                    return mediaType;
+                }
+
+                @Override
+                public void writeTo(@NonNull BufferedSink sink) throws IOException {
+                    try {
+                        ((StreamingCallTemplate) callTemplate).writeRequestBody(sink.outputStream());
+                    } catch (JSONException e) {
+                        throw new IOException(e);
+                    }
+                }
+            };
+        }
+        return RequestBody.create(mediaType, callTemplate.buildRequestBody().getBytes(CHARSET_NAME));
+    }
+
+    @Override
+    public ServiceCall callAsync(String url, String method, Map<String, String> headers, final CallTemplate callTemplate, final ServiceCallback serviceCallback) {
+        final Call call;
+        try {
+            Request.Builder builder = new Request.Builder().url(url);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                builder.header(header.getKey(), header.getValue());
+            }
+            builder.method(method, METHOD_POST.equals(method) ? createRequestBody(callTemplate, headers) : null);
+            if (callTemplate != null) {
+                callTemplate.onBeforeCalling(new URL(url), headers);
+            }
+            call = mClient.newCall(builder.build());
+        } catch (final JSONException | IOException | RuntimeException e) {
+
+            /* Return the method before calling the listener, as the default client does. */
+            HandlerUtils.runOnUiThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    serviceCallback.onCallFailed(e);
+                }
+            });
+            return new ServiceCall() {
+
+                @Override
+                public void cancel() {
+                }
+            };
+        }
+        call.enqueue(new Callback() {
+
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull final IOException e) {
+                if (call.isCanceled()) {
+                    return;
+                }
+                HandlerUtils.runOnUiThread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        serviceCallback.onCallFailed(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                final Exception exception;
+                final String payload;
+                ResponseBody body = response.body();
+                try {
+                    String responseBody = body != null ? body.string() : "";
+                    Map<String, String> responseHeaders = getResponseHeaders(response.headers());
+                    int status = response.code();
+                    if (status >= 200 && status < 400) {
+                        if (callTemplate instanceof ResponseHeadersCallTemplate) {
+                            ((ResponseHeadersCallTemplate) callTemplate).onResponseHeaders(responseHeaders);
+                        }
+                        payload = callTemplate instanceof DiscardResponseCallTemplate ? "" : responseBody;
+                        exception = null;
+                    } else {
+                        payload = null;
+                        exception = new HttpException(status, responseBody, responseHeaders);
+                    }
+                } catch (IOException e) {
+                    onFailure(call, e);
+                    return;
+                } finally {
+                    response.close();
+                }
+                if (call.isCanceled()) {
+                    return;
+                }
+                HandlerUtils.runOnUiThread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (exception == null) {
+                            serviceCallback.onCallSucceeded(payload);
+                        } else {
+                            serviceCallback.onCallFailed(exception);
+                        }
+                    }
+                });
+            }
+        });
+        return new ServiceCall() {
+
+            @Override
+            public void cancel() {
+                call.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+
+        /* The OkHttp client belongs to the application, calls are cancelled by SharedHttpClient. */
+    }
+
+    @Override
+    public void reopen() {
+
+        /* Nothing to do, never closed. */
+    }
+}
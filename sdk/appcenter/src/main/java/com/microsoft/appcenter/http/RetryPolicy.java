@@ -0,0 +1,318 @@
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Retry policy shared by HTTP calls.
+ * <p>
+ * Delays grow exponentially with the number of consecutive failures of calls to the same host,
+ * with full jitter so that devices do not retry at the same time. A server Retry-After header is
+ * used as the minimum delay. Retries consume a budget shared by all hosts that successful calls
+ * refill, so that a failing endpoint does not receive retries from every call in flight.
+ */
+public class RetryPolicy {
+
+    /**
+     * Default delay before the first retry.
+     */
+    @VisibleForTesting
+    static final long DEFAULT_INITIAL_DELAY = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Default maximum delay, also the maximum accepted Retry-After value.
+     */
+    @VisibleForTesting
+    static final long DEFAULT_MAX_DELAY = TimeUnit.MINUTES.toMillis(20);
+
+    /**
+     * Default growth factor of the delay for each consecutive failure.
+     */
+    @VisibleForTesting
+    static final double DEFAULT_MULTIPLIER = 6;
+
+    /**
+     * Default maximum number of retries of a call.
+     */
+    @VisibleForTesting
+    static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * Default number of retries that can be spent before successful calls refill the budget.
+     */
+    @VisibleForTesting
+    static final int DEFAULT_RETRY_BUDGET = 10;
+
+    /**
+     * Number of successful calls that give back one retry to the budget.
+     */
+    @VisibleForTesting
+    static final int SUCCESSES_PER_RETRY = 10;
+
+    /**
+     * Storage key prefix of the default policy.
+     */
+    private static final String DEFAULT_STORAGE_KEY_PREFIX = "httpRetry";
+
+    /**
+     * Storage key suffix for the number of consecutive failures, followed by the host.
+     */
+    private static final String FAILURE_COUNT_KEY = "FailureCount";
+
+    /**
+     * Storage key suffix for the time before which calls must not be attempted, followed by the host.
+     */
+    private static final String NEXT_ATTEMPT_TIME_KEY = "NextAttemptTime";
+
+    /**
+     * Retry-After header name.
+     */
+    private static final String RETRY_AFTER_KEY = "Retry-After";
+
+    /**
+     * Retry-After date format (RFC 7231).
+     */
+    private static final String RETRY_AFTER_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /**
+     * Default policy shared by HTTP clients.
+     */
+    private static RetryPolicy sDefault;
+
+    /**
+     * Delay before the first retry.
+     */
+    private final long mInitialDelay;
+
+    /**
+     * Maximum delay.
+     */
+    private final long mMaxDelay;
+
+    /**
+     * Growth factor of the delay.
+     */
+    private final double mMultiplier;
+
+    /**
+     * Maximum number of retries of a call.
+     */
+    private final int mMaxRetries;
+
+    /**
+     * Maximum budget, in successful calls.
+     */
+    private final int mMaxBudget;
+
+    /**
+     * Storage key prefix, null if state is not persisted.
+     */
+    private final String mStorageKeyPrefix;
+
+    /**
+     * Random object for jitter.
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Budget that can currently be spent, in successful calls.
+     */
+    private int mBudget;
+
+    /**
+     * Backoff state by host.
+     */
+    private final Map<String, Backoff> mBackoffs = new HashMap<>();
+
+    /**
+     * Init a policy whose state is kept in memory only.
+     *
+     * @param initialDelay delay before the first retry, in milliseconds.
+     * @param maxDelay     maximum delay, in milliseconds, also the maximum accepted Retry-After value.
+     * @param multiplier   growth factor of the delay for each consecutive failure.
+     * @param maxRetries   maximum number of retries of a call.
+     * @param retryBudget  number of retries that can be spent before successful calls refill the budget.
+     */
+    public RetryPolicy(long initialDelay, long maxDelay, double multiplier, int maxRetries, int retryBudget) {
+        this(initialDelay, maxDelay, multiplier, maxRetries, retryBudget, null);
+    }
+
+    @VisibleForTesting
+    RetryPolicy(long initialDelay, long maxDelay, double multiplier, int maxRetries, int retryBudget, String storageKeyPrefix) {
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        mMultiplier = multiplier;
+        mMaxRetries = maxRetries;
+        mMaxBudget = retryBudget * SUCCESSES_PER_RETRY;
+        mBudget = mMaxBudget;
+        mStorageKeyPrefix = storageKeyPrefix;
+    }
+
+    /**
+     * Get the default policy, persisted in storage.
+     *
+     * @return default policy.
+     */
+    public static synchronized RetryPolicy getDefault() {
+        if (sDefault == null) {
+            sDefault = new RetryPolicy(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MULTIPLIER, DEFAULT_MAX_RETRIES, DEFAULT_RETRY_BUDGET, DEFAULT_STORAGE_KEY_PREFIX);
+        }
+        return sDefault;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetDefault() {
+        sDefault = null;
+    }
+
+    /**
+     * Parse the Retry-After header of an HTTP error.
+     *
+     * @param e HTTP error.
+     * @return delay requested by the server in milliseconds, or 0 if not specified or invalid.
+     */
+    @VisibleForTesting
+    static long getRetryAfter(@NonNull HttpException e) {
+        String retryAfter = e.getHeader(RETRY_AFTER_KEY);
+        if (retryAfter == null) {
+            return 0;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter)));
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            Date date = new SimpleDateFormat(RETRY_AFTER_DATE_FORMAT, Locale.US).parse(retryAfter);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException ex) {
+            AppCenterLog.warn(LOG_TAG, "Ignore invalid Retry-After header: " + retryAfter);
+            return 0;
+        }
+    }
+
+    /**
+     * Get the backoff state of a host, restored from storage the first time
+     * so that a restart does not retry right away.
+     */
+    @NonNull
+    private Backoff getBackoff(String host) {
+        Backoff backoff = mBackoffs.get(host);
+        if (backoff == null) {
+            backoff = new Backoff();
+            if (mStorageKeyPrefix != null) {
+                backoff.mFailureCount = SharedPreferencesManager.getInt(getStorageKey(FAILURE_COUNT_KEY, host), 0);
+                backoff.mNextAttemptTime = SharedPreferencesManager.getLong(getStorageKey(NEXT_ATTEMPT_TIME_KEY, host), 0);
+            }
+            mBackoffs.put(host, backoff);
+        }
+        return backoff;
+    }
+
+    private String getStorageKey(String suffix, String host) {
+        return mStorageKeyPrefix + suffix + "." + host;
+    }
+
+    /**
+     * Get the delay to wait before attempting a new call, when previous calls to the same host
+     * failed recently, including in a previous process.
+     *
+     * @param url call URL.
+     * @return delay in milliseconds, 0 to call now.
+     */
+    public synchronized long getDelayBeforeCall(String url) {
+        long delay = getBackoff(HttpUtils.getHost(url)).mNextAttemptTime - System.currentTimeMillis();
+
+        /* Bound the delay in case the clock changed. */
+        return Math.max(0, Math.min(delay, mMaxDelay));
+    }
+
+    /**
+     * Notify a call succeeded, which resets the backoff of its host and refills the budget.
+     *
+     * @param url call URL.
+     */
+    public synchronized void onCallSucceeded(String url) {
+        mBudget = Math.min(mMaxBudget, mBudget + 1);
+        String host = HttpUtils.getHost(url);
+        Backoff backoff = getBackoff(host);
+        if (backoff.mFailureCount > 0 || backoff.mNextAttemptTime > 0) {
+            backoff.mFailureCount = 0;
+            backoff.mNextAttemptTime = 0;
+            if (mStorageKeyPrefix != null) {
+                SharedPreferencesManager.remove(getStorageKey(FAILURE_COUNT_KEY, host));
+                SharedPreferencesManager.remove(getStorageKey(NEXT_ATTEMPT_TIME_KEY, host));
+            }
+        }
+    }
+
+    /**
+     * Notify a call failed and get when to retry it.
+     *
+     * @param url        call URL.
+     * @param retryCount number of retries already done for this call.
+     * @param e          call error.
+     * @return delay before retrying in milliseconds, or -1 if the call must not be retried.
+     */
+    public synchronized long onCallFailed(String url, int retryCount, Exception e) {
+        if (!HttpUtils.isRecoverableError(e)) {
+            return -1;
+        }
+
+        /* Full jitter: random delay up to the exponential backoff of consecutive failures of the host. */
+        String host = HttpUtils.getHost(url);
+        Backoff backoff = getBackoff(host);
+        double maxDelay = mInitialDelay * Math.pow(mMultiplier, backoff.mFailureCount);
+        long delay = (long) (mRandom.nextDouble() * Math.min(mMaxDelay, maxDelay));
+        if (e instanceof HttpException) {
+            delay = Math.max(delay, Math.min(mMaxDelay, getRetryAfter((HttpException) e)));
+        }
+        backoff.mFailureCount++;
+        backoff.mNextAttemptTime = System.currentTimeMillis() + delay;
+        if (mStorageKeyPrefix != null) {
+            SharedPreferencesManager.putInt(getStorageKey(FAILURE_COUNT_KEY, host), backoff.mFailureCount);
+            SharedPreferencesManager.putLong(getStorageKey(NEXT_ATTEMPT_TIME_KEY, host), backoff.mNextAttemptTime);
+        }
+
+        /* Check this call can still be retried. */
+        if (retryCount >= mMaxRetries) {
+            return -1;
+        }
+        if (mBudget < SUCCESSES_PER_RETRY) {
+            AppCenterLog.debug(LOG_TAG, "Retry budget exhausted, not retrying call.");
+            return -1;
+        }
+        mBudget -= SUCCESSES_PER_RETRY;
+        return delay;
+    }
+
+    /**
+     * Backoff state of a host.
+     */
+    private static class Backoff {
+
+        /**
+         * Number of consecutive failures of calls to the host.
+         */
+        int mFailureCount;
+
+        /**
+         * Time before which calls to the host must not be attempted.
+         */
+        long mNextAttemptTime;
+    }
+}
@@ -0,0 +1,107 @@
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Decorator for an HTTP client provided by the application and shared by all SDK components.
+ * Closing only cancels the calls made through this decorator, the shared client is never closed.
+ */
+public class SharedHttpClient extends HttpClientDecorator {
+
+    /**
+     * Calls in progress.
+     */
+    private final Set<Call> mCalls = new HashSet<>();
+
+    /**
+     * Init.
+     *
+     * @param decoratedApi client shared with the application.
+     */
+    public SharedHttpClient(HttpClient decoratedApi) {
+        super(decoratedApi);
+    }
+
+    @VisibleForTesting
+    synchronized Set<Call> getCalls() {
+        return mCalls;
+    }
+
+    @Override
+    public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
+        Call call = new Call(mDecoratedApi, url, method, headers, callTemplate, serviceCallback);
+        synchronized (this) {
+            mCalls.add(call);
+        }
+        call.run();
+        return call;
+    }
+
+    @Override
+    public void close() {
+        List<Call> calls;
+        synchronized (this) {
+            calls = new ArrayList<>(mCalls);
+            mCalls.clear();
+        }
+        if (calls.size() > 0) {
+            AppCenterLog.debug(LOG_TAG, "Cancelling " + calls.size() + " network call(s) on shared client.");
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void reopen() {
+
+        /* Nothing to do, the shared client is never closed. */
+    }
+
+    private synchronized boolean remove(Call call) {
+        return mCalls.remove(call);
+    }
+
+    /**
+     * Call wrapper logic.
+     */
+    @VisibleForTesting
+    class Call extends HttpClientCallDecorator {
+
+        Call(HttpClient decoratedApi, String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
+            super(decoratedApi, url, method, headers, callTemplate, serviceCallback);
+        }
+
+        @Override
+        public void cancel() {
+            remove(this);
+            super.cancel();
+        }
+
+        @Override
+        public void onCallSucceeded(String payload) {
+
+            /* Ignore completion of a call cancelled by closing. */
+            if (remove(this)) {
+                super.onCallSucceeded(payload);
+            }
+        }
+
+        @Override
+        public void onCallFailed(Exception e) {
+            if (remove(this)) {
+                super.onCallFailed(e);
+            }
+        }
+    }
+}
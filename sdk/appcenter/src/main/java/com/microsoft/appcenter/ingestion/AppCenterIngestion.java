@@ -4,6 +4,8 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
+import com.microsoft.appcenter.http.CircuitBreaker;
+import com.microsoft.appcenter.http.CompressionPolicy;
 import com.microsoft.appcenter.http.DefaultHttpClient;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpClientNetworkStateHandler;
@@ -11,6 +13,7 @@ import com.microsoft.appcenter.http.HttpClientRetryer;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.utils.AppCenterLog;
@@ -19,6 +22,7 @@ import com.microsoft.appcenter.utils.NetworkStateHelper;
 import org.json.JSONException;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
@@ -55,6 +59,12 @@ public class AppCenterIngestion implements Ingestion {
     @VisibleForTesting
     static final String APP_SECRET = "App-Secret";
 
+    /**
+     * Size of the log container without logs: {"logs":[]}.
+     */
+    @VisibleForTesting
+    static final int CONTAINER_SIZE = 11;
+
     /**
      * Log serializer.
      */
@@ -70,6 +80,11 @@ public class AppCenterIngestion implements Ingestion {
      */
     private String mLogUrl;
 
+    /**
+     * Compression policy of request bodies.
+     */
+    private CompressionPolicy mCompressionPolicy;
+
     /**
      * Init.
      *
@@ -80,6 +95,7 @@ public class AppCenterIngestion implements Ingestion {
         mLogSerializer = logSerializer;
         mHttpClient = createHttpClient(context);
         mLogUrl = DEFAULT_LOG_URL;
+        mCompressionPolicy = new CompressionPolicy();
     }
 
     /**
@@ -93,12 +109,22 @@ public class AppCenterIngestion implements Ingestion {
         mLogUrl = logUrl;
     }
 
+    @Override
+    public void setCompressionPolicy(@NonNull CompressionPolicy compressionPolicy) {
+        mCompressionPolicy = compressionPolicy;
+    }
+
+    @Override
+    public long getCircuitRemainingOpenTime() {
+        return CircuitBreaker.forUrl(mLogUrl).getRemainingOpenTime();
+    }
+
     @Override
     public ServiceCall sendAsync(String appSecret, UUID installId, LogContainer logContainer, final ServiceCallback serviceCallback) throws IllegalArgumentException {
         Map<String, String> headers = new HashMap<>();
         headers.put(INSTALL_ID, installId.toString());
         headers.put(APP_SECRET, appSecret);
-        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer);
+        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer, mCompressionPolicy);
         return mHttpClient.callAsync(mLogUrl + API_PATH, METHOD_POST, headers, callTemplate, serviceCallback);
     }
 
@@ -115,15 +141,23 @@ public class AppCenterIngestion implements Ingestion {
     /**
      * Inner class is used to be able to mock System.currentTimeMillis, does not work if using anonymous inner class...
      */
-    private static class IngestionCallTemplate implements HttpClient.CallTemplate {
+    private static class IngestionCallTemplate implements HttpClient.StreamingCallTemplate, HttpClient.DiscardResponseCallTemplate, HttpClient.CompressionCallTemplate {
 
         private final LogSerializer mLogSerializer;
 
         private final LogContainer mLogContainer;
 
-        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer) {
+        private final CompressionPolicy mCompressionPolicy;
+
+        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer, CompressionPolicy compressionPolicy) {
             mLogSerializer = logSerializer;
             mLogContainer = logContainer;
+            mCompressionPolicy = compressionPolicy;
+        }
+
+        @Override
+        public CompressionPolicy getCompressionPolicy() {
+            return mCompressionPolicy;
         }
 
         @Override
@@ -133,6 +167,25 @@ public class AppCenterIngestion implements Ingestion {
             return mLogSerializer.serializeContainer(mLogContainer);
         }
 
+        @Override
+        public void writeRequestBody(OutputStream outputStream) throws JSONException, IOException {
+            mLogSerializer.serializeContainer(outputStream, mLogContainer);
+        }
+
+        @Override
+        public long getRequestBodySize() throws JSONException, IOException {
+
+            /* Container then logs separated by commas, stop once large enough to compress. */
+            long size = CONTAINER_SIZE;
+            for (Log log : mLogContainer.getLogs()) {
+                if (size >= mCompressionPolicy.getMinLength()) {
+                    break;
+                }
+                size += mLogSerializer.getRequestSize(log) + 1;
+            }
+            return size;
+        }
+
         @Override
         public void onBeforeCalling(URL url, Map<String, String> headers) {
             if (AppCenterLog.getLogLevel() <= VERBOSE) {
@@ -1,5 +1,6 @@
 package com.microsoft.appcenter.ingestion;
 
+import com.microsoft.appcenter.http.CompressionPolicy;
 import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
@@ -31,6 +32,20 @@ public interface Ingestion extends Closeable {
      */
     void setLogUrl(String logUrl);
 
+    /**
+     * Update the compression policy of request bodies.
+     *
+     * @param compressionPolicy compression policy.
+     */
+    void setCompressionPolicy(CompressionPolicy compressionPolicy);
+
+    /**
+     * Get the time remaining before the log URL host can be called again, while its circuit is open.
+     *
+     * @return time in milliseconds, 0 if logs can be sent now.
+     */
+    long getCircuitRemainingOpenTime();
+
     /**
      * Make ingestion active again after closing.
      */
@@ -5,6 +5,8 @@ import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.http.CircuitBreaker;
+import com.microsoft.appcenter.http.CompressionPolicy;
 import com.microsoft.appcenter.http.DefaultHttpClient;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpClientNetworkStateHandler;
@@ -43,7 +45,7 @@ public class OneCollectorIngestion implements Ingestion {
     /**
      * Default log URL.
      */
-    private static final String DEFAULT_LOG_URL = "https://mobile.events.data.microsoft.com/OneCollector/1.0";
+    public static final String DEFAULT_LOG_URL = "https://mobile.events.data.microsoft.com/OneCollector/1.0";
 
     /**
      * Content type header.
@@ -100,6 +102,11 @@ public class OneCollectorIngestion implements Ingestion {
      */
     private String mLogUrl;
 
+    /**
+     * Compression policy of request bodies.
+     */
+    private CompressionPolicy mCompressionPolicy;
+
     /**
      * Init.
      *
@@ -110,6 +117,7 @@ public class OneCollectorIngestion implements Ingestion {
         mLogSerializer = logSerializer;
         mHttpClient = createHttpClient(context);
         mLogUrl = DEFAULT_LOG_URL;
+        mCompressionPolicy = new CompressionPolicy();
     }
 
     @Override
@@ -172,7 +180,7 @@ public class OneCollectorIngestion implements Ingestion {
         headers.put(UPLOAD_TIME_KEY, String.valueOf(System.currentTimeMillis()));
 
         /* Make the call. */
-        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer);
+        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer, mCompressionPolicy);
         return mHttpClient.callAsync(mLogUrl, METHOD_POST, headers, callTemplate, serviceCallback);
     }
 
@@ -187,6 +195,16 @@ public class OneCollectorIngestion implements Ingestion {
         mLogUrl = logUrl;
     }
 
+    @Override
+    public void setCompressionPolicy(@NonNull CompressionPolicy compressionPolicy) {
+        mCompressionPolicy = compressionPolicy;
+    }
+
+    @Override
+    public long getCircuitRemainingOpenTime() {
+        return CircuitBreaker.forUrl(mLogUrl).getRemainingOpenTime();
+    }
+
     @Override
     public void reopen() {
         mHttpClient.reopen();
@@ -200,7 +218,7 @@ public class OneCollectorIngestion implements Ingestion {
     /**
      * Call template implementation for One Collector.
      */
-    private static class IngestionCallTemplate implements HttpClient.CallTemplate {
+    private static class IngestionCallTemplate implements HttpClient.DiscardResponseCallTemplate, HttpClient.CompressionCallTemplate {
 
         /**
          * Log serializer.
@@ -212,12 +230,23 @@ public class OneCollectorIngestion implements Ingestion {
          */
         private final LogContainer mLogContainer;
 
+        /**
+         * Compression policy.
+         */
+        private final CompressionPolicy mCompressionPolicy;
+
         /**
          * Init.
          */
-        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer) {
+        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer, CompressionPolicy compressionPolicy) {
             mLogSerializer = logSerializer;
             mLogContainer = logContainer;
+            mCompressionPolicy = compressionPolicy;
+        }
+
+        @Override
+        public CompressionPolicy getCompressionPolicy() {
+            return mCompressionPolicy;
         }
 
         @Override
@@ -2,11 +2,11 @@ package com.microsoft.appcenter.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.Date;
 import java.util.HashMap;
@@ -80,7 +80,7 @@ public class CustomPropertiesLog extends AbstractLog {
         return value;
     }
 
-    private static void writeProperties(JSONStringer writer, Map<String, Object> properties) throws JSONException {
+    private static void writeProperties(JSONWriter writer, Map<String, Object> properties) throws JSONException {
         if (properties != null) {
             writer.key(PROPERTIES).array();
             for (Map.Entry<String, Object> property : properties.entrySet()) {
@@ -95,7 +95,7 @@ public class CustomPropertiesLog extends AbstractLog {
         }
     }
 
-    private static void writePropertyValue(JSONStringer writer, Object value) throws JSONException {
+    private static void writePropertyValue(JSONWriter writer, Object value) throws JSONException {
         if (value == null) {
             JSONUtils.write(writer, PROPERTY_TYPE, PROPERTY_TYPE_CLEAR);
         } else if (value instanceof Boolean) {
@@ -145,7 +145,7 @@ public class CustomPropertiesLog extends AbstractLog {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         writeProperties(writer, getProperties());
     }
@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 /**
  * Device characteristic log.
@@ -437,7 +437,7 @@ public class Device extends WrapperSdk {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         writer.key(SDK_NAME).value(getSdkName());
         writer.key(SDK_VERSION).value(getSdkVersion());
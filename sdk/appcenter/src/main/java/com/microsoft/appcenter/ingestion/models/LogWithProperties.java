@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.Map;
 
@@ -45,7 +45,7 @@ public abstract class LogWithProperties extends AbstractLog {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         JSONUtils.writeMap(writer, PROPERTIES, getProperties());
     }
@@ -1,12 +1,13 @@
 package com.microsoft.appcenter.ingestion.models;
 
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
+
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 public interface Model {
 
     void read(JSONObject object) throws JSONException;
 
-    void write(JSONStringer writer) throws JSONException;
+    void write(JSONWriter writer) throws JSONException;
 }
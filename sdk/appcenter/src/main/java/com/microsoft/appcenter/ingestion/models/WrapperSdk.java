@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 public class WrapperSdk implements Model {
 
@@ -174,7 +174,7 @@ public class WrapperSdk implements Model {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         JSONUtils.write(writer, WRAPPER_SDK_VERSION, getWrapperSdkVersion());
         JSONUtils.write(writer, WRAPPER_SDK_NAME, getWrapperSdkName());
         JSONUtils.write(writer, WRAPPER_RUNTIME_VERSION, getWrapperRuntimeVersion());
@@ -9,8 +9,9 @@ import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -26,7 +27,7 @@ public class DefaultLogSerializer implements LogSerializer {
     private final Map<String, LogFactory> mLogFactories = new HashMap<>();
 
     @NonNull
-    private JSONStringer writeLog(JSONStringer writer, Log log) throws JSONException {
+    private JSONWriter writeLog(JSONWriter writer, Log log) throws JSONException {
         writer.object();
         log.write(writer);
         writer.endObject();
@@ -50,7 +51,21 @@ public class DefaultLogSerializer implements LogSerializer {
     @NonNull
     @Override
     public String serializeLog(@NonNull Log log) throws JSONException {
-        return writeLog(new JSONStringer(), log).toString();
+        return writeLog(new JSONStringerWriter(), log).toString();
+    }
+
+    @Override
+    public void serializeLog(@NonNull OutputStream outputStream, @NonNull Log log) throws JSONException, IOException {
+        JSONStreamWriter writer = new JSONStreamWriter(outputStream);
+        writeLog(writer, log);
+        writer.flush();
+    }
+
+    @Override
+    public long getRequestSize(@NonNull Log log) throws JSONException, IOException {
+        JSONSizeWriter writer = new JSONSizeWriter();
+        writeLog(writer, log);
+        return writer.getSize();
     }
 
     @NonNull
@@ -69,9 +84,19 @@ public class DefaultLogSerializer implements LogSerializer {
     public String serializeContainer(@NonNull LogContainer logContainer) throws JSONException {
 
         /* Init JSON serializer. */
-        JSONStringer writer = new JSONStringer();
+        JSONStringerWriter writer = new JSONStringerWriter(true);
+        writeContainer(writer, logContainer);
+        return writer.toString();
+    }
+
+    @Override
+    public void serializeContainer(@NonNull OutputStream outputStream, @NonNull LogContainer logContainer) throws JSONException, IOException {
+        JSONStreamWriter writer = new JSONStreamWriter(outputStream, true);
+        writeContainer(writer, logContainer);
+        writer.flush();
+    }
 
-        /* Start writing JSON. */
+    private void writeContainer(JSONWriter writer, LogContainer logContainer) throws JSONException {
         writer.object();
         writer.key(LOGS).array();
         for (Log log : logContainer.getLogs()) {
@@ -79,7 +104,6 @@ public class DefaultLogSerializer implements LogSerializer {
         }
         writer.endArray();
         writer.endObject();
-        return writer.toString();
     }
 
     @NonNull
@@ -1,5 +1,7 @@
 package com.microsoft.appcenter.ingestion.models.json;
 
+import android.support.annotation.VisibleForTesting;
+
 import org.json.JSONException;
 
 import java.text.DateFormat;
@@ -13,9 +15,48 @@ import java.util.TimeZone;
  * Utility to convert date to string and vice versa to use in JSON payloads.
  * The date format is using ISO 8601 and includes date and time to milliseconds accuracy.
  * It also always uses UTC timezone.
+ * <p>
+ * Dates from year 1583 to 9999 are converted without {@link SimpleDateFormat}, other dates
+ * (Julian calendar, more than 4 digit years) and lenient parsing fall back to it.
  */
 public final class JSONDateUtils {
 
+    /**
+     * Date format pattern.
+     */
+    @VisibleForTesting
+    static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+
+    /**
+     * Length of a formatted date.
+     */
+    private static final int LENGTH = "yyyy-MM-ddTHH:mm:ss.SSSZ".length();
+
+    /**
+     * Milliseconds in a day.
+     */
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    /**
+     * First year using the Gregorian calendar for all its days in {@link SimpleDateFormat}.
+     */
+    private static final int MIN_YEAR = 1583;
+
+    /**
+     * Last year formatted with 4 digits.
+     */
+    private static final int MAX_YEAR = 9999;
+
+    /**
+     * First timestamp handled without {@link SimpleDateFormat}.
+     */
+    private static final long MIN_MILLIS = daysFromCivil(MIN_YEAR, 1, 1) * MILLIS_PER_DAY;
+
+    /**
+     * Timestamp following the last one handled without {@link SimpleDateFormat}.
+     */
+    private static final long MAX_MILLIS = daysFromCivil(MAX_YEAR + 1, 1, 1) * MILLIS_PER_DAY;
+
     /**
      * Date formatter.
      */
@@ -23,12 +64,23 @@ public final class JSONDateUtils {
 
         @Override
         protected DateFormat initialValue() {
-            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+            DateFormat dateFormat = new SimpleDateFormat(PATTERN, Locale.US);
             dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
             return dateFormat;
         }
     };
 
+    /**
+     * Character buffer reused for formatting.
+     */
+    private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+
+        @Override
+        protected char[] initialValue() {
+            return new char[LENGTH];
+        }
+    };
+
     /**
      * Check date parameter is null.
      *
@@ -50,7 +102,13 @@ public final class JSONDateUtils {
      */
     public static String toString(Date date) throws JSONException {
         checkNull(date);
-        return DATE_FORMAT.get().format(date);
+        long millis = date.getTime();
+        if (millis < MIN_MILLIS || millis >= MAX_MILLIS) {
+            return DATE_FORMAT.get().format(date);
+        }
+        char[] buffer = BUFFER.get();
+        format(millis, buffer);
+        return new String(buffer, 0, LENGTH);
     }
 
     /**
@@ -62,10 +120,137 @@ public final class JSONDateUtils {
      */
     public static Date toDate(String date) throws JSONException {
         checkNull(date);
+        long millis = parse(date);
+        if (millis != Long.MIN_VALUE) {
+            return new Date(millis);
+        }
         try {
             return DATE_FORMAT.get().parse(date);
         } catch (ParseException e) {
             throw new JSONException(e.getMessage());
         }
     }
+
+    /**
+     * Format a timestamp between {@link #MIN_MILLIS} and {@link #MAX_MILLIS}.
+     *
+     * @param millis timestamp.
+     * @param buffer buffer of {@link #LENGTH} characters.
+     */
+    private static void format(long millis, char[] buffer) {
+        long days = millis / MILLIS_PER_DAY;
+        int millisOfDay = (int) (millis % MILLIS_PER_DAY);
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+
+        /* Civil date from days since epoch, see http://howardhinnant.github.io/date_algorithms.html */
+        long shiftedDays = days + 719468;
+        long era = (shiftedDays >= 0 ? shiftedDays : shiftedDays - 146096) / 146097;
+        int dayOfEra = (int) (shiftedDays - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        /* Write fields. */
+        writeDigits(buffer, 0, year, 4);
+        buffer[4] = '-';
+        writeDigits(buffer, 5, month, 2);
+        buffer[7] = '-';
+        writeDigits(buffer, 8, day, 2);
+        buffer[10] = 'T';
+        writeDigits(buffer, 11, millisOfDay / 3600000, 2);
+        buffer[13] = ':';
+        writeDigits(buffer, 14, millisOfDay / 60000 % 60, 2);
+        buffer[16] = ':';
+        writeDigits(buffer, 17, millisOfDay / 1000 % 60, 2);
+        buffer[19] = '.';
+        writeDigits(buffer, 20, millisOfDay % 1000, 3);
+        buffer[23] = 'Z';
+    }
+
+    private static void writeDigits(char[] buffer, int offset, int value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Parse a date in the exact format produced by {@link #format(long, char[])}.
+     *
+     * @param date date string.
+     * @return timestamp, or {@link Long#MIN_VALUE} if the string must be parsed by {@link SimpleDateFormat}.
+     */
+    private static long parse(String date) {
+        if (date.length() != LENGTH || date.charAt(4) != '-' || date.charAt(7) != '-' || date.charAt(10) != 'T'
+                || date.charAt(13) != ':' || date.charAt(16) != ':' || date.charAt(19) != '.' || date.charAt(23) != 'Z') {
+            return Long.MIN_VALUE;
+        }
+        int year = readDigits(date, 0, 4);
+        int month = readDigits(date, 5, 2);
+        int day = readDigits(date, 8, 2);
+        int hour = readDigits(date, 11, 2);
+        int minute = readDigits(date, 14, 2);
+        int second = readDigits(date, 17, 2);
+        int millis = readDigits(date, 20, 3);
+
+        /* Out of range values are handled by the lenient parser. */
+        if (year < MIN_YEAR || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return Long.MIN_VALUE;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L + second * 1000L + millis;
+    }
+
+    /**
+     * Read ASCII digits.
+     *
+     * @return value, or -1 if a character is not an ASCII digit.
+     */
+    private static int readDigits(String date, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = date.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days since epoch from a proleptic Gregorian date, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2) {
+            year--;
+        }
+        long era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = (int) (year - era * 400);
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
 }
@@ -0,0 +1,89 @@
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link JSONStreamWriter} measuring a request body instead of writing it.
+ * Files are not read: their base64 size is estimated from their length.
+ */
+class JSONSizeWriter extends JSONStreamWriter {
+
+    /**
+     * Stream counting the bytes of everything but files.
+     */
+    private final ByteCountOutputStream mOutputStream;
+
+    /**
+     * Estimated size of the files encoded so far.
+     */
+    private long mFileSize;
+
+    /**
+     * Init.
+     */
+    JSONSizeWriter() {
+        this(new ByteCountOutputStream());
+    }
+
+    private JSONSizeWriter(ByteCountOutputStream outputStream) {
+        super(outputStream, true);
+        mOutputStream = outputStream;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only quotes are written, the encoded size is added to {@link #getSize()}.
+     * Like when writing the request, a missing file is an error.
+     */
+    @Override
+    public JSONWriter base64Value(@NonNull File file) throws JSONException {
+        if (!file.isFile()) {
+            throw new JSONException("Cannot read " + file);
+        }
+        value("");
+        long encodedLength = (file.length() + 2) / 3 * 4;
+
+        /* About 1 in 64 base64 characters is a slash, which is escaped. */
+        mFileSize += encodedLength + encodedLength / 64;
+        return this;
+    }
+
+    /**
+     * Get the size of the JSON written so far.
+     *
+     * @return size in bytes.
+     * @throws IOException if flushing the encoder fails.
+     */
+    long getSize() throws IOException {
+        flush();
+        return mOutputStream.mCount + mFileSize;
+    }
+
+    /**
+     * Output stream that only counts bytes.
+     */
+    private static class ByteCountOutputStream extends OutputStream {
+
+        /**
+         * Number of bytes written.
+         */
+        long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) {
+            mCount += len;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link JSONWriter} encoding UTF-8 directly to an {@link OutputStream}, without building the
+ * whole document in memory. Output is the same as {@link org.json.JSONStringer}.
+ * <p>
+ * Data is buffered: {@link #flush()} must be called once the document is written.
+ * The stream is not closed by this writer.
+ */
+public class JSONStreamWriter implements JSONWriter, Flushable {
+
+    /**
+     * Lexical scopes, same as {@link org.json.JSONStringer}.
+     */
+    private enum Scope {
+        EMPTY_ARRAY,
+        NONEMPTY_ARRAY,
+        EMPTY_OBJECT,
+        DANGLING_KEY,
+        NONEMPTY_OBJECT
+    }
+
+    /**
+     * Number of bytes read from a file at once when encoding it as base64, multiple of 3 so that
+     * chunks can be encoded separately without padding.
+     */
+    private static final int BASE64_CHUNK_SIZE = 3 * 1024;
+
+    /**
+     * Character encoder on top of the output stream.
+     */
+    private final Writer mWriter;
+
+    /**
+     * Current nesting.
+     */
+    private final List<Scope> mStack = new ArrayList<>();
+
+    /**
+     * Whether writing a request body.
+     */
+    private final boolean mRequestBody;
+
+    /**
+     * Whether the top-level value was started.
+     */
+    private boolean mRootWritten;
+
+    /**
+     * Init.
+     *
+     * @param outputStream stream to write UTF-8 JSON to.
+     */
+    public JSONStreamWriter(@NonNull OutputStream outputStream) {
+        this(outputStream, false);
+    }
+
+    /**
+     * Init.
+     *
+     * @param outputStream stream to write UTF-8 JSON to.
+     * @param requestBody  true if writing an ingestion request body, see {@link #isRequestBody()}.
+     */
+    public JSONStreamWriter(@NonNull OutputStream outputStream, boolean requestBody) {
+        mWriter = new OutputStreamWriter(outputStream, Charset.forName("UTF-8"));
+        mRequestBody = requestBody;
+    }
+
+    /**
+     * Read a file until the buffer is full or the end of the file is reached.
+     */
+    private static int read(File file, InputStream inputStream, byte[] buffer) throws JSONException {
+        int length = 0;
+        try {
+            while (length < buffer.length) {
+                int count = inputStream.read(buffer, length, buffer.length - length);
+                if (count < 0) {
+                    break;
+                }
+                length += count;
+            }
+        } catch (IOException e) {
+            throw new JSONException("Cannot read " + file + ": " + e.getMessage());
+        }
+        return length;
+    }
+
+    private static JSONException toJSONException(IOException e) {
+        JSONException exception = new JSONException("Failed to write JSON: " + e.getMessage());
+        exception.initCause(e);
+        return exception;
+    }
+
+    @Override
+    public JSONWriter array() throws JSONException {
+        return open(Scope.EMPTY_ARRAY, '[');
+    }
+
+    @Override
+    public JSONWriter endArray() throws JSONException {
+        return close(Scope.EMPTY_ARRAY, Scope.NONEMPTY_ARRAY, ']');
+    }
+
+    @Override
+    public JSONWriter object() throws JSONException {
+        return open(Scope.EMPTY_OBJECT, '{');
+    }
+
+    @Override
+    public JSONWriter endObject() throws JSONException {
+        return close(Scope.EMPTY_OBJECT, Scope.NONEMPTY_OBJECT, '}');
+    }
+
+    @Override
+    public JSONWriter key(String name) throws JSONException {
+        if (name == null) {
+            throw new JSONException("Names must be non-null");
+        }
+        Scope context = peek();
+        try {
+            if (context == Scope.NONEMPTY_OBJECT) {
+                mWriter.write(',');
+            } else if (context != Scope.EMPTY_OBJECT) {
+                throw new JSONException("Nesting problem");
+            }
+            replaceTop(Scope.DANGLING_KEY);
+            string(name);
+        } catch (IOException e) {
+            throw toJSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(Object value) throws JSONException {
+        if (mStack.isEmpty()) {
+            throw new JSONException("Nesting problem");
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            array();
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            return endArray();
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            object();
+            for (Iterator<String> keys = object.keys(); keys.hasNext(); ) {
+                String key = keys.next();
+                key(key).value(object.opt(key));
+            }
+            return endObject();
+        }
+        try {
+            beforeValue();
+            if (value == null || value instanceof Boolean || value == JSONObject.NULL) {
+                mWriter.write(String.valueOf(value));
+            } else if (value instanceof Number) {
+                mWriter.write(JSONObject.numberToString((Number) value));
+            } else {
+                string(value.toString());
+            }
+        } catch (IOException e) {
+            throw toJSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(boolean value) throws JSONException {
+        return literal(String.valueOf(value));
+    }
+
+    @Override
+    public JSONWriter value(double value) throws JSONException {
+        return literal(JSONObject.numberToString(value));
+    }
+
+    @Override
+    public JSONWriter value(long value) throws JSONException {
+        return literal(Long.toString(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The file is read and encoded in small chunks, so memory use does not depend on its size.
+     * Only errors writing to the stream have an {@link IOException} cause, errors reading the file don't.
+     */
+    @Override
+    public JSONWriter base64Value(@NonNull File file) throws JSONException {
+        if (mStack.isEmpty()) {
+            throw new JSONException("Nesting problem");
+        }
+        InputStream inputStream;
+        try {
+            inputStream = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            throw new JSONException("Cannot read " + file + ": " + e.getMessage());
+        }
+        try {
+
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                beforeValue();
+                mWriter.write('"');
+                byte[] buffer = new byte[BASE64_CHUNK_SIZE];
+                int length;
+                while ((length = read(file, inputStream, buffer)) > 0) {
+                    escape(Base64.encodeToString(buffer, 0, length, Base64.NO_WRAP));
+                }
+                mWriter.write('"');
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            throw toJSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isRequestBody() {
+        return mRequestBody;
+    }
+
+    /**
+     * Write buffered data to the underlying stream.
+     *
+     * @throws IOException if writing fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    private JSONWriter literal(String value) throws JSONException {
+        if (mStack.isEmpty()) {
+            throw new JSONException("Nesting problem");
+        }
+        try {
+            beforeValue();
+            mWriter.write(value);
+        } catch (IOException e) {
+            throw toJSONException(e);
+        }
+        return this;
+    }
+
+    private JSONWriter open(Scope empty, char openBracket) throws JSONException {
+        try {
+            if (mStack.isEmpty()) {
+                if (mRootWritten) {
+                    throw new JSONException("Nesting problem: multiple top-level roots");
+                }
+                mRootWritten = true;
+            } else {
+                beforeValue();
+            }
+            mStack.add(empty);
+            mWriter.write(openBracket);
+        } catch (IOException e) {
+            throw toJSONException(e);
+        }
+        return this;
+    }
+
+    private JSONWriter close(Scope empty, Scope nonempty, char closeBracket) throws JSONException {
+        Scope context = peek();
+        if (context != nonempty && context != empty) {
+            throw new JSONException("Nesting problem");
+        }
+        mStack.remove(mStack.size() - 1);
+        try {
+            mWriter.write(closeBracket);
+        } catch (IOException e) {
+            throw toJSONException(e);
+        }
+        return this;
+    }
+
+    private Scope peek() throws JSONException {
+        if (mStack.isEmpty()) {
+            throw new JSONException("Nesting problem");
+        }
+        return mStack.get(mStack.size() - 1);
+    }
+
+    private void replaceTop(Scope topOfStack) {
+        mStack.set(mStack.size() - 1, topOfStack);
+    }
+
+    private void beforeValue() throws JSONException, IOException {
+        Scope context = peek();
+        if (context == Scope.EMPTY_ARRAY) {
+            replaceTop(Scope.NONEMPTY_ARRAY);
+        } else if (context == Scope.NONEMPTY_ARRAY) {
+            mWriter.write(',');
+        } else if (context == Scope.DANGLING_KEY) {
+            mWriter.write(':');
+            replaceTop(Scope.NONEMPTY_OBJECT);
+        } else {
+            throw new JSONException("Nesting problem");
+        }
+    }
+
+    /**
+     * Write a quoted string with the same escaping as {@link org.json.JSONStringer}.
+     * Runs of characters that need no escaping are written in one call.
+     */
+    private void string(String value) throws IOException {
+        mWriter.write('"');
+        escape(value);
+        mWriter.write('"');
+    }
+
+    /**
+     * Write string contents without quotes.
+     */
+    private void escape(String value) throws IOException {
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escaped;
+            switch (c) {
+                case '"':
+                    escaped = "\\\"";
+                    break;
+
+                case '\\':
+                    escaped = "\\\\";
+                    break;
+
+                case '/':
+                    escaped = "\\/";
+                    break;
+
+                case '\t':
+                    escaped = "\\t";
+                    break;
+
+                case '\b':
+                    escaped = "\\b";
+                    break;
+
+                case '\n':
+                    escaped = "\\n";
+                    break;
+
+                case '\r':
+                    escaped = "\\r";
+                    break;
+
+                case '\f':
+                    escaped = "\\f";
+                    break;
+
+                default:
+                    if (c <= 0x1F) {
+                        escaped = String.format("\\u%04x", (int) c);
+                    } else {
+                        continue;
+                    }
+            }
+            mWriter.write(value, start, i - start);
+            mWriter.write(escaped);
+            start = i + 1;
+        }
+        mWriter.write(value, start, length - start);
+    }
+}
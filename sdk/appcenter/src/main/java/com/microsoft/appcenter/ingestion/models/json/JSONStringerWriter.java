@@ -0,0 +1,136 @@
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+import android.util.Base64;
+
+import com.microsoft.appcenter.utils.storage.FileManager;
+
+import org.json.JSONException;
+import org.json.JSONStringer;
+
+import java.io.File;
+
+/**
+ * {@link JSONWriter} building a string in memory with a {@link JSONStringer}.
+ */
+public class JSONStringerWriter implements JSONWriter {
+
+    /**
+     * Wrapped stringer.
+     */
+    private final JSONStringer mStringer;
+
+    /**
+     * Whether writing a request body.
+     */
+    private final boolean mRequestBody;
+
+    /**
+     * Init with a new stringer.
+     */
+    public JSONStringerWriter() {
+        this(false);
+    }
+
+    /**
+     * Init with a new stringer.
+     *
+     * @param requestBody true if writing an ingestion request body, see {@link #isRequestBody()}.
+     */
+    public JSONStringerWriter(boolean requestBody) {
+        this(new JSONStringer(), requestBody);
+    }
+
+    /**
+     * Init.
+     *
+     * @param stringer stringer to write to.
+     */
+    public JSONStringerWriter(@NonNull JSONStringer stringer) {
+        this(stringer, false);
+    }
+
+    private JSONStringerWriter(@NonNull JSONStringer stringer, boolean requestBody) {
+        mStringer = stringer;
+        mRequestBody = requestBody;
+    }
+
+    @Override
+    public JSONWriter array() throws JSONException {
+        mStringer.array();
+        return this;
+    }
+
+    @Override
+    public JSONWriter endArray() throws JSONException {
+        mStringer.endArray();
+        return this;
+    }
+
+    @Override
+    public JSONWriter object() throws JSONException {
+        mStringer.object();
+        return this;
+    }
+
+    @Override
+    public JSONWriter endObject() throws JSONException {
+        mStringer.endObject();
+        return this;
+    }
+
+    @Override
+    public JSONWriter key(String name) throws JSONException {
+        mStringer.key(name);
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(Object value) throws JSONException {
+        mStringer.value(value);
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(boolean value) throws JSONException {
+        mStringer.value(value);
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(double value) throws JSONException {
+        mStringer.value(value);
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(long value) throws JSONException {
+        mStringer.value(value);
+        return this;
+    }
+
+    @Override
+    public JSONWriter base64Value(@NonNull File file) throws JSONException {
+        byte[] data = FileManager.readBytes(file);
+        if (data == null) {
+            throw new JSONException("Cannot read " + file);
+        }
+        mStringer.value(Base64.encodeToString(data, Base64.NO_WRAP));
+        return this;
+    }
+
+    @Override
+    public boolean isRequestBody() {
+        return mRequestBody;
+    }
+
+    /**
+     * Get the JSON written so far.
+     *
+     * @return the JSON string, or null if nothing was written.
+     */
+    @Override
+    public String toString() {
+        return mStringer.toString();
+    }
+}
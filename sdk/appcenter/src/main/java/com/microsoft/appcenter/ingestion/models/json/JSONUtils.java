@@ -7,7 +7,6 @@ import com.microsoft.appcenter.ingestion.models.Model;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -83,13 +82,25 @@ public final class JSONUtils {
         return array;
     }
 
-    public static void write(JSONStringer writer, String key, Object value) throws JSONException {
+    public static List<Integer> readIntegerArray(JSONObject object, String key) throws JSONException {
+        JSONArray jArray = object.optJSONArray(key);
+        if (jArray == null) {
+            return null;
+        }
+        List<Integer> array = new ArrayList<>(jArray.length());
+        for (int i = 0; i < jArray.length(); i++) {
+            array.add(jArray.getInt(i));
+        }
+        return array;
+    }
+
+    public static void write(JSONWriter writer, String key, Object value) throws JSONException {
         if (value != null) {
             writer.key(key).value(value);
         }
     }
 
-    public static void writeMap(JSONStringer writer, String key, Map<String, String> value) throws JSONException {
+    public static void writeMap(JSONWriter writer, String key, Map<String, String> value) throws JSONException {
         if (value != null) {
             writer.key(key).object();
             for (Map.Entry<String, String> property : value.entrySet()) {
@@ -99,7 +110,7 @@ public final class JSONUtils {
         }
     }
 
-    public static void writeArray(JSONStringer writer, String key, List<? extends Model> value) throws JSONException {
+    public static void writeArray(JSONWriter writer, String key, List<? extends Model> value) throws JSONException {
         if (value != null) {
             writer.key(key).array();
             for (Model model : value) {
@@ -111,7 +122,7 @@ public final class JSONUtils {
         }
     }
 
-    public static void writeStringArray(JSONStringer writer, String key, List<String> values) throws JSONException {
+    public static void writeStringArray(JSONWriter writer, String key, List<String> values) throws JSONException {
         if (values != null) {
             writer.key(key).array();
             for (String value : values) {
@@ -120,4 +131,14 @@ public final class JSONUtils {
             writer.endArray();
         }
     }
+
+    public static void writeIntegerArray(JSONWriter writer, String key, List<Integer> values) throws JSONException {
+        if (values != null) {
+            writer.key(key).array();
+            for (Integer value : values) {
+                writer.value(value);
+            }
+            writer.endArray();
+        }
+    }
 }
@@ -0,0 +1,112 @@
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+
+import java.io.File;
+
+/**
+ * Target of {@link com.microsoft.appcenter.ingestion.models.Model#write(JSONWriter)}.
+ * <p>
+ * Same contract as {@link org.json.JSONStringer}, so that models can be written either to a string
+ * with {@link JSONStringerWriter} or directly to a stream with {@link JSONStreamWriter}.
+ */
+public interface JSONWriter {
+
+    /**
+     * Begins encoding a new array.
+     *
+     * @return this writer.
+     * @throws JSONException if writing fails or on a nesting problem.
+     */
+    JSONWriter array() throws JSONException;
+
+    /**
+     * Ends encoding the current array.
+     *
+     * @return this writer.
+     * @throws JSONException if writing fails or on a nesting problem.
+     */
+    JSONWriter endArray() throws JSONException;
+
+    /**
+     * Begins encoding a new object.
+     *
+     * @return this writer.
+     * @throws JSONException if writing fails or on a nesting problem.
+     */
+    JSONWriter object() throws JSONException;
+
+    /**
+     * Ends encoding the current object.
+     *
+     * @return this writer.
+     * @throws JSONException if writing fails or on a nesting problem.
+     */
+    JSONWriter endObject() throws JSONException;
+
+    /**
+     * Encodes the key (property name) to this writer.
+     *
+     * @param name the name of the forthcoming value. May not be null.
+     * @return this writer.
+     * @throws JSONException if writing fails or on a nesting problem.
+     */
+    JSONWriter key(String name) throws JSONException;
+
+    /**
+     * Encodes a value to this writer.
+     *
+     * @param value a {@link org.json.JSONObject}, {@link org.json.JSONArray}, String, Boolean,
+     *              Integer, Long, Double or null. Other types are written as their string value.
+     * @return this writer.
+     * @throws JSONException if writing fails or on a nesting problem.
+     */
+    JSONWriter value(Object value) throws JSONException;
+
+    /**
+     * Encodes a value to this writer.
+     *
+     * @param value value to write.
+     * @return this writer.
+     * @throws JSONException if writing fails or on a nesting problem.
+     */
+    JSONWriter value(boolean value) throws JSONException;
+
+    /**
+     * Encodes a value to this writer.
+     *
+     * @param value a finite value. May not be NaN or infinite.
+     * @return this writer.
+     * @throws JSONException if writing fails, on a nesting problem or if value is not finite.
+     */
+    JSONWriter value(double value) throws JSONException;
+
+    /**
+     * Encodes a value to this writer.
+     *
+     * @param value value to write.
+     * @return this writer.
+     * @throws JSONException if writing fails or on a nesting problem.
+     */
+    JSONWriter value(long value) throws JSONException;
+
+    /**
+     * Encodes the content of a file as a base64 string value.
+     *
+     * @param file file to read.
+     * @return this writer.
+     * @throws JSONException if the file cannot be read, if writing fails or on a nesting problem.
+     */
+    JSONWriter base64Value(@NonNull File file) throws JSONException;
+
+    /**
+     * Check whether this writer produces an ingestion request body rather than a document stored
+     * on the device. Models referencing data stored in a file write the data itself only in
+     * request bodies, and only the file reference otherwise.
+     *
+     * @return true if writing a request body.
+     */
+    boolean isRequestBody();
+}
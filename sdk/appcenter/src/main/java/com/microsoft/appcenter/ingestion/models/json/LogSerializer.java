@@ -8,6 +8,8 @@ import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 
 import org.json.JSONException;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 
 public interface LogSerializer {
@@ -15,6 +17,27 @@ public interface LogSerializer {
     @NonNull
     String serializeLog(@NonNull Log log) throws JSONException;
 
+    /**
+     * Serialize a log as UTF-8 JSON to a stream.
+     *
+     * @param outputStream stream to write to, it is flushed but not closed.
+     * @param log          log to serialize.
+     * @throws JSONException if the log cannot be serialized.
+     * @throws IOException   if writing to the stream fails.
+     */
+    void serializeLog(@NonNull OutputStream outputStream, @NonNull Log log) throws JSONException, IOException;
+
+    /**
+     * Get the size of a log once serialized in a request body.
+     * Files the log refers to are not read, their encoded size is estimated from their length.
+     *
+     * @param log log to measure.
+     * @return size in bytes.
+     * @throws JSONException if the log cannot be serialized.
+     * @throws IOException   if measuring fails.
+     */
+    long getRequestSize(@NonNull Log log) throws JSONException, IOException;
+
     @NonNull
     Log deserializeLog(@NonNull String json, String type) throws JSONException;
 
@@ -23,6 +46,16 @@ public interface LogSerializer {
     @NonNull
     String serializeContainer(@NonNull LogContainer container) throws JSONException;
 
+    /**
+     * Serialize a log container as UTF-8 JSON to a stream, without building the whole payload in memory.
+     *
+     * @param outputStream stream to write to, it is flushed but not closed.
+     * @param container    log container to serialize.
+     * @throws JSONException if a log cannot be serialized.
+     * @throws IOException   if writing to the stream fails.
+     */
+    void serializeContainer(@NonNull OutputStream outputStream, @NonNull LogContainer container) throws JSONException, IOException;
+
     @NonNull
     LogContainer deserializeContainer(@NonNull String json, String type) throws JSONException;
 
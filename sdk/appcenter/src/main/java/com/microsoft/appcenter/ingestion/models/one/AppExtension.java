@@ -2,10 +2,10 @@ package com.microsoft.appcenter.ingestion.models.one;
 
 import com.microsoft.appcenter.ingestion.models.Model;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 /**
  * This is the application extension. It contains data specified by the application.
@@ -163,7 +163,7 @@ public class AppExtension implements Model {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         JSONUtils.write(writer, ID, getId());
         JSONUtils.write(writer, VER, getVer());
         JSONUtils.write(writer, NAME, getName());
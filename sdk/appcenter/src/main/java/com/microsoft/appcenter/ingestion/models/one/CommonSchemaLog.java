@@ -3,10 +3,10 @@ package com.microsoft.appcenter.ingestion.models.one;
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 /**
  * Common schema has 1 log type with extensions, everything is called an event.
@@ -283,7 +283,7 @@ public abstract class CommonSchemaLog extends AbstractLog {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
 
         /* Override abstract log JSON since it's Common Schema and not App Center schema. */
 
@@ -2,11 +2,11 @@ package com.microsoft.appcenter.ingestion.models.one;
 
 import com.microsoft.appcenter.ingestion.models.Model;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 /**
  * Object that contains Part B and Part C from Common Schema.
@@ -51,7 +51,7 @@ public class Data implements Model {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
 
         /* Serialize part B before. */
         JSONUtils.write(writer, BASE_TYPE, mProperties.optString(BASE_TYPE, null));
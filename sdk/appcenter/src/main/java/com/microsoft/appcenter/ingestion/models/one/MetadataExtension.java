@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.ingestion.models.one;
 
 import com.microsoft.appcenter.ingestion.models.Model;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.Iterator;
 
@@ -33,7 +33,7 @@ public class MetadataExtension implements Model {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         for (Iterator<String> iterator = mMetadata.keys(); iterator.hasNext(); ) {
             String key = iterator.next();
             writer.key(key).value(mMetadata.get(key));
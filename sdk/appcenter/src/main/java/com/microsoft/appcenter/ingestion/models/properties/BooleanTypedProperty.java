@@ -1,8 +1,9 @@
 package com.microsoft.appcenter.ingestion.models.properties;
 
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
+
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.VALUE;
 
@@ -45,7 +46,7 @@ public class BooleanTypedProperty extends TypedProperty {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         writer.key(VALUE).value(getValue());
     }
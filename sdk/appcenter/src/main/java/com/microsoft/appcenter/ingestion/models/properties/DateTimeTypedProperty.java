@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.ingestion.models.properties;
 
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import java.util.Date;
 
@@ -49,7 +49,7 @@ public class DateTimeTypedProperty extends TypedProperty {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         super.write(writer);
         writer.key(VALUE).value(JSONDateUtils.toString(getValue()));
     }
@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.ingestion.models.properties;
 
 import com.microsoft.appcenter.ingestion.models.Model;
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.NAME;
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.TYPE;
@@ -50,7 +50,7 @@ public abstract class TypedProperty implements Model {
     }
 
     @Override
-    public void write(JSONStringer writer) throws JSONException {
+    public void write(JSONWriter writer) throws JSONException {
         writer.key(TYPE).value(getType());
         writer.key(NAME).value(getName());
     }
@@ -35,6 +35,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.DataFormatException;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
@@ -56,6 +57,18 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final int VERSION_TARGET_KEY = 3;
 
+    /**
+     * Version of the schema that introduced priority field.
+     */
+    @VisibleForTesting
+    static final int VERSION_PRIORITY = 4;
+
+    /**
+     * Version of the schema that introduced payload compression fields.
+     */
+    @VisibleForTesting
+    static final int VERSION_COMPRESSION = 5;
+
     /**
      * Table name.
      */
@@ -98,12 +111,23 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final String COLUMN_PRIORITY = "priority";
 
+    /**
+     * Name of compressed log column in the table, used instead of log column when compressed.
+     */
+    @VisibleForTesting
+    static final String COLUMN_COMPRESSED_LOG = "compressed_log";
+
+    /**
+     * Payload compression flag, see {@link PayloadCompression}.
+     */
+    @VisibleForTesting
+    static final String COLUMN_COMPRESSION = "compression";
 
     /**
      * Table schema for Persistence.
      */
     @VisibleForTesting
-    static final ContentValues SCHEMA = getContentValues("", "", "", "", "", 0);
+    static final ContentValues SCHEMA = getContentValues("", "", new byte[0], PayloadCompression.NONE, "", "", "", 0);
 
     /**
      * Database name.
@@ -114,7 +138,7 @@ public class DatabasePersistence extends Persistence {
     /**
      * Current version of the schema.
      */
-    private static final int VERSION = 4;
+    private static final int VERSION = VERSION_COMPRESSION;
 
     /**
      * Priority index.
@@ -170,6 +194,11 @@ public class DatabasePersistence extends Persistence {
      */
     private final File mLargePayloadDirectory;
 
+    /**
+     * Whether new log payloads are compressed.
+     */
+    private boolean mPayloadCompressionEnabled;
+
     /**
      * Initializes variables with default values.
      *
@@ -212,8 +241,14 @@ public class DatabasePersistence extends Persistence {
                 if (oldVersion < VERSION_TARGET_KEY) {
                     db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TARGET_KEY + "` TEXT");
                 }
-                db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_PRIORITY + "` INTEGER DEFAULT " + PERSISTENCE_NORMAL);
-                createPriorityIndex(db);
+                if (oldVersion < VERSION_PRIORITY) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_PRIORITY + "` INTEGER DEFAULT " + PERSISTENCE_NORMAL);
+                    createPriorityIndex(db);
+                }
+                if (oldVersion < VERSION_COMPRESSION) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_COMPRESSED_LOG + "` BLOB");
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_COMPRESSION + "` INTEGER DEFAULT " + PayloadCompression.NONE);
+                }
                 return true;
             }
         });
@@ -226,17 +261,21 @@ public class DatabasePersistence extends Persistence {
     /**
      * Instantiates {@link ContentValues} with the give values.
      *
-     * @param group       The group of the storage for the log.
-     * @param logJ        The JSON string for a log.
-     * @param targetToken The target token if the log is common schema.
-     * @param targetKey   The project identifier part of the target token in clear text.
-     * @param priority    The persistence priority.
+     * @param group         The group of the storage for the log.
+     * @param logJ          The JSON string for a log.
+     * @param compressedLog The compressed JSON string for a log.
+     * @param compression   The compression flag of the payload.
+     * @param targetToken   The target token if the log is common schema.
+     * @param targetKey     The project identifier part of the target token in clear text.
+     * @param priority      The persistence priority.
      * @return A {@link ContentValues} instance.
      */
-    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, String targetToken, String type, String targetKey, int priority) {
+    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, @Nullable byte[] compressedLog, int compression, String targetToken, String type, String targetKey, int priority) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_GROUP, group);
         values.put(COLUMN_LOG, logJ);
+        values.put(COLUMN_COMPRESSED_LOG, compressedLog);
+        values.put(COLUMN_COMPRESSION, compression);
         values.put(COLUMN_TARGET_TOKEN, targetToken);
         values.put(COLUMN_DATA_TYPE, type);
         values.put(COLUMN_TARGET_KEY, targetKey);
@@ -244,6 +283,16 @@ public class DatabasePersistence extends Persistence {
         return values;
     }
 
+    /**
+     * Enable or disable compression of new log payloads. Logs already stored are read regardless of this setting.
+     * Payloads stored in separate files because they are too large for SQLite are never compressed.
+     *
+     * @param enabled true to compress new log payloads, false to store them as plain JSON.
+     */
+    public void setPayloadCompressionEnabled(boolean enabled) {
+        mPayloadCompressionEnabled = enabled;
+    }
+
     @Override
     public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
         return mDatabaseManager.setMaxSize(maxStorageSizeInBytes);
@@ -277,7 +326,18 @@ public class DatabasePersistence extends Persistence {
                 throw new PersistenceException("Log is too large (" + payloadSize + " bytes) to store in database. " +
                         "Current maximum database size is " + maxSize + " bytes.");
             }
-            contentValues = getContentValues(group, isLargePayload ? null : payload, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false));
+            String databasePayload = isLargePayload ? null : payload;
+            byte[] compressedPayload = null;
+            int compression = PayloadCompression.NONE;
+            if (mPayloadCompressionEnabled && !isLargePayload) {
+                compressedPayload = PayloadCompression.compress(payload);
+                if (compressedPayload != null) {
+                    AppCenterLog.debug(LOG_TAG, "Compressed log payload from " + payloadSize + " to " + compressedPayload.length + " bytes.");
+                    databasePayload = null;
+                    compression = PayloadCompression.DEFLATE_DICTIONARY_V1;
+                }
+            }
+            contentValues = getContentValues(group, databasePayload, compressedPayload, compression, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false));
             long databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY);
             if (databaseId == -1) {
                 throw new PersistenceException("Failed to store a log to the Persistence database for log type " + log.getType() + ".");
@@ -466,7 +526,14 @@ public class DatabasePersistence extends Persistence {
                     /* Deserialize JSON to Log. */
                     String logPayload;
                     String databasePayload = values.getAsString(COLUMN_LOG);
-                    if (databasePayload == null) {
+                    Integer compression = values.getAsInteger(COLUMN_COMPRESSION);
+                    if (compression != null && compression != PayloadCompression.NONE) {
+                        byte[] compressedPayload = values.getAsByteArray(COLUMN_COMPRESSED_LOG);
+                        if (compressedPayload == null) {
+                            throw new JSONException("Log payload is flagged as compressed but compressed payload is missing.");
+                        }
+                        logPayload = PayloadCompression.decompress(compression, compressedPayload);
+                    } else if (databasePayload == null) {
                         File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
                         AppCenterLog.debug(LOG_TAG, "Read payload file " + file);
                         logPayload = FileManager.read(file);
@@ -489,7 +556,7 @@ public class DatabasePersistence extends Persistence {
                     /* Add log to list and count. */
                     candidates.put(dbIdentifier, log);
                     count++;
-                } catch (JSONException e) {
+                } catch (JSONException | DataFormatException e) {
 
                     /* If it is not able to deserialize, delete and get another log. */
                     AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in the database", e);
@@ -548,6 +615,12 @@ public class DatabasePersistence extends Persistence {
         return id;
     }
 
+    @Override
+    @Nullable
+    public String splitLogs(@NonNull String group, @NonNull String id, int fromIndex, int toIndex) {
+        return splitPendingGroup(mPendingDbIdentifiersGroups, group, id, fromIndex, toIndex);
+    }
+
     @Override
     public void clearPendingLogState() {
         mPendingDbIdentifiers.clear();
@@ -0,0 +1,446 @@
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.UUIDUtils;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+import static com.microsoft.appcenter.Flags.PERSISTENCE_CRITICAL;
+import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
+
+/**
+ * Persistence keeping serialized logs in memory only, within a size budget.
+ * <p>
+ * When the budget is exceeded, the oldest logs with the lowest priority are dropped, across groups.
+ * Critical logs can optionally be written through to another (disk) persistence so that
+ * they survive process restarts.
+ */
+public class MemoryPersistence extends Persistence {
+
+    /**
+     * Order entries by identifier, which is their insertion order.
+     */
+    private static final Comparator<Entry> INSERTION_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.mId < rhs.mId ? -1 : (lhs.mId == rhs.mId ? 0 : 1);
+        }
+    };
+
+    /**
+     * Maximum UTF-8 size in bytes of serialized logs kept in memory.
+     */
+    private final long mMaxMemorySize;
+
+    /**
+     * Persistence used for critical logs, null to keep them in memory as well.
+     */
+    private final Persistence mCriticalLogPersistence;
+
+    /**
+     * Logs per group, in insertion order.
+     */
+    @VisibleForTesting
+    final Map<String, Set<Entry>> mEntries = new HashMap<>();
+
+    /**
+     * Pending entry groups. Key is the group concatenated with a UUID.
+     */
+    @VisibleForTesting
+    final Map<String, List<Entry>> mPendingEntryGroups = new HashMap<>();
+
+    /**
+     * Pending entries across all groups.
+     */
+    @VisibleForTesting
+    final Set<Entry> mPendingEntries = new HashSet<>();
+
+    /**
+     * Entries that can be deleted to make room, by priority, oldest first. Pending entries are not included.
+     */
+    @VisibleForTesting
+    final Map<Integer, TreeSet<Entry>> mEvictionQueues = new HashMap<>();
+
+    /**
+     * Batch identifiers of {@link #mCriticalLogPersistence} matching our batch identifiers.
+     */
+    private final Map<String, String> mCriticalLogBatchIds = new HashMap<>();
+
+    /**
+     * Number of logs from {@link #mCriticalLogPersistence}, which come first in our batches.
+     */
+    private final Map<String, Integer> mCriticalLogCounts = new HashMap<>();
+
+    /**
+     * Current UTF-8 size in bytes of serialized logs.
+     */
+    private long mCurrentSize;
+
+    /**
+     * Next entry identifier.
+     */
+    private long mNextId;
+
+    /**
+     * Init.
+     *
+     * @param maxMemorySize          maximum UTF-8 size in bytes of serialized logs kept in memory.
+     * @param criticalLogPersistence persistence to write critical logs to, or null to keep them in memory.
+     */
+    public MemoryPersistence(long maxMemorySize, @Nullable Persistence criticalLogPersistence) {
+        mMaxMemorySize = maxMemorySize;
+        mCriticalLogPersistence = criticalLogPersistence;
+    }
+
+    @Override
+    public void setLogSerializer(@NonNull LogSerializer logSerializer) {
+        super.setLogSerializer(logSerializer);
+        if (mCriticalLogPersistence != null) {
+            mCriticalLogPersistence.setLogSerializer(logSerializer);
+        }
+    }
+
+    /**
+     * Applies to the critical log persistence if any, memory budget is set at construction time.
+     */
+    @Override
+    public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        return mCriticalLogPersistence == null || mCriticalLogPersistence.setMaxStorageSize(maxStorageSizeInBytes);
+    }
+
+    @Override
+    public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.PERSISTENCE_NORMAL, to = Flags.PERSISTENCE_CRITICAL) int flags) throws PersistenceException {
+        int priority = Flags.getPersistenceFlag(flags, false);
+        if (priority == PERSISTENCE_CRITICAL && mCriticalLogPersistence != null) {
+            AppCenterLog.debug(LOG_TAG, "Writing critical log of type " + log.getType() + " through to disk.");
+            return mCriticalLogPersistence.putLog(log, group, flags);
+        }
+        String payload;
+        try {
+            payload = getLogSerializer().serializeLog(log);
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string", e);
+        }
+        long size = getUtf8Size(payload);
+        if (size > mMaxMemorySize) {
+            throw new PersistenceException("Log is too large (" + size + " bytes) to store in memory. " +
+                    "Current maximum memory storage size is " + mMaxMemorySize + " bytes.");
+        }
+        while (mCurrentSize + size > mMaxMemorySize) {
+            Entry victim = null;
+            for (int victimPriority = PERSISTENCE_NORMAL; victimPriority <= priority && victim == null; victimPriority++) {
+                TreeSet<Entry> queue = mEvictionQueues.get(victimPriority);
+                if (queue != null && !queue.isEmpty()) {
+                    victim = queue.first();
+                }
+            }
+            if (victim == null) {
+                throw new PersistenceException("Memory storage is full and no log with lower or equal priority can be deleted.");
+            }
+            AppCenterLog.debug(LOG_TAG, "Memory storage is full, deleted log id=" + victim.mId);
+            removeEntry(victim);
+        }
+        String targetToken = null;
+        String targetKey = null;
+        if (log instanceof CommonSchemaLog) {
+            targetToken = log.getTransmissionTargetTokens().iterator().next();
+            targetKey = PartAUtils.getTargetKey(targetToken);
+        }
+        Set<Entry> entries = mEntries.get(group);
+        if (entries == null) {
+            entries = new LinkedHashSet<>();
+            mEntries.put(group, entries);
+        }
+        Entry entry = new Entry(mNextId++, group, payload, size, log.getType(), targetToken, targetKey, priority);
+        entries.add(entry);
+        addEvictionCandidate(entry);
+        mCurrentSize += size;
+        AppCenterLog.debug(LOG_TAG, "Stored a log in memory for log type " + log.getType() + " with id=" + entry.mId);
+        return entry.mId;
+    }
+
+    /**
+     * Get the UTF-8 size of a string without encoding it.
+     */
+    @VisibleForTesting
+    static long getUtf8Size(String string) {
+        long size = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                size++;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Allow an entry to be deleted to make room.
+     */
+    private void addEvictionCandidate(Entry entry) {
+        TreeSet<Entry> queue = mEvictionQueues.get(entry.mPriority);
+        if (queue == null) {
+            queue = new TreeSet<>(INSERTION_ORDER);
+            mEvictionQueues.put(entry.mPriority, queue);
+        }
+        queue.add(entry);
+    }
+
+    /**
+     * Prevent an entry from being deleted to make room.
+     */
+    private void removeEvictionCandidate(Entry entry) {
+        TreeSet<Entry> queue = mEvictionQueues.get(entry.mPriority);
+        if (queue != null) {
+            queue.remove(entry);
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        removeEvictionCandidate(entry);
+        Set<Entry> entries = mEntries.get(entry.mGroup);
+        if (entries != null && entries.remove(entry)) {
+            mCurrentSize -= entry.mSize;
+            if (entries.isEmpty()) {
+                mEntries.remove(entry.mGroup);
+            }
+        }
+        mPendingEntries.remove(entry);
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String id) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from memory for " + group + " with " + id);
+        List<Entry> entries = mPendingEntryGroups.remove(group + id);
+        if (entries != null) {
+            for (Entry entry : entries) {
+                removeEntry(entry);
+            }
+        }
+        mCriticalLogCounts.remove(group + id);
+        String criticalLogBatchId = mCriticalLogBatchIds.remove(group + id);
+        if (criticalLogBatchId != null) {
+            mCriticalLogPersistence.deleteLogs(group, criticalLogBatchId);
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from memory for " + group);
+        Set<Entry> entries = mEntries.get(group);
+        if (entries != null) {
+            for (Entry entry : new ArrayList<>(entries)) {
+                removeEntry(entry);
+            }
+        }
+        for (Iterator<String> iterator = mPendingEntryGroups.keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().startsWith(group)) {
+                iterator.remove();
+            }
+        }
+        for (Iterator<String> iterator = mCriticalLogBatchIds.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(group)) {
+                iterator.remove();
+                mCriticalLogCounts.remove(key);
+            }
+        }
+        if (mCriticalLogPersistence != null) {
+            mCriticalLogPersistence.deleteLogs(group);
+        }
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        Set<Entry> entries = mEntries.get(group);
+        int count = entries == null ? 0 : entries.size();
+        if (mCriticalLogPersistence != null) {
+            count += mCriticalLogPersistence.countLogs(group);
+        }
+        return count;
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+        AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from memory for " + group);
+
+        /* Critical logs written through to disk come first. */
+        int outLogsSize = outLogs.size();
+        String criticalLogBatchId = null;
+        if (mCriticalLogPersistence != null) {
+            criticalLogBatchId = mCriticalLogPersistence.getLogs(group, pausedTargetKeys, limit, outLogs);
+        }
+        int criticalLogCount = outLogs.size() - outLogsSize;
+        int count = criticalLogCount;
+
+        /* Then memory logs by priority, in insertion order. */
+        Map<Entry, Log> candidates = new LinkedHashMap<>();
+        List<Entry> failedEntries = new ArrayList<>();
+        Set<Entry> entries = mEntries.get(group);
+        if (entries != null) {
+            for (int priority = PERSISTENCE_CRITICAL; priority >= PERSISTENCE_NORMAL; priority--) {
+                for (Entry entry : entries) {
+                    if (count >= limit) {
+                        break;
+                    }
+                    if (entry.mPriority != priority || mPendingEntries.contains(entry) || pausedTargetKeys.contains(entry.mTargetKey)) {
+                        continue;
+                    }
+                    try {
+                        Log log = getLogSerializer().deserializeLog(entry.mPayload, entry.mType);
+                        if (entry.mTargetToken != null) {
+                            log.addTransmissionTarget(entry.mTargetToken);
+                        }
+                        candidates.put(entry, log);
+                        count++;
+                    } catch (JSONException e) {
+                        AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in memory", e);
+                        failedEntries.add(entry);
+                    }
+                }
+            }
+        }
+        for (Entry entry : failedEntries) {
+            removeEntry(entry);
+        }
+        if (count <= 0) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in memory at the moment");
+            return null;
+        }
+
+        /* Mark logs as pending. */
+        String id = UUIDUtils.randomUUID().toString();
+        AppCenterLog.debug(LOG_TAG, "Returning " + count + " log(s) with an ID, " + id);
+        List<Entry> pendingEntryGroup = new ArrayList<>(candidates.size());
+        for (Map.Entry<Entry, Log> candidate : candidates.entrySet()) {
+            mPendingEntries.add(candidate.getKey());
+            removeEvictionCandidate(candidate.getKey());
+            pendingEntryGroup.add(candidate.getKey());
+            outLogs.add(candidate.getValue());
+        }
+        mPendingEntryGroups.put(group + id, pendingEntryGroup);
+        if (criticalLogBatchId != null) {
+            mCriticalLogBatchIds.put(group + id, criticalLogBatchId);
+            mCriticalLogCounts.put(group + id, criticalLogCount);
+        }
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Batches start with the logs of the critical log persistence, which splits its own part.
+     */
+    @Override
+    @Nullable
+    public String splitLogs(@NonNull String group, @NonNull String id, int fromIndex, int toIndex) {
+        String key = group + id;
+        String criticalLogBatchId = mCriticalLogBatchIds.get(key);
+        int criticalLogCount = criticalLogBatchId == null ? 0 : mCriticalLogCounts.get(key);
+        String newId = splitPendingGroup(mPendingEntryGroups, group, id, Math.max(fromIndex - criticalLogCount, 0), Math.max(toIndex - criticalLogCount, 0));
+        if (newId != null && fromIndex < criticalLogCount) {
+            int movedCount = Math.min(toIndex, criticalLogCount) - fromIndex;
+            String newCriticalLogBatchId = mCriticalLogPersistence.splitLogs(group, criticalLogBatchId, fromIndex, fromIndex + movedCount);
+            if (newCriticalLogBatchId != null) {
+                mCriticalLogBatchIds.put(group + newId, newCriticalLogBatchId);
+                mCriticalLogCounts.put(group + newId, movedCount);
+                mCriticalLogCounts.put(key, criticalLogCount - movedCount);
+            }
+        }
+        return newId;
+    }
+
+    @Override
+    public void clearPendingLogState() {
+        for (Entry entry : mPendingEntries) {
+            addEvictionCandidate(entry);
+        }
+        mPendingEntries.clear();
+        mPendingEntryGroups.clear();
+        mCriticalLogBatchIds.clear();
+        mCriticalLogCounts.clear();
+        if (mCriticalLogPersistence != null) {
+            mCriticalLogPersistence.clearPendingLogState();
+        }
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
+    }
+
+    @Override
+    public void close() {
+        if (mCriticalLogPersistence != null) {
+            try {
+                mCriticalLogPersistence.close();
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to close critical log persistence", e);
+            }
+        }
+    }
+
+    /**
+     * Log kept in memory.
+     */
+    @VisibleForTesting
+    static class Entry {
+
+        final long mId;
+
+        final String mGroup;
+
+        final String mPayload;
+
+        final long mSize;
+
+        final String mType;
+
+        final String mTargetToken;
+
+        final String mTargetKey;
+
+        final int mPriority;
+
+        Entry(long id, String group, String payload, long size, String type, String targetToken, String targetKey, int priority) {
+            mId = id;
+            mGroup = group;
+            mPayload = payload;
+            mSize = size;
+            mType = type;
+            mTargetToken = targetToken;
+            mTargetKey = targetKey;
+            mPriority = priority;
+        }
+    }
+}
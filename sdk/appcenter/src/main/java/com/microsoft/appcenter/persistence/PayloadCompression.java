@@ -0,0 +1,153 @@
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of serialized log payloads using a preset dictionary.
+ * <p>
+ * Payloads are small JSON documents sharing most of their field names and device values,
+ * which plain deflate cannot exploit on a single row. The dictionary primes the compressor
+ * with the typical shape of {@code EventLog} and {@code CommonSchemaLog} payloads.
+ */
+final class PayloadCompression {
+
+    /**
+     * Payload is stored as plain JSON text.
+     */
+    static final int NONE = 0;
+
+    /**
+     * Payload is stored deflated with {@link #DICTIONARY_V1}.
+     * The dictionary must never change for this value: a new value is needed instead.
+     */
+    static final int DEFLATE_DICTIONARY_V1 = 1;
+
+    /**
+     * Preset dictionary, most frequent strings are at the end as deflate favors short distances.
+     */
+    @VisibleForTesting
+    static final String DICTIONARY_V1 = "" +
+
+            /* Common schema log. */
+            "{\"ver\":\"3.0\",\"name\":\"\",\"time\":\"\",\"popSample\":100.0,\"iKey\":\"o:\",\"flags\":1,\"cV\":\"\"," +
+            "\"ext\":{\"protocol\":{\"ticketKeys\":[],\"devMake\":\"\",\"devModel\":\"\"}," +
+            "\"user\":{\"localId\":\"c:\",\"locale\":\"en-US\"},\"os\":{\"name\":\"Android\",\"ver\":\"\"}," +
+            "\"app\":{\"id\":\"a:\",\"ver\":\"\",\"locale\":\"en-US\",\"userId\":\"c:\"},\"net\":{\"provider\":\"\"}," +
+            "\"sdk\":{\"libVer\":\"appcenter.android-\",\"epoch\":\"\",\"seq\":1,\"installId\":\"\"}," +
+            "\"loc\":{\"tz\":\"+00:00\"},\"device\":{\"localId\":\"\"}," +
+            "\"metadata\":{\"f\":{}}},\"data\":{\"baseType\":\"\",\"baseData\":{}}}" +
+
+            /* App Center log. */
+            "{\"type\":\"startSession\",\"type\":\"page\",\"type\":\"event\",\"properties\":{}," +
+            "\"typedProperties\":[{\"type\":\"boolean\",\"name\":\"\",\"value\":true}," +
+            "{\"type\":\"number\",\"name\":\"\",\"value\":0}," +
+            "{\"type\":\"dateTime\",\"name\":\"\",\"value\":\"\"}," +
+            "{\"type\":\"string\",\"name\":\"\",\"value\":\"\"}]," +
+            "\"timestamp\":\"\",\"sid\":\"\",\"userId\":\"\",\"distributionGroupId\":\"\"," +
+            "\"device\":{\"sdkName\":\"appcenter.android\",\"sdkVersion\":\"\"," +
+            "\"wrapperSdkVersion\":\"\",\"wrapperSdkName\":\"\",\"wrapperRuntimeVersion\":\"\"," +
+            "\"liveUpdateReleaseLabel\":\"\",\"liveUpdateDeploymentKey\":\"\",\"liveUpdatePackageHash\":\"\"," +
+            "\"model\":\"\",\"oemName\":\"\",\"osName\":\"Android\",\"osVersion\":\"\",\"osBuild\":\"\"," +
+            "\"osApiLevel\":,\"locale\":\"en_US\",\"timeZoneOffset\":0,\"screenSize\":\"\"," +
+            "\"appVersion\":\"\",\"carrierName\":\"\",\"carrierCountry\":\"\",\"appBuild\":\"\",\"appNamespace\":\"com.\"}," +
+            "\"id\":\"\",\"name\":\"\"}";
+
+    /**
+     * Encoded dictionary.
+     */
+    private static final byte[] DICTIONARY_V1_BYTES = getBytes(DICTIONARY_V1);
+
+    @VisibleForTesting
+    PayloadCompression() {
+
+        /* Hide constructor in utils pattern. */
+    }
+
+    private static byte[] getBytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+
+            /* UTF-8 is always supported. */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compress a payload with {@link #DEFLATE_DICTIONARY_V1}.
+     *
+     * @param payload payload to compress.
+     * @return compressed payload, or null if compression does not reduce the size.
+     */
+    @Nullable
+    static byte[] compress(@NonNull String payload) {
+        byte[] input = getBytes(payload);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY_V1_BYTES);
+            deflater.setInput(input);
+            deflater.finish();
+
+            /* Give up as soon as the output is not smaller than the input. */
+            byte[] buffer = new byte[input.length];
+            int length = 0;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            byte[] output = new byte[length];
+            System.arraycopy(buffer, 0, output, 0, length);
+            return output;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress a payload.
+     *
+     * @param compression compression flag the payload was stored with.
+     * @param data        compressed payload.
+     * @return JSON payload.
+     * @throws DataFormatException if the data or the compression flag is invalid.
+     */
+    @NonNull
+    static String decompress(int compression, @NonNull byte[] data) throws DataFormatException {
+        if (compression != DEFLATE_DICTIONARY_V1) {
+            throw new DataFormatException("Unsupported payload compression: " + compression);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+
+            /* Raw streams do not request the dictionary, set it upfront. */
+            inflater.setDictionary(DICTIONARY_V1_BYTES);
+            inflater.setInput(data);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated compressed payload.");
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+
+            /* UTF-8 is always supported. */
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -7,10 +7,13 @@ import android.support.annotation.Nullable;
 import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.utils.UUIDUtils;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Abstract class for Persistence service.
@@ -69,6 +72,46 @@ public abstract class Persistence implements Closeable {
     @Nullable
     public abstract String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs);
 
+    /**
+     * Moves logs of a set returned by {@link #getLogs(String, Collection, int, List)} to a new set,
+     * so that they can be deleted separately.
+     *
+     * @param group     The group of the storage for logs.
+     * @param id        The ID of the set of logs to split.
+     * @param fromIndex Index of the first log to move, in the order logs were returned.
+     * @param toIndex   Index after the last log to move.
+     * @return An ID for the moved logs. {@code null} if no set exists for {@code id} or if sets cannot be
+     * split, which is the default: the set is then only sent and deleted as a whole.
+     */
+    @Nullable
+    public String splitLogs(@NonNull String group, @NonNull String id, int fromIndex, int toIndex) {
+        return null;
+    }
+
+    /**
+     * Moves a range of a pending group to a new pending group, see {@link #splitLogs(String, String, int, int)}.
+     *
+     * @param pendingGroups pending groups, keyed by group concatenated with the ID.
+     * @param group         The group of the storage for logs.
+     * @param id            The ID of the pending group to split.
+     * @param fromIndex     Index of the first element to move.
+     * @param toIndex       Index after the last element to move.
+     * @param <T>           Type of pending elements.
+     * @return ID of the new pending group, {@code null} if no pending group exists for {@code id}.
+     */
+    @Nullable
+    static <T> String splitPendingGroup(Map<String, List<T>> pendingGroups, String group, String id, int fromIndex, int toIndex) {
+        List<T> pendingGroup = pendingGroups.get(group + id);
+        if (pendingGroup == null) {
+            return null;
+        }
+        List<T> range = pendingGroup.subList(fromIndex, toIndex);
+        String newId = UUIDUtils.randomUUID().toString();
+        pendingGroups.put(group + newId, new ArrayList<>(range));
+        range.clear();
+        return newId;
+    }
+
     /**
      * Clears all associations between logs of the {@code group} and ids returned by {@link #getLogs(String, Collection, int, List)}}.
      */
@@ -79,7 +122,7 @@ public abstract class Persistence implements Closeable {
      *
      * @return The log serializer instance.
      */
-    LogSerializer getLogSerializer() {
+    public LogSerializer getLogSerializer() {
         if (mLogSerializer == null) {
             throw new IllegalStateException("logSerializer not configured");
         }
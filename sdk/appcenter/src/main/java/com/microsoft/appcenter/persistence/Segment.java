@@ -0,0 +1,540 @@
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Append-only segment file used by {@link SegmentPersistence}.
+ * <p>
+ * A segment is a sequence of CRC-framed records: a 4 bytes body length, a 4 bytes CRC32 of the
+ * body then the body. Records are never modified or removed, their offsets are appended to a
+ * companion acknowledgement file instead. The segment is deleted as a whole once every record
+ * is acknowledged.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+class Segment implements Closeable {
+
+    /**
+     * Segment file extension.
+     */
+    static final String SEGMENT_FILE_EXTENSION = ".seg";
+
+    /**
+     * Acknowledgement file extension.
+     */
+    static final String ACK_FILE_EXTENSION = ".ack";
+
+    /**
+     * Size of a record frame header (body length and CRC).
+     */
+    @VisibleForTesting
+    static final int FRAME_HEADER_SIZE = 8;
+
+    /**
+     * Size of an acknowledgement entry (record offset).
+     */
+    @VisibleForTesting
+    static final int ACK_ENTRY_SIZE = 4;
+
+    /**
+     * Segment identifier, increasing within a group.
+     */
+    final long mId;
+
+    /**
+     * Records file.
+     */
+    private final File mFile;
+
+    /**
+     * Acknowledgement file.
+     */
+    private final File mAckFile;
+
+    /**
+     * Records not yet acknowledged, in append order.
+     */
+    private final Set<Record> mRecords = new LinkedHashSet<>();
+
+    /**
+     * Total number of valid records written in the segment.
+     */
+    private int mRecordCount;
+
+    /**
+     * Number of acknowledged records.
+     */
+    private int mAckCount;
+
+    /**
+     * Size of the records file in bytes.
+     */
+    private long mSize;
+
+    /**
+     * Channel used to append records, null when the segment is sealed.
+     */
+    private FileChannel mWriter;
+
+    /**
+     * Channel used to append acknowledgements, opened lazily.
+     */
+    private FileChannel mAckWriter;
+
+    /**
+     * Read only memory mapping of the records file.
+     */
+    private MappedByteBuffer mMapping;
+
+    /**
+     * Init.
+     *
+     * @param directory group directory.
+     * @param id        segment identifier.
+     */
+    private Segment(File directory, long id) {
+        mId = id;
+        mFile = new File(directory, id + SEGMENT_FILE_EXTENSION);
+        mAckFile = new File(directory, id + ACK_FILE_EXTENSION);
+    }
+
+    /**
+     * Create a new empty segment ready for appending.
+     *
+     * @param directory group directory.
+     * @param id        segment identifier.
+     * @return new segment.
+     * @throws IOException if the segment file cannot be created.
+     */
+    static Segment create(File directory, long id) throws IOException {
+        Segment segment = new Segment(directory, id);
+        segment.mWriter = new RandomAccessFile(segment.mFile, "rw").getChannel();
+        return segment;
+    }
+
+    /**
+     * Open an existing segment and rebuild its index.
+     * Any torn or corrupted data at the end of the records file (for example an interrupted write)
+     * is truncated so that appending can safely resume after the last valid record.
+     *
+     * @param directory group directory.
+     * @param id        segment identifier.
+     * @param writable  true to keep the segment open for appending (active segment).
+     * @return the segment.
+     * @throws IOException if the segment cannot be read.
+     */
+    static Segment open(File directory, long id, boolean writable) throws IOException {
+        Segment segment = new Segment(directory, id);
+        Set<Integer> acknowledgedOffsets = segment.readAcknowledgements();
+        RandomAccessFile file = new RandomAccessFile(segment.mFile, "rw");
+        FileChannel channel = file.getChannel();
+        try {
+            long length = channel.size();
+            int validEnd = 0;
+            if (length > 0) {
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                byte[] body = new byte[0];
+                CRC32 crc = new CRC32();
+                while (mapping.remaining() >= FRAME_HEADER_SIZE) {
+                    int offset = mapping.position();
+                    int bodyLength = mapping.getInt();
+                    int checksum = mapping.getInt();
+                    if (bodyLength <= 0 || bodyLength > mapping.remaining()) {
+                        break;
+                    }
+                    if (body.length < bodyLength) {
+                        body = new byte[bodyLength];
+                    }
+                    mapping.get(body, 0, bodyLength);
+                    crc.reset();
+                    crc.update(body, 0, bodyLength);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    Record record = segment.decodeRecord(offset, bodyLength, body);
+                    segment.mRecordCount++;
+                    if (acknowledgedOffsets.remove(offset)) {
+                        segment.mAckCount++;
+                    } else {
+                        segment.mRecords.add(record);
+                    }
+                    validEnd = mapping.position();
+                }
+            }
+            if (validEnd < length) {
+                AppCenterLog.error(LOG_TAG, "Segment " + segment.mFile + " has " + (length - validEnd) + " invalid trailing bytes, truncating.");
+                channel.truncate(validEnd);
+            }
+            segment.mSize = validEnd;
+            if (!acknowledgedOffsets.isEmpty()) {
+                AppCenterLog.warn(LOG_TAG, "Segment " + segment.mFile + " has acknowledgements for unknown records, ignoring them.");
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        if (writable) {
+            channel.position(segment.mSize);
+            segment.mWriter = channel;
+        } else {
+            file.close();
+        }
+        return segment;
+    }
+
+    /**
+     * Encode a record body.
+     *
+     * @param priority    persistence priority.
+     * @param type        log type.
+     * @param targetKey   target key, can be null.
+     * @param targetToken encrypted target token, can be null.
+     * @param payload     serialized log.
+     * @return encoded body.
+     * @throws IOException if encoding fails.
+     */
+    @NonNull
+    static byte[] encodeBody(int priority, String type, @Nullable String targetKey, @Nullable String targetToken, @NonNull String payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length() + 64);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(priority);
+        output.writeUTF(type == null ? "" : type);
+        output.writeUTF(targetKey == null ? "" : targetKey);
+        output.writeUTF(targetToken == null ? "" : targetToken);
+        output.write(payload.getBytes("UTF-8"));
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Get the number of bytes a record body uses on disk once framed.
+     *
+     * @param body record body.
+     * @return frame size.
+     */
+    static int getFrameSize(byte[] body) {
+        return FRAME_HEADER_SIZE + body.length;
+    }
+
+    /**
+     * Decode record metadata from a body.
+     */
+    private Record decodeRecord(int offset, int bodyLength, byte[] body) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(body, 0, bodyLength));
+        int priority = input.readByte();
+        input.readUTF();
+        String targetKey = input.readUTF();
+        return new Record(this, offset, bodyLength, priority, targetKey.isEmpty() ? null : targetKey);
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param body      record body as returned by {@link #encodeBody}.
+     * @param priority  persistence priority.
+     * @param targetKey target key, can be null.
+     * @param sync      true to flush the record to the storage device before returning.
+     * @return the appended record.
+     * @throws IOException if the write fails.
+     */
+    Record append(byte[] body, int priority, @Nullable String targetKey, boolean sync) throws IOException {
+        if (mWriter == null) {
+            throw new IOException("Segment " + mFile + " is sealed.");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer frame = ByteBuffer.allocate(getFrameSize(body));
+        frame.putInt(body.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(body);
+        frame.flip();
+        int offset = (int) mSize;
+        try {
+            while (frame.hasRemaining()) {
+                mWriter.write(frame);
+            }
+            if (sync) {
+                mWriter.force(false);
+            }
+        } catch (IOException e) {
+
+            /* Drop a partial frame so that next append does not follow garbage. */
+            mWriter.truncate(offset);
+            mWriter.position(offset);
+            throw e;
+        }
+        mSize += frame.limit();
+        mRecordCount++;
+        Record record = new Record(this, offset, body.length, priority, targetKey);
+        mRecords.add(record);
+        return record;
+    }
+
+    /**
+     * Read and verify the body of a record.
+     *
+     * @param record record to read.
+     * @return record body.
+     * @throws IOException if the record cannot be read or is corrupted.
+     */
+    byte[] readBody(Record record) throws IOException {
+        int end = record.mOffset + FRAME_HEADER_SIZE + record.mLength;
+        if (mMapping == null || mMapping.capacity() < end) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                mMapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+            } finally {
+                file.close();
+            }
+        }
+        ByteBuffer frame = mMapping.duplicate();
+        frame.position(record.mOffset);
+        int bodyLength = frame.getInt();
+        int checksum = frame.getInt();
+        if (bodyLength != record.mLength) {
+            throw new IOException("Record length mismatch at offset " + record.mOffset + " in " + mFile);
+        }
+        byte[] body = new byte[bodyLength];
+        frame.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, bodyLength);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Record checksum mismatch at offset " + record.mOffset + " in " + mFile);
+        }
+        return body;
+    }
+
+    /**
+     * Persist the acknowledgement of a record.
+     *
+     * @param record record to acknowledge.
+     * @throws IOException if the acknowledgement cannot be written. The record is still
+     *                     considered acknowledged in memory and will be delivered again after restart.
+     */
+    void acknowledge(Record record) throws IOException {
+        if (!mRecords.remove(record)) {
+            return;
+        }
+        mAckCount++;
+        if (isFullyAcknowledged()) {
+
+            /* The whole segment is going to be deleted, no need to persist the acknowledgement. */
+            return;
+        }
+        if (mAckWriter == null) {
+            mAckWriter = new RandomAccessFile(mAckFile, "rw").getChannel();
+            mAckWriter.position(mAckWriter.size());
+        }
+        ByteBuffer entry = ByteBuffer.allocate(ACK_ENTRY_SIZE);
+        entry.putInt(record.mOffset);
+        entry.flip();
+        while (entry.hasRemaining()) {
+            mAckWriter.write(entry);
+        }
+    }
+
+    /**
+     * Read acknowledged offsets, truncating any partially written entry.
+     */
+    private Set<Integer> readAcknowledgements() throws IOException {
+        Set<Integer> offsets = new HashSet<>();
+        if (!mAckFile.exists()) {
+            return offsets;
+        }
+        RandomAccessFile file = new RandomAccessFile(mAckFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            long validLength = length - length % ACK_ENTRY_SIZE;
+            if (validLength > 0) {
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, validLength);
+                while (mapping.hasRemaining()) {
+                    offsets.add(mapping.getInt());
+                }
+            }
+            if (validLength < length) {
+                AppCenterLog.warn(LOG_TAG, "Truncating partial acknowledgement in " + mAckFile);
+                channel.truncate(validLength);
+            }
+        } finally {
+            file.close();
+        }
+        return offsets;
+    }
+
+    /**
+     * @return records not yet acknowledged, in append order.
+     */
+    Collection<Record> getRecords() {
+        return new ArrayList<>(mRecords);
+    }
+
+    /**
+     * @return last modification time of the segment file, which is the time of its last append.
+     */
+    long getLastModified() {
+        return mFile.lastModified();
+    }
+
+    /**
+     * @return number of records not yet acknowledged.
+     */
+    int getRecordCount() {
+        return mRecords.size();
+    }
+
+    /**
+     * @return true if the segment is open for appending.
+     */
+    boolean isWritable() {
+        return mWriter != null;
+    }
+
+    /**
+     * @return records file size in bytes.
+     */
+    long getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return bytes used on disk by records and acknowledgements.
+     */
+    long getDiskSize() {
+        return mSize + (long) mAckCount * ACK_ENTRY_SIZE;
+    }
+
+    /**
+     * @return true if every record was acknowledged.
+     */
+    boolean isFullyAcknowledged() {
+        return mAckCount >= mRecordCount;
+    }
+
+    /**
+     * Stop appending to this segment.
+     */
+    void seal() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to close segment " + mFile, e);
+            }
+            mWriter = null;
+        }
+    }
+
+    /**
+     * Close the segment and delete its files.
+     */
+    void delete() {
+        close();
+
+        //noinspection ResultOfMethodCallIgnored we don't do anything more if it fails, open will fix it.
+        mAckFile.delete();
+
+        //noinspection ResultOfMethodCallIgnored idem.
+        mFile.delete();
+    }
+
+    @Override
+    public void close() {
+        seal();
+        if (mAckWriter != null) {
+            try {
+                mAckWriter.close();
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to close acknowledgements " + mAckFile, e);
+            }
+            mAckWriter = null;
+        }
+        mMapping = null;
+    }
+
+    @Override
+    public String toString() {
+        return mFile.toString();
+    }
+
+    /**
+     * Location and metadata of a record in a segment.
+     */
+    static class Record {
+
+        /**
+         * Segment containing the record.
+         */
+        final Segment mSegment;
+
+        /**
+         * Frame offset in the segment.
+         */
+        final int mOffset;
+
+        /**
+         * Body length.
+         */
+        final int mLength;
+
+        /**
+         * Persistence priority.
+         */
+        final int mPriority;
+
+        /**
+         * Target key, null if not a common schema log.
+         */
+        final String mTargetKey;
+
+        /**
+         * Eviction order across groups, assigned by {@link SegmentPersistence}.
+         */
+        long mSequence;
+
+        Record(Segment segment, int offset, int length, int priority, String targetKey) {
+            mSegment = segment;
+            mOffset = offset;
+            mLength = length;
+            mPriority = priority;
+            mTargetKey = targetKey;
+        }
+
+        /**
+         * @return identifier unique among records of the same group.
+         */
+        long getId() {
+            return mSegment.mId << 32 | mOffset;
+        }
+
+        /**
+         * @return bytes used on disk by the framed record.
+         */
+        int getFrameSize() {
+            return FRAME_HEADER_SIZE + mLength;
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.UUIDUtils;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+import static com.microsoft.appcenter.Flags.PERSISTENCE_CRITICAL;
+import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
+
+/**
+ * Persistence backed by append-only segment files.
+ * <p>
+ * Each group has one active segment that logs are sequentially appended to. Sending a batch
+ * successfully appends acknowledgements instead of deleting rows, and a segment file is deleted
+ * once all of its records are acknowledged. Storage is thus reclaimed at segment granularity.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+public class SegmentPersistence extends Persistence {
+
+    /**
+     * Sub path for directory where to store segments.
+     */
+    private static final String SEGMENTS_DIRECTORY = "/appcenter/segments";
+
+    /**
+     * Default maximum storage size, used until {@link #setMaxStorageSize(long)} is called.
+     */
+    @VisibleForTesting
+    static final long DEFAULT_MAX_STORAGE_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * Number of segments the maximum storage size is split into to compute segment size.
+     */
+    private static final int SEGMENTS_PER_STORAGE = 16;
+
+    /**
+     * Minimum segment size in bytes.
+     */
+    private static final long MIN_SEGMENT_SIZE = 4 * 1024;
+
+    /**
+     * Maximum segment size in bytes.
+     */
+    private static final long MAX_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * Order records by sequence number.
+     */
+    private static final Comparator<Segment.Record> SEQUENCE_ORDER = new Comparator<Segment.Record>() {
+
+        @Override
+        public int compare(Segment.Record lhs, Segment.Record rhs) {
+            return lhs.mSequence < rhs.mSequence ? -1 : (lhs.mSequence == rhs.mSequence ? 0 : 1);
+        }
+    };
+
+    /**
+     * Order segments by last modification time.
+     */
+    private static final Comparator<Segment> MODIFICATION_ORDER = new Comparator<Segment>() {
+
+        @Override
+        public int compare(Segment lhs, Segment rhs) {
+            long lhsModified = lhs.getLastModified();
+            long rhsModified = rhs.getLastModified();
+            return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+        }
+    };
+
+    /**
+     * Application context.
+     */
+    private final Context mContext;
+
+    /**
+     * Base directory, containing one sub directory per group.
+     */
+    private final File mBaseDirectory;
+
+    /**
+     * Segments per group, in append order. The last segment is the active one if writable.
+     */
+    @VisibleForTesting
+    final Map<String, List<Segment>> mSegments = new HashMap<>();
+
+    /**
+     * Pending record groups. Key is the group concatenated with a UUID.
+     */
+    @VisibleForTesting
+    final Map<String, List<Segment.Record>> mPendingRecordGroups = new HashMap<>();
+
+    /**
+     * Pending records across all groups.
+     */
+    @VisibleForTesting
+    final Set<Segment.Record> mPendingRecords = new HashSet<>();
+
+    /**
+     * Records that can be deleted to make room, by priority, oldest first. Pending records are not included.
+     */
+    @VisibleForTesting
+    final Map<Integer, TreeSet<Segment.Record>> mEvictionQueues = new HashMap<>();
+
+    /**
+     * Sequence number of the next stored record.
+     */
+    private long mNextSequence;
+
+    /**
+     * Bytes used on disk by all segments.
+     */
+    private long mCurrentSize;
+
+    /**
+     * Maximum storage size in bytes.
+     */
+    private long mMaxStorageSize = DEFAULT_MAX_STORAGE_SIZE;
+
+    /**
+     * Size after which the active segment is sealed and a new one is started.
+     */
+    private long mSegmentSize;
+
+    /**
+     * Initializes persistence in the default directory.
+     *
+     * @param context application context.
+     */
+    public SegmentPersistence(Context context) {
+        this(context, new File(Constants.FILES_PATH + SEGMENTS_DIRECTORY));
+    }
+
+    /**
+     * Initializes persistence and recovers any existing segment.
+     *
+     * @param context       application context.
+     * @param baseDirectory directory where to store segments.
+     */
+    @VisibleForTesting
+    SegmentPersistence(Context context, File baseDirectory) {
+        mContext = context;
+        mBaseDirectory = baseDirectory;
+        updateSegmentSize();
+
+        //noinspection ResultOfMethodCallIgnored we handle errors at read/write time for each file.
+        mBaseDirectory.mkdirs();
+        File[] groupDirectories = mBaseDirectory.listFiles();
+        if (groupDirectories != null) {
+            for (File groupDirectory : groupDirectories) {
+                if (groupDirectory.isDirectory()) {
+                    loadGroup(groupDirectory);
+                }
+            }
+        }
+
+        /* Segments are appended in order, so the time of their last append orders records across groups. */
+        List<Segment> loadedSegments = new ArrayList<>();
+        for (List<Segment> segments : mSegments.values()) {
+            loadedSegments.addAll(segments);
+        }
+        Collections.sort(loadedSegments, MODIFICATION_ORDER);
+        for (Segment segment : loadedSegments) {
+            for (Segment.Record record : segment.getRecords()) {
+                record.mSequence = mNextSequence++;
+                addEvictionCandidate(record);
+            }
+        }
+    }
+
+    /**
+     * Recover segments of a group from disk.
+     */
+    private void loadGroup(File groupDirectory) {
+        List<Long> ids = new ArrayList<>();
+        String[] names = groupDirectory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(Segment.SEGMENT_FILE_EXTENSION)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(0, name.length() - Segment.SEGMENT_FILE_EXTENSION.length())));
+                    } catch (NumberFormatException e) {
+                        AppCenterLog.warn(LOG_TAG, "Ignoring unexpected file in segments directory: " + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            long id = ids.get(i);
+            try {
+                Segment segment = Segment.open(groupDirectory, id, i == ids.size() - 1);
+                if (segment.isFullyAcknowledged()) {
+                    segment.delete();
+                } else {
+                    segments.add(segment);
+                    mCurrentSize += segment.getDiskSize();
+                }
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to open segment " + id + " in " + groupDirectory + ", deleting it.", e);
+
+                //noinspection ResultOfMethodCallIgnored we can't do anything if that fails.
+                new File(groupDirectory, id + Segment.SEGMENT_FILE_EXTENSION).delete();
+
+                //noinspection ResultOfMethodCallIgnored we can't do anything if that fails.
+                new File(groupDirectory, id + Segment.ACK_FILE_EXTENSION).delete();
+            }
+        }
+        if (!segments.isEmpty()) {
+            mSegments.put(groupDirectory.getName(), segments);
+        }
+    }
+
+    private void updateSegmentSize() {
+        mSegmentSize = Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, mMaxStorageSize / SEGMENTS_PER_STORAGE));
+    }
+
+    @Override
+    public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        if (maxStorageSizeInBytes < mCurrentSize) {
+            AppCenterLog.error(LOG_TAG, "Could not change maximum storage size to " + maxStorageSizeInBytes + " bytes, current size is " + mCurrentSize + " bytes.");
+            return false;
+        }
+        mMaxStorageSize = maxStorageSizeInBytes;
+        updateSegmentSize();
+        AppCenterLog.info(LOG_TAG, "Changed maximum storage size to " + maxStorageSizeInBytes + " bytes.");
+        return true;
+    }
+
+    @Override
+    public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.PERSISTENCE_NORMAL, to = Flags.PERSISTENCE_CRITICAL) int flags) throws PersistenceException {
+        try {
+            AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence segments for log type " + log.getType() + " with flags=" + flags);
+            String payload = getLogSerializer().serializeLog(log);
+            String targetKey;
+            String targetToken;
+            if (log instanceof CommonSchemaLog) {
+                targetToken = log.getTransmissionTargetTokens().iterator().next();
+                targetKey = PartAUtils.getTargetKey(targetToken);
+                targetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+            } else {
+                targetKey = null;
+                targetToken = null;
+            }
+            int priority = Flags.getPersistenceFlag(flags, false);
+            byte[] body = Segment.encodeBody(priority, log.getType(), targetKey, targetToken, payload);
+            int frameSize = Segment.getFrameSize(body);
+            if (frameSize > mMaxStorageSize) {
+                throw new PersistenceException("Log is too large (" + frameSize + " bytes) to store in segments. " +
+                        "Current maximum storage size is " + mMaxStorageSize + " bytes.");
+            }
+            makeRoom(frameSize, priority);
+            Segment segment = getActiveSegment(group);
+            long sizeBefore = segment.getDiskSize();
+            Segment.Record record = segment.append(body, priority, targetKey, priority == PERSISTENCE_CRITICAL);
+            mCurrentSize += segment.getDiskSize() - sizeBefore;
+            record.mSequence = mNextSequence++;
+            addEvictionCandidate(record);
+            AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence segments for log type " + log.getType() + " with id=" + record.getId());
+            return record.getId();
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string", e);
+        } catch (IOException e) {
+            throw new PersistenceException("Cannot append log to segment", e);
+        }
+    }
+
+    /**
+     * Get the segment to append to for the group, starting a new segment if needed.
+     */
+    @NonNull
+    private Segment getActiveSegment(String group) throws IOException {
+        List<Segment> segments = mSegments.get(group);
+        if (segments == null) {
+            segments = new ArrayList<>();
+            mSegments.put(group, segments);
+        }
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last != null && last.isWritable() && last.getSize() < mSegmentSize) {
+            return last;
+        }
+        if (last != null) {
+            last.seal();
+        }
+        File directory = getGroupDirectory(group);
+
+        //noinspection ResultOfMethodCallIgnored we'll get an error anyway at write time.
+        directory.mkdirs();
+        Segment segment = Segment.create(directory, last == null ? 0 : last.mId + 1);
+        segments.add(segment);
+        AppCenterLog.debug(LOG_TAG, "Started segment " + segment);
+        return segment;
+    }
+
+    /**
+     * Acknowledge the oldest logs with the lowest priority (lower or equal to the new log priority)
+     * until the new record fits in the storage.
+     */
+    private void makeRoom(int frameSize, int priority) throws PersistenceException {
+        while (mCurrentSize + frameSize > mMaxStorageSize) {
+            Segment.Record victim = null;
+            for (int victimPriority = PERSISTENCE_NORMAL; victimPriority <= priority && victim == null; victimPriority++) {
+                TreeSet<Segment.Record> queue = mEvictionQueues.get(victimPriority);
+                if (queue != null && !queue.isEmpty()) {
+                    victim = queue.first();
+                }
+            }
+            if (victim == null) {
+                throw new PersistenceException("Storage is full and no log with lower or equal priority can be deleted.");
+            }
+            AppCenterLog.debug(LOG_TAG, "Storage is full, deleted log id=" + victim.getId());
+            acknowledge(getGroupName(victim.mSegment), victim);
+        }
+    }
+
+    /**
+     * Allow a record to be deleted to make room.
+     */
+    private void addEvictionCandidate(Segment.Record record) {
+        TreeSet<Segment.Record> queue = mEvictionQueues.get(record.mPriority);
+        if (queue == null) {
+            queue = new TreeSet<>(SEQUENCE_ORDER);
+            mEvictionQueues.put(record.mPriority, queue);
+        }
+        queue.add(record);
+    }
+
+    /**
+     * Prevent a record from being deleted to make room.
+     */
+    private void removeEvictionCandidate(Segment.Record record) {
+        TreeSet<Segment.Record> queue = mEvictionQueues.get(record.mPriority);
+        if (queue != null) {
+            queue.remove(record);
+        }
+    }
+
+    @NonNull
+    @VisibleForTesting
+    File getGroupDirectory(String group) {
+        return new File(mBaseDirectory, group);
+    }
+
+    @Nullable
+    private String getGroupName(Segment segment) {
+        for (Map.Entry<String, List<Segment>> entry : mSegments.entrySet()) {
+            if (entry.getValue().contains(segment)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Acknowledge a record and delete its segment if it was the last record.
+     */
+    private void acknowledge(String group, Segment.Record record) {
+        removeEvictionCandidate(record);
+        Segment segment = record.mSegment;
+        long sizeBefore = segment.getDiskSize();
+        try {
+            segment.acknowledge(record);
+        } catch (IOException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to persist acknowledgement in " + segment + ", log will be sent again after restart.", e);
+        }
+        mCurrentSize += segment.getDiskSize() - sizeBefore;
+        if (segment.isFullyAcknowledged()) {
+            AppCenterLog.debug(LOG_TAG, "All records acknowledged, deleting segment " + segment);
+            mCurrentSize -= segment.getDiskSize();
+            segment.delete();
+            List<Segment> segments = mSegments.get(group);
+            if (segments != null) {
+                segments.remove(segment);
+                if (segments.isEmpty()) {
+                    mSegments.remove(group);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String id) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from the Persistence segments for " + group + " with " + id);
+        List<Segment.Record> records = mPendingRecordGroups.remove(group + id);
+        if (records != null) {
+            for (Segment.Record record : records) {
+                acknowledge(group, record);
+                mPendingRecords.remove(record);
+            }
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from the Persistence segments for " + group);
+        List<Segment> segments = mSegments.remove(group);
+        if (segments != null) {
+            for (Segment segment : segments) {
+                mCurrentSize -= segment.getDiskSize();
+                Collection<Segment.Record> records = segment.getRecords();
+                mPendingRecords.removeAll(records);
+                for (Segment.Record record : records) {
+                    removeEvictionCandidate(record);
+                }
+                segment.delete();
+            }
+        }
+
+        //noinspection ResultOfMethodCallIgnored we are not checking file results either.
+        getGroupDirectory(group).delete();
+        for (Iterator<String> iterator = mPendingRecordGroups.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(group)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        int count = 0;
+        List<Segment> segments = mSegments.get(group);
+        if (segments != null) {
+            for (Segment segment : segments) {
+                count += segment.getRecordCount();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+        AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from the Persistence segments for " + group);
+        Map<Segment.Record, Log> candidates = new LinkedHashMap<>();
+        List<Segment.Record> failedRecords = new ArrayList<>();
+        List<Segment> segments = mSegments.get(group);
+        if (segments != null) {
+
+            /* Critical logs first, then in append order. */
+            for (int priority = PERSISTENCE_CRITICAL; priority >= PERSISTENCE_NORMAL && candidates.size() < limit; priority--) {
+                for (Segment segment : segments) {
+                    for (Segment.Record record : segment.getRecords()) {
+                        if (candidates.size() >= limit) {
+                            break;
+                        }
+                        if (record.mPriority != priority || mPendingRecords.contains(record) || pausedTargetKeys.contains(record.mTargetKey)) {
+                            continue;
+                        }
+                        try {
+                            candidates.put(record, readLog(segment, record));
+                        } catch (JSONException | IOException e) {
+                            AppCenterLog.error(LOG_TAG, "Cannot read a log in the segments", e);
+                            failedRecords.add(record);
+                        }
+                    }
+                }
+            }
+        }
+
+        /* Delete any logs that cannot be read. */
+        if (failedRecords.size() > 0) {
+            for (Segment.Record record : failedRecords) {
+                acknowledge(group, record);
+            }
+            AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be deserialized");
+        }
+        if (candidates.size() <= 0) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in the Persistence segments at the moment");
+            return null;
+        }
+
+        /* Mark logs as pending. */
+        String id = UUIDUtils.randomUUID().toString();
+        AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
+        List<Segment.Record> pendingRecordGroup = new ArrayList<>();
+        for (Map.Entry<Segment.Record, Log> entry : candidates.entrySet()) {
+            mPendingRecords.add(entry.getKey());
+            removeEvictionCandidate(entry.getKey());
+            pendingRecordGroup.add(entry.getKey());
+            outLogs.add(entry.getValue());
+        }
+        mPendingRecordGroups.put(group + id, pendingRecordGroup);
+        return id;
+    }
+
+    /**
+     * Read and deserialize a record.
+     */
+    private Log readLog(Segment segment, Segment.Record record) throws IOException, JSONException {
+        byte[] body = segment.readBody(record);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+        input.readByte();
+        String type = input.readUTF();
+        input.readUTF();
+        String targetToken = input.readUTF();
+        int payloadOffset = body.length - input.available();
+        String payload = new String(body, payloadOffset, body.length - payloadOffset, "UTF-8");
+        Log log = getLogSerializer().deserializeLog(payload, type.isEmpty() ? null : type);
+        if (!targetToken.isEmpty()) {
+            CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decrypt(targetToken, false);
+            log.addTransmissionTarget(data.getDecryptedData());
+        }
+        return log;
+    }
+
+    @Override
+    @Nullable
+    public String splitLogs(@NonNull String group, @NonNull String id, int fromIndex, int toIndex) {
+        return splitPendingGroup(mPendingRecordGroups, group, id, fromIndex, toIndex);
+    }
+
+    @Override
+    public void clearPendingLogState() {
+        for (Segment.Record record : mPendingRecords) {
+            addEvictionCandidate(record);
+        }
+        mPendingRecords.clear();
+        mPendingRecordGroups.clear();
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
+    }
+
+    @Override
+    public void close() {
+        for (List<Segment> segments : mSegments.values()) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+        mSegments.clear();
+        mEvictionQueues.clear();
+    }
+}
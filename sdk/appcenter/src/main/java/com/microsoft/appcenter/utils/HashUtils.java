@@ -48,6 +48,23 @@ public class HashUtils {
         }
     }
 
+    /**
+     * Get a message digest to hash data received in several parts, such as a downloaded file.
+     *
+     * @param algorithm digest algorithm name, such as SHA-256.
+     * @return message digest.
+     */
+    @NonNull
+    public static MessageDigest getMessageDigest(@NonNull String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+
+            /* SHA-256 and MD5 are available on every device. */
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Encode a byte array to a string (hexadecimal) representation.
      *
@@ -55,7 +72,7 @@ public class HashUtils {
      * @return the hexadecimal representation.
      */
     @NonNull
-    private static String encodeHex(@NonNull byte[] bytes) {
+    public static String encodeHex(@NonNull byte[] bytes) {
         char[] output = new char[bytes.length * 2];
         for (int j = 0; j < bytes.length; j++) {
             int v = bytes[j] & 0xFF;
@@ -152,6 +152,20 @@ public class NetworkStateHelper implements Closeable {
         return mNetworkType != null || !mAvailableNetworks.isEmpty();
     }
 
+    /**
+     * Check whether the active network is metered, such as a cellular network.
+     *
+     * @return true if metered, false if not metered or if the state cannot be read.
+     */
+    public boolean isNetworkMetered() {
+        try {
+            return mConnectivityManager.isActiveNetworkMetered();
+        } catch (RuntimeException e) {
+            AppCenterLog.warn(LOG_TAG, "Cannot know if the network is metered", e);
+            return false;
+        }
+    }
+
     /**
      * Handle network available update on API level >= 21.
      */
@@ -1,7 +1,12 @@
 package com.microsoft.appcenter.utils;
 
+import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 import static com.microsoft.appcenter.Constants.COMMON_SCHEMA_PREFIX_SEPARATOR;
 
@@ -31,6 +36,11 @@ public class UserIdContext {
      */
     private String mUserId;
 
+    /**
+     * Listeners of user identifier changes.
+     */
+    private final Set<Listener> mListeners = Collections.newSetFromMap(new ConcurrentHashMap<Listener, Boolean>());
+
     /**
      * Get unique instance.
      *
@@ -113,11 +123,54 @@ public class UserIdContext {
     }
 
     /**
-     * Set current user identifier.
+     * Set current user identifier, listeners are notified if it changed.
      *
      * @param userId user identifier.
      */
-    public synchronized void setUserId(String userId) {
+    public void setUserId(String userId) {
+        if (updateUserId(userId)) {
+            for (Listener listener : mListeners) {
+                listener.onNewUserId(userId);
+            }
+        }
+    }
+
+    private synchronized boolean updateUserId(String userId) {
+        if (userId == null ? mUserId == null : userId.equals(mUserId)) {
+            return false;
+        }
         mUserId = userId;
+        return true;
+    }
+
+    /**
+     * Add a listener of user identifier changes.
+     *
+     * @param listener listener.
+     */
+    public void addListener(@NonNull Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener of user identifier changes.
+     *
+     * @param listener listener.
+     */
+    public void removeListener(@NonNull Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Listener of user identifier changes.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the user identifier changes.
+         *
+         * @param userId new user identifier, can be null.
+         */
+        void onNewUserId(String userId);
     }
 }
@@ -11,6 +11,7 @@ import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -144,6 +145,49 @@ public class FileManager {
         }
     }
 
+    /**
+     * Write the contents of a buffer to a file with a single write, then wait until the data
+     * reaches the storage device.
+     *
+     * @param file     The file instance.
+     * @param contents The content to be written to the file.
+     * @throws IOException If an I/O error occurs
+     */
+    public static void writeAndSync(@NonNull File file, @NonNull ByteArrayOutputStream contents) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            contents.writeTo(outputStream);
+            outputStream.getFD().sync();
+        } finally {
+
+            //noinspection ThrowFromFinallyBlock
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Write bytes to a file, then wait until the data reaches the storage device.
+     *
+     * @param file     The file instance.
+     * @param contents The content to be written to the file.
+     * @throws IOException If an I/O error occurs
+     */
+    public static void writeAndSync(@NonNull File file, @NonNull byte[] contents) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            outputStream.write(contents);
+            outputStream.getFD().sync();
+        } finally {
+
+            //noinspection ThrowFromFinallyBlock
+            outputStream.close();
+        }
+    }
+
     /**
      * Read an object from a file (deserialization).
      *
@@ -11,6 +11,8 @@ import android.os.HandlerThread;
 import android.os.Looper;
 
 import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.http.HttpUtils;
+import com.microsoft.appcenter.http.NetworkWarmUp;
 import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
 import com.microsoft.appcenter.utils.AppCenterLog;
@@ -65,7 +67,10 @@ import static org.powermock.api.mockito.PowerMockito.whenNew;
         ShutdownHelper.class,
         CustomProperties.class,
         InstrumentationRegistryHelper.class,
-        NetworkStateHelper.class
+        NetworkStateHelper.class,
+        ContextHistory.class,
+        HttpUtils.class,
+        NetworkWarmUp.class
 })
 public class AbstractAppCenterTest {
 
@@ -90,6 +95,9 @@ public class AbstractAppCenterTest {
     @Mock
     Application mApplication;
 
+    @Mock
+    ContextHistory mContextHistory;
+
     ApplicationInfo mApplicationInfo;
 
     static void addArgumentToRegistry(String value) {
@@ -122,6 +130,8 @@ public class AbstractAppCenterTest {
         mockStatic(DeviceInfoHelper.class);
         mockStatic(InstrumentationRegistryHelper.class);
         mockStatic(NetworkStateHelper.class);
+        mockStatic(ContextHistory.class);
+        when(ContextHistory.getInstance()).thenReturn(mContextHistory);
 
         /* Mock handlers. */
         Handler handler = mock(Handler.class);
@@ -1,15 +1,31 @@
 package com.microsoft.appcenter;
 
+import android.os.Handler;
+
+import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.MemoryPersistence;
+import com.microsoft.appcenter.persistence.SegmentPersistence;
+import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 public class AppCenterStorageTest extends AbstractAppCenterTest {
 
@@ -101,4 +117,70 @@ public class AppCenterStorageTest extends AbstractAppCenterTest {
         /* And result returned to developer. */
         assertTrue(future.get());
     }
+
+    @Test
+    public void configureInMemoryStorage() throws Exception {
+        MemoryPersistence persistence = mock(MemoryPersistence.class);
+        whenNew(MemoryPersistence.class).withAnyArguments().thenReturn(persistence);
+        AppCenter.setInMemoryStorage(AppCenter.MINIMUM_STORAGE_SIZE, false);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+
+        /* Verify in memory storage is used without any disk persistence. */
+        verifyNew(MemoryPersistence.class).withArguments(eq(AppCenter.MINIMUM_STORAGE_SIZE), isNull());
+        verify(persistence).setLogSerializer(any(LogSerializer.class));
+        verifyNew(DefaultChannel.class).withArguments(eq(mApplication), eq(DUMMY_APP_SECRET), any(LogSerializer.class), eq(persistence), any(Handler.class));
+
+        /* Cannot change after configure. */
+        AppCenter.setInMemoryStorage(AppCenter.MINIMUM_STORAGE_SIZE, true);
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString());
+    }
+
+    @Test
+    public void configureInMemoryStorageWithCriticalLogsOnDisk() throws Exception {
+        SegmentPersistence segmentPersistence = mock(SegmentPersistence.class);
+        whenNew(SegmentPersistence.class).withAnyArguments().thenReturn(segmentPersistence);
+        MemoryPersistence persistence = mock(MemoryPersistence.class);
+        whenNew(MemoryPersistence.class).withAnyArguments().thenReturn(persistence);
+        AppCenter.setInMemoryStorage(AppCenter.MINIMUM_STORAGE_SIZE * 2, true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(SegmentPersistence.class).withArguments(mApplication);
+        verifyNew(MemoryPersistence.class).withArguments(AppCenter.MINIMUM_STORAGE_SIZE * 2, segmentPersistence);
+    }
+
+    @Test
+    public void invalidInMemoryStorageSizeIgnored() throws Exception {
+        whenNew(MemoryPersistence.class).withAnyArguments().thenReturn(mock(MemoryPersistence.class));
+        AppCenter.setInMemoryStorage(AppCenter.MINIMUM_STORAGE_SIZE - 1, false);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(MemoryPersistence.class, never()).withArguments(anyLong(), any());
+        verifyNew(DefaultChannel.class).withArguments(eq(mApplication), eq(DUMMY_APP_SECRET), any(LogSerializer.class), any(Handler.class));
+    }
+
+    @Test
+    public void configureStorageCompression() throws Exception {
+        DatabasePersistence persistence = mock(DatabasePersistence.class);
+        whenNew(DatabasePersistence.class).withAnyArguments().thenReturn(persistence);
+        AppCenter.setStorageCompressionEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+
+        /* Verify compression is enabled on the database persistence. */
+        verifyNew(DatabasePersistence.class).withArguments(mApplication);
+        verify(persistence).setPayloadCompressionEnabled(true);
+        verify(persistence).setLogSerializer(any(LogSerializer.class));
+        verifyNew(DefaultChannel.class).withArguments(eq(mApplication), eq(DUMMY_APP_SECRET), any(LogSerializer.class), eq(persistence), any(Handler.class));
+
+        /* Cannot change after configure. */
+        AppCenter.setStorageCompressionEnabled(false);
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString());
+    }
+
+    @Test
+    public void storageCompressionDisabledByDefault() throws Exception {
+        whenNew(DatabasePersistence.class).withAnyArguments().thenReturn(mock(DatabasePersistence.class));
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(DatabasePersistence.class, never()).withArguments(any());
+        verifyNew(DefaultChannel.class).withArguments(eq(mApplication), eq(DUMMY_APP_SECRET), any(LogSerializer.class), any(Handler.class));
+    }
 }
@@ -4,7 +4,14 @@ import android.content.Context;
 
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.channel.OneCollectorChannelListener;
+import com.microsoft.appcenter.http.BandwidthLimiter;
+import com.microsoft.appcenter.http.CompressionPolicy;
+import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.http.HttpUtils;
+import com.microsoft.appcenter.http.NetworkWarmUp;
+import com.microsoft.appcenter.ingestion.AppCenterIngestion;
 import com.microsoft.appcenter.ingestion.models.CustomPropertiesLog;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import com.microsoft.appcenter.ingestion.models.WrapperSdk;
 import com.microsoft.appcenter.utils.AppCenterLog;
@@ -18,6 +25,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Semaphore;
@@ -38,6 +46,7 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
@@ -51,6 +60,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
@@ -785,7 +795,9 @@ public class AppCenterTest extends AbstractAppCenterTest {
     }
 
     @Test
-    public void setWrapperSdkTest() {
+    public void setWrapperSdkTest() throws Exception {
+        Device device = mock(Device.class);
+        when(DeviceInfoHelper.getDeviceInfo(any(Context.class))).thenReturn(device);
 
         /* Call method. */
         WrapperSdk wrapperSdk = new WrapperSdk();
@@ -799,10 +811,14 @@ public class AppCenterTest extends AbstractAppCenterTest {
         AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
         verify(mChannel, never()).invalidateDeviceCache();
 
-        /* Update wrapper SDK and check channel refreshed. */
+        /* Device properties are recorded at start. */
+        verify(mContextHistory).addDevice(device);
+
+        /* Update wrapper SDK and check channel and history refreshed. */
         wrapperSdk = new WrapperSdk();
         AppCenter.setWrapperSdk(wrapperSdk);
         verify(mChannel).invalidateDeviceCache();
+        verify(mContextHistory, times(2)).addDevice(device);
     }
 
     @Test
@@ -850,6 +866,45 @@ public class AppCenterTest extends AbstractAppCenterTest {
         verify(mChannel).setLogUrl(logUrl);
     }
 
+    @Test
+    public void setCompressionPolicy() {
+
+        /* Change compression policy before start. */
+        CompressionPolicy compressionPolicy = new CompressionPolicy(null, 0, 0, false);
+        AppCenter.setCompressionPolicy(compressionPolicy);
+
+        /* No effect for now. */
+        verify(mChannel, never()).setCompressionPolicy(compressionPolicy);
+
+        /* Start should propagate the compression policy. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setCompressionPolicy(compressionPolicy);
+
+        /* Change it after, should work immediately. */
+        compressionPolicy = new CompressionPolicy(CompressionPolicy.GZIP, 1, 100, true);
+        AppCenter.setCompressionPolicy(compressionPolicy);
+        verify(mChannel).setCompressionPolicy(compressionPolicy);
+
+        /* Null restores the default policy. */
+        AppCenter.setCompressionPolicy(null);
+        verify(mChannel).setCompressionPolicy(argThat(new ArgumentMatcher<CompressionPolicy>() {
+
+            @Override
+            public boolean matches(Object argument) {
+                return argument != null && ((CompressionPolicy) argument).getCodec() == CompressionPolicy.GZIP && ((CompressionPolicy) argument).getMinLength() == CompressionPolicy.DEFAULT_MIN_LENGTH;
+            }
+        }));
+    }
+
+    @Test
+    public void setMaxUploadRate() {
+        AppCenter.setMaxUploadRate(true, false, 1000);
+        assertEquals(1000, BandwidthLimiter.getSharedInstance().getMaxRate(true, false));
+        assertEquals(0, BandwidthLimiter.getSharedInstance().getMaxRate(true, true));
+        AppCenter.setMaxUploadRate(true, false, 0);
+        assertFalse(BandwidthLimiter.getSharedInstance().isEnabled());
+    }
+
     @Test
     public void getSdkVersionTest() {
         assertEquals(BuildConfig.VERSION_NAME, AppCenter.getSdkVersion());
@@ -1031,4 +1086,45 @@ public class AppCenterTest extends AbstractAppCenterTest {
             }
         }));
     }
+
+    @Test
+    public void setHttpClient() {
+        mockStatic(HttpUtils.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        AppCenter.setHttpClient(httpClient);
+        verifyStatic();
+        HttpUtils.setHttpClient(httpClient);
+
+        /* Cannot change after configure. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        AppCenter.setHttpClient(null);
+        verifyStatic(never());
+        HttpUtils.setHttpClient(null);
+        verifyStatic();
+        AppCenterLog.error(eq(LOG_TAG), anyString());
+    }
+
+    @Test
+    public void networkWarmUp() {
+        mockStatic(NetworkWarmUp.class);
+        when(mNetworkStateHelper.isNetworkConnected()).thenReturn(true);
+        AppCenter.setNetworkWarmUpEnabled(true, true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyStatic();
+        NetworkWarmUp.warmUp(eq(Collections.singletonList(AppCenterIngestion.DEFAULT_LOG_URL)), eq(true));
+
+        /* Cannot change after configure. */
+        AppCenter.setNetworkWarmUpEnabled(false, false);
+        verifyStatic();
+        AppCenterLog.error(eq(LOG_TAG), anyString());
+    }
+
+    @Test
+    public void networkWarmUpDisabledByDefault() {
+        mockStatic(NetworkWarmUp.class);
+        when(mNetworkStateHelper.isNetworkConnected()).thenReturn(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyStatic(never());
+        NetworkWarmUp.warmUp(anyCollectionOf(String.class), anyBoolean());
+    }
 }
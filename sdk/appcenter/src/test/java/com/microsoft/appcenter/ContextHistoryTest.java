@@ -0,0 +1,120 @@
+package com.microsoft.appcenter;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.UserIdContext;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.times;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({SharedPreferencesManager.class, AppCenterLog.class})
+public class ContextHistoryTest {
+
+    private static final String USER_ID_STORAGE_KEY = "userIdHistory";
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    @Before
+    public void setUp() {
+        mockStatic(SharedPreferencesManager.class);
+        mockStatic(AppCenterLog.class);
+        ContextHistory.unsetInstance();
+        UserIdContext.unsetInstance();
+    }
+
+    @After
+    public void tearDown() {
+        ContextHistory.unsetInstance();
+        UserIdContext.unsetInstance();
+    }
+
+    @Test
+    public void userIdHistory() throws InterruptedException {
+        long beforeLaunch = System.currentTimeMillis() - 1;
+        ContextHistory contextHistory = ContextHistory.getInstance();
+
+        /* Launch is recorded without user identifier. */
+        Thread.sleep(2);
+        long launch = System.currentTimeMillis();
+        assertNull(contextHistory.getUserIdAt(beforeLaunch));
+        assertNull(contextHistory.getUserIdAt(launch));
+
+        /* Changes are recorded. */
+        Thread.sleep(2);
+        UserIdContext.getInstance().setUserId("alice");
+        assertNull(contextHistory.getUserIdAt(launch));
+        assertEquals("alice", contextHistory.getUserIdAt(System.currentTimeMillis()));
+
+        /* Identical values are not recorded again. */
+        UserIdContext.getInstance().setUserId("alice");
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Set<String>> storage = (ArgumentCaptor<Set<String>>) (ArgumentCaptor<?>) ArgumentCaptor.forClass(Set.class);
+        verifyStatic(times(2));
+        SharedPreferencesManager.putStringSet(eq(USER_ID_STORAGE_KEY), storage.capture());
+        Set<String> storedEntries = storage.getValue();
+        assertEquals(2, storedEntries.size());
+
+        /* History is loaded after restart, identifiers can contain the separator. */
+        ContextHistory.unsetInstance();
+        UserIdContext.unsetInstance();
+        Set<String> reloadedEntries = new HashSet<>(storedEntries);
+        reloadedEntries.add("invalid/entry");
+        reloadedEntries.add((launch + 1) + "/c:bob/smith");
+        when(SharedPreferencesManager.getStringSet(USER_ID_STORAGE_KEY)).thenReturn(reloadedEntries);
+        contextHistory = ContextHistory.getInstance();
+        assertNull(contextHistory.getUserIdAt(launch));
+        assertEquals("c:bob/smith", contextHistory.getUserIdAt(launch + 1));
+
+        /* New process starts without user identifier. */
+        assertNull(contextHistory.getUserIdAt(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void userIdHistoryIsBounded() throws InterruptedException {
+        ContextHistory contextHistory = ContextHistory.getInstance();
+        for (int i = 0; i < ContextHistory.STORAGE_MAX_USER_IDS; i++) {
+            Thread.sleep(1);
+            UserIdContext.getInstance().setUserId("user" + i);
+        }
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Set<String>> storage = (ArgumentCaptor<Set<String>>) (ArgumentCaptor<?>) ArgumentCaptor.forClass(Set.class);
+        verifyStatic(atLeastOnce());
+        SharedPreferencesManager.putStringSet(eq(USER_ID_STORAGE_KEY), storage.capture());
+        assertEquals(ContextHistory.STORAGE_MAX_USER_IDS, storage.getValue().size());
+
+        /* Launch entry without user identifier was discarded. */
+        for (String entry : storage.getValue()) {
+            assertTrue(entry.contains("/user"));
+        }
+        assertEquals("user" + (ContextHistory.STORAGE_MAX_USER_IDS - 1), contextHistory.getUserIdAt(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void unsetInstanceRemovesListener() {
+        ContextHistory.getInstance();
+        ContextHistory.unsetInstance();
+        UserIdContext.getInstance().setUserId("alice");
+        verifyStatic(times(1));
+        SharedPreferencesManager.putStringSet(eq(USER_ID_STORAGE_KEY), anySetOf(String.class));
+    }
+}
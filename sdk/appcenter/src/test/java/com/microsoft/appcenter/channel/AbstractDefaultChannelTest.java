@@ -3,6 +3,7 @@ package com.microsoft.appcenter.channel;
 import android.content.Context;
 import android.os.Handler;
 
+import com.microsoft.appcenter.http.BandwidthLimiter;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
@@ -30,7 +31,7 @@ import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 @SuppressWarnings("WeakerAccess")
-@PrepareForTest({DefaultChannel.class, IdHelper.class, DeviceInfoHelper.class, AppCenterLog.class, HandlerUtils.class})
+@PrepareForTest({DefaultChannel.class, BandwidthLimiter.class, IdHelper.class, DeviceInfoHelper.class, AppCenterLog.class, HandlerUtils.class})
 public class AbstractDefaultChannelTest {
 
     static final String TEST_GROUP = "group_test";
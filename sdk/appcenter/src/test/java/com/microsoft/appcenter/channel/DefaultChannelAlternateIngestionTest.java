@@ -7,6 +7,7 @@ import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.UUIDUtils;
 
@@ -40,6 +41,7 @@ public class DefaultChannelAlternateIngestionTest extends AbstractDefaultChannel
 
         /* Given a mock channel. */
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Ingestion ingestion = mock(Ingestion.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), null, persistence, ingestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
@@ -70,6 +72,7 @@ public class DefaultChannelAlternateIngestionTest extends AbstractDefaultChannel
 
         /* Set up channel with an alternate ingestion. */
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Ingestion defaultIngestion = mock(Ingestion.class);
         Ingestion alternateIngestion = mock(Ingestion.class);
         when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(1));
@@ -104,6 +107,7 @@ public class DefaultChannelAlternateIngestionTest extends AbstractDefaultChannel
         String appCenterGroup = "test_group1";
         String oneCollectorGroup = "test_group2";
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Ingestion defaultIngestion = mock(Ingestion.class);
         Ingestion alternateIngestion = mock(Ingestion.class);
 
@@ -151,6 +155,7 @@ public class DefaultChannelAlternateIngestionTest extends AbstractDefaultChannel
         String appCenterGroup = "test_group1";
         String oneCollectorGroup = "test_group2";
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Ingestion defaultIngestion = mock(Ingestion.class);
         Ingestion alternateIngestion = mock(Ingestion.class);
         when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(1));
@@ -178,6 +183,7 @@ public class DefaultChannelAlternateIngestionTest extends AbstractDefaultChannel
         String appCenterGroup = "test_group1";
         String oneCollectorGroup = "test_group2";
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Ingestion defaultIngestion = mock(Ingestion.class);
         Ingestion alternateIngestion = mock(Ingestion.class);
         when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(1));
@@ -3,9 +3,11 @@ package com.microsoft.appcenter.channel;
 import android.content.Context;
 
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.http.CompressionPolicy;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.UUIDUtils;
 
@@ -43,6 +45,15 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         verify(ingestion).setLogUrl(logUrl);
     }
 
+    @Test
+    public void setCompressionPolicy() {
+        Ingestion ingestion = mock(Ingestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mock(Persistence.class), ingestion, mAppCenterHandler);
+        CompressionPolicy compressionPolicy = new CompressionPolicy();
+        channel.setCompressionPolicy(compressionPolicy);
+        verify(ingestion).setCompressionPolicy(compressionPolicy);
+    }
+
     @Test
     public void logCallbacks() {
 
@@ -75,6 +86,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
     @Test
     public void clear() {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
 
@@ -91,6 +103,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
     @Test
     public void shutdown() {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
         when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any()))
@@ -112,6 +125,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
 
         /* Given a mock channel. */
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
 
         @SuppressWarnings("ConstantConditions")
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
@@ -182,6 +196,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
     @Test
     public void groupCallbacks() {
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Ingestion ingestion = mock(Ingestion.class);
         Channel.Listener listener = spy(new AbstractChannelListener());
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
@@ -206,6 +221,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
 
         /* The real Android test for checking size is in DatabaseManagerAndroidTest. */
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         when(persistence.setMaxStorageSize(anyLong())).thenReturn(true).thenReturn(false);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
 
@@ -8,6 +8,7 @@ import com.microsoft.appcenter.ingestion.AppCenterIngestion;
 import com.microsoft.appcenter.ingestion.OneCollectorIngestion;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.UUIDUtils;
 
@@ -38,6 +39,7 @@ public class DefaultChannelPauseResumeTest extends AbstractDefaultChannelTest {
     @Test
     public void pauseResumeGroup() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -121,6 +123,7 @@ public class DefaultChannelPauseResumeTest extends AbstractDefaultChannelTest {
 
         /* Mock database and ingestion. */
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         OneCollectorIngestion ingestion = mock(OneCollectorIngestion.class);
 
         /* Create a channel with a log group that send logs 1 by 1. */
@@ -186,6 +189,7 @@ public class DefaultChannelPauseResumeTest extends AbstractDefaultChannelTest {
 
         /* Mock database and ingestion. */
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         OneCollectorIngestion ingestion = mock(OneCollectorIngestion.class);
 
         /* Create a channel with a log group that send logs 1 by 1. */
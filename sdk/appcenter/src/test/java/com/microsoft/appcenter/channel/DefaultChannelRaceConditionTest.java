@@ -8,6 +8,7 @@ import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.UUIDUtils;
@@ -42,6 +43,7 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         final Semaphore beforeCallSemaphore = new Semaphore(0);
         final Semaphore afterCallSemaphore = new Semaphore(0);
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         when(mockPersistence.countLogs(anyString())).thenReturn(1);
         when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(1), anyListOf(Log.class))).then(getGetLogsAnswer(1));
         when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class))).then(getGetLogsAnswer(0));
@@ -88,6 +90,7 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         final Semaphore beforeCallSemaphore = new Semaphore(0);
         final Semaphore afterCallSemaphore = new Semaphore(0);
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         when(mockPersistence.countLogs(anyString())).thenReturn(1);
         when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(1), anyListOf(Log.class))).then(getGetLogsAnswer(1));
         when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class))).then(getGetLogsAnswer(0));
@@ -141,6 +144,7 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         final Semaphore beforeCallSemaphore = new Semaphore(0);
         final Semaphore afterCallSemaphore = new Semaphore(0);
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         when(mockPersistence.countLogs(anyString())).thenReturn(1);
         when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(1), anyListOf(Log.class))).then(getGetLogsAnswer(1));
         when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class))).then(getGetLogsAnswer(0));
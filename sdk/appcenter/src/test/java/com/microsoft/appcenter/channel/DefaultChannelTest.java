@@ -6,6 +6,7 @@ import android.support.annotation.NonNull;
 
 import com.microsoft.appcenter.CancellationException;
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.http.BandwidthLimiter;
 import com.microsoft.appcenter.http.HttpException;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
@@ -13,11 +14,14 @@ import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.UUIDUtils;
 
+import org.json.JSONException;
 import org.junit.Test;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Matchers;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -25,6 +29,7 @@ import org.mockito.stubbing.Answer;
 import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -34,6 +39,7 @@ import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyListOf;
@@ -45,13 +51,27 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.spy;
 
 public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
+    private static Answer<String> getSplitLogsAnswer() {
+        return new Answer<String>() {
+
+            private int mPartCount;
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return "part" + mPartCount++;
+            }
+        };
+    }
+
     @Test
     public void invalidGroup() throws Persistence.PersistenceException {
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Channel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
 
         /* Enqueue a log before group is registered = failure. */
@@ -69,6 +89,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void analyticsSuccess() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -162,6 +183,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void lessLogsThanExpected() {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -204,6 +226,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void maxRequests() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
 
         /* We make second request return less logs than expected to make sure counter is reset properly. */
@@ -252,9 +275,387 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
     }
 
+    @Test
+    public void noBatchWhileCircuitOpen() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer());
+        when(mockIngestion.getCircuitRemainingOpenTime()).thenReturn(1000L).thenReturn(0L);
+
+        /* Init channel with mocks. */
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        for (int i = 0; i < 50; i++) {
+            channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        }
+
+        /* No batch is built while the circuit is open, channel checks again when it expires. */
+        verify(mockPersistence, never()).getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class));
+        verify(mockIngestion, never()).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(1000L));
+        assertEquals(50, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Circuit open state expired. */
+        channel.getGroupState(TEST_GROUP).mRunnable.run();
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+
+    @Test
+    public void noBatchWhileUploadBandwidthExhausted() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer());
+        BandwidthLimiter bandwidthLimiter = mock(BandwidthLimiter.class);
+        mockStatic(BandwidthLimiter.class);
+        when(BandwidthLimiter.getSharedInstance()).thenReturn(bandwidthLimiter);
+        when(bandwidthLimiter.getDelay()).thenReturn(300L).thenReturn(0L);
+
+        /* Init channel with mocks. */
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        for (int i = 0; i < 50; i++) {
+            channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        }
+
+        /* No batch is built while uploads wait for bandwidth, channel checks again when there is some. */
+        verify(mockPersistence, never()).getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class));
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(300L));
+        channel.getGroupState(TEST_GROUP).mRunnable.run();
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+
+    @Test
+    public void payloadTooLargeIsBisected() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        final List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            logs.add(mock(Log.class));
+        }
+        final Log largeLog = logs.get(2);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                ((List<Log>) invocation.getArguments()[3]).addAll(logs);
+                return "batch";
+            }
+        });
+        when(mockPersistence.splitLogs(anyString(), anyString(), anyInt(), anyInt())).then(getSplitLogsAnswer());
+
+        /* Any request with the large log is rejected. */
+        final List<List<Log>> requests = new ArrayList<>();
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                List<Log> requestLogs = ((LogContainer) invocation.getArguments()[2]).getLogs();
+                requests.add(requestLogs);
+                ServiceCallback serviceCallback = (ServiceCallback) invocation.getArguments()[3];
+                if (requestLogs.contains(largeLog)) {
+                    serviceCallback.onCallFailed(new HttpException(413));
+                } else {
+                    serviceCallback.onCallSucceeded("");
+                }
+                return null;
+            }
+        });
+
+        /* Init channel with mocks. */
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 4, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        for (Log log : logs) {
+            channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        }
+
+        /* Batch is bisected until the large log is isolated. */
+        assertEquals(5, requests.size());
+        assertEquals(logs, requests.get(0));
+        assertEquals(logs.subList(0, 2), requests.get(1));
+        assertEquals(logs.subList(2, 4), requests.get(2));
+        assertEquals(logs.subList(2, 3), requests.get(3));
+        assertEquals(logs.subList(3, 4), requests.get(4));
+
+        /* Only the large log is discarded and the channel is still enabled. */
+        verify(mockListener).onSuccess(logs.get(0));
+        verify(mockListener).onSuccess(logs.get(1));
+        verify(mockListener).onSuccess(logs.get(3));
+        verify(mockListener).onFailure(eq(largeLog), any(HttpException.class));
+        verify(mockListener, never()).onFailure(eq(logs.get(0)), any(java.lang.Exception.class));
+
+        /* Each half is deleted from persistence when sent or discarded. */
+        verify(mockPersistence).splitLogs(TEST_GROUP, "batch", 0, 2);
+        verify(mockPersistence).splitLogs(TEST_GROUP, "batch", 0, 1);
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "part0");
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "part1");
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "batch");
+        verify(mockPersistence, never()).deleteLogs(TEST_GROUP);
+        assertTrue(channel.isEnabled());
+    }
+
+    @Test
+    public void discardingTooLargeLogSendsPendingLogs() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(1));
+        final List<ServiceCallback> callbacks = new ArrayList<>();
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                callbacks.add((ServiceCallback) invocation.getArguments()[3]);
+                return null;
+            }
+        });
+
+        /* Second log waits for the first batch to complete. */
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, 1, null, mockListener);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        assertEquals(1, callbacks.size());
+
+        /* Discarding the too large log sends the pending one. */
+        callbacks.get(0).onCallFailed(new HttpException(413));
+        verify(mockListener).onFailure(any(Log.class), any(HttpException.class));
+        assertEquals(2, callbacks.size());
+        assertTrue(channel.isEnabled());
+    }
+
+    @Test
+    public void bisectedHalvesRespectMaxParallelBatches() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(2));
+        when(mockPersistence.splitLogs(anyString(), anyString(), anyInt(), anyInt())).then(getSplitLogsAnswer());
+        final List<LogContainer> requests = new ArrayList<>();
+        final List<ServiceCallback> callbacks = new ArrayList<>();
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                requests.add((LogContainer) invocation.getArguments()[2]);
+                callbacks.add((ServiceCallback) invocation.getArguments()[3]);
+                return null;
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, 1, null, null);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        assertEquals(1, requests.size());
+
+        /* Only one half is sent at a time. */
+        callbacks.get(0).onCallFailed(new HttpException(413));
+        assertEquals(2, requests.size());
+        assertEquals(1, requests.get(1).getLogs().size());
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mQueuedBatches.size());
+
+        /* The second half is sent when the first one completes. */
+        callbacks.get(1).onCallSucceeded("");
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "part0");
+        assertEquals(3, requests.size());
+        assertEquals(1, requests.get(2).getLogs().size());
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mQueuedBatches.size());
+        callbacks.get(2).onCallSucceeded("");
+        verify(mockPersistence, times(2)).deleteLogs(eq(TEST_GROUP), anyString());
+    }
+
+    @Test
+    public void unsendableBatchDiscardedWhenPersistenceCannotSplit() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(2));
+        when(mockPersistence.splitLogs(anyString(), anyString(), anyInt(), anyInt())).thenReturn(null);
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                ((ServiceCallback) invocation.getArguments()[3]).onCallFailed(new HttpException(413));
+                return null;
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* The whole batch is discarded instead of being sent again. */
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mockListener, times(2)).onFailure(any(Log.class), any(HttpException.class));
+        verify(mockPersistence).deleteLogs(eq(TEST_GROUP), anyString());
+        assertTrue(channel.isEnabled());
+    }
+
+    @Test
+    public void unwritableLogIsDiscardedWhenBuildingBatch() throws Exception {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        final List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            logs.add(mock(Log.class));
+        }
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                ((List<Log>) invocation.getArguments()[3]).addAll(logs);
+                return "batch";
+            }
+        });
+        when(mockPersistence.splitLogs(anyString(), anyString(), anyInt(), anyInt())).then(getSplitLogsAnswer());
+
+        /* Data file of the second log is missing. */
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        JSONException exception = new JSONException("Cannot read file");
+        when(logSerializer.getRequestSize(logs.get(1))).thenThrow(exception);
+        when(mockPersistence.getLogSerializer()).thenReturn(logSerializer);
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 3, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        for (Log log : logs) {
+            channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        }
+
+        /* Only that log is discarded, the other ones are sent. */
+        verify(mockPersistence).splitLogs(TEST_GROUP, "batch", 1, 2);
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "part0");
+        verify(mockListener).onFailure(logs.get(1), exception);
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), Matchers.argThat(new ArgumentMatcher<LogContainer>() {
+
+            @Override
+            public boolean matches(Object argument) {
+                return Arrays.asList(logs.get(0), logs.get(2)).equals(((LogContainer) argument).getLogs());
+            }
+        }), any(ServiceCallback.class));
+        verify(mockListener).onSuccess(logs.get(0));
+        verify(mockListener).onSuccess(logs.get(2));
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "batch");
+        assertTrue(channel.isEnabled());
+    }
+
+    @Test
+    public void unwritableLogIsDiscardedWhenSending() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        final List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            logs.add(mock(Log.class));
+        }
+        final Log unwritableLog = logs.get(0);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                ((List<Log>) invocation.getArguments()[3]).addAll(logs);
+                return "batch";
+            }
+        });
+        when(mockPersistence.splitLogs(anyString(), anyString(), anyInt(), anyInt())).then(getSplitLogsAnswer());
+
+        /* Data file is deleted after the batch is built. */
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                ServiceCallback serviceCallback = (ServiceCallback) invocation.getArguments()[3];
+                if (((LogContainer) invocation.getArguments()[2]).getLogs().contains(unwritableLog)) {
+                    serviceCallback.onCallFailed(new JSONException("Cannot read file"));
+                } else {
+                    serviceCallback.onCallSucceeded("");
+                }
+                return null;
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        for (Log log : logs) {
+            channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        }
+
+        /* The batch is bisected, only that log is discarded and the channel is still enabled. */
+        verify(mockListener).onFailure(eq(unwritableLog), any(JSONException.class));
+        verify(mockListener).onSuccess(logs.get(1));
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "part0");
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "batch");
+        verify(mockPersistence, never()).deleteLogs(TEST_GROUP);
+        assertTrue(channel.isEnabled());
+    }
+
+    @Test
+    public void batchSplitBySize() throws Exception {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(3));
+
+        /* Each log is a bit more than half of the limit. */
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.getRequestSize(any(Log.class))).thenReturn(DefaultChannel.MAX_BATCH_SIZE_IN_BYTES / 2 + 1);
+        when(mockPersistence.splitLogs(anyString(), anyString(), anyInt(), anyInt())).then(getSplitLogsAnswer());
+        when(mockPersistence.getLogSerializer()).thenReturn(logSerializer);
+        final List<LogContainer> requests = new ArrayList<>();
+        final List<ServiceCallback> callbacks = new ArrayList<>();
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                requests.add((LogContainer) invocation.getArguments()[2]);
+                callbacks.add((ServiceCallback) invocation.getArguments()[3]);
+                return null;
+            }
+        });
+
+        /* Init channel with mocks. */
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 3, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        for (int i = 0; i < 3; i++) {
+            channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        }
+
+        /* Batch is sent in 3 requests, the first ones are split to their own persistence batch. */
+        assertEquals(3, requests.size());
+        for (LogContainer request : requests) {
+            assertEquals(1, request.getLogs().size());
+        }
+        verify(mockPersistence, times(2)).splitLogs(eq(TEST_GROUP), anyString(), eq(0), eq(1));
+
+        /* Each part is deleted as soon as it is sent. */
+        callbacks.get(0).onCallSucceeded("");
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "part0");
+
+        /*
+         * A recoverable failure clears the pending state: the sent part is not sent again,
+         * but a part completing after the failure will be.
+         */
+        callbacks.get(1).onCallFailed(new SocketException());
+        verify(mockPersistence).clearPendingLogState();
+        callbacks.get(2).onCallSucceeded("");
+        verify(mockPersistence).deleteLogs(any(String.class), any(String.class));
+    }
+
     @Test
     public void maxRequestsInitial() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
 
         when(mockPersistence.countLogs(any(String.class))).thenReturn(100);
@@ -308,6 +709,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void analyticsRecoverable() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -386,6 +788,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void analyticsFatal() throws Exception {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
 
         when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class)))
@@ -467,6 +870,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void errorLogSuccess() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Ingestion mockIngestion = mock(Ingestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -506,6 +910,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void errorLogRecoverable() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Ingestion mockIngestion = mock(Ingestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -571,6 +976,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     public void suspendWithFailureCallback() {
         Ingestion mockIngestion = mock(Ingestion.class);
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
         when(mockPersistence.countLogs(anyString())).thenReturn(30);
@@ -606,6 +1012,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     public void suspendWithoutFailureCallback() {
         Ingestion mockIngestion = mock(Ingestion.class);
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
 
         when(mockPersistence.countLogs(anyString())).thenReturn(3);
         when(mockPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(getGetLogsAnswer(1));
@@ -636,6 +1043,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void enqueuePersistenceFailure() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
         /* Simulate Persistence failing. */
@@ -669,6 +1077,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(getGetLogsAnswer(1));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
         Channel.Listener listener = spy(new AbstractChannelListener());
@@ -700,6 +1109,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     public void disableBeforeCheckingPendingLogs() {
         Ingestion ingestion = mock(Ingestion.class);
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         final DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
         when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(getGetLogsAnswer(1));
         when(ingestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).thenAnswer(new Answer<Void>() {
@@ -725,6 +1135,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         when(persistence.countLogs(anyString())).thenReturn(3);
         when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(getGetLogsAnswer(3));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
@@ -744,6 +1155,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         when(persistence.countLogs(anyString())).thenReturn(103);
         when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(getGetLogsAnswer(50)).thenAnswer(getGetLogsAnswer(50)).thenAnswer(getGetLogsAnswer(3));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
@@ -763,6 +1175,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         when(persistence.countLogs(anyString())).thenReturn(3);
         when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(getGetLogsAnswer(3));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
@@ -784,6 +1197,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         /* Setup mocking to make device properties generation fail. */
         when(DeviceInfoHelper.getDeviceInfo(any(Context.class))).thenThrow(new DeviceInfoHelper.DeviceInfoException("mock", new PackageManager.NameNotFoundException()));
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
 
         @SuppressWarnings("ConstantConditions")
         DefaultChannel channel = new DefaultChannel(mock(Context.class), null, persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
@@ -807,6 +1221,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         when(persistence.countLogs(anyString())).thenReturn(2);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
@@ -822,6 +1237,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void invokeCallbacksAfterSuspendFatal() {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -852,6 +1268,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void invokeCallbacksAfterSuspendFatalNoListener() {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -883,6 +1300,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     public void invokeCallbacksAfterSuspendRecoverable() {
         Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -917,6 +1335,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
         /* Setup persistence, channel and a listener. */
         Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogSerializer()).thenReturn(mock(LogSerializer.class));
         Channel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mock(Channel.GroupListener.class));
         Channel.Listener listener = mock(Channel.Listener.class);
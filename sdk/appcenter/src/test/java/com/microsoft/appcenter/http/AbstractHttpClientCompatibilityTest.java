@@ -0,0 +1,219 @@
+package com.microsoft.appcenter.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that an {@link HttpClient} implementation behaves as the SDK expects, using a local server.
+ * Subclass it to test a client plugged with {@link com.microsoft.appcenter.AppCenter#setHttpClient(HttpClient)}.
+ */
+public abstract class AbstractHttpClientCompatibilityTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private HttpServer mServer;
+
+    private String mUrl;
+
+    private volatile int mResponseStatus;
+
+    private final Map<String, String> mResponseHeaders = new HashMap<>();
+
+    private volatile String mResponseBody;
+
+    private volatile String mRequestMethod;
+
+    private volatile String mRequestHeader;
+
+    private volatile String mRequestBody;
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        int length;
+        while ((length = inputStream.read(chunk)) > 0) {
+            buffer.write(chunk, 0, length);
+        }
+        return buffer.toString("UTF-8");
+    }
+
+    /**
+     * Create the client to test.
+     *
+     * @return HTTP client.
+     * @throws Exception if the client cannot be created.
+     */
+    protected abstract HttpClient createHttpClient() throws Exception;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequestMethod = exchange.getRequestMethod();
+                mRequestHeader = exchange.getRequestHeaders().getFirst("X-Test");
+                InputStream requestBody = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    requestBody = new GZIPInputStream(requestBody);
+                }
+                mRequestBody = read(requestBody);
+                synchronized (mResponseHeaders) {
+                    for (Map.Entry<String, String> header : mResponseHeaders.entrySet()) {
+                        exchange.getResponseHeaders().add(header.getKey(), header.getValue());
+                    }
+                }
+                byte[] responseBody = mResponseBody.getBytes("UTF-8");
+                exchange.sendResponseHeaders(mResponseStatus, responseBody.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(responseBody);
+                outputStream.close();
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/logs";
+        mResponseStatus = 200;
+        mResponseBody = "OK";
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void get() throws Exception {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-Test", "value");
+        Result result = new Result();
+        createHttpClient().callAsync(mUrl, METHOD_GET, headers, null, result);
+        result.await();
+        assertEquals("OK", result.mPayload);
+        assertNull(result.mException);
+        assertEquals("GET", mRequestMethod);
+        assertEquals("value", mRequestHeader);
+    }
+
+    @Test
+    public void post() throws Exception {
+        StringBuilder body = new StringBuilder("{\"a\":\"");
+        for (int i = 0; i < 2000; i++) {
+            body.append('a');
+        }
+        body.append("\"}");
+        HttpClient.CallTemplate callTemplate = mock(HttpClient.CallTemplate.class);
+        when(callTemplate.buildRequestBody()).thenReturn(body.toString());
+        Result result = new Result();
+        createHttpClient().callAsync(mUrl, METHOD_POST, new HashMap<String, String>(), callTemplate, result);
+        result.await();
+        assertEquals("OK", result.mPayload);
+        assertEquals("POST", mRequestMethod);
+        assertEquals(body.toString(), mRequestBody);
+        verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void postStreaming() throws Exception {
+        HttpClient.StreamingCallTemplate callTemplate = new HttpClient.StreamingCallTemplate() {
+
+            @Override
+            public void writeRequestBody(OutputStream outputStream) throws IOException {
+                outputStream.write("{\"a\":1}".getBytes("UTF-8"));
+            }
+
+            @Override
+            public long getRequestBodySize() {
+                return 7;
+            }
+
+            @Override
+            public String buildRequestBody() {
+                return "{\"a\":1}";
+            }
+
+            @Override
+            public void onBeforeCalling(URL url, Map<String, String> headers) {
+            }
+        };
+        Result result = new Result();
+        createHttpClient().callAsync(mUrl, METHOD_POST, new HashMap<String, String>(), callTemplate, result);
+        result.await();
+        assertEquals("OK", result.mPayload);
+        assertEquals("{\"a\":1}", mRequestBody);
+    }
+
+    @Test
+    public void errorWithHeaders() throws Exception {
+        mResponseStatus = 503;
+        mResponseBody = "Busy";
+        synchronized (mResponseHeaders) {
+            mResponseHeaders.put("Retry-After", "5");
+        }
+        Result result = new Result();
+        createHttpClient().callAsync(mUrl, METHOD_GET, new HashMap<String, String>(), null, result);
+        result.await();
+        assertNull(result.mPayload);
+        assertTrue(result.mException instanceof HttpException);
+        HttpException exception = (HttpException) result.mException;
+        assertEquals(503, exception.getStatusCode());
+        assertEquals("Busy", exception.getPayload());
+        assertEquals("5", exception.getHeader("retry-after"));
+    }
+
+    /**
+     * Callback waiting for the call result.
+     */
+    private static class Result implements ServiceCallback {
+
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+
+        private String mPayload;
+
+        private Exception mException;
+
+        @Override
+        public void onCallSucceeded(String payload) {
+            mPayload = payload;
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onCallFailed(Exception e) {
+            mException = e;
+            mLatch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(mLatch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.microsoft.appcenter.http;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.SystemClock;
+
+import com.microsoft.appcenter.utils.NetworkStateHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest(SystemClock.class)
+public class BandwidthLimiterTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    private long mTime;
+
+    @Before
+    public void setUp() {
+        mockStatic(SystemClock.class);
+        mTime = 100000;
+        when(SystemClock.elapsedRealtime()).thenAnswer(new Answer<Long>() {
+
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return mTime;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        BandwidthLimiter.unsetInstance();
+    }
+
+    @Test
+    public void sharedInstance() {
+        assertSame(BandwidthLimiter.getSharedInstance(), BandwidthLimiter.getSharedInstance());
+    }
+
+    @Test
+    public void unlimitedByDefault() {
+        BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+        assertFalse(bandwidthLimiter.isEnabled());
+        assertEquals(0, bandwidthLimiter.reserve(1000000));
+        assertEquals(0, bandwidthLimiter.getDelay());
+    }
+
+    @Test
+    public void ratesByState() {
+        BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+        bandwidthLimiter.setMaxRate(true, false, 1000);
+        bandwidthLimiter.setMaxRate(true, true, 2000);
+        bandwidthLimiter.setMaxRate(false, false, 3000);
+        bandwidthLimiter.setMaxRate(false, true, -1);
+        assertTrue(bandwidthLimiter.isEnabled());
+        assertEquals(1000, bandwidthLimiter.getMaxRate(true, false));
+        assertEquals(2000, bandwidthLimiter.getMaxRate(true, true));
+        assertEquals(3000, bandwidthLimiter.getMaxRate(false, false));
+        assertEquals(0, bandwidthLimiter.getMaxRate(false, true));
+
+        /* Metered state is read when a call starts. */
+        NetworkStateHelper networkStateHelper = mock(NetworkStateHelper.class);
+        when(networkStateHelper.isNetworkMetered()).thenReturn(true);
+        bandwidthLimiter.setNetworkStateHelper(networkStateHelper);
+        bandwidthLimiter.setNetworkStateHelper(mock(NetworkStateHelper.class));
+        bandwidthLimiter.onCallStarted();
+
+        /* A full bucket holds one second of tokens: 1000 bytes in background on metered network. */
+        assertEquals(0, bandwidthLimiter.reserve(1000));
+        assertEquals(500, bandwidthLimiter.reserve(500));
+        assertEquals(500, bandwidthLimiter.getDelay());
+
+        /* Tokens are earned back over time. */
+        mTime += 200;
+        assertEquals(300, bandwidthLimiter.getDelay());
+        mTime += 300;
+        assertEquals(0, bandwidthLimiter.getDelay());
+
+        /* Foreground rate is used once in foreground. */
+        bandwidthLimiter.setForeground(true);
+        mTime += 1000;
+        assertEquals(0, bandwidthLimiter.reserve(2000));
+        assertEquals(500, bandwidthLimiter.reserve(1000));
+
+        /* No limit on other networks in foreground. */
+        when(networkStateHelper.isNetworkMetered()).thenReturn(false);
+        bandwidthLimiter.onCallStarted();
+        assertEquals(0, bandwidthLimiter.reserve(1000000));
+        assertEquals(0, bandwidthLimiter.getDelay());
+
+        /* Removing a limit. */
+        bandwidthLimiter.setMaxRate(true, false, 0);
+        bandwidthLimiter.setMaxRate(true, true, 0);
+        bandwidthLimiter.setMaxRate(false, false, 0);
+        assertFalse(bandwidthLimiter.isEnabled());
+    }
+
+    @Test
+    public void trackForeground() {
+        BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+        bandwidthLimiter.setMaxRate(false, false, 1000);
+        Application application = mock(Application.class);
+        bandwidthLimiter.trackForeground(application);
+        bandwidthLimiter.trackForeground(application);
+        ArgumentCaptor<Application.ActivityLifecycleCallbacks> callbacks = ArgumentCaptor.forClass(Application.ActivityLifecycleCallbacks.class);
+        verify(application).registerActivityLifecycleCallbacks(callbacks.capture());
+
+        /* Limited in background. */
+        assertEquals(0, bandwidthLimiter.reserve(1000));
+        assertEquals(1000, bandwidthLimiter.reserve(1000));
+
+        /* Not limited while an activity is started. */
+        Activity activity = mock(Activity.class);
+        callbacks.getValue().onActivityCreated(activity, null);
+        callbacks.getValue().onActivityStarted(activity);
+        callbacks.getValue().onActivityResumed(activity);
+        callbacks.getValue().onActivityStarted(mock(Activity.class));
+        assertEquals(0, bandwidthLimiter.reserve(1000));
+        callbacks.getValue().onActivityPaused(activity);
+        callbacks.getValue().onActivityStopped(activity);
+        callbacks.getValue().onActivitySaveInstanceState(activity, null);
+        callbacks.getValue().onActivityDestroyed(activity);
+        assertEquals(0, bandwidthLimiter.reserve(1000));
+
+        /* Limited again once all activities are stopped. */
+        callbacks.getValue().onActivityStopped(activity);
+        callbacks.getValue().onActivityStopped(activity);
+        assertTrue(bandwidthLimiter.reserve(1000) > 0);
+    }
+
+    @Test
+    public void limitedOutputStream() throws Exception {
+        BandwidthLimiter bandwidthLimiter = mock(BandwidthLimiter.class);
+        when(bandwidthLimiter.reserve(anyInt())).thenReturn(0L).thenReturn(1L).thenReturn(0L);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        BandwidthLimitedOutputStream outputStream = new BandwidthLimitedOutputStream(buffer, bandwidthLimiter);
+        byte[] payload = new byte[2500];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+
+        /* Written in chunks. */
+        outputStream.write(payload);
+        outputStream.write(42);
+        outputStream.close();
+        verify(bandwidthLimiter, times(2)).reserve(1024);
+        verify(bandwidthLimiter).reserve(452);
+        verify(bandwidthLimiter).reserve(1);
+        byte[] expected = new byte[2501];
+        System.arraycopy(payload, 0, expected, 0, payload.length);
+        expected[2500] = 42;
+        assertArrayEquals(expected, buffer.toByteArray());
+    }
+
+    @Test
+    public void waitBeforeWriteIsCapped() throws Exception {
+        BandwidthLimiter bandwidthLimiter = mock(BandwidthLimiter.class);
+        when(bandwidthLimiter.reserve(anyInt())).thenReturn(60000L);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        BandwidthLimitedOutputStream outputStream = new BandwidthLimitedOutputStream(buffer, bandwidthLimiter);
+
+        /* Write after the maximum delay even if the limiter asks for more. */
+        long startTime = System.currentTimeMillis();
+        outputStream.write(new byte[10]);
+        assertTrue(System.currentTimeMillis() - startTime < 10 * BandwidthLimitedOutputStream.MAX_WRITE_DELAY);
+        assertEquals(10, buffer.size());
+    }
+
+    @Test
+    public void interruptedWhileWaiting() throws Exception {
+        BandwidthLimiter bandwidthLimiter = mock(BandwidthLimiter.class);
+        when(bandwidthLimiter.reserve(anyInt())).thenReturn(10000L);
+        BandwidthLimitedOutputStream outputStream = new BandwidthLimitedOutputStream(new ByteArrayOutputStream(), bandwidthLimiter);
+        Thread.currentThread().interrupt();
+        try {
+            outputStream.write(new byte[10]);
+            fail("Expected an exception");
+        } catch (InterruptedIOException ignored) {
+        }
+
+        /* Interrupted state is kept. */
+        assertTrue(Thread.interrupted());
+    }
+}
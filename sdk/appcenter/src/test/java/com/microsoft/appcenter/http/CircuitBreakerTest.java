@@ -0,0 +1,141 @@
+package com.microsoft.appcenter.http;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.net.SocketException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({CircuitBreaker.class, AppCenterLog.class})
+public class CircuitBreakerTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    @Before
+    public void setUp() {
+        mockStatic(AppCenterLog.class);
+        mockStatic(System.class);
+        when(System.currentTimeMillis()).thenReturn(1000L);
+        CircuitBreaker.unsetInstances();
+    }
+
+    @After
+    public void tearDown() {
+        CircuitBreaker.unsetInstances();
+    }
+
+    @Test
+    public void sharedByHost() {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forUrl("https://in.appcenter.ms/logs?api-version=1.0.0");
+        assertEquals("in.appcenter.ms", circuitBreaker.getHost());
+        assertSame(circuitBreaker, CircuitBreaker.forUrl("https://in.appcenter.ms"));
+        assertNotSame(circuitBreaker, CircuitBreaker.forUrl("https://api.appcenter.ms"));
+        assertEquals("invalid", CircuitBreaker.forUrl("invalid").getHost());
+    }
+
+    @Test
+    public void openHalfOpenClose() {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forUrl("https://in.appcenter.ms");
+        CircuitBreaker.Listener listener = mock(CircuitBreaker.Listener.class);
+        CircuitBreaker.addListener(listener);
+
+        /* Client errors mean the host is available. */
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onCallFailed(new SocketException(), false);
+        }
+        circuitBreaker.onCallFailed(new HttpException(400), false);
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onCallFailed(new HttpException(503), false);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.Permit.CALL, circuitBreaker.acquire());
+        verifyNoMoreInteractions(listener);
+
+        /* Consecutive failures open the circuit. */
+        circuitBreaker.onCallFailed(new SocketException(), false);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.INITIAL_OPEN_DURATION, circuitBreaker.getRemainingOpenTime());
+        assertEquals(CircuitBreaker.Permit.DENIED, circuitBreaker.acquire());
+        verify(listener).onCircuitStateChanged(circuitBreaker, CircuitBreaker.State.OPEN);
+
+        /* Calls in flight failing while open do not extend the open duration. */
+        circuitBreaker.onCallFailed(new SocketException(), false);
+        assertEquals(CircuitBreaker.INITIAL_OPEN_DURATION, circuitBreaker.getRemainingOpenTime());
+
+        /* A single probe is allowed once expired. */
+        when(System.currentTimeMillis()).thenReturn(1000L + CircuitBreaker.INITIAL_OPEN_DURATION);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getRemainingOpenTime());
+        assertEquals(CircuitBreaker.Permit.PROBE, circuitBreaker.acquire());
+        assertEquals(CircuitBreaker.Permit.DENIED, circuitBreaker.acquire());
+
+        /* Late failure of a call started before the circuit opened is ignored. */
+        circuitBreaker.onCallFailed(new SocketException(), false);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.Permit.DENIED, circuitBreaker.acquire());
+        verify(listener).onCircuitStateChanged(circuitBreaker, CircuitBreaker.State.OPEN);
+
+        /* Probe failure opens the circuit for longer. */
+        circuitBreaker.onCallFailed(new SocketException(), true);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.INITIAL_OPEN_DURATION * 2, circuitBreaker.getRemainingOpenTime());
+        verify(listener, times(2)).onCircuitStateChanged(circuitBreaker, CircuitBreaker.State.OPEN);
+
+        /* Cancelled probe lets another call probe. */
+        when(System.currentTimeMillis()).thenReturn(1000L + CircuitBreaker.INITIAL_OPEN_DURATION * 3);
+        assertFalse(circuitBreaker.onCallCancelled());
+        assertEquals(CircuitBreaker.Permit.PROBE, circuitBreaker.acquire());
+        assertEquals(CircuitBreaker.Permit.DENIED, circuitBreaker.acquire());
+        assertTrue(circuitBreaker.onCallCancelled());
+        verify(listener).onCircuitStateChanged(circuitBreaker, CircuitBreaker.State.HALF_OPEN);
+        assertEquals(CircuitBreaker.Permit.PROBE, circuitBreaker.acquire());
+
+        /* Probe success closes the circuit. */
+        circuitBreaker.onCallSucceeded();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.Permit.CALL, circuitBreaker.acquire());
+        verify(listener).onCircuitStateChanged(circuitBreaker, CircuitBreaker.State.CLOSED);
+
+        /* Next open duration starts over. */
+        CircuitBreaker.removeListener(listener);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onCallFailed(new SocketException(), false);
+        }
+        assertEquals(CircuitBreaker.INITIAL_OPEN_DURATION, circuitBreaker.getRemainingOpenTime());
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void openDurationIsBounded() {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forUrl("https://in.appcenter.ms");
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onCallFailed(new SocketException(), false);
+        }
+        long now = 1000L;
+        for (int i = 0; i < 10; i++) {
+            now += CircuitBreaker.MAX_OPEN_DURATION;
+            when(System.currentTimeMillis()).thenReturn(now);
+            assertEquals(CircuitBreaker.Permit.PROBE, circuitBreaker.acquire());
+            circuitBreaker.onCallFailed(new SocketException(), true);
+        }
+        assertEquals(CircuitBreaker.MAX_OPEN_DURATION, circuitBreaker.getRemainingOpenTime());
+    }
+}
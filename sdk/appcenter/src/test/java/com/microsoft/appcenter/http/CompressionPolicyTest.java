@@ -0,0 +1,121 @@
+package com.microsoft.appcenter.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static com.microsoft.appcenter.http.CompressionPolicy.ADAPTIVE_PROBE_INTERVAL;
+import static com.microsoft.appcenter.http.CompressionPolicy.DEFAULT_MIN_LENGTH;
+import static com.microsoft.appcenter.http.CompressionPolicy.GZIP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionPolicyTest {
+
+    private static byte[] gzip(String payload, int level) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        OutputStream outputStream = GZIP.compress(buffer, 1024, level);
+        outputStream.write(payload.getBytes("UTF-8"));
+        outputStream.close();
+        return buffer.toByteArray();
+    }
+
+    private static String gunzip(byte[] compressed) throws Exception {
+        InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        byte[] readBuffer = new byte[1024];
+        int length;
+        while ((length = inputStream.read(readBuffer)) > 0) {
+            uncompressed.write(readBuffer, 0, length);
+        }
+        return uncompressed.toString("UTF-8");
+    }
+
+    @Test
+    public void defaultPolicy() {
+        CompressionPolicy policy = new CompressionPolicy();
+        assertEquals(GZIP, policy.getCodec());
+        assertEquals("gzip", policy.getCodec().getContentEncoding());
+        assertEquals(Deflater.DEFAULT_COMPRESSION, policy.getLevel());
+        assertEquals(DEFAULT_MIN_LENGTH, policy.getMinLength());
+        assertFalse(policy.isAdaptive());
+        assertFalse(policy.shouldCompress(DEFAULT_MIN_LENGTH - 1));
+        assertTrue(policy.shouldCompress(DEFAULT_MIN_LENGTH));
+
+        /* Unknown length is compressed. */
+        assertTrue(policy.shouldCompress(-1));
+
+        /* Measures are ignored when not adaptive. */
+        policy.onCompressed(DEFAULT_MIN_LENGTH, DEFAULT_MIN_LENGTH, 1000000000L);
+        assertTrue(policy.shouldCompress(DEFAULT_MIN_LENGTH));
+    }
+
+    @Test
+    public void noCodec() {
+        CompressionPolicy policy = new CompressionPolicy(null, 0, 0, false);
+        assertNull(policy.getCodec());
+        assertFalse(policy.shouldCompress(-1));
+        assertFalse(policy.shouldCompress(100000));
+    }
+
+    @Test
+    public void gzipLevels() throws Exception {
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            payload.append("{\"name\":\"event").append(i % 7).append("\",\"id\":").append(i).append('}');
+        }
+        byte[] fastest = gzip(payload.toString(), Deflater.BEST_SPEED);
+        byte[] smallest = gzip(payload.toString(), Deflater.BEST_COMPRESSION);
+        assertEquals(payload.toString(), gunzip(fastest));
+        assertEquals(payload.toString(), gunzip(smallest));
+        assertTrue(smallest.length < fastest.length);
+    }
+
+    @Test
+    public void adaptiveStopsWhenNotSaving() {
+        CompressionPolicy policy = new CompressionPolicy(GZIP, Deflater.BEST_SPEED, 100, true);
+        assertTrue(policy.isAdaptive());
+        assertFalse(policy.shouldCompress(99));
+
+        /* Compress until measured. */
+        assertTrue(policy.shouldCompress(1000));
+
+        /* Already compressed data: saving less than 10%. */
+        policy.onCompressed(1000, 950, 1000);
+        for (int i = 1; i < ADAPTIVE_PROBE_INTERVAL; i++) {
+            assertFalse(policy.shouldCompress(1000));
+        }
+
+        /* Probe again. */
+        assertTrue(policy.shouldCompress(1000));
+
+        /* Payload compresses well again. */
+        for (int i = 0; i < 10; i++) {
+            policy.onCompressed(1000, 100, 1000);
+        }
+        assertTrue(policy.shouldCompress(1000));
+        assertTrue(policy.shouldCompress(-1));
+    }
+
+    @Test
+    public void adaptiveStopsWhenTooSlow() {
+        CompressionPolicy policy = new CompressionPolicy(GZIP, Deflater.BEST_COMPRESSION, 0, true);
+
+        /* Saving 500 bytes in 1 second is not worth it. */
+        policy.onCompressed(1000, 500, 1000000000L);
+        assertFalse(policy.shouldCompress(1000));
+
+        /* Saving 500 bytes in 10 microseconds is. */
+        for (int i = 0; i < 20; i++) {
+            policy.onCompressed(1000, 500, 10000);
+        }
+        assertTrue(policy.shouldCompress(1000));
+    }
+}
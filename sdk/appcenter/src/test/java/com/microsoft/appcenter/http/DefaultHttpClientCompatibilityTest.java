@@ -0,0 +1,202 @@
+package com.microsoft.appcenter.http;
+
+import android.net.TrafficStats;
+
+import org.junit.Rule;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+@PrepareForTest({
+        DefaultHttpClient.class,
+        DefaultHttpClientCallTask.class,
+        TrafficStats.class
+})
+public class DefaultHttpClientCompatibilityTest extends AbstractHttpClientCompatibilityTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    @Override
+    protected HttpClient createHttpClient() throws Exception {
+
+        /* Simulate AsyncTask by running the call on the calling thread. */
+        whenNew(DefaultHttpClientCallTask.class).withAnyArguments().thenAnswer(new Answer<Object>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object answer(InvocationOnMock invocation) {
+                final DefaultHttpClientCallTask call = spy(new DefaultHttpClientCallTask(
+                        invocation.getArguments()[0].toString(),
+                        invocation.getArguments()[1].toString(),
+                        (Map<String, String>) invocation.getArguments()[2],
+                        (HttpClient.CallTemplate) invocation.getArguments()[3],
+                        (ServiceCallback) invocation.getArguments()[4],
+                        (DefaultHttpClientCallTask.Tracker) invocation.getArguments()[5]));
+                when(call.executeOnExecutor(any(Executor.class))).then(new Answer<DefaultHttpClientCallTask>() {
+
+                    @Override
+                    public DefaultHttpClientCallTask answer(InvocationOnMock invocation) {
+                        call.onPostExecute(call.doInBackground());
+                        return call;
+                    }
+                });
+                return call;
+            }
+        });
+
+        /* The client only accepts HTTPS connections: wrap the connection to the local plain HTTP server. */
+        whenNew(URL.class).withArguments(anyString()).thenAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                URL url = mock(URL.class);
+                HttpURLConnection connection = (HttpURLConnection) new URL(invocation.getArguments()[0].toString()).openConnection();
+                when(url.openConnection()).thenReturn(new HttpsConnection(connection));
+                return url;
+            }
+        });
+        mockStatic(TrafficStats.class);
+        return new DefaultHttpClient();
+    }
+
+    /**
+     * HTTPS connection delegating to a plain HTTP connection.
+     */
+    private static class HttpsConnection extends HttpsURLConnection {
+
+        private final HttpURLConnection mConnection;
+
+        HttpsConnection(HttpURLConnection connection) {
+            super(connection.getURL());
+            mConnection = connection;
+        }
+
+        @Override
+        public String getCipherSuite() {
+            return null;
+        }
+
+        @Override
+        public Certificate[] getLocalCertificates() {
+            return null;
+        }
+
+        @Override
+        public Certificate[] getServerCertificates() {
+            return null;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            mConnection.connect();
+        }
+
+        @Override
+        public void disconnect() {
+            mConnection.disconnect();
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return mConnection.usingProxy();
+        }
+
+        @Override
+        public void setConnectTimeout(int timeout) {
+            mConnection.setConnectTimeout(timeout);
+        }
+
+        @Override
+        public void setReadTimeout(int timeout) {
+            mConnection.setReadTimeout(timeout);
+        }
+
+        @Override
+        public void setRequestMethod(String method) throws ProtocolException {
+            mConnection.setRequestMethod(method);
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            mConnection.setRequestProperty(key, value);
+        }
+
+        @Override
+        public void setDoOutput(boolean doOutput) {
+            mConnection.setDoOutput(doOutput);
+        }
+
+        @Override
+        public void setChunkedStreamingMode(int chunkLength) {
+            mConnection.setChunkedStreamingMode(chunkLength);
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(int contentLength) {
+            mConnection.setFixedLengthStreamingMode(contentLength);
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(long contentLength) {
+            mConnection.setFixedLengthStreamingMode(contentLength);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mConnection.getOutputStream();
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mConnection.getInputStream();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return mConnection.getErrorStream();
+        }
+
+        @Override
+        public int getContentLength() {
+            return mConnection.getContentLength();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return mConnection.getHeaderFields();
+        }
+    }
+}
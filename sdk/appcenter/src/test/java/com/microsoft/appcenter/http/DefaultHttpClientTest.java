@@ -14,6 +14,7 @@ import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -27,13 +28,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -46,6 +51,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
@@ -60,6 +66,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -226,6 +233,86 @@ public class DefaultHttpClientTest {
         AppCenterLog.verbose(AppCenterLog.LOG_TAG, prettyString);
     }
 
+    @Test
+    public void post200DiscardingResponse() throws Exception {
+
+        /* Configure mock HTTP. */
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+        String urlString = "http://mock/logs?api-version=1.0.0";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        when(urlConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        InputStream inputStream = spy(new ByteArrayInputStream("OK".getBytes()));
+        when(urlConnection.getInputStream()).thenReturn(inputStream);
+
+        /* The body is read to the end but not kept. */
+        HttpClient.DiscardResponseCallTemplate callTemplate = mock(HttpClient.DiscardResponseCallTemplate.class);
+        when(callTemplate.buildRequestBody()).thenReturn("{a:1,b:2}");
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("");
+        verifyNoMoreInteractions(serviceCallback);
+        assertEquals(-1, inputStream.read());
+        verify(inputStream).close();
+        verify(urlConnection).disconnect();
+
+        /* The body is still kept when logging verbose. */
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.VERBOSE);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+        serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK");
+        httpClient.close();
+    }
+
+    @Test
+    public void get200WithResponseHeaders() throws Exception {
+
+        /* Configure mock HTTP. */
+        String urlString = "http://mock/releases/latest";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("{}".getBytes()));
+        Map<String, List<String>> responseHeaders = new HashMap<>();
+        responseHeaders.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+        responseHeaders.put("ETag", Collections.singletonList("\"v1\""));
+        responseHeaders.put("Vary", Collections.<String>emptyList());
+        when(urlConnection.getHeaderFields()).thenReturn(responseHeaders);
+
+        /* Headers are given to the template before the callback. */
+        HttpClient.ResponseHeadersCallTemplate callTemplate = mock(HttpClient.ResponseHeadersCallTemplate.class);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), callTemplate, serviceCallback);
+        Map<String, String> expectedHeaders = new HashMap<>();
+        expectedHeaders.put("ETag", "\"v1\"");
+        verify(callTemplate).onResponseHeaders(expectedHeaders);
+        verify(serviceCallback).onCallSucceeded("{}");
+        verifyNoMoreInteractions(serviceCallback);
+
+        /* Not called on failures, the headers are in the exception. */
+        when(urlConnection.getResponseCode()).thenReturn(304);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(callTemplate).onResponseHeaders(anyMapOf(String.class, String.class));
+        ArgumentCaptor<HttpException> exception = ArgumentCaptor.forClass(HttpException.class);
+        verify(serviceCallback).onCallFailed(exception.capture());
+        assertEquals(304, exception.getValue().getStatusCode());
+        assertEquals("\"v1\"", exception.getValue().getHeader("etag"));
+        httpClient.close();
+    }
+
     @Test
     public void post200WithoutCallTemplate() throws Exception {
 
@@ -533,6 +620,10 @@ public class DefaultHttpClientTest {
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         when(urlConnection.getOutputStream()).thenReturn(buffer);
         when(urlConnection.getErrorStream()).thenReturn(new ByteArrayInputStream("Busy".getBytes()));
+        Map<String, List<String>> responseHeaders = new HashMap<>();
+        responseHeaders.put(null, Collections.singletonList("HTTP/1.1 503 Service Unavailable"));
+        responseHeaders.put("Retry-After", Collections.singletonList("120"));
+        when(urlConnection.getHeaderFields()).thenReturn(responseHeaders);
 
         /* Configure API client. */
         HttpClient.CallTemplate callTemplate = mock(HttpClient.CallTemplate.class);
@@ -548,7 +639,11 @@ public class DefaultHttpClientTest {
         ServiceCallback serviceCallback = mock(ServiceCallback.class);
         mockCall();
         httpClient.callAsync("", METHOD_POST, headers, callTemplate, serviceCallback);
-        verify(serviceCallback).onCallFailed(new HttpException(503, "Busy"));
+        ArgumentCaptor<HttpException> exception = ArgumentCaptor.forClass(HttpException.class);
+        verify(serviceCallback).onCallFailed(exception.capture());
+        assertEquals(new HttpException(503, "Busy"), exception.getValue());
+        assertEquals("120", exception.getValue().getHeader("retry-after"));
+        assertEquals(1, exception.getValue().getHeaders().size());
         verifyNoMoreInteractions(serviceCallback);
         verify(urlConnection).disconnect();
 
@@ -965,6 +1060,140 @@ public class DefaultHttpClientTest {
         }));
     }
 
+    @Test
+    public void sendWithCompressionPolicy() throws Exception {
+
+        /* Mock no verbose logging. */
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+
+        /* Configure mock HTTP. */
+        String urlString = "http://mock";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Custom codec compressing short payloads. */
+        CompressionPolicy.Codec codec = mock(CompressionPolicy.Codec.class);
+        when(codec.getContentEncoding()).thenReturn("x-custom");
+        when(codec.compress(any(OutputStream.class), anyInt(), anyInt())).then(new Answer<OutputStream>() {
+
+            @Override
+            public OutputStream answer(InvocationOnMock invocation) throws Throwable {
+                return CompressionPolicy.GZIP.compress((OutputStream) invocation.getArguments()[0], 1024, Deflater.BEST_SPEED);
+            }
+        });
+        CompressionPolicy compressionPolicy = spy(new CompressionPolicy(codec, Deflater.BEST_SPEED, 9, false));
+        HttpClient.CompressionCallTemplate callTemplate = mock(HttpClient.CompressionCallTemplate.class);
+        when(callTemplate.getCompressionPolicy()).thenReturn(compressionPolicy);
+        when(callTemplate.buildRequestBody()).thenReturn("{a:1,b:2}");
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* Test calling code. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK");
+        verify(urlConnection).setRequestProperty("Content-Encoding", "x-custom");
+        verify(codec).compress(any(OutputStream.class), anyInt(), eq(Deflater.BEST_SPEED));
+        verify(compressionPolicy).onCompressed(eq(9L), eq((long) buffer.size()), anyLong());
+        httpClient.close();
+
+        /* Verify payload compressed. */
+        InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        byte[] readBuffer = new byte[64];
+        int length;
+        while ((length = inputStream.read(readBuffer)) > 0) {
+            uncompressed.write(readBuffer, 0, length);
+        }
+        assertEquals("{a:1,b:2}", uncompressed.toString("UTF-8"));
+    }
+
+    @Test
+    public void postStreamingBelowPolicyMinLength() throws Exception {
+
+        /* Configure mock HTTP. */
+        String urlString = "http://mock";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Configure a streaming template estimated just below the configured minimum length. */
+        CompressionPolicy compressionPolicy = spy(new CompressionPolicy(CompressionPolicy.GZIP, Deflater.BEST_SPEED, 10, false));
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class, withSettings().extraInterfaces(HttpClient.CompressionCallTemplate.class));
+        when(((HttpClient.CompressionCallTemplate) callTemplate).getCompressionPolicy()).thenReturn(compressionPolicy);
+        when(callTemplate.getRequestBodySize()).thenReturn(9L);
+        doAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((OutputStream) invocation.getArguments()[0]).write("{a:1,b:2}".getBytes("UTF-8"));
+                return null;
+            }
+        }).when(callTemplate).writeRequestBody(any(OutputStream.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* Body is streamed uncompressed. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK");
+        verify(compressionPolicy).shouldCompress(9L);
+        verify(urlConnection, never()).setRequestProperty(eq("Content-Encoding"), anyString());
+        verify(urlConnection).setChunkedStreamingMode(anyInt());
+        httpClient.close();
+        assertEquals("{a:1,b:2}", buffer.toString("UTF-8"));
+    }
+
+    @Test
+    public void postStreamingWithoutCompression() throws Exception {
+
+        /* Configure mock HTTP. */
+        String urlString = "http://mock";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Configure a streaming template with a policy that never compresses. */
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class, withSettings().extraInterfaces(HttpClient.CompressionCallTemplate.class));
+        when(((HttpClient.CompressionCallTemplate) callTemplate).getCompressionPolicy()).thenReturn(new CompressionPolicy(null, 0, 0, false));
+        doAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((OutputStream) invocation.getArguments()[0]).write("{a:1,b:2}".getBytes("UTF-8"));
+                return null;
+            }
+        }).when(callTemplate).writeRequestBody(any(OutputStream.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* Test calling code. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK");
+        verify(urlConnection, never()).setRequestProperty(eq("Content-Encoding"), anyString());
+        verify(urlConnection).setChunkedStreamingMode(anyInt());
+        httpClient.close();
+        assertEquals("{a:1,b:2}", buffer.toString("UTF-8"));
+    }
+
     @Test
     public void sendNoGzipWithPlainTextVerboseLogging() throws Exception {
 
@@ -1101,4 +1330,131 @@ public class DefaultHttpClientTest {
             }
         }));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void postStreaming() throws Exception {
+
+        /* Configure mock HTTP. */
+        String urlString = "http://mock/logs?api-version=1.0.0";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Configure API client with a template writing a payload estimated large enough to compress. */
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        when(callTemplate.getRequestBodySize()).thenReturn((long) CompressionPolicy.DEFAULT_MIN_LENGTH);
+        doAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((OutputStream) invocation.getArguments()[0]).write("{a:1,b:2}".getBytes("UTF-8"));
+                return null;
+            }
+        }).when(callTemplate).writeRequestBody(any(OutputStream.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* Test calling code. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK");
+        verifyNoMoreInteractions(serviceCallback);
+        verify(urlConnection).setRequestProperty("Content-Type", "application/json");
+        verify(urlConnection).setRequestProperty("Content-Encoding", "gzip");
+        verify(urlConnection).setDoOutput(true);
+        verify(urlConnection).setChunkedStreamingMode(anyInt());
+        verify(urlConnection, never()).setFixedLengthStreamingMode(anyInt());
+        verify(callTemplate, never()).buildRequestBody();
+        verify(callTemplate).onBeforeCalling(eq(url), anyMapOf(String.class, String.class));
+        httpClient.close();
+
+        /* Payload is compressed. */
+        InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        byte[] readBuffer = new byte[64];
+        int length;
+        while ((length = inputStream.read(readBuffer)) > 0) {
+            uncompressed.write(readBuffer, 0, length);
+        }
+        assertEquals("{a:1,b:2}", uncompressed.toString("UTF-8"));
+    }
+
+    @Test
+    public void postStreamingSmallBodyUncompressed() throws Exception {
+
+        /* Configure mock HTTP. */
+        String urlString = "http://mock/logs?api-version=1.0.0";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Configure API client with a template writing a payload estimated too small to compress. */
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        when(callTemplate.getRequestBodySize()).thenReturn(9L);
+        doAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((OutputStream) invocation.getArguments()[0]).write("{a:1,b:2}".getBytes("UTF-8"));
+                return null;
+            }
+        }).when(callTemplate).writeRequestBody(any(OutputStream.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* Payload is streamed as is. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK");
+        verify(urlConnection, never()).setRequestProperty(eq("Content-Encoding"), anyString());
+        verify(urlConnection).setChunkedStreamingMode(anyInt());
+        httpClient.close();
+        assertEquals("{a:1,b:2}", buffer.toString("UTF-8"));
+    }
+
+    @Test
+    public void postStreamingTemplateBufferedWhenVerbose() throws Exception {
+
+        /* Mock verbose logging. */
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.VERBOSE);
+
+        /* Configure mock HTTP. */
+        String urlString = "http://mock";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Payload is built to be logged. */
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        when(callTemplate.buildRequestBody()).thenReturn("mockPayload");
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "text/plain");
+        httpClient.callAsync(urlString, METHOD_POST, headers, callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK");
+        verify(callTemplate, never()).writeRequestBody(any(OutputStream.class));
+        verify(urlConnection, never()).setChunkedStreamingMode(anyInt());
+        assertEquals("mockPayload", buffer.toString("UTF-8"));
+        verifyStatic();
+        AppCenterLog.verbose(AppCenterLog.LOG_TAG, "mockPayload");
+        httpClient.close();
+    }
+}
@@ -0,0 +1,220 @@
+package com.microsoft.appcenter.http;
+
+import android.os.Handler;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.powermock.reflect.Whitebox;
+
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({CircuitBreaker.class, AppCenterLog.class})
+public class HttpClientCircuitBreakerTest {
+
+    private static final String URL = "https://in.appcenter.ms/logs";
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    private final List<ServiceCallback> mCallbacks = new ArrayList<>();
+
+    private HttpClient mHttpClient;
+
+    private Handler mHandler;
+
+    @Before
+    public void setUp() {
+        mockStatic(AppCenterLog.class);
+        mockStatic(System.class);
+        when(System.currentTimeMillis()).thenReturn(1000L);
+        CircuitBreaker.unsetInstances();
+        mHttpClient = mock(HttpClient.class);
+        final ServiceCall serviceCall = mock(ServiceCall.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                mCallbacks.add((ServiceCallback) invocation.getArguments()[4]);
+                return serviceCall;
+            }
+        }).when(mHttpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        mHandler = mock(Handler.class);
+    }
+
+    @After
+    public void tearDown() {
+        CircuitBreaker.unsetInstances();
+    }
+
+    private void openCircuit(HttpClient httpClient) {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+            mCallbacks.get(i).onCallFailed(new SocketException());
+        }
+        mCallbacks.clear();
+    }
+
+    @Test
+    public void callsWaitWhileOpen() {
+        HttpClient httpClient = new HttpClientCircuitBreaker(mHttpClient, mHandler);
+        openCircuit(httpClient);
+
+        /* Calls to the host wait, calls to other hosts are made. */
+        ServiceCallback callback1 = mock(ServiceCallback.class);
+        ServiceCallback callback2 = mock(ServiceCallback.class);
+        httpClient.callAsync(URL, "", null, null, callback1);
+        httpClient.callAsync(URL, "", null, null, callback2);
+        httpClient.callAsync("https://api.appcenter.ms", "", null, null, mock(ServiceCallback.class));
+        verify(mHttpClient, times(CircuitBreaker.FAILURE_THRESHOLD)).callAsync(eq(URL), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        verify(mHttpClient).callAsync(eq("https://api.appcenter.ms"), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        ArgumentCaptor<Runnable> probe = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler, times(2)).postDelayed(probe.capture(), eq(CircuitBreaker.INITIAL_OPEN_DURATION));
+
+        /* Only the first call is sent as a probe once the circuit expires. */
+        when(System.currentTimeMillis()).thenReturn(1000L + CircuitBreaker.INITIAL_OPEN_DURATION);
+        probe.getValue().run();
+        verify(mHttpClient, times(CircuitBreaker.FAILURE_THRESHOLD + 1)).callAsync(eq(URL), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+
+        /* Probe success closes the circuit and sends the other call. */
+        mCallbacks.get(1).onCallSucceeded("");
+        verify(callback1).onCallSucceeded("");
+        verify(mHttpClient, times(CircuitBreaker.FAILURE_THRESHOLD + 2)).callAsync(eq(URL), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        mCallbacks.get(2).onCallSucceeded("");
+        verify(callback2).onCallSucceeded("");
+    }
+
+    @Test
+    public void probeFailureWaitsAgain() {
+        HttpClient httpClient = new HttpClientCircuitBreaker(mHttpClient, mHandler);
+        openCircuit(httpClient);
+        ServiceCallback callback = mock(ServiceCallback.class);
+        httpClient.callAsync(URL, "", null, null, callback);
+        httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+        when(System.currentTimeMillis()).thenReturn(1000L + CircuitBreaker.INITIAL_OPEN_DURATION);
+        ArgumentCaptor<Runnable> probe = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler, times(2)).postDelayed(probe.capture(), eq(CircuitBreaker.INITIAL_OPEN_DURATION));
+        probe.getValue().run();
+
+        /* Failure is forwarded and the remaining call waits for the next probe. */
+        SocketException exception = new SocketException();
+        mCallbacks.get(0).onCallFailed(exception);
+        verify(callback).onCallFailed(exception);
+        verify(mHandler).postDelayed(any(Runnable.class), eq(CircuitBreaker.INITIAL_OPEN_DURATION * 2));
+        verify(mHttpClient, times(CircuitBreaker.FAILURE_THRESHOLD + 1)).callAsync(eq(URL), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void cancelProbeAndWaitingCall() throws Exception {
+        HttpClient httpClient = new HttpClientCircuitBreaker(mHttpClient, mHandler);
+        openCircuit(httpClient);
+        ServiceCall waitingCall = httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+        ServiceCall probeCall = httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+        httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+
+        /* Cancelled waiting call is never sent. */
+        waitingCall.cancel();
+        when(System.currentTimeMillis()).thenReturn(1000L + CircuitBreaker.INITIAL_OPEN_DURATION);
+        ArgumentCaptor<Runnable> probe = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler, times(3)).postDelayed(probe.capture(), eq(CircuitBreaker.INITIAL_OPEN_DURATION));
+        probe.getValue().run();
+        verify(mHttpClient, times(CircuitBreaker.FAILURE_THRESHOLD + 1)).callAsync(eq(URL), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+
+        /* Cancelled probe lets the next waiting call probe. */
+        probeCall.cancel();
+        verify(mHttpClient, times(CircuitBreaker.FAILURE_THRESHOLD + 2)).callAsync(eq(URL), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+
+        /* Closing stops listening to circuit changes. */
+        httpClient.close();
+        verify(mHttpClient).close();
+        httpClient.reopen();
+        verify(mHttpClient).reopen();
+        httpClient.close();
+        mCallbacks.get(1).onCallSucceeded("");
+        verify(mHttpClient, times(CircuitBreaker.FAILURE_THRESHOLD + 2)).callAsync(eq(URL), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void closeReleasesProbe() throws Exception {
+        HttpClient httpClient = new HttpClientCircuitBreaker(mHttpClient, mHandler);
+        openCircuit(httpClient);
+
+        /* Start the probe. */
+        when(System.currentTimeMillis()).thenReturn(1000L + CircuitBreaker.INITIAL_OPEN_DURATION);
+        httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+        verify(mHttpClient, times(CircuitBreaker.FAILURE_THRESHOLD + 1)).callAsync(eq(URL), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        assertEquals(CircuitBreaker.Permit.DENIED, CircuitBreaker.forUrl(URL).acquire());
+
+        /* Closing cancels the probe without callback. */
+        httpClient.close();
+        verify(mHttpClient).close();
+
+        /* A new call probes after reopening. */
+        httpClient.reopen();
+        httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+        verify(mHttpClient, times(CircuitBreaker.FAILURE_THRESHOLD + 2)).callAsync(eq(URL), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void closeKeepsProbeOfOtherClient() throws Exception {
+        HttpClient httpClient = new HttpClientCircuitBreaker(mHttpClient, mHandler);
+        HttpClient otherHttpClient = new HttpClientCircuitBreaker(mHttpClient, mHandler);
+        openCircuit(httpClient);
+
+        /* The other client probes, the call of the first one waits. */
+        when(System.currentTimeMillis()).thenReturn(1000L + CircuitBreaker.INITIAL_OPEN_DURATION);
+        otherHttpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+        httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+        httpClient.close();
+
+        /* Probe still in progress. */
+        assertEquals(CircuitBreaker.Permit.DENIED, CircuitBreaker.forUrl(URL).acquire());
+    }
+
+    @Test
+    public void listenOnlyWhileCallsWait() {
+        Set<?> listeners = Whitebox.getInternalState(CircuitBreaker.class, "sListeners");
+        HttpClient httpClient = new HttpClientCircuitBreaker(mHttpClient, mHandler);
+        openCircuit(httpClient);
+        assertTrue(listeners.isEmpty());
+
+        /* Waiting call listens until it can be sent. */
+        httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+        assertTrue(listeners.contains(httpClient));
+        when(System.currentTimeMillis()).thenReturn(1000L + CircuitBreaker.INITIAL_OPEN_DURATION);
+        ArgumentCaptor<Runnable> probe = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler).postDelayed(probe.capture(), eq(CircuitBreaker.INITIAL_OPEN_DURATION));
+        probe.getValue().run();
+        assertTrue(listeners.isEmpty());
+
+        /* Cancelled waiting call stops listening as well, without closing the client. */
+        ServiceCall waitingCall = httpClient.callAsync(URL, "", null, null, mock(ServiceCallback.class));
+        assertTrue(listeners.contains(httpClient));
+        waitingCall.cancel();
+        assertTrue(listeners.isEmpty());
+    }
+}
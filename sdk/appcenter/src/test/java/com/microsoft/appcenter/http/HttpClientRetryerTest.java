@@ -2,27 +2,43 @@ package com.microsoft.appcenter.http;
 
 import android.os.Handler;
 
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
-import org.mockito.ArgumentMatcher;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
 
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.Collections;
 
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
-import static org.mockito.Matchers.longThat;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 @SuppressWarnings("unused")
+@PrepareForTest(SharedPreferencesManager.class)
 public class HttpClientRetryerTest {
 
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
     private static void simulateRetryAfterDelay(Handler handler) {
         doAnswer(new Answer() {
 
@@ -35,16 +51,28 @@ public class HttpClientRetryerTest {
         }).when(handler).postDelayed(any(Runnable.class), anyLong());
     }
 
-    private static void verifyDelay(Handler handler, final int retryIndex) {
-        verify(handler).postDelayed(any(Runnable.class), longThat(new ArgumentMatcher<Long>() {
+    private static RetryPolicy createRetryPolicy() {
+        return new RetryPolicy(RetryPolicy.DEFAULT_INITIAL_DELAY, RetryPolicy.DEFAULT_MAX_DELAY, RetryPolicy.DEFAULT_MULTIPLIER, RetryPolicy.DEFAULT_MAX_RETRIES, RetryPolicy.DEFAULT_RETRY_BUDGET);
+    }
 
-            @Override
-            public boolean matches(Object argument) {
-                long interval = (Long) argument;
-                long retryInterval = HttpClientRetryer.RETRY_INTERVALS[retryIndex];
-                return interval >= retryInterval / 2 && interval <= retryInterval;
-            }
-        }));
+    private static void verifyDelays(Handler handler, int retryCount) {
+        ArgumentCaptor<Long> delays = ArgumentCaptor.forClass(Long.class);
+        verify(handler, times(retryCount)).postDelayed(any(Runnable.class), delays.capture());
+        for (int retryIndex = 0; retryIndex < retryCount; retryIndex++) {
+            long interval = delays.getAllValues().get(retryIndex);
+            double maxInterval = RetryPolicy.DEFAULT_INITIAL_DELAY * Math.pow(RetryPolicy.DEFAULT_MULTIPLIER, retryIndex);
+            assertTrue(interval >= 0 && interval <= Math.min(RetryPolicy.DEFAULT_MAX_DELAY, maxInterval));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mockStatic(SharedPreferencesManager.class);
+    }
+
+    @After
+    public void tearDown() {
+        RetryPolicy.unsetDefault();
     }
 
     @Test
@@ -87,10 +115,10 @@ public class HttpClientRetryerTest {
             }
         }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
         Handler handler = mock(Handler.class);
-        HttpClient retryer = new HttpClientRetryer(httpClient, handler);
+        HttpClient retryer = new HttpClientRetryer(httpClient, createRetryPolicy(), handler);
         simulateRetryAfterDelay(handler);
         retryer.callAsync(null, null, null, null, callback);
-        verifyDelay(handler, 0);
+        verifyDelays(handler, 1);
         verifyNoMoreInteractions(handler);
         verify(callback).onCallSucceeded("mockSuccessPayload");
         verifyNoMoreInteractions(callback);
@@ -117,10 +145,10 @@ public class HttpClientRetryerTest {
             }
         }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
         Handler handler = mock(Handler.class);
-        HttpClient retryer = new HttpClientRetryer(httpClient, handler);
+        HttpClient retryer = new HttpClientRetryer(httpClient, createRetryPolicy(), handler);
         simulateRetryAfterDelay(handler);
         retryer.callAsync(null, null, null, null, callback);
-        verifyDelay(handler, 0);
+        verifyDelays(handler, 1);
         verifyNoMoreInteractions(handler);
         verify(callback).onCallFailed(any(Exception.class));
         verify(callback).onCallFailed(expectedException);
@@ -141,12 +169,10 @@ public class HttpClientRetryerTest {
             }
         }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
         Handler handler = mock(Handler.class);
-        HttpClient retryer = new HttpClientRetryer(httpClient, handler);
+        HttpClient retryer = new HttpClientRetryer(httpClient, createRetryPolicy(), handler);
         simulateRetryAfterDelay(handler);
         retryer.callAsync(null, null, null, null, callback);
-        verifyDelay(handler, 0);
-        verifyDelay(handler, 1);
-        verifyDelay(handler, 2);
+        verifyDelays(handler, 3);
         verifyNoMoreInteractions(handler);
         verify(callback).onCallFailed(new HttpException(408));
         verifyNoMoreInteractions(callback);
@@ -167,10 +193,60 @@ public class HttpClientRetryerTest {
             }
         }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
         Handler handler = mock(Handler.class);
-        HttpClient retryer = new HttpClientRetryer(httpClient, handler);
+        HttpClient retryer = new HttpClientRetryer(httpClient, createRetryPolicy(), handler);
         retryer.callAsync(null, null, null, null, callback).cancel();
         Thread.sleep(500);
         verifyNoMoreInteractions(callback);
         verify(call).cancel();
     }
+    @Test
+    public void retryAfterHeader() {
+        final ServiceCallback callback = mock(ServiceCallback.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallFailed(new HttpException(429, "", Collections.singletonMap("Retry-After", "120")));
+                return mock(ServiceCall.class);
+            }
+        }).doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallSucceeded("mockSuccessPayload");
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        HttpClient retryer = new HttpClientRetryer(httpClient, createRetryPolicy(), handler);
+        simulateRetryAfterDelay(handler);
+        retryer.callAsync(null, null, null, null, callback);
+
+        /* Server delay is longer than the first backoff, it's used as is. */
+        verify(handler).postDelayed(any(Runnable.class), eq(120000L));
+        verify(callback).onCallSucceeded("mockSuccessPayload");
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    public void delayCallAfterRecentFailure() {
+        ServiceCallback callback = mock(ServiceCallback.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        Handler handler = mock(Handler.class);
+        RetryPolicy retryPolicy = mock(RetryPolicy.class);
+        when(retryPolicy.getDelayBeforeCall("https://mock")).thenReturn(1000L);
+        HttpClient retryer = new HttpClientRetryer(httpClient, retryPolicy, handler);
+
+        /* Call is not attempted until the delay expires. */
+        ServiceCall call = retryer.callAsync("https://mock", null, null, null, callback);
+        verify(handler).postDelayed(any(Runnable.class), eq(1000L));
+        verifyNoMoreInteractions(httpClient);
+
+        /* Cancel before first attempt. */
+        call.cancel();
+        verify(handler).removeCallbacks(any(Runnable.class));
+        verifyNoMoreInteractions(httpClient);
+        verifyNoMoreInteractions(callback);
+    }
 }
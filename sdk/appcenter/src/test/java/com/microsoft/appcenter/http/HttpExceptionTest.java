@@ -2,10 +2,14 @@ package com.microsoft.appcenter.http;
 
 import org.junit.Test;
 
+import java.util.Collections;
+
 import static com.microsoft.appcenter.test.TestUtils.checkEquals;
 import static com.microsoft.appcenter.test.TestUtils.checkNotEquals;
 import static com.microsoft.appcenter.test.TestUtils.compareSelfNullClass;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @SuppressWarnings("unused")
 public class HttpExceptionTest {
@@ -19,5 +23,9 @@ public class HttpExceptionTest {
         assertEquals(403, new HttpException(403).getStatusCode());
         assertEquals("", new HttpException(403).getPayload());
         assertEquals("Busy", new HttpException(503, "Busy").getPayload());
+        assertTrue(new HttpException(503).getHeaders().isEmpty());
+        assertNull(new HttpException(503).getHeader("Retry-After"));
+        checkEquals(new HttpException(503, "Busy"), new HttpException(503, "Busy", Collections.singletonMap("Retry-After", "1")));
+        assertEquals("1", new HttpException(503, "Busy", Collections.singletonMap("Retry-After", "1")).getHeader("retry-after"));
     }
 }
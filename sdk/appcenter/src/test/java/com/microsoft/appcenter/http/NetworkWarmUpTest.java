@@ -0,0 +1,111 @@
+package com.microsoft.appcenter.http;
+
+import android.os.Build;
+
+import com.microsoft.appcenter.test.TestUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({NetworkWarmUp.class, AppCenterLog.class})
+public class NetworkWarmUpTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    private HttpServer mServer;
+
+    private volatile String mRequest;
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(AppCenterLog.class);
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.O);
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequest = exchange.getRequestMethod() + " " + exchange.getRequestURI();
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", 0);
+    }
+
+    private String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/logs";
+    }
+
+    @Test
+    public void resolveOnly() {
+        NetworkWarmUp.warmUp(getUrl(), false);
+        assertNull(mRequest);
+        verifyStatic();
+        AppCenterLog.info(anyString(), contains("DNS resolution"));
+    }
+
+    @Test
+    public void openConnection() {
+        NetworkWarmUp.warmUp(getUrl(), true);
+        assertEquals("HEAD /", mRequest);
+        verifyStatic();
+        AppCenterLog.info(anyString(), contains("connection"));
+    }
+
+    @Test
+    public void noConnectionOnOldDevices() throws Exception {
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.LOLLIPOP);
+        NetworkWarmUp.warmUp(getUrl(), true);
+        assertNull(mRequest);
+    }
+
+    @Test
+    public void resolutionFailure() throws Exception {
+        mockStatic(InetAddress.class);
+        when(InetAddress.getAllByName(anyString())).thenThrow(new UnknownHostException());
+        NetworkWarmUp.warmUp(getUrl(), true);
+        assertNull(mRequest);
+        verifyStatic();
+        AppCenterLog.warn(anyString(), contains("127.0.0.1"));
+        verifyStatic(never());
+        AppCenterLog.info(anyString(), anyString());
+    }
+
+    @Test
+    public void invalidUrl() {
+        NetworkWarmUp.warmUp("invalid", true);
+        verifyStatic();
+        AppCenterLog.warn(anyString(), eq("Network warm-up skipped for invalid URL invalid"));
+    }
+}
@@ -0,0 +1,39 @@
+package com.microsoft.appcenter.http;
+
+import com.microsoft.appcenter.utils.HandlerUtils;
+
+import org.junit.Rule;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import okhttp3.OkHttpClient;
+
+import static org.mockito.Matchers.any;
+import static org.powermock.api.mockito.PowerMockito.doAnswer;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest(HandlerUtils.class)
+public class OkHttpClientAdapterCompatibilityTest extends AbstractHttpClientCompatibilityTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    @Override
+    protected HttpClient createHttpClient() {
+
+        /* Call back on the OkHttp thread. */
+        mockStatic(HandlerUtils.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
+            }
+        }).when(HandlerUtils.class);
+        HandlerUtils.runOnUiThread(any(Runnable.class));
+        return new OkHttpClientAdapter(new OkHttpClient());
+    }
+}
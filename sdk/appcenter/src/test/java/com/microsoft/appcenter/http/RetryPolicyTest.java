@@ -0,0 +1,179 @@
+package com.microsoft.appcenter.http;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.net.SocketException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({SharedPreferencesManager.class, AppCenterLog.class})
+public class RetryPolicyTest {
+
+    private static final String URL = "https://in.appcenter.ms/logs?api-version=1.0.0";
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    private static HttpException retryAfter(String value) {
+        return new HttpException(503, "", Collections.singletonMap("Retry-After", value));
+    }
+
+    @Before
+    public void setUp() {
+        mockStatic(SharedPreferencesManager.class);
+        mockStatic(AppCenterLog.class);
+    }
+
+    @After
+    public void tearDown() {
+        RetryPolicy.unsetDefault();
+    }
+
+    @Test
+    public void exponentialBackoffWithJitter() {
+        RetryPolicy retryPolicy = new RetryPolicy(1000, 100000, 2, 10, 100);
+        for (int i = 0; i < 10; i++) {
+            long delay = retryPolicy.onCallFailed(URL, i, new SocketException());
+            assertTrue(delay >= 0);
+            assertTrue(delay <= Math.min(100000, 1000 * Math.pow(2, i)));
+        }
+
+        /* Maximum retries of a call reached. */
+        assertEquals(-1, retryPolicy.onCallFailed(URL, 10, new SocketException()));
+
+        /* Next calls wait for the last delay. */
+        assertTrue(retryPolicy.getDelayBeforeCall(URL) <= 100000);
+
+        /* Success resets the backoff. */
+        retryPolicy.onCallSucceeded(URL);
+        assertEquals(0, retryPolicy.getDelayBeforeCall(URL));
+        assertTrue(retryPolicy.onCallFailed(URL, 0, new SocketException()) <= 1000);
+    }
+
+    @Test
+    public void backoffPerHost() {
+        RetryPolicy retryPolicy = new RetryPolicy(1000, 100000, 2, 10, 3);
+        String otherUrl = "https://api.appcenter.ms/v0.1/public";
+        retryPolicy.onCallFailed(URL, 0, retryAfter("60"));
+
+        /* Only calls to the failing host wait. */
+        assertTrue(retryPolicy.getDelayBeforeCall(URL) > 50000);
+        assertEquals(0, retryPolicy.getDelayBeforeCall(otherUrl));
+        assertTrue(retryPolicy.onCallFailed(otherUrl, 0, new SocketException()) <= 1000);
+
+        /* Success only resets the backoff of its host. */
+        retryPolicy.onCallSucceeded(otherUrl);
+        assertEquals(0, retryPolicy.getDelayBeforeCall(otherUrl));
+        assertTrue(retryPolicy.getDelayBeforeCall(URL) > 50000);
+
+        /* Budget is shared by all hosts. */
+        assertTrue(retryPolicy.onCallFailed(otherUrl, 0, new SocketException()) >= 0);
+        assertEquals(-1, retryPolicy.onCallFailed(URL, 0, new SocketException()));
+    }
+
+    @Test
+    public void nonRecoverableError() {
+        RetryPolicy retryPolicy = new RetryPolicy(1000, 100000, 2, 10, 100);
+        assertEquals(-1, retryPolicy.onCallFailed(URL, 0, new HttpException(400)));
+        assertEquals(0, retryPolicy.getDelayBeforeCall(URL));
+    }
+
+    @Test
+    public void retryAfter() {
+        assertEquals(0, RetryPolicy.getRetryAfter(new HttpException(503)));
+        assertEquals(120000, RetryPolicy.getRetryAfter(retryAfter("120")));
+        assertEquals(0, RetryPolicy.getRetryAfter(retryAfter("-1")));
+        assertEquals(0, RetryPolicy.getRetryAfter(retryAfter("soon")));
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        long delay = RetryPolicy.getRetryAfter(retryAfter(dateFormat.format(new Date(System.currentTimeMillis() + 60000))));
+        assertTrue(delay > 50000 && delay <= 60000);
+        assertEquals(0, RetryPolicy.getRetryAfter(retryAfter(dateFormat.format(new Date(0)))));
+
+        /* Server delay is a minimum but bounded by the maximum delay. */
+        RetryPolicy retryPolicy = new RetryPolicy(1000, 100000, 2, 10, 100);
+        assertEquals(60000, retryPolicy.onCallFailed(URL, 0, retryAfter("60")));
+        assertEquals(100000, retryPolicy.onCallFailed(URL, 1, retryAfter("3600")));
+    }
+
+    @Test
+    public void retryBudget() {
+        RetryPolicy retryPolicy = new RetryPolicy(1000, 100000, 2, 10, 2);
+        assertTrue(retryPolicy.onCallFailed(URL, 0, new SocketException()) >= 0);
+        assertTrue(retryPolicy.onCallFailed(URL, 0, new SocketException()) >= 0);
+
+        /* Budget spent by all calls. */
+        assertEquals(-1, retryPolicy.onCallFailed(URL, 0, new SocketException()));
+
+        /* Successful calls refill the budget. */
+        for (int i = 0; i < RetryPolicy.SUCCESSES_PER_RETRY; i++) {
+            retryPolicy.onCallSucceeded(URL);
+        }
+        assertTrue(retryPolicy.onCallFailed(URL, 0, new SocketException()) >= 0);
+        assertEquals(-1, retryPolicy.onCallFailed(URL, 0, new SocketException()));
+    }
+
+    @Test
+    public void persistedState() {
+        RetryPolicy retryPolicy = RetryPolicy.getDefault();
+        assertSame(retryPolicy, RetryPolicy.getDefault());
+        assertEquals(0, retryPolicy.getDelayBeforeCall(URL));
+
+        /* Success without failure does not write to storage. */
+        retryPolicy.onCallSucceeded(URL);
+        verifyStatic(never());
+        SharedPreferencesManager.remove(anyString());
+
+        /* Failures are persisted. */
+        retryPolicy.onCallFailed(URL, 0, new SocketException());
+        verifyStatic();
+        SharedPreferencesManager.putInt(eq("httpRetryFailureCount.in.appcenter.ms"), eq(1));
+        verifyStatic();
+        SharedPreferencesManager.putLong(eq("httpRetryNextAttemptTime.in.appcenter.ms"), anyLong());
+
+        /* State is restored after restart. */
+        RetryPolicy.unsetDefault();
+        when(SharedPreferencesManager.getInt(eq("httpRetryFailureCount.in.appcenter.ms"), anyInt())).thenReturn(3);
+        when(SharedPreferencesManager.getLong(eq("httpRetryNextAttemptTime.in.appcenter.ms"), anyLong())).thenReturn(System.currentTimeMillis() + 60000);
+        retryPolicy = RetryPolicy.getDefault();
+        long delay = retryPolicy.getDelayBeforeCall(URL);
+        assertTrue(delay > 50000 && delay <= 60000);
+
+        /* Success clears storage. */
+        retryPolicy.onCallSucceeded(URL);
+        verifyStatic();
+        SharedPreferencesManager.remove("httpRetryFailureCount.in.appcenter.ms");
+        verifyStatic();
+        SharedPreferencesManager.remove("httpRetryNextAttemptTime.in.appcenter.ms");
+        assertEquals(0, retryPolicy.getDelayBeforeCall(URL));
+    }
+
+    @Test
+    public void delayBoundedIfClockChanged() {
+        when(SharedPreferencesManager.getLong(eq("httpRetryNextAttemptTime.in.appcenter.ms"), anyLong())).thenReturn(Long.MAX_VALUE);
+        assertEquals(RetryPolicy.DEFAULT_MAX_DELAY, RetryPolicy.getDefault().getDelayBeforeCall(URL));
+    }
+}
@@ -0,0 +1,98 @@
+package com.microsoft.appcenter.http;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest(AppCenterLog.class)
+public class SharedHttpClientTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    private final List<ServiceCallback> mCallbacks = new ArrayList<>();
+
+    private final List<ServiceCall> mServiceCalls = new ArrayList<>();
+
+    private HttpClient mHttpClient;
+
+    @Before
+    public void setUp() {
+        mockStatic(AppCenterLog.class);
+        mHttpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                mCallbacks.add((ServiceCallback) invocation.getArguments()[4]);
+                ServiceCall serviceCall = mock(ServiceCall.class);
+                mServiceCalls.add(serviceCall);
+                return serviceCall;
+            }
+        }).when(mHttpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void callsAreForwarded() {
+        SharedHttpClient httpClient = new SharedHttpClient(mHttpClient);
+        ServiceCallback callback1 = mock(ServiceCallback.class);
+        ServiceCallback callback2 = mock(ServiceCallback.class);
+        httpClient.callAsync("https://mock", "GET", null, null, callback1);
+        httpClient.callAsync("https://mock", "GET", null, null, callback2);
+        assertEquals(2, httpClient.getCalls().size());
+        mCallbacks.get(0).onCallSucceeded("OK");
+        verify(callback1).onCallSucceeded("OK");
+        Exception exception = new HttpException(503);
+        mCallbacks.get(1).onCallFailed(exception);
+        verify(callback2).onCallFailed(exception);
+        assertTrue(httpClient.getCalls().isEmpty());
+    }
+
+    @Test
+    public void closeCancelsOwnCallsOnly() throws IOException {
+        SharedHttpClient httpClient = new SharedHttpClient(mHttpClient);
+        SharedHttpClient otherHttpClient = new SharedHttpClient(mHttpClient);
+        ServiceCallback callback = mock(ServiceCallback.class);
+        ServiceCallback otherCallback = mock(ServiceCallback.class);
+        httpClient.callAsync("https://mock", "GET", null, null, callback);
+        otherHttpClient.callAsync("https://mock", "GET", null, null, otherCallback);
+
+        /* Closing cancels the calls made through that client without closing the shared one. */
+        httpClient.close();
+        verify(mServiceCalls.get(0)).cancel();
+        verify(mServiceCalls.get(1), never()).cancel();
+        verify(mHttpClient, never()).close();
+
+        /* Completion of a cancelled call is ignored. */
+        mCallbacks.get(0).onCallSucceeded("OK");
+        verifyZeroInteractions(callback);
+        mCallbacks.get(1).onCallSucceeded("OK");
+        verify(otherCallback).onCallSucceeded("OK");
+
+        /* Reopening has nothing to do. */
+        httpClient.reopen();
+        verify(mHttpClient, never()).reopen();
+    }
+}
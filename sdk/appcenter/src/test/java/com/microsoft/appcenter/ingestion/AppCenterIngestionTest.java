@@ -2,6 +2,7 @@ package com.microsoft.appcenter.ingestion;
 
 import android.content.Context;
 
+import com.microsoft.appcenter.http.CompressionPolicy;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCall;
@@ -41,6 +42,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doReturn;
@@ -109,6 +111,13 @@ public class AppCenterIngestionTest {
         assertNotNull(callTemplate.get());
         assertEquals("mockPayload", callTemplate.get().buildRequestBody());
 
+        /* Verify compression policy. */
+        assertEquals(CompressionPolicy.GZIP, ((HttpClient.CompressionCallTemplate) callTemplate.get()).getCompressionPolicy().getCodec());
+        CompressionPolicy compressionPolicy = new CompressionPolicy(null, 0, 0, false);
+        ingestion.setCompressionPolicy(compressionPolicy);
+        ingestion.sendAsync(appSecret, installId, container, serviceCallback);
+        assertEquals(compressionPolicy, ((HttpClient.CompressionCallTemplate) callTemplate.get()).getCompressionPolicy());
+
         /* Verify close. */
         ingestion.close();
         verify(mHttpClient).close();
@@ -223,6 +232,34 @@ public class AppCenterIngestionTest {
         AppCenterLog.verbose(anyString(), anyString());
     }
 
+    @Test
+    public void requestBodySizeMeasuredUntilLargeEnoughToCompress() throws Exception {
+        LogSerializer serializer = mock(LogSerializer.class);
+        when(serializer.getRequestSize(any(Log.class))).thenReturn(99L);
+        final AtomicReference<HttpClient.CallTemplate> callTemplate = new AtomicReference<>();
+        when(mHttpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class))).then(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                callTemplate.set((HttpClient.CallTemplate) invocation.getArguments()[3]);
+                return mock(ServiceCall.class);
+            }
+        });
+        AppCenterIngestion ingestion = new AppCenterIngestion(mock(Context.class), serializer);
+        ingestion.setCompressionPolicy(new CompressionPolicy(CompressionPolicy.GZIP, 1, 200, false));
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            logs.add(mock(Log.class));
+        }
+        LogContainer container = new LogContainer();
+        container.setLogs(logs);
+        ingestion.sendAsync("secret", UUIDUtils.randomUUID(), container, mock(ServiceCallback.class));
+
+        /* Container then logs with a comma, measuring stops past the minimum length to compress. */
+        assertEquals(AppCenterIngestion.CONTAINER_SIZE + 2 * 100, ((HttpClient.StreamingCallTemplate) callTemplate.get()).getRequestBodySize());
+        verify(serializer, times(2)).getRequestSize(any(Log.class));
+    }
+
     private HttpClient.CallTemplate getCallTemplate(String appSecret) throws Exception {
 
         /* Configure mock HTTP to get an instance of IngestionCallTemplate. */
@@ -3,6 +3,7 @@ package com.microsoft.appcenter.ingestion;
 import android.content.Context;
 
 import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.http.CompressionPolicy;
 import com.microsoft.appcenter.http.DefaultHttpClient;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpUtils;
@@ -170,6 +171,13 @@ public class OneCollectorIngestionTest {
         assertNotNull(callTemplate.getValue());
         assertEquals("mockPayload1\nmockPayload2\n", callTemplate.getValue().buildRequestBody());
 
+        /* Verify compression policy. */
+        assertEquals(CompressionPolicy.GZIP, ((HttpClient.CompressionCallTemplate) callTemplate.getValue()).getCompressionPolicy().getCodec());
+        CompressionPolicy compressionPolicy = new CompressionPolicy(null, 0, 0, false);
+        ingestion.setCompressionPolicy(compressionPolicy);
+        ingestion.sendAsync(null, null, container, serviceCallback);
+        assertEquals(compressionPolicy, ((HttpClient.CompressionCallTemplate) callTemplate.getValue()).getCompressionPolicy());
+
         /* Verify close. */
         ingestion.close();
         verify(mHttpClient).close();
@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.ingestion.models;
 
+import com.microsoft.appcenter.ingestion.models.json.JSONWriter;
 import com.microsoft.appcenter.test.TestUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 import org.junit.Test;
 
 import java.util.Date;
@@ -132,15 +132,15 @@ public class AbstractLogTest {
 
     @Test
     public void writeNullDeviceTest() throws JSONException {
-        JSONStringer mockJsonStringer = mock(JSONStringer.class);
-        when(mockJsonStringer.key(anyString())).thenReturn(mockJsonStringer);
-        when(mockJsonStringer.value(anyString())).thenReturn(mockJsonStringer);
+        JSONWriter mockJsonWriter = mock(JSONWriter.class);
+        when(mockJsonWriter.key(anyString())).thenReturn(mockJsonWriter);
+        when(mockJsonWriter.value(anyString())).thenReturn(mockJsonWriter);
 
         AbstractLog mockLog = new MockLog();
         mockLog.setTimestamp(new Date());
-        mockLog.write(mockJsonStringer);
+        mockLog.write(mockJsonWriter);
 
-        verify(mockJsonStringer, never()).key(AbstractLog.DEVICE);
+        verify(mockJsonWriter, never()).key(AbstractLog.DEVICE);
     }
 
     private static class MockLog extends AbstractLog {
@@ -0,0 +1,323 @@
+package com.microsoft.appcenter.persistence;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.Flags.PERSISTENCE_CRITICAL;
+import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@SuppressWarnings("unused")
+@PrepareForTest(AppCenterLog.class)
+public class MemoryPersistenceTest {
+
+    private static final String GROUP = "group";
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    private final Map<String, Log> mLogs = new HashMap<>();
+
+    private final Map<Log, String> mPayloads = new HashMap<>();
+
+    private LogSerializer mLogSerializer;
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(AppCenterLog.class);
+        mLogSerializer = mock(LogSerializer.class);
+        when(mLogSerializer.serializeLog(any(Log.class))).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return mPayloads.get(invocation.getArguments()[0]);
+            }
+        });
+        when(mLogSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) {
+                return mLogs.get(invocation.getArguments()[0]);
+            }
+        });
+    }
+
+    private Log newLog(String payload) {
+        Log log = mock(Log.class);
+        when(log.getType()).thenReturn("mock");
+        mLogs.put(payload, log);
+        mPayloads.put(log, payload);
+        return log;
+    }
+
+    @Test
+    public void putGetDelete() throws Exception {
+        MemoryPersistence persistence = new MemoryPersistence(1024, null);
+        persistence.setLogSerializer(mLogSerializer);
+        Log normal = newLog("normal");
+        Log critical = newLog("critical");
+        persistence.putLog(normal, GROUP, PERSISTENCE_NORMAL);
+        persistence.putLog(critical, GROUP, PERSISTENCE_CRITICAL);
+        assertEquals(2, persistence.countLogs(GROUP));
+        assertEquals(0, persistence.countLogs("other"));
+        assertTrue(persistence.setMaxStorageSize(1));
+
+        /* Critical first. */
+        List<Log> logs = new ArrayList<>();
+        String id = persistence.getLogs(GROUP, Collections.<String>emptyList(), 1, logs);
+        assertNotNull(id);
+        assertEquals(Collections.singletonList(critical), logs);
+
+        /* Pending logs are skipped. */
+        logs.clear();
+        String id2 = persistence.getLogs(GROUP, Collections.<String>emptyList(), 5, logs);
+        assertEquals(Collections.singletonList(normal), logs);
+        logs.clear();
+        assertNull(persistence.getLogs(GROUP, Collections.<String>emptyList(), 5, logs));
+
+        /* Delete batches. */
+        persistence.deleteLogs(GROUP, id);
+        persistence.deleteLogs(GROUP, id2);
+        assertEquals(0, persistence.countLogs(GROUP));
+        assertTrue(persistence.mEntries.isEmpty());
+        assertTrue(persistence.mPendingEntries.isEmpty());
+        persistence.close();
+    }
+
+    @Test
+    public void evictOldestLowestPriority() throws Exception {
+        MemoryPersistence persistence = new MemoryPersistence(9, null);
+        persistence.setLogSerializer(mLogSerializer);
+        Log critical = newLog("cccc");
+        Log normal1 = newLog("n1");
+        Log normal2 = newLog("n2");
+        Log normal3 = newLog("n3");
+        persistence.putLog(critical, GROUP, PERSISTENCE_CRITICAL);
+        persistence.putLog(normal1, GROUP, PERSISTENCE_NORMAL);
+        persistence.putLog(normal2, GROUP, PERSISTENCE_NORMAL);
+        persistence.putLog(normal3, GROUP, PERSISTENCE_NORMAL);
+        assertEquals(3, persistence.countLogs(GROUP));
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs(GROUP, Collections.<String>emptyList(), 5, logs);
+        assertEquals(critical, logs.get(0));
+        assertEquals(normal2, logs.get(1));
+        assertEquals(normal3, logs.get(2));
+
+        /* All logs pending: nothing can be evicted. */
+        try {
+            persistence.putLog(newLog("n4"), GROUP, PERSISTENCE_NORMAL);
+            fail();
+        } catch (Persistence.PersistenceException ignored) {
+        }
+
+        /* Too large. */
+        try {
+            persistence.putLog(newLog("12345678901"), GROUP, PERSISTENCE_CRITICAL);
+            fail();
+        } catch (Persistence.PersistenceException ignored) {
+        }
+    }
+
+    @Test
+    public void evictOldestAcrossGroups() throws Exception {
+        MemoryPersistence persistence = new MemoryPersistence(6, null);
+        persistence.setLogSerializer(mLogSerializer);
+        Log other = newLog("o1");
+        Log pending = newLog("n1");
+        Log normal2 = newLog("n2");
+        persistence.putLog(other, "other", PERSISTENCE_NORMAL);
+        persistence.putLog(pending, GROUP, PERSISTENCE_NORMAL);
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs(GROUP, Collections.<String>emptyList(), 1, logs);
+        assertEquals(pending, logs.get(0));
+        persistence.putLog(normal2, GROUP, PERSISTENCE_NORMAL);
+
+        /* The oldest log is evicted even if in another group. */
+        persistence.putLog(newLog("n3"), GROUP, PERSISTENCE_NORMAL);
+        assertEquals(0, persistence.countLogs("other"));
+
+        /* Then the oldest log that is not pending. */
+        persistence.putLog(newLog("n4"), GROUP, PERSISTENCE_NORMAL);
+        persistence.clearPendingLogState();
+        logs.clear();
+        persistence.getLogs(GROUP, Collections.<String>emptyList(), 5, logs);
+        assertEquals(3, logs.size());
+        assertEquals(pending, logs.get(0));
+        assertFalse(logs.contains(normal2));
+    }
+
+    @Test
+    public void sizeIsMeasuredInUtf8Bytes() throws Exception {
+        assertEquals(1, MemoryPersistence.getUtf8Size("a"));
+        assertEquals(2, MemoryPersistence.getUtf8Size("\u00e9"));
+        assertEquals(3, MemoryPersistence.getUtf8Size("\u20ac"));
+        assertEquals(4, MemoryPersistence.getUtf8Size("\ud83d\ude00"));
+        MemoryPersistence persistence = new MemoryPersistence(5, null);
+        persistence.setLogSerializer(mLogSerializer);
+        try {
+            persistence.putLog(newLog("\u20ac\u20ac"), GROUP, PERSISTENCE_NORMAL);
+            fail();
+        } catch (Persistence.PersistenceException ignored) {
+        }
+    }
+
+    @Test
+    public void normalLogCannotEvictCritical() throws Exception {
+        MemoryPersistence persistence = new MemoryPersistence(4, null);
+        persistence.setLogSerializer(mLogSerializer);
+        persistence.putLog(newLog("cccc"), GROUP, PERSISTENCE_CRITICAL);
+        try {
+            persistence.putLog(newLog("n"), GROUP, PERSISTENCE_NORMAL);
+            fail();
+        } catch (Persistence.PersistenceException ignored) {
+        }
+        assertEquals(1, persistence.countLogs(GROUP));
+    }
+
+    @Test
+    public void deleteGroupAndClearPendingState() throws Exception {
+        MemoryPersistence persistence = new MemoryPersistence(1024, null);
+        persistence.setLogSerializer(mLogSerializer);
+        persistence.putLog(newLog("a"), GROUP, PERSISTENCE_NORMAL);
+        persistence.putLog(newLog("b"), "other", PERSISTENCE_NORMAL);
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs(GROUP, Collections.<String>emptyList(), 5, logs);
+        persistence.clearPendingLogState();
+        assertTrue(persistence.mPendingEntries.isEmpty());
+        assertNotNull(persistence.getLogs(GROUP, Collections.<String>emptyList(), 5, logs));
+        persistence.deleteLogs(GROUP);
+        assertEquals(0, persistence.countLogs(GROUP));
+        assertEquals(1, persistence.countLogs("other"));
+        assertTrue(persistence.mPendingEntryGroups.isEmpty());
+    }
+
+    @Test
+    public void failedDeserializationRemovesLog() throws Exception {
+        MemoryPersistence persistence = new MemoryPersistence(1024, null);
+        persistence.setLogSerializer(mLogSerializer);
+        persistence.putLog(newLog("a"), GROUP, PERSISTENCE_NORMAL);
+        when(mLogSerializer.deserializeLog(anyString(), anyString())).thenThrow(new JSONException("mock"));
+        assertNull(persistence.getLogs(GROUP, Collections.<String>emptyList(), 5, new ArrayList<Log>()));
+        assertEquals(0, persistence.countLogs(GROUP));
+    }
+
+    @Test
+    public void criticalLogsWrittenThrough() throws Exception {
+        Persistence disk = mock(Persistence.class);
+        MemoryPersistence persistence = new MemoryPersistence(1024, disk);
+        persistence.setLogSerializer(mLogSerializer);
+        verify(disk).setLogSerializer(mLogSerializer);
+        Log critical = newLog("critical");
+        Log normal = newLog("normal");
+        persistence.putLog(critical, GROUP, PERSISTENCE_CRITICAL);
+        persistence.putLog(normal, GROUP, PERSISTENCE_NORMAL);
+        verify(disk).putLog(critical, GROUP, PERSISTENCE_CRITICAL);
+        verify(disk, never()).putLog(eq(normal), anyString(), anyInt());
+        when(disk.countLogs(GROUP)).thenReturn(1);
+        assertEquals(2, persistence.countLogs(GROUP));
+
+        /* Disk logs come first and are deleted with the batch. */
+        final Log diskLog = mock(Log.class);
+        when(disk.getLogs(eq(GROUP), anyCollectionOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                ((List<Log>) invocation.getArguments()[3]).add(diskLog);
+                return "diskId";
+            }
+        });
+        List<Log> logs = new ArrayList<>();
+        String id = persistence.getLogs(GROUP, Collections.<String>emptyList(), 5, logs);
+        assertEquals(2, logs.size());
+        assertEquals(diskLog, logs.get(0));
+        assertEquals(normal, logs.get(1));
+        persistence.deleteLogs(GROUP, id);
+        verify(disk).deleteLogs(GROUP, "diskId");
+
+        /* Other operations are forwarded. */
+        when(disk.setMaxStorageSize(anyLong())).thenReturn(false);
+        assertFalse(persistence.setMaxStorageSize(1));
+        persistence.clearPendingLogState();
+        verify(disk).clearPendingLogState();
+        persistence.deleteLogs(GROUP);
+        verify(disk).deleteLogs(GROUP);
+        persistence.close();
+        verify(disk).close();
+    }
+
+    @Test
+    public void splitLogs() throws Exception {
+        Persistence disk = mock(Persistence.class);
+        MemoryPersistence persistence = new MemoryPersistence(1024, disk);
+        persistence.setLogSerializer(mLogSerializer);
+        Log normal1 = newLog("normal1");
+        Log normal2 = newLog("normal2");
+        persistence.putLog(normal1, GROUP, PERSISTENCE_NORMAL);
+        persistence.putLog(normal2, GROUP, PERSISTENCE_NORMAL);
+        final Log diskLog = mock(Log.class);
+        when(disk.getLogs(eq(GROUP), anyCollectionOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                ((List<Log>) invocation.getArguments()[3]).add(diskLog);
+                return "diskId";
+            }
+        });
+        when(disk.splitLogs(GROUP, "diskId", 0, 1)).thenReturn("diskPartId");
+        List<Log> logs = new ArrayList<>();
+        String id = persistence.getLogs(GROUP, Collections.<String>emptyList(), 5, logs);
+        assertEquals(3, logs.size());
+        assertNull(persistence.splitLogs(GROUP, "unknown", 0, 1));
+
+        /* Split the disk log and the first memory log from the batch. */
+        String partId = persistence.splitLogs(GROUP, id, 0, 2);
+        assertNotNull(partId);
+        verify(disk).splitLogs(GROUP, "diskId", 0, 1);
+        persistence.deleteLogs(GROUP, partId);
+        verify(disk).deleteLogs(GROUP, "diskPartId");
+        assertEquals(1, persistence.mEntries.get(GROUP).size());
+
+        /* Then a memory only part. */
+        String otherPartId = persistence.splitLogs(GROUP, id, 0, 1);
+        verify(disk, never()).splitLogs(GROUP, "diskId", 0, 0);
+        persistence.deleteLogs(GROUP, otherPartId);
+        assertTrue(persistence.mEntries.isEmpty());
+        persistence.deleteLogs(GROUP, id);
+        verify(disk).deleteLogs(GROUP, "diskId");
+    }
+}
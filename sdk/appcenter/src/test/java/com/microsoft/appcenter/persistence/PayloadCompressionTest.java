@@ -0,0 +1,95 @@
+package com.microsoft.appcenter.persistence;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("unused")
+public class PayloadCompressionTest {
+
+    private static final String EVENT_LOG = "{\"type\":\"event\",\"timestamp\":\"2019-01-09T12:34:56.789Z\"," +
+            "\"sid\":\"0b0e34d7-5d21-4b1e-9a2d-6e1b3b4c9e8f\",\"device\":{\"sdkName\":\"appcenter.android\"," +
+            "\"sdkVersion\":\"1.11.3\",\"model\":\"Pixel 2\",\"oemName\":\"Google\",\"osName\":\"Android\"," +
+            "\"osVersion\":\"9\",\"osBuild\":\"PQ1A.181205.006\",\"osApiLevel\":28,\"locale\":\"en_US\"," +
+            "\"timeZoneOffset\":-480,\"screenSize\":\"1080x1794\",\"appVersion\":\"1.0\",\"carrierName\":\"Android\"," +
+            "\"carrierCountry\":\"us\",\"appBuild\":\"1\",\"appNamespace\":\"com.contoso.app\"}," +
+            "\"id\":\"2b5a8c9e-7c3d-4f1a-8b6e-1d2c3b4a5f6e\",\"name\":\"Clicked\"," +
+            "\"typedProperties\":[{\"type\":\"string\",\"name\":\"button\",\"value\":\"ok\"}]}";
+
+    private static byte[] deflateWithoutDictionary(String payload) throws Exception {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(payload.getBytes("UTF-8"));
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return output.toByteArray();
+    }
+
+    @Test
+    public void init() {
+        new PayloadCompression();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] compressed = PayloadCompression.compress(EVENT_LOG);
+        assertNotNull(compressed);
+        assertEquals(EVENT_LOG, PayloadCompression.decompress(PayloadCompression.DEFLATE_DICTIONARY_V1, compressed));
+
+        /* Dictionary must do better than plain deflate on a single log. */
+        assertTrue(compressed.length < deflateWithoutDictionary(EVENT_LOG).length);
+        assertTrue(compressed.length * 2 < EVENT_LOG.length());
+    }
+
+    @Test
+    public void roundTripNonAscii() throws Exception {
+        String payload = EVENT_LOG.replace("Clicked", "\u00e9v\u00e9nement \u4e2d\u6587");
+        byte[] compressed = PayloadCompression.compress(payload);
+        assertNotNull(compressed);
+        assertEquals(payload, PayloadCompression.decompress(PayloadCompression.DEFLATE_DICTIONARY_V1, compressed));
+    }
+
+    @Test
+    public void incompressiblePayloadNotCompressed() {
+        assertNull(PayloadCompression.compress(""));
+        assertNull(PayloadCompression.compress("{}"));
+        char[] chars = new char[64];
+        Random random = new Random(42);
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('!' + random.nextInt(90));
+        }
+        assertNull(PayloadCompression.compress(new String(chars)));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void unsupportedCompression() throws Exception {
+        byte[] compressed = PayloadCompression.compress(EVENT_LOG);
+        assertNotNull(compressed);
+        PayloadCompression.decompress(42, compressed);
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void truncatedPayload() throws Exception {
+        byte[] compressed = PayloadCompression.compress(EVENT_LOG);
+        assertNotNull(compressed);
+        PayloadCompression.decompress(PayloadCompression.DEFLATE_DICTIONARY_V1, Arrays.copyOf(compressed, compressed.length / 2));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void corruptedPayload() throws Exception {
+        PayloadCompression.decompress(PayloadCompression.DEFLATE_DICTIONARY_V1, new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff});
+    }
+}
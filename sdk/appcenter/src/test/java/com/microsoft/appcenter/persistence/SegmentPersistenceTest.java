@@ -0,0 +1,424 @@
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.Flags.PERSISTENCE_CRITICAL;
+import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@SuppressWarnings({"unused", "TryFinallyCanBeTryWithResources"})
+@PrepareForTest(AppCenterLog.class)
+public class SegmentPersistenceTest {
+
+    private static final String GROUP = "group";
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final Map<String, Log> mLogs = new HashMap<>();
+
+    private final Map<Log, String> mPayloads = new HashMap<>();
+
+    private LogSerializer mLogSerializer;
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(AppCenterLog.class);
+        mLogSerializer = mock(LogSerializer.class);
+        when(mLogSerializer.serializeLog(any(Log.class))).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return mPayloads.get(invocation.getArguments()[0]);
+            }
+        });
+        when(mLogSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) {
+                return mLogs.get(invocation.getArguments()[0]);
+            }
+        });
+    }
+
+    private Log newLog(String payload) {
+        Log log = mock(Log.class);
+        when(log.getType()).thenReturn("mock");
+        mLogs.put(payload, log);
+        mPayloads.put(log, payload);
+        return log;
+    }
+
+    private SegmentPersistence open() {
+        SegmentPersistence persistence = new SegmentPersistence(mock(Context.class), mTemporaryFolder.getRoot());
+        persistence.setLogSerializer(mLogSerializer);
+        return persistence;
+    }
+
+    private File getSegmentFile(long id) {
+        return new File(new File(mTemporaryFolder.getRoot(), GROUP), id + Segment.SEGMENT_FILE_EXTENSION);
+    }
+
+    private File getAckFile(long id) {
+        return new File(new File(mTemporaryFolder.getRoot(), GROUP), id + Segment.ACK_FILE_EXTENSION);
+    }
+
+    private static void append(File file, byte[] bytes) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Test
+    public void putAndGetLogsByPriority() throws Exception {
+        Log normal = newLog("{\"n\":1}");
+        Log critical = newLog("{\"c\":1}");
+        SegmentPersistence persistence = open();
+        try {
+            persistence.putLog(normal, GROUP, PERSISTENCE_NORMAL);
+            persistence.putLog(critical, GROUP, PERSISTENCE_CRITICAL);
+            assertEquals(2, persistence.countLogs(GROUP));
+            assertEquals(0, persistence.countLogs("other"));
+
+            /* Critical log is returned first. */
+            List<Log> logs = new ArrayList<>();
+            String id = persistence.getLogs(GROUP, Collections.<String>emptyList(), 1, logs);
+            assertNotNull(id);
+            assertEquals(Collections.singletonList(critical), logs);
+
+            /* Pending logs are not returned again. */
+            logs.clear();
+            assertNotNull(persistence.getLogs(GROUP, Collections.<String>emptyList(), 2, logs));
+            assertEquals(Collections.singletonList(normal), logs);
+            logs.clear();
+            assertNull(persistence.getLogs(GROUP, Collections.<String>emptyList(), 2, logs));
+
+            /* Unless pending state is cleared. */
+            persistence.clearPendingLogState();
+            assertNotNull(persistence.getLogs(GROUP, Collections.<String>emptyList(), 2, logs));
+            assertEquals(2, logs.size());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void splitLogs() throws Exception {
+        Log log1 = newLog("{\"n\":1}");
+        Log log2 = newLog("{\"n\":2}");
+        Log log3 = newLog("{\"n\":3}");
+        SegmentPersistence persistence = open();
+        try {
+            persistence.putLog(log1, GROUP, PERSISTENCE_NORMAL);
+            persistence.putLog(log2, GROUP, PERSISTENCE_NORMAL);
+            persistence.putLog(log3, GROUP, PERSISTENCE_NORMAL);
+            List<Log> logs = new ArrayList<>();
+            String id = persistence.getLogs(GROUP, Collections.<String>emptyList(), 3, logs);
+            assertNotNull(id);
+            assertNull(persistence.splitLogs(GROUP, "unknown", 0, 1));
+
+            /* Moved logs are deleted separately. */
+            String partId = persistence.splitLogs(GROUP, id, 1, 2);
+            assertNotNull(partId);
+            persistence.deleteLogs(GROUP, partId);
+            assertEquals(2, persistence.countLogs(GROUP));
+            persistence.clearPendingLogState();
+            logs.clear();
+            persistence.getLogs(GROUP, Collections.<String>emptyList(), 3, logs);
+            assertEquals(Arrays.asList(log1, log3), logs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void acknowledgementsSurviveRestart() throws Exception {
+        Log first = newLog("{\"a\":1}");
+        Log second = newLog("{\"a\":2}");
+        SegmentPersistence persistence = open();
+        List<Log> logs = new ArrayList<>();
+        try {
+            persistence.putLog(first, GROUP, PERSISTENCE_NORMAL);
+            persistence.putLog(second, GROUP, PERSISTENCE_NORMAL);
+            String id = persistence.getLogs(GROUP, Collections.<String>emptyList(), 1, logs);
+            assertNotNull(id);
+            persistence.deleteLogs(GROUP, id);
+            assertEquals(1, persistence.countLogs(GROUP));
+        } finally {
+            persistence.close();
+        }
+        assertTrue(getAckFile(0).length() > 0);
+
+        /* Reopen. */
+        persistence = open();
+        try {
+            assertEquals(1, persistence.countLogs(GROUP));
+            logs.clear();
+            String id = persistence.getLogs(GROUP, Collections.<String>emptyList(), 2, logs);
+            assertEquals(Collections.singletonList(second), logs);
+
+            /* Segment is deleted as a whole after last acknowledgement. */
+            persistence.deleteLogs(GROUP, id);
+            assertEquals(0, persistence.countLogs(GROUP));
+            assertFalse(getSegmentFile(0).exists());
+            assertFalse(getAckFile(0).exists());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void rollsSegments() throws Exception {
+        SegmentPersistence persistence = open();
+        try {
+
+            /* Minimum segment size is 4KB with a minimum storage size. */
+            assertTrue(persistence.setMaxStorageSize(64 * 1024));
+            StringBuilder payload = new StringBuilder();
+            for (int i = 0; i < 1024; i++) {
+                payload.append('x');
+            }
+            for (int i = 0; i < 10; i++) {
+                persistence.putLog(newLog(payload.toString() + i), GROUP, PERSISTENCE_NORMAL);
+            }
+            assertEquals(10, persistence.countLogs(GROUP));
+            assertTrue(persistence.mSegments.get(GROUP).size() > 1);
+            assertTrue(getSegmentFile(1).exists());
+
+            /* Acknowledging everything removes all segments. */
+            List<Log> logs = new ArrayList<>();
+            String id = persistence.getLogs(GROUP, Collections.<String>emptyList(), 10, logs);
+            assertEquals(10, logs.size());
+            persistence.deleteLogs(GROUP, id);
+            assertNull(persistence.mSegments.get(GROUP));
+            assertFalse(getSegmentFile(0).exists());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void recoverTornWrite() throws Exception {
+        Log log = newLog("{\"a\":1}");
+        SegmentPersistence persistence = open();
+        try {
+            persistence.putLog(log, GROUP, PERSISTENCE_NORMAL);
+        } finally {
+            persistence.close();
+        }
+        long validLength = getSegmentFile(0).length();
+
+        /* Simulate a crash in the middle of writing a frame header then a body. */
+        append(getSegmentFile(0), new byte[]{0, 0, 0});
+        persistence = open();
+        try {
+            assertEquals(1, persistence.countLogs(GROUP));
+        } finally {
+            persistence.close();
+        }
+        assertEquals(validLength, getSegmentFile(0).length());
+        append(getSegmentFile(0), new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 5});
+        persistence = open();
+        try {
+            assertEquals(1, persistence.countLogs(GROUP));
+
+            /* Appending resumes after the last valid record. */
+            Log newLog = newLog("{\"a\":2}");
+            persistence.putLog(newLog, GROUP, PERSISTENCE_NORMAL);
+        } finally {
+            persistence.close();
+        }
+        persistence = open();
+        try {
+            List<Log> logs = new ArrayList<>();
+            persistence.getLogs(GROUP, Collections.<String>emptyList(), 2, logs);
+            assertEquals(2, logs.size());
+            assertEquals(log, logs.get(0));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void recoverCorruptedRecord() throws Exception {
+        SegmentPersistence persistence = open();
+        try {
+            persistence.putLog(newLog("{\"a\":1}"), GROUP, PERSISTENCE_NORMAL);
+            persistence.putLog(newLog("{\"a\":2}"), GROUP, PERSISTENCE_NORMAL);
+        } finally {
+            persistence.close();
+        }
+
+        /* Flip last byte of the last record body. */
+        File segmentFile = getSegmentFile(0);
+        RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+        try {
+            file.seek(file.length() - 1);
+            int value = file.read();
+            file.seek(file.length() - 1);
+            file.write(value ^ 0xFF);
+        } finally {
+            file.close();
+        }
+
+        /* Checksum mismatch drops the record. */
+        persistence = open();
+        try {
+            assertEquals(1, persistence.countLogs(GROUP));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void recoverPartialAcknowledgement() throws Exception {
+        SegmentPersistence persistence = open();
+        try {
+            persistence.putLog(newLog("{\"a\":1}"), GROUP, PERSISTENCE_NORMAL);
+            persistence.putLog(newLog("{\"a\":2}"), GROUP, PERSISTENCE_NORMAL);
+        } finally {
+            persistence.close();
+        }
+        append(getAckFile(0), new byte[]{0, 0});
+        persistence = open();
+        try {
+            assertEquals(2, persistence.countLogs(GROUP));
+        } finally {
+            persistence.close();
+        }
+        assertEquals(0, getAckFile(0).length());
+    }
+
+    @Test
+    public void evictLowestPriorityWhenFull() throws Exception {
+        SegmentPersistence persistence = open();
+        try {
+            StringBuilder payload = new StringBuilder();
+            for (int i = 0; i < 1024; i++) {
+                payload.append('x');
+            }
+            assertTrue(persistence.setMaxStorageSize(8 * 1024));
+            Log critical = newLog(payload.toString() + "c");
+            persistence.putLog(critical, GROUP, PERSISTENCE_CRITICAL);
+            for (int i = 0; i < 20; i++) {
+                persistence.putLog(newLog(payload.toString() + i), GROUP, PERSISTENCE_NORMAL);
+            }
+            assertTrue(persistence.countLogs(GROUP) < 21);
+            List<Log> logs = new ArrayList<>();
+            persistence.getLogs(GROUP, Collections.<String>emptyList(), 1, logs);
+            assertEquals(critical, logs.get(0));
+
+            /* Cannot shrink below current size. */
+            assertFalse(persistence.setMaxStorageSize(1024));
+
+            /* Too large. */
+            StringBuilder largePayload = new StringBuilder();
+            for (int i = 0; i < 9 * 1024; i++) {
+                largePayload.append('x');
+            }
+            try {
+                persistence.putLog(newLog(largePayload.toString()), GROUP, PERSISTENCE_NORMAL);
+                fail();
+            } catch (Persistence.PersistenceException ignored) {
+            }
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void evictOldestLogAcrossGroups() throws Exception {
+        SegmentPersistence persistence = open();
+        try {
+            StringBuilder payload = new StringBuilder();
+            for (int i = 0; i < 1024; i++) {
+                payload.append('x');
+            }
+            assertTrue(persistence.setMaxStorageSize(8 * 1024));
+            persistence.putLog(newLog(payload.toString() + "other"), "other", PERSISTENCE_NORMAL);
+            Log pending = newLog(payload.toString() + "pending");
+            persistence.putLog(pending, GROUP, PERSISTENCE_NORMAL);
+            List<Log> logs = new ArrayList<>();
+            persistence.getLogs(GROUP, Collections.<String>emptyList(), 1, logs);
+            assertEquals(pending, logs.get(0));
+
+            /* The oldest log is deleted first even if in another group. */
+            int count = 0;
+            while (persistence.countLogs("other") > 0) {
+                persistence.putLog(newLog(payload.toString() + count++), GROUP, PERSISTENCE_NORMAL);
+            }
+            assertEquals(count + 1, persistence.countLogs(GROUP));
+
+            /* Then the oldest log that is not pending. */
+            for (int i = 0; i < 20; i++) {
+                persistence.putLog(newLog(payload.toString() + count++), GROUP, PERSISTENCE_NORMAL);
+            }
+            persistence.clearPendingLogState();
+            logs.clear();
+            persistence.getLogs(GROUP, Collections.<String>emptyList(), 2, logs);
+            assertEquals(pending, logs.get(0));
+            assertNotEquals(mLogs.get(payload.toString() + "0"), logs.get(1));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void deleteAllLogsOfGroup() throws Exception {
+        SegmentPersistence persistence = open();
+        try {
+            persistence.putLog(newLog("{\"a\":1}"), GROUP, PERSISTENCE_NORMAL);
+            persistence.putLog(newLog("{\"b\":1}"), "other", PERSISTENCE_NORMAL);
+            persistence.getLogs(GROUP, Collections.<String>emptyList(), 1, new ArrayList<Log>());
+            persistence.deleteLogs(GROUP);
+            assertEquals(0, persistence.countLogs(GROUP));
+            assertEquals(1, persistence.countLogs("other"));
+            assertTrue(persistence.mPendingRecords.isEmpty());
+            assertTrue(persistence.mPendingRecordGroups.isEmpty());
+            assertFalse(new File(mTemporaryFolder.getRoot(), GROUP).exists());
+        } finally {
+            persistence.close();
+        }
+    }
+}
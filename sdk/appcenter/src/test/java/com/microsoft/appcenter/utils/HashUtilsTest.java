@@ -31,6 +31,25 @@ public class HashUtilsTest {
         assertEquals("7efd873c874fbf92d6c3eccc2f24f7eaa349d9d7b512d81ff3f1b44e896362fb", HashUtils.sha256("This hash function rocks!"));
     }
 
+    @Test
+    public void messageDigest() throws Exception {
+        MessageDigest digest = HashUtils.getMessageDigest("SHA-256");
+        digest.update("This hash ".getBytes("UTF-8"));
+        digest.update("function rocks!".getBytes("UTF-8"));
+        assertEquals(HashUtils.sha256("This hash function rocks!"), HashUtils.encodeHex(digest.digest()));
+        assertEquals("00ff10", HashUtils.encodeHex(new byte[]{0, -1, 16}));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void messageDigestNotFound() {
+        try {
+            HashUtils.getMessageDigest("Some Invalid Algorithm");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof NoSuchAlgorithmException);
+            throw e;
+        }
+    }
+
     @Test(expected = RuntimeException.class)
     @PrepareForTest(HashUtils.class)
     public void algorithmNotFound() throws NoSuchAlgorithmException {
@@ -54,6 +54,15 @@ public class NetworkStateHelperTestFromLollipop extends AbstractNetworkStateHelp
         assertFalse(new NetworkStateHelper(mContext).isNetworkConnected());
     }
 
+    @Test
+    public void networkMetered() {
+        NetworkStateHelper helper = new NetworkStateHelper(mContext);
+        when(mConnectivityManager.isActiveNetworkMetered()).thenReturn(true).thenReturn(false).thenThrow(new SecurityException());
+        assertTrue(helper.isNetworkMetered());
+        assertFalse(helper.isNetworkMetered());
+        assertFalse(helper.isNetworkMetered());
+    }
+
     @Test
     @SuppressWarnings("deprecation")
     public void listenNetwork() {